@@ -0,0 +1,108 @@
+package com.fathzer.jdbbackup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fathzer.jdbbackup.sources.DumpGenerator;
+
+/** Measures a complete {@link JDbBackup#backup(String, String...)} call.
+ * <br>The data source is generated in the JVM (no external process) and the destinations discard the backup,
+ * so the results only depend on the library.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BackupBenchmark {
+	@Param({"1048576", "33554432"})
+	private long size;
+	@Param({"1", "3"})
+	private int destinations;
+	@Param({"false", "true"})
+	private boolean streaming;
+
+	private JDbBackup backup;
+	private String source;
+	private String[] destinationAddresses;
+
+	/** A source that generates a fake dump of the size in its address (for instance fake://1024). */
+	private static class FakeSource implements StreamingSourceManager {
+		@Override
+		public String getScheme() {
+			return "fake";
+		}
+
+		@Override
+		public void save(String source, File destFile) throws IOException {
+			try (OutputStream out = new FileOutputStream(destFile)) {
+				save(source, out);
+			}
+		}
+
+		@Override
+		public void save(String source, OutputStream out) throws IOException {
+			final long size = Long.parseLong(source.substring(getScheme().length()+3));
+			try (InputStream in = new DumpGenerator(size); OutputStream compressed = new GZIPOutputStream(out, 64*1024)) {
+				in.transferTo(compressed);
+			}
+		}
+	}
+
+	/** A destination that reads and discards the backup. */
+	private static class NullDestination implements DestinationManager<String> {
+		@Override
+		public String getScheme() {
+			return "null";
+		}
+
+		@Override
+		public String validate(String path, Function<String, CharSequence> extensionBuilder) {
+			return path;
+		}
+
+		@Override
+		public void send(InputStream in, long size, String destination) throws IOException {
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+	}
+
+	@Setup
+	public void setup() {
+		backup = new JDbBackup();
+		final FakeSource fakeSource = new FakeSource();
+		backup.addSourceManager(fakeSource);
+		final NullDestination destination = new NullDestination();
+		backup.addDestinationManager(destination);
+		backup.setStreaming(streaming);
+		source = "fake://"+size;
+		destinationAddresses = new String[destinations];
+		for (int i = 0; i < destinations; i++) {
+			destinationAddresses[i] = "null://"+i;
+		}
+	}
+
+	@Benchmark
+	public BackupResult backup() throws IOException {
+		return backup.backup(source, destinationAddresses);
+	}
+}
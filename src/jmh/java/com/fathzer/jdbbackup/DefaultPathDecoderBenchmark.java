@@ -0,0 +1,53 @@
+package com.fathzer.jdbbackup;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fathzer.jdbbackup.utils.BasicExtensionBuilder;
+
+/** Measures the decoding of destination paths with mixed date, environment variable and system property patterns.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DefaultPathDecoderBenchmark {
+	private static final String PROPERTY = "jdbbackup.benchmark.dir";
+
+	@Param({"plain", "date", "mixed"})
+	private String kind;
+
+	private String path;
+
+	@Setup
+	public void setup() {
+		System.setProperty(PROPERTY, "backups");
+		// Use an environment variable that exists on every OS
+		final String env = System.getenv().keySet().stream().sorted().findFirst().orElseThrow(() -> new IllegalStateException("No environment variable"));
+		if ("plain".equals(kind)) {
+			path = "backups/mycompany/db/mydb";
+		} else if ("date".equals(kind)) {
+			path = "backups/mydb-{d=yyyy-MM-dd}/{d=HH}h{d=mm}";
+		} else {
+			path = "{p="+PROPERTY+"}/{e="+env+"}/mydb/{d=yyyy}/{d=MM}/mydb-{d=yyyy-MM-dd-HHmmss}";
+		}
+	}
+
+	@Benchmark
+	public String decodePath() {
+		return DefaultPathDecoder.INSTANCE.decodePath(path, BasicExtensionBuilder.INSTANCE);
+	}
+}
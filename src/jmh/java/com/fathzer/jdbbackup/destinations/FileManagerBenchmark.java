@@ -0,0 +1,85 @@
+package com.fathzer.jdbbackup.destinations;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fathzer.jdbbackup.utils.FileChannelInputStream;
+
+/** Measures {@link FileManager#send(InputStream, long, Path)} with a stream (copy) and with a staged file (zero copy transfer).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FileManagerBenchmark {
+	@Param({"1048576", "67108864"})
+	private int size;
+	@Param({"NONE", "FILE"})
+	private FsyncPolicy fsync;
+
+	private Path dir;
+	private byte[] content;
+	private Path staged;
+	private Path dest;
+	private FileManager manager;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("jdbbackup-bench");
+		// Random content, like a compressed backup
+		content = new byte[size];
+		new Random(0).nextBytes(content);
+		staged = Files.write(dir.resolve("staged"), content);
+		dest = dir.resolve("backup.gz");
+		manager = new FileManager();
+		manager.setFsyncPolicy(fsync);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			for (Path file : (Iterable<Path>)files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	@Benchmark
+	public Path sendStream() throws IOException {
+		manager.send(new ByteArrayInputStream(content), size, dest);
+		return dest;
+	}
+
+	@Benchmark
+	public Path sendStagedFile() throws IOException {
+		// A new channel for each send, otherwise the manager would link the destination to the previous copy
+		try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.READ)) {
+			manager.send(new FileChannelInputStream(channel, 0, size), size, dest);
+		}
+		return dest;
+	}
+}
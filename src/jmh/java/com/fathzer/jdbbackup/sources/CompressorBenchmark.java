@@ -0,0 +1,46 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the throughput of the {@link Compressor} pipeline (read, compress, write) with dumps of several sizes.
+ * <br>The compressed data is discarded, so the destination disk does not bias the results.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CompressorBenchmark {
+	@Param({"65536", "4194304", "67108864"})
+	private long size;
+	@Param({"1", "4"})
+	private int workers;
+	@Param({"true", "false"})
+	private boolean direct;
+
+	@Benchmark
+	public long compress() throws IOException {
+		final Compressor compressor = new Compressor(OutputStream.nullOutputStream(), new ProcessContext(new FakeProcess(new DumpGenerator(size))));
+		compressor.setBuffers(SourceManagerFromProcess.DEFAULT_BUFFER_SIZE, SourceManagerFromProcess.DEFAULT_BUFFER_COUNT, direct);
+		compressor.setParallel(workers, SourceManagerFromProcess.DEFAULT_BLOCK_SIZE);
+		compressor.run();
+		if (compressor.getError()!=null) {
+			throw compressor.getError();
+		}
+		return compressor.getCompressedSize();
+	}
+}
@@ -0,0 +1,40 @@
+package com.fathzer.jdbbackup.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fathzer.jdbbackup.DefaultPathDecoder;
+
+/** Measures the tokenization of addresses by {@link StringSplitter}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StringSplitterBenchmark {
+	@Param({"dbuser:pwd@db.mycompany.com:3306/mydb",
+		"{f=/home/user/.secrets/db login.txt}@db.mycompany.com:3306/mydb?zip=9&workers=4",
+		"a/b/c/d/e/f/g/h/i/j/k/l/m/n/o/p/{d=yyyy/MM/dd}/{e=HOME}/q/r/s/t/u/v/w/x/y/z"})
+	private String input;
+
+	@Benchmark
+	public void split(Blackhole hole) {
+		final StringSplitter splitter = new DefaultPathDecoder.StringSplitter(input, '/');
+		while (splitter.hasNext()) {
+			hole.consume(splitter.next());
+		}
+	}
+}
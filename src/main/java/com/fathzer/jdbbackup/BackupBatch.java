@@ -0,0 +1,415 @@
+package com.fathzer.jdbbackup;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.stream.Collectors;
+
+import com.fathzer.jdbbackup.utils.Threads;
+
+/** A batch of backups.
+ * <br>The backups (called jobs) are run concurrently by a bounded number of threads (see {@link #setThreads(int)}). In addition:
+ * <ul>
+ * <li>The number of data sources of the same database host saved at the same time is limited (see {@link #setDumpsPerHost(int)}).</li>
+ * <li>Saving a data source is CPU intensive (the backup is compressed while it is saved), the total number of data sources saved at the same time
+ * is limited (see {@link #setCompressionSlots(int)}).</li>
+ * <li>The total number of sends to destinations running at the same time is limited (see {@link #setUploadSlots(int)}).
+ * Please note that in {@link JDbBackup#setStreaming(boolean) streaming mode}, sends run while the data source is saved,
+ * so they are only limited by the two previous limits.</li>
+ * </ul>
+ * <br>Jobs are scheduled in a round robin way between database hosts, in the order they were added for a host. Slots are granted in the order they were requested.
+ * So, a host with a lot of jobs or a huge data source does not starve the others.
+ * <br>A failed job does not stop the batch. The outcome of every job is reported by a {@link JobReport}.
+ */
+public class BackupBatch {
+	/** The default number of threads. */
+	public static final int DEFAULT_THREADS = 4;
+	/** The default number of sends to destinations running at the same time. */
+	public static final int DEFAULT_UPLOAD_SLOTS = 8;
+
+	/** The scheme of the source whose addresses wrap a JDBC URL (see {@link com.fathzer.jdbbackup.sources.JdbcDumper}). */
+	private static final String JDBC_SCHEME = "jdbc";
+	private final JDbBackup backup;
+	private final List<Job> jobs = new ArrayList<>();
+	private int threads = DEFAULT_THREADS;
+	private int dumpsPerHost = 1;
+	private int compressionSlots = Runtime.getRuntime().availableProcessors();
+	private int uploadSlots = DEFAULT_UPLOAD_SLOTS;
+	private ThreadFactory threadFactory = Threads.newFactory("jdbbackup-batch-");
+
+	/** The report of a job.
+	 */
+	public static final class JobReport {
+		private final String source;
+		private final List<String> destinations;
+		private final BackupResult result;
+		private final Exception error;
+		private final Duration waitTime;
+		private final Duration duration;
+
+		private JobReport(Job job, BackupResult result, Exception error, Duration waitTime, Duration duration) {
+			this.source = job.source;
+			this.destinations = Collections.unmodifiableList(Arrays.asList(job.destinations));
+			this.result = result;
+			this.error = error;
+			this.waitTime = waitTime;
+			this.duration = duration;
+		}
+
+		/** Gets the address of the backed up data source.
+		 * @return a String
+		 */
+		public String getSource() {
+			return source;
+		}
+
+		/** Gets the addresses of the destinations.
+		 * @return an unmodifiable list
+		 */
+		public List<String> getDestinations() {
+			return destinations;
+		}
+
+		/** Gets the result of the backup.
+		 * @return a result, or null if the data source could not be saved (see {@link #getError()})
+		 */
+		public BackupResult getResult() {
+			return result;
+		}
+
+		/** Gets the error of the job.
+		 * @return an exception ({@link BackupException} if the backup was not sent to some destinations) or null if the job succeeded
+		 */
+		public Exception getError() {
+			return error;
+		}
+
+		/** Tests whether the job succeeded.
+		 * @return true if the backup was sent to all its destinations
+		 */
+		public boolean isSuccessful() {
+			return error==null;
+		}
+
+		/** Gets the time the job waited before being started.
+		 * <br>Jobs are queued when the batch is run, so this is the time between the start of {@link BackupBatch#run()} and the start of the job.
+		 * @return a duration
+		 */
+		public Duration getWaitTime() {
+			return waitTime;
+		}
+
+		/** Gets the time spent to run the job.
+		 * @return a duration
+		 */
+		public Duration getDuration() {
+			return duration;
+		}
+
+		@Override
+		public String toString() {
+			return source+": "+(error==null ? "ok" : error.toString())+" ("+duration.toMillis()+"ms)";
+		}
+	}
+
+	/** Constructor.
+	 * @param backup The instance that makes the backups
+	 * @throws IllegalArgumentException if backup is null
+	 */
+	public BackupBatch(JDbBackup backup) {
+		if (backup==null) {
+			throw new IllegalArgumentException();
+		}
+		this.backup = backup;
+	}
+
+	/** Sets the maximum number of jobs running at the same time.
+	 * @param threads a strictly positive int (default is {@value #DEFAULT_THREADS})
+	 * @throws IllegalArgumentException if threads is not strictly positive
+	 */
+	public void setThreads(int threads) {
+		this.threads = checkPositive(threads, "Threads");
+	}
+
+	/** Sets the maximum number of data sources of the same database host that are saved at the same time.
+	 * @param dumpsPerHost a strictly positive int (default is 1)
+	 * @throws IllegalArgumentException if dumpsPerHost is not strictly positive
+	 */
+	public void setDumpsPerHost(int dumpsPerHost) {
+		this.dumpsPerHost = checkPositive(dumpsPerHost, "Dumps per host");
+	}
+
+	/** Sets the maximum number of data sources that are saved (and compressed) at the same time.
+	 * @param compressionSlots a strictly positive int (default is the number of available processors)
+	 * @throws IllegalArgumentException if compressionSlots is not strictly positive
+	 */
+	public void setCompressionSlots(int compressionSlots) {
+		this.compressionSlots = checkPositive(compressionSlots, "Compression slots");
+	}
+
+	/** Sets the maximum number of sends to destinations that run at the same time.
+	 * @param uploadSlots a strictly positive int (default is {@value #DEFAULT_UPLOAD_SLOTS})
+	 * @throws IllegalArgumentException if uploadSlots is not strictly positive
+	 */
+	public void setUploadSlots(int uploadSlots) {
+		this.uploadSlots = checkPositive(uploadSlots, "Upload slots");
+	}
+
+	/** Sets the factory of the threads that run the jobs.
+	 * @param threadFactory A thread factory (default creates virtual threads on Java 21+, see {@link Threads})
+	 * @throws IllegalArgumentException if threadFactory is null
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		if (threadFactory==null) {
+			throw new IllegalArgumentException();
+		}
+		this.threadFactory = threadFactory;
+	}
+
+	private static int checkPositive(int value, String name) {
+		if (value<=0) {
+			throw new IllegalArgumentException(name+" should be strictly positive");
+		}
+		return value;
+	}
+
+	/** Adds a job to this batch.
+	 * @param source The address of the data base source (its format depends on the data base type)
+	 * @param destinations The addresses of the backup destinations (their format depends on the data base type)
+	 * @throws IllegalArgumentException if source is null or if there's no destination
+	 * @see JDbBackup#backup(String, String...)
+	 */
+	public void add(String source, String... destinations) {
+		if (source==null || destinations==null || destinations.length==0) {
+			throw new IllegalArgumentException();
+		}
+		jobs.add(new Job(source, destinations.clone()));
+	}
+
+	/** Runs all the jobs of this batch.
+	 * <br>This method returns when all the jobs are completed.
+	 * @return The reports of the jobs, in the order they were added.
+	 * @throws InterruptedIOException if the thread is interrupted while waiting for the jobs. Running jobs are interrupted.
+	 */
+	public List<JobReport> run() throws InterruptedIOException {
+		final Scheduler scheduler = new Scheduler();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
+		try {
+			for (Job job = scheduler.next(); job!=null; job = scheduler.next()) {
+				final Job started = job;
+				executor.execute(() -> started.run(scheduler));
+			}
+			scheduler.awaitTermination();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			executor.shutdownNow();
+		}
+		return jobs.stream().map(j -> j.report).collect(Collectors.toList());
+	}
+
+	/** Gets the database host of a source.
+	 * <br>The query of the address is ignored. The addresses of the <i>jdbc</i> source wrap a JDBC URL (for instance <i>jdbc://mysql://host/db</i>),
+	 * its host is the host of the wrapped URL.
+	 * @param source A source address
+	 * @return The host (and port) of the source, or its scheme if the source has no host
+	 */
+	static String getHost(String source) {
+		final int index = source.indexOf("://");
+		if (index<0) {
+			return source;
+		}
+		final String scheme = source.substring(0, index);
+		String rest = source.substring(index+3);
+		final int query = rest.indexOf('?');
+		if (query>=0) {
+			rest = rest.substring(0, query);
+		}
+		if (JDBC_SCHEME.equals(scheme)) {
+			return rest.contains("://") ? getHost(rest) : scheme;
+		}
+		// User info may contain any character (passwords, path templates), so the authority is not parsed by URI
+		final int start = rest.lastIndexOf('@')+1;
+		int end = start;
+		while (end<rest.length() && rest.charAt(end)!='/' && rest.charAt(end)!=';') {
+			end++;
+		}
+		final String authority = rest.substring(start, end);
+		if (authority.isEmpty()) {
+			return scheme;
+		}
+		try {
+			final URI uri = new URI(null, authority, null, null, null);
+			if (uri.getHost()!=null) {
+				final String host = uri.getHost().toLowerCase(Locale.ROOT);
+				return uri.getPort()<0 ? host : host+":"+uri.getPort();
+			}
+		} catch (URISyntaxException e) {
+			// Not a server based authority
+		}
+		return authority.toLowerCase(Locale.ROOT);
+	}
+
+	private class Job {
+		private final String source;
+		private final String[] destinations;
+		private final String host;
+		private long queued;
+		private JobReport report;
+
+		private Job(String source, String[] destinations) {
+			this.source = source;
+			this.destinations = destinations;
+			this.host = getHost(source);
+		}
+
+		private void run(Scheduler scheduler) {
+			final long start = System.nanoTime();
+			final Scheduler.JobLimits limits = scheduler.new JobLimits(host);
+			BackupResult result = null;
+			Exception error = null;
+			try {
+				result = backup.backup(source, destinations, limits);
+			} catch (BackupException e) {
+				result = e.getResult();
+				error = e;
+			} catch (IOException | RuntimeException e) {
+				error = e;
+			} finally {
+				// The job may have failed before its source was saved
+				limits.releaseHost();
+			}
+			final long end = System.nanoTime();
+			report = new JobReport(this, result, error, Duration.ofNanos(start-queued), Duration.ofNanos(end-start));
+			scheduler.done();
+		}
+	}
+
+	private class Scheduler {
+		/** The pending jobs per host. The order of the hosts is the round robin order. */
+		private final Map<String, Deque<Job>> pending = new LinkedHashMap<>();
+		private final Map<String, Integer> activeDumps = new HashMap<>();
+		private final Semaphore compression = new Semaphore(compressionSlots, true);
+		private final Semaphore uploads = new Semaphore(uploadSlots, true);
+		private int running;
+
+		private Scheduler() {
+			final long now = System.nanoTime();
+			for (Job job : jobs) {
+				job.report = null;
+				job.queued = now;
+				pending.computeIfAbsent(job.host, k -> new ArrayDeque<>()).add(job);
+			}
+		}
+
+		/** Waits for the next job that can be started.
+		 * @return a job or null if all the jobs are started
+		 */
+		private synchronized Job next() throws InterruptedException {
+			while (!pending.isEmpty()) {
+				if (running<threads) {
+					final Iterator<Map.Entry<String, Deque<Job>>> iter = pending.entrySet().iterator();
+					while (iter.hasNext()) {
+						final Map.Entry<String, Deque<Job>> entry = iter.next();
+						if (activeDumps.getOrDefault(entry.getKey(), 0)<dumpsPerHost) {
+							final Job job = entry.getValue().poll();
+							// Move the host at the end of the round
+							iter.remove();
+							if (!entry.getValue().isEmpty()) {
+								pending.put(entry.getKey(), entry.getValue());
+							}
+							activeDumps.merge(job.host, 1, Integer::sum);
+							running++;
+							return job;
+						}
+					}
+				}
+				wait();
+			}
+			return null;
+		}
+
+		private synchronized void releaseHost(String host) {
+			activeDumps.merge(host, -1, Integer::sum);
+			notifyAll();
+		}
+
+		private synchronized void done() {
+			running--;
+			notifyAll();
+		}
+
+		private synchronized void awaitTermination() throws InterruptedException {
+			while (running>0) {
+				wait();
+			}
+		}
+
+		/** The limits of a job.
+		 * <br>The host slot is acquired by the scheduler when the job is started.
+		 */
+		private class JobLimits implements BackupLimits {
+			private final String host;
+			private boolean hostReleased;
+
+			private JobLimits(String host) {
+				this.host = host;
+			}
+
+			@Override
+			public void acquireDump() throws InterruptedIOException {
+				acquire(compression);
+			}
+
+			@Override
+			public void releaseDump() {
+				compression.release();
+				releaseHost();
+			}
+
+			@Override
+			public void acquireUpload() throws InterruptedIOException {
+				acquire(uploads);
+			}
+
+			@Override
+			public void releaseUpload() {
+				uploads.release();
+			}
+
+			private void releaseHost() {
+				if (!hostReleased) {
+					hostReleased = true;
+					Scheduler.this.releaseHost(host);
+				}
+			}
+		}
+	}
+
+	private static void acquire(Semaphore semaphore) throws InterruptedIOException {
+		try {
+			semaphore.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
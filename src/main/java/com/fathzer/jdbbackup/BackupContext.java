@@ -0,0 +1,207 @@
+package com.fathzer.jdbbackup;
+
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fathzer.jdbbackup.utils.Digester;
+import com.fathzer.jdbbackup.utils.RateLimiter;
+
+/** The settings of a backup.
+ * <br>Instances of this class are immutable, the <i>with</i> methods return a modified copy. So, a context can be shared between threads, and
+ * concurrent backups made by the same {@link JDbBackup} can use different contexts (see {@link JDbBackup#backup(BackupContext, String, String...)}).
+ * <br>Example: <code>BackupContext.DEFAULT.withProxy(proxy, null).withStreaming(true)</code>
+ */
+public final class BackupContext {
+	/** The default context: no proxy, no streaming, {@value Digester#CRC32C} digests, {@value JDbBackup#DEFAULT_CONCURRENT_UPLOADS} concurrent uploads,
+	 * no chunked sends, no retry and no upload rate limit. */
+	public static final BackupContext DEFAULT = new BackupContext(Proxy.NO_PROXY, null, false, Digester.CRC32C, JDbBackup.DEFAULT_CONCURRENT_UPLOADS, 0, RetryPolicy.NONE, Collections.emptyMap(), null);
+
+	private final Proxy proxy;
+	private final PasswordAuthentication auth;
+	private final boolean streaming;
+	private final String digestAlgorithm;
+	private final int concurrentUploads;
+	private final long chunkSize;
+	private final RetryPolicy retryPolicy;
+	private final Map<String, RetryPolicy> retryPolicies;
+	private final RateLimiter uploadRateLimiter;
+
+	private BackupContext(Proxy proxy, PasswordAuthentication auth, boolean streaming, String digestAlgorithm, int concurrentUploads, long chunkSize, RetryPolicy retryPolicy,
+			Map<String, RetryPolicy> retryPolicies, RateLimiter uploadRateLimiter) {
+		this.proxy = proxy;
+		this.auth = auth;
+		this.streaming = streaming;
+		this.digestAlgorithm = digestAlgorithm;
+		this.concurrentUploads = concurrentUploads;
+		this.chunkSize = chunkSize;
+		this.retryPolicy = retryPolicy;
+		this.retryPolicies = retryPolicies;
+		this.uploadRateLimiter = uploadRateLimiter;
+	}
+
+	/** Gets the proxy.
+	 * @return a proxy, {@link Proxy#NO_PROXY} if no proxy is used
+	 */
+	public Proxy getProxy() {
+		return proxy;
+	}
+
+	/** Gets the proxy authentication.
+	 * @return a login or null if the proxy does not require authentication
+	 */
+	public PasswordAuthentication getProxyAuthentication() {
+		return auth;
+	}
+
+	/** Returns a copy of this context with another proxy.
+	 * @param proxy The proxy to use to connect to sources and destinations ({@link Proxy#NO_PROXY} for disabling proxy).
+	 * @param auth The proxy authentication (null if the proxy does not require authentication).
+	 * @return a new context
+	 * @throws IllegalArgumentException if proxy is null or if auth is not null and proxy is {@link Proxy#NO_PROXY}.
+	 * @see ProxyCompliant#setProxy(Proxy, PasswordAuthentication)
+	 */
+	public BackupContext withProxy(Proxy proxy, PasswordAuthentication auth) {
+		// Test parameters are ok
+		new ProxyCompliant(){}.setProxy(proxy, auth);
+		return new BackupContext(proxy, auth, streaming, digestAlgorithm, concurrentUploads, chunkSize, retryPolicy, retryPolicies, uploadRateLimiter);
+	}
+
+	/** Tests whether the streaming mode is enabled.
+	 * @return true if the streaming mode is enabled
+	 * @see JDbBackup#setStreaming(boolean)
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/** Returns a copy of this context with another streaming mode.
+	 * @param streaming true to enable streaming mode (see {@link JDbBackup#setStreaming(boolean)})
+	 * @return a new context
+	 */
+	public BackupContext withStreaming(boolean streaming) {
+		return new BackupContext(proxy, auth, streaming, digestAlgorithm, concurrentUploads, chunkSize, retryPolicy, retryPolicies, uploadRateLimiter);
+	}
+
+	/** Gets the algorithm used to compute the digests of the backups.
+	 * @return an algorithm name
+	 */
+	public String getDigestAlgorithm() {
+		return digestAlgorithm;
+	}
+
+	/** Returns a copy of this context with another digest algorithm.
+	 * @param algorithm An algorithm name (see {@link JDbBackup#setDigestAlgorithm(String)})
+	 * @return a new context
+	 * @throws IllegalArgumentException if the algorithm is not supported
+	 */
+	public BackupContext withDigestAlgorithm(String algorithm) {
+		Digester.get(algorithm);
+		return new BackupContext(proxy, auth, streaming, algorithm, concurrentUploads, chunkSize, retryPolicy, retryPolicies, uploadRateLimiter);
+	}
+
+	/** Gets the maximum number of destinations the backup is sent to at the same time.
+	 * @return a strictly positive int
+	 */
+	public int getConcurrentUploads() {
+		return concurrentUploads;
+	}
+
+	/** Returns a copy of this context with another maximum number of concurrent uploads.
+	 * @param concurrentUploads a strictly positive int (see {@link JDbBackup#setConcurrentUploads(int)})
+	 * @return a new context
+	 * @throws IllegalArgumentException if concurrentUploads is not strictly positive
+	 */
+	public BackupContext withConcurrentUploads(int concurrentUploads) {
+		if (concurrentUploads<=0) {
+			throw new IllegalArgumentException("Concurrent uploads should be strictly positive");
+		}
+		return new BackupContext(proxy, auth, streaming, digestAlgorithm, concurrentUploads, chunkSize, retryPolicy, retryPolicies, uploadRateLimiter);
+	}
+
+	/** Gets the size of the parts sent to the {@link ChunkedDestinationManager}s.
+	 * @return a number of bytes, 0 if chunked sends are disabled
+	 */
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/** Returns a copy of this context with another chunk size.
+	 * @param chunkSize The maximum size of the parts, 0 to disable chunked sends (see {@link JDbBackup#setChunkSize(long)})
+	 * @return a new context
+	 * @throws IllegalArgumentException if chunkSize is negative
+	 */
+	public BackupContext withChunkSize(long chunkSize) {
+		if (chunkSize<0) {
+			throw new IllegalArgumentException("Chunk size should be positive");
+		}
+		return new BackupContext(proxy, auth, streaming, digestAlgorithm, concurrentUploads, chunkSize, retryPolicy, retryPolicies, uploadRateLimiter);
+	}
+
+	/** Gets the default policy used to retry sending the backup to a destination after a failure.
+	 * @return a retry policy
+	 * @see #getRetryPolicy(String)
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/** Returns a copy of this context with another default retry policy.
+	 * @param retryPolicy The policy (see {@link JDbBackup#setRetryPolicy(RetryPolicy)})
+	 * @return a new context
+	 * @throws IllegalArgumentException if retryPolicy is null
+	 */
+	public BackupContext withRetryPolicy(RetryPolicy retryPolicy) {
+		if (retryPolicy==null) {
+			throw new IllegalArgumentException();
+		}
+		return new BackupContext(proxy, auth, streaming, digestAlgorithm, concurrentUploads, chunkSize, retryPolicy, retryPolicies, uploadRateLimiter);
+	}
+
+	/** Gets the policy used to retry sending the backup to the destinations of a scheme.
+	 * @param scheme The scheme of the destinations (for example <i>file</i>)
+	 * @return the policy of the scheme or the {@link #getRetryPolicy() default policy} if the scheme has no specific policy
+	 */
+	public RetryPolicy getRetryPolicy(String scheme) {
+		return retryPolicies.getOrDefault(scheme, retryPolicy);
+	}
+
+	/** Returns a copy of this context with another retry policy for the destinations of a scheme.
+	 * @param scheme The scheme of the destinations (for example <i>file</i>)
+	 * @param retryPolicy The policy or null to use the {@link #getRetryPolicy() default policy}
+	 * @return a new context
+	 * @throws IllegalArgumentException if scheme is null
+	 */
+	public BackupContext withRetryPolicy(String scheme, RetryPolicy retryPolicy) {
+		if (scheme==null) {
+			throw new IllegalArgumentException();
+		}
+		final Map<String, RetryPolicy> policies = new HashMap<>(this.retryPolicies);
+		if (retryPolicy==null) {
+			policies.remove(scheme);
+		} else {
+			policies.put(scheme, retryPolicy);
+		}
+		return new BackupContext(proxy, auth, streaming, digestAlgorithm, concurrentUploads, chunkSize, this.retryPolicy, Collections.unmodifiableMap(policies), uploadRateLimiter);
+	}
+
+	/** Gets the limiter of the uploads.
+	 * @return a limiter or null if uploads are not limited
+	 */
+	public RateLimiter getUploadRateLimiter() {
+		return uploadRateLimiter;
+	}
+
+	/** Returns a copy of this context with another upload limiter.
+	 * <br>The limiter is shared by all the uploads of all the backups that use it. To limit each backup separately, use a context with its own
+	 * limiter for each backup (this limiter can have a global limiter as parent).
+	 * <br>Please note that limited uploads to local files can't use the zero copy optimizations of {@link com.fathzer.jdbbackup.destinations.FileManager}.
+	 * @param limiter The limiter (null to not limit the uploads)
+	 * @return a new context
+	 */
+	public BackupContext withUploadRateLimiter(RateLimiter limiter) {
+		return new BackupContext(proxy, auth, streaming, digestAlgorithm, concurrentUploads, chunkSize, retryPolicy, retryPolicies, limiter);
+	}
+}
@@ -0,0 +1,40 @@
+package com.fathzer.jdbbackup;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.fathzer.jdbbackup.BackupResult.DestinationResult;
+
+/** An exception thrown when a backup was not sent to some of its destinations.
+ * <br>Its cause is the error of the first destination that failed, the errors of the other failed destinations are suppressed exceptions.
+ * The detailed result is available through {@link #getResult()}.
+ */
+public class BackupException extends IOException {
+	private static final long serialVersionUID = 1L;
+	
+	private final transient BackupResult result;
+
+	/** Constructor.
+	 * @param result The result of the backup. It should contain at least one failure.
+	 */
+	public BackupException(BackupResult result) {
+		super(getMessage(result), result.getFailures().get(0).getError());
+		this.result = result;
+		final List<DestinationResult> failures = result.getFailures();
+		for (int i = 1; i < failures.size(); i++) {
+			addSuppressed(failures.get(i).getError());
+		}
+	}
+
+	private static String getMessage(BackupResult result) {
+		final List<DestinationResult> failures = result.getFailures();
+		return "Backup failed for "+failures.size()+" of "+result.getDestinations().size()+" destination(s), first failure is "+failures.get(0);
+	}
+
+	/** Gets the result of the backup.
+	 * @return the result (null if this exception was deserialized)
+	 */
+	public BackupResult getResult() {
+		return result;
+	}
+}
@@ -0,0 +1,37 @@
+package com.fathzer.jdbbackup;
+
+import java.io.InterruptedIOException;
+
+/** The limits a backup should respect when it shares resources with other backups.
+ * <br>The backup acquires a slot before it saves its data source and before every send to a destination, and releases it when it is done.
+ */
+interface BackupLimits {
+	/** Limits that never blocks. */
+	BackupLimits NONE = new BackupLimits() {};
+
+	/** Waits until the data source can be saved.
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	default void acquireDump() throws InterruptedIOException {
+		// No limit
+	}
+
+	/** Signals that the data source is saved (successfully or not).
+	 */
+	default void releaseDump() {
+		// No limit
+	}
+
+	/** Waits until the backup can be sent to a destination.
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	default void acquireUpload() throws InterruptedIOException {
+		// No limit
+	}
+
+	/** Signals that a send to a destination is done (successfully or not).
+	 */
+	default void releaseUpload() {
+		// No limit
+	}
+}
@@ -0,0 +1,91 @@
+package com.fathzer.jdbbackup;
+
+import java.time.Duration;
+
+/** A listener of the backups lifecycle.
+ * <br>Listeners are registered with {@link JDbBackup#addListener(BackupListener)}.
+ * <br>Listeners are called synchronously by the threads that make the backups, many threads may call the same listener concurrently.
+ * Some events (the bytes ones) are sent for every block of data, so listeners should return quickly.
+ * Exceptions thrown by a listener are logged and ignored.
+ * <br>All methods have a default empty implementation.
+ * @see com.fathzer.jdbbackup.metrics.MetricsCollector
+ */
+public interface BackupListener {
+	/** Called when a source or destination manager is resolved.
+	 * @param address The source or destination address
+	 * @param manager The manager of the address ({@link SourceManager} or {@link DestinationManager}), null if no manager supports the address scheme.
+	 */
+	default void pluginResolved(String address, Object manager) {
+		// Nothing to do by default
+	}
+
+	/** Called when a source starts being saved.
+	 * @param source The source address
+	 */
+	default void dumpStarted(String source) {
+		// Nothing to do by default
+	}
+
+	/** Called when some bytes are read from the source (before compression).
+	 * <br>This event is sent only by the source managers that support it (see {@link BackupListenerAware}).
+	 * @param source The source address
+	 * @param count The number of bytes read since the previous event
+	 */
+	default void bytesRead(String source, long count) {
+		// Nothing to do by default
+	}
+
+	/** Called when some compressed bytes are written.
+	 * <br>This event is sent only by the source managers that support it (see {@link BackupListenerAware}).
+	 * @param source The source address
+	 * @param count The number of bytes written since the previous event
+	 */
+	default void bytesCompressed(String source, long count) {
+		// Nothing to do by default
+	}
+
+	/** Called when a source is saved.
+	 * @param source The source address
+	 * @param duration The time spent to save the source
+	 * @param error The error that occurred or null if the source was successfully saved
+	 */
+	default void dumpEnded(String source, Duration duration, Exception error) {
+		// Nothing to do by default
+	}
+
+	/** Called when an attempt to send a backup to a destination starts.
+	 * @param destination The destination address
+	 * @param attempt The attempt number (1 for the first attempt, see {@link RetryPolicy})
+	 */
+	default void uploadStarted(String destination, int attempt) {
+		// Nothing to do by default
+	}
+
+	/** Called when some bytes are sent to a destination.
+	 * <br>Please note that when the backup is sent without being copied through the heap (see {@link com.fathzer.jdbbackup.destinations.FileManager}),
+	 * a single event is sent at the end of the upload.
+	 * @param destination The destination address
+	 * @param count The number of bytes sent since the previous event
+	 */
+	default void uploadProgress(String destination, long count) {
+		// Nothing to do by default
+	}
+
+	/** Called when an attempt to send a backup to a destination ends.
+	 * @param destination The destination address
+	 * @param duration The time spent by the attempt
+	 * @param error The error that occurred or null if the backup was successfully sent
+	 */
+	default void uploadEnded(String destination, Duration duration, Exception error) {
+		// Nothing to do by default
+	}
+
+	/** Called when a backup ends.
+	 * @param source The source address
+	 * @param result The backup result or null if the backup failed before being sent to its destinations
+	 * @param error The error that occurred (a {@link BackupException} if some destinations failed) or null if the backup succeeded
+	 */
+	default void backupEnded(String source, BackupResult result, Exception error) {
+		// Nothing to do by default
+	}
+}
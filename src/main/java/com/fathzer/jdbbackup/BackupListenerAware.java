@@ -0,0 +1,11 @@
+package com.fathzer.jdbbackup;
+
+/** A source or destination manager that can send events to {@link BackupListener}s.
+ * <br>{@link JDbBackup} sets the listener before using the manager.
+ */
+public interface BackupListenerAware {
+	/** Sets the listener.
+	 * @param listener The listener to notify (never null).
+	 */
+	void setBackupListener(BackupListener listener);
+}
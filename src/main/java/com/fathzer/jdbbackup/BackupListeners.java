@@ -0,0 +1,106 @@
+package com.fathzer.jdbbackup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.slf4j.LoggerFactory;
+
+/** A listener that forwards the events to a list of listeners.
+ * <br>Exceptions thrown by listeners are logged and ignored.
+ */
+class BackupListeners implements BackupListener {
+	private final List<BackupListener> listeners = new CopyOnWriteArrayList<>();
+
+	void add(BackupListener listener) {
+		if (listener==null) {
+			throw new IllegalArgumentException();
+		}
+		listeners.add(listener);
+	}
+
+	boolean remove(BackupListener listener) {
+		return listeners.remove(listener);
+	}
+
+	private void fire(Consumer<BackupListener> event) {
+		for (BackupListener listener : listeners) {
+			try {
+				event.accept(listener);
+			} catch (RuntimeException e) {
+				log(e);
+			}
+		}
+	}
+
+	private static void log(RuntimeException e) {
+		LoggerFactory.getLogger(BackupListeners.class).warn("A backup listener failed", e);
+	}
+
+	@Override
+	public void pluginResolved(String address, Object manager) {
+		fire(l -> l.pluginResolved(address, manager));
+	}
+
+	@Override
+	public void dumpStarted(String source) {
+		fire(l -> l.dumpStarted(source));
+	}
+
+	@Override
+	public void bytesRead(String source, long count) {
+		// Hot path, no lambda here
+		for (BackupListener listener : listeners) {
+			try {
+				listener.bytesRead(source, count);
+			} catch (RuntimeException e) {
+				log(e);
+			}
+		}
+	}
+
+	@Override
+	public void bytesCompressed(String source, long count) {
+		// Hot path, no lambda here
+		for (BackupListener listener : listeners) {
+			try {
+				listener.bytesCompressed(source, count);
+			} catch (RuntimeException e) {
+				log(e);
+			}
+		}
+	}
+
+	@Override
+	public void dumpEnded(String source, Duration duration, Exception error) {
+		fire(l -> l.dumpEnded(source, duration, error));
+	}
+
+	@Override
+	public void uploadStarted(String destination, int attempt) {
+		fire(l -> l.uploadStarted(destination, attempt));
+	}
+
+	@Override
+	public void uploadProgress(String destination, long count) {
+		// Hot path, no lambda here
+		for (BackupListener listener : listeners) {
+			try {
+				listener.uploadProgress(destination, count);
+			} catch (RuntimeException e) {
+				log(e);
+			}
+		}
+	}
+
+	@Override
+	public void uploadEnded(String destination, Duration duration, Exception error) {
+		fire(l -> l.uploadEnded(destination, duration, error));
+	}
+
+	@Override
+	public void backupEnded(String source, BackupResult result, Exception error) {
+		fire(l -> l.backupEnded(source, result, error));
+	}
+}
@@ -0,0 +1,160 @@
+package com.fathzer.jdbbackup;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Properties;
+
+import com.fathzer.jdbbackup.utils.Digester;
+
+/** A description of a backup: its date, its size and its digest, before and after compression.
+ * <br>The manifest is filled by the {@link SourceManager} while it saves the data source (see {@link SourceManager#save(String, java.io.File, BackupManifest)}).
+ * Source managers that do not know some of this information leave it unset (sizes are negative and digests are null).
+ * <br>The manifest is then passed to every destination (see {@link DestinationManager#send(java.io.InputStream, long, Object, BackupManifest)}), that may,
+ * for instance, store it next to the backup.
+ */
+public class BackupManifest {
+	private final String algorithm;
+	private final Instant date;
+	private String compression;
+	private long rawSize = -1;
+	private String rawDigest;
+	private long size = -1;
+	private String digest;
+	private Duration compressionTime;
+
+	/** Constructor.
+	 * @param algorithm The algorithm used to compute the digests (see {@link Digester#get(String)})
+	 * @throws IllegalArgumentException if the algorithm is not supported
+	 */
+	public BackupManifest(String algorithm) {
+		this.algorithm = Digester.get(algorithm).getAlgorithm();
+		this.date = Instant.now();
+	}
+
+	/** Gets the algorithm used to compute the digests.
+	 * @return an algorithm name
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/** Creates a new digester that computes digests with the manifest algorithm.
+	 * @return a new Digester
+	 */
+	public Digester newDigester() {
+		return Digester.get(algorithm);
+	}
+
+	/** Gets the date of the backup.
+	 * @return The date when this manifest was created
+	 */
+	public Instant getDate() {
+		return date;
+	}
+
+	/** Gets the compression used for the backup.
+	 * @return a compression codec name or null if it is unknown.
+	 */
+	public String getCompression() {
+		return compression;
+	}
+
+	/** Sets the compression used for the backup.
+	 * @param compression a compression codec name
+	 */
+	public void setCompression(String compression) {
+		this.compression = compression;
+	}
+
+	/** Gets the size of the data before compression.
+	 * @return a number of bytes or a negative number if it is unknown.
+	 */
+	public long getRawSize() {
+		return rawSize;
+	}
+
+	/** Gets the digest of the data before compression.
+	 * @return an hexadecimal string or null if it is unknown
+	 */
+	public String getRawDigest() {
+		return rawDigest;
+	}
+
+	/** Sets the size and digest of the data before compression.
+	 * @param size The size in bytes
+	 * @param digest The digest computed with {@link #getAlgorithm()}
+	 */
+	public void setRaw(long size, String digest) {
+		this.rawSize = size;
+		this.rawDigest = digest;
+	}
+
+	/** Gets the size of the backup (after compression).
+	 * @return a number of bytes or a negative number if it is unknown.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/** Gets the digest of the backup (after compression).
+	 * @return an hexadecimal string or null if it is unknown
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/** Sets the size and digest of the backup (after compression).
+	 * @param size The size in bytes
+	 * @param digest The digest computed with {@link #getAlgorithm()}
+	 */
+	public void setCompressed(long size, String digest) {
+		this.size = size;
+		this.digest = digest;
+	}
+
+	/** Gets the time spent compressing the backup.
+	 * <br>This is a statistic about the backup process, it is not included in {@link #toProperties()}.
+	 * @return a duration or null if it is unknown
+	 */
+	public Duration getCompressionTime() {
+		return compressionTime;
+	}
+
+	/** Sets the time spent compressing the backup.
+	 * @param compressionTime a duration (with parallel compression, the sum of the times spent by all the compression threads)
+	 */
+	public void setCompressionTime(Duration compressionTime) {
+		this.compressionTime = compressionTime;
+	}
+
+	/** Converts this manifest to properties.
+	 * <br>Unknown information is omitted.
+	 * @return a Properties instance
+	 */
+	public Properties toProperties() {
+		final Properties result = new Properties();
+		result.setProperty("date", date.toString());
+		result.setProperty("algorithm", algorithm);
+		if (compression!=null) {
+			result.setProperty("compression", compression);
+		}
+		if (rawSize>=0) {
+			result.setProperty("raw.size", Long.toString(rawSize));
+		}
+		if (rawDigest!=null) {
+			result.setProperty("raw.digest", rawDigest);
+		}
+		if (size>=0) {
+			result.setProperty("size", Long.toString(size));
+		}
+		if (digest!=null) {
+			result.setProperty("digest", digest);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return toProperties().toString();
+	}
+}
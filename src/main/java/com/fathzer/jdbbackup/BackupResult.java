@@ -0,0 +1,158 @@
+package com.fathzer.jdbbackup;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/** The result of a backup.
+ * <br>It reports, for each destination, whether the backup was successfully sent and how long it took.
+ */
+public final class BackupResult {
+	/** The result of sending a backup to a destination.
+	 */
+	public static final class DestinationResult {
+		private final String destination;
+		private final Duration duration;
+		private final int attempts;
+		private final Exception error;
+
+		DestinationResult(String destination, Duration duration, int attempts, Exception error) {
+			this.destination = destination;
+			this.duration = duration;
+			this.attempts = attempts;
+			this.error = error;
+		}
+
+		/** Gets the destination address.
+		 * @return the address passed to {@link JDbBackup#backup(String, String...)}
+		 */
+		public String getDestination() {
+			return destination;
+		}
+
+		/** Gets the time spent to send the backup to the destination.
+		 * @return a duration
+		 */
+		public Duration getDuration() {
+			return duration;
+		}
+
+		/** Gets the number of attempts made to send the backup to the destination.
+		 * @return a strictly positive int, greater than 1 if the send was retried (see {@link RetryPolicy})
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/** Gets the error that occurred while sending the backup.
+		 * @return an exception or null if the backup was successfully sent. If the send was retried, it is the error of the last attempt.
+		 */
+		public Exception getError() {
+			return error;
+		}
+
+		/** Tests whether the backup was successfully sent to the destination.
+		 * @return true if no error occurred
+		 */
+		public boolean isSuccessful() {
+			return error==null;
+		}
+
+		@Override
+		public String toString() {
+			return destination+": "+(error==null ? "ok" : error.toString())+" ("+duration.toMillis()+"ms"+(attempts>1 ? ", "+attempts+" attempts" : "")+")";
+		}
+	}
+
+	private final List<DestinationResult> destinations;
+	private final BackupManifest manifest;
+	private final Duration dumpDuration;
+	private final Duration uploadDuration;
+
+	BackupResult(List<DestinationResult> destinations, BackupManifest manifest, Duration dumpDuration, Duration uploadDuration) {
+		this.destinations = Collections.unmodifiableList(destinations);
+		this.manifest = manifest;
+		this.dumpDuration = dumpDuration;
+		this.uploadDuration = uploadDuration;
+	}
+
+	/** Gets the time spent to save the data source.
+	 * <br>The backup is compressed while the data source is saved, so this duration includes the compression.
+	 * In streaming mode, it also includes the time spent waiting for the destinations.
+	 * @return a duration
+	 */
+	public Duration getDumpDuration() {
+		return dumpDuration;
+	}
+
+	/** Gets the time spent compressing the backup.
+	 * @return a duration or null if the source manager does not report it
+	 * @see BackupManifest#getCompressionTime()
+	 */
+	public Duration getCompressionDuration() {
+		return manifest.getCompressionTime();
+	}
+
+	/** Gets the time spent to send the backup to all the destinations.
+	 * <br>In streaming mode, the backup is sent while the data source is saved, so this duration overlaps the {@link #getDumpDuration() dump duration}.
+	 * @return a duration
+	 */
+	public Duration getUploadDuration() {
+		return uploadDuration;
+	}
+
+	/** Gets the size of the data before compression.
+	 * @return a number of bytes or a negative number if it is unknown.
+	 */
+	public long getRawSize() {
+		return manifest.getRawSize();
+	}
+
+	/** Gets the size of the backup (after compression).
+	 * @return a number of bytes or a negative number if it is unknown.
+	 */
+	public long getSize() {
+		return manifest.getSize();
+	}
+
+	/** Gets the number of bytes successfully sent to the destinations.
+	 * @return the size of the backup multiplied by the number of successful destinations, a negative number if the size is unknown.
+	 */
+	public long getUploadedSize() {
+		return getSize()<0 ? -1 : getSize()*destinations.stream().filter(DestinationResult::isSuccessful).count();
+	}
+
+	/** Gets the manifest of the backup.
+	 * @return a manifest
+	 */
+	public BackupManifest getManifest() {
+		return manifest;
+	}
+
+	/** Gets the results of all the destinations.
+	 * @return an unmodifiable list, in the order of the destinations passed to {@link JDbBackup#backup(String, String...)}
+	 */
+	public List<DestinationResult> getDestinations() {
+		return destinations;
+	}
+
+	/** Gets the results of the destinations that failed.
+	 * @return a list, empty if the backup was successfully sent everywhere
+	 */
+	public List<DestinationResult> getFailures() {
+		return destinations.stream().filter(d -> !d.isSuccessful()).collect(Collectors.toList());
+	}
+
+	/** Tests whether the backup was successfully sent to all the destinations.
+	 * @return true if no destination failed
+	 */
+	public boolean isSuccessful() {
+		return destinations.stream().allMatch(DestinationResult::isSuccessful);
+	}
+
+	@Override
+	public String toString() {
+		return destinations.toString();
+	}
+}
@@ -0,0 +1,63 @@
+package com.fathzer.jdbbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** A {@link DestinationManager} able to receive a backup in parts, and to resume an interrupted send.
+ * <br>When chunked sends are enabled (see {@link JDbBackup#setChunkSize(long)}), {@link JDbBackup} sends the backups to such managers
+ * using a {@link ChunkedUploader} instead of calling {@link #send(InputStream, long, Object, BackupManifest)}.
+ * @param <T> The type of the destinations
+ */
+public interface ChunkedDestinationManager<T> extends DestinationManager<T> {
+	/** An upload in progress.
+	 */
+	interface Upload {
+		/** Gets the number of bytes already committed by the destination.
+		 * <br>These bytes will not be lost if the upload is interrupted, the upload should be resumed at this offset.
+		 * @return a number of bytes
+		 * @throws IOException If the offset can't be obtained
+		 */
+		long getCommittedOffset() throws IOException;
+
+		/** Sends a part of the backup.
+		 * @param offset The offset of the part in the backup. It should not be greater than {@link #getCommittedOffset()}.
+		 * @param in The part content
+		 * @param length The length of the part
+		 * @throws IOException If the part can't be sent. In such a case, the upload can be resumed at the committed offset.
+		 */
+		void sendPart(long offset, InputStream in, long length) throws IOException;
+
+		/** Completes the upload.
+		 * <br>The backup becomes visible at its destination.
+		 * @param manifest The backup manifest
+		 * @throws IOException If the upload can't be completed (for instance because some parts are missing)
+		 */
+		void complete(BackupManifest manifest) throws IOException;
+
+		/** Aborts the upload.
+		 * <br>All the parts already sent are discarded.
+		 * @throws IOException If something went wrong
+		 */
+		void abort() throws IOException;
+	}
+
+	/** Starts a new upload.
+	 * <br>If an interrupted upload with the same destination and id exists, it is discarded.
+	 * @param destination The destination that was returned by {@link #validate(String, java.util.function.Function)}
+	 * @param size The size of the backup
+	 * @param id An identifier of the backup content (for instance its digest), that allows a later call to {@link #resumeUpload(Object, long, String)} to check it resumes
+	 * the upload of the same content. null if the content has no identifier, in such a case, the upload can only be resumed by the returned instance.
+	 * @return a new upload
+	 * @throws IOException If the upload can't be started
+	 */
+	Upload startUpload(T destination, long size, String id) throws IOException;
+
+	/** Resumes an interrupted upload.
+	 * @param destination The destination that was returned by {@link #validate(String, java.util.function.Function)}
+	 * @param size The size of the backup
+	 * @param id The identifier of the backup content
+	 * @return an upload or null if there's no interrupted upload of this content to this destination.
+	 * @throws IOException If something went wrong
+	 */
+	Upload resumeUpload(T destination, long size, String id) throws IOException;
+}
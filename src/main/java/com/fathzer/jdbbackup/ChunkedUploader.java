@@ -0,0 +1,83 @@
+package com.fathzer.jdbbackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fathzer.jdbbackup.ChunkedDestinationManager.Upload;
+import com.fathzer.jdbbackup.utils.RateLimiter;
+
+/** A class that sends backups in parts to {@link ChunkedDestinationManager}s.
+ * <br>If an interrupted upload of the same content to the same destination exists, it is resumed from its committed offset.
+ * If the upload fails, it is left as is and can be resumed later by another call to {@link #send(ChunkedDestinationManager, Object, StagedData, BackupManifest)}.
+ * <br>The content is identified by the size and digest in the backup manifest. If the manifest has no digest, the upload can't be resumed by a later call.
+ */
+public class ChunkedUploader {
+	private final long partSize;
+	private final RateLimiter rateLimiter;
+
+	/** Constructor.
+	 * @param partSize The maximum size of the parts
+	 * @throws IllegalArgumentException if partSize is not strictly positive
+	 */
+	public ChunkedUploader(long partSize) {
+		this(partSize, null);
+	}
+
+	/** Constructor.
+	 * @param partSize The maximum size of the parts
+	 * @param rateLimiter The limiter of the parts sends (null to not limit them)
+	 * @throws IllegalArgumentException if partSize is not strictly positive
+	 */
+	public ChunkedUploader(long partSize, RateLimiter rateLimiter) {
+		if (partSize<=0) {
+			throw new IllegalArgumentException("Part size should be strictly positive");
+		}
+		this.partSize = partSize;
+		this.rateLimiter = rateLimiter;
+	}
+
+	/** Gets the maximum size of the parts.
+	 * @return a positive long
+	 */
+	public long getPartSize() {
+		return partSize;
+	}
+
+	/** Sends a backup.
+	 * @param <T> The type of the destination
+	 * @param manager The manager of the destination
+	 * @param destination The destination
+	 * @param data The backup data
+	 * @param manifest The backup manifest
+	 * @throws IOException If the backup can't be sent
+	 */
+	public <T> void send(ChunkedDestinationManager<T> manager, T destination, StagedData data, BackupManifest manifest) throws IOException {
+		final long size = data.getSize();
+		final String id = getId(manifest, size);
+		Upload upload = id==null ? null : manager.resumeUpload(destination, size, id);
+		if (upload==null) {
+			upload = manager.startUpload(destination, size, id);
+		}
+		long offset = upload.getCommittedOffset();
+		while (offset<size) {
+			final long length = Math.min(partSize, size-offset);
+			try (InputStream in = rateLimiter==null ? data.newInputStream(offset, length) : rateLimiter.limit(data.newInputStream(offset, length))) {
+				upload.sendPart(offset, in, length);
+			}
+			offset += length;
+		}
+		upload.complete(manifest);
+	}
+
+	/** Gets the identifier of a backup content.
+	 * @param manifest The backup manifest
+	 * @param size The backup size
+	 * @return an identifier that only contains letters, digits and hyphens, or null if the manifest has no digest
+	 */
+	static String getId(BackupManifest manifest, long size) {
+		if (manifest.getDigest()==null) {
+			return null;
+		}
+		return (manifest.getAlgorithm()+"-"+manifest.getDigest()+"-"+size).replaceAll("[^A-Za-z0-9-]", "");
+	}
+}
@@ -0,0 +1,32 @@
+package com.fathzer.jdbbackup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** A compression algorithm used to compress backups.
+ * <br>Like {@link SourceManager} and {@link DestinationManager}, codecs are loaded through the <a href="https://docs.oracle.com/en/java/javase/11/docs/api/java.base/java/util/ServiceLoader.html">Java service loader</a> standard mechanism.
+ * So, it's quite easy to add codecs (zstd or lz4 for instance) without changing this library.
+ */
+public interface CompressionCodec {
+	/** The level that denotes the default compression level of a codec. */
+	int DEFAULT_LEVEL = -1;
+
+	/** Gets the name that identifies this codec.
+	 * @return a string (example gzip)
+	 */
+	String getName();
+
+	/** Gets the file extension of compressed files.
+	 * @return The extension with no period (example gz) or an empty string if this codec does not change the file type.
+	 */
+	String getExtension();
+
+	/** Gets an output stream that compresses data.
+	 * @param out The stream where compressed data should be written. It should be closed when the returned stream is closed.
+	 * @param level The compression level. Its meaning depends on the codec, {@link #DEFAULT_LEVEL} means the codec's default level.
+	 * @return An output stream
+	 * @throws IOException If something went wrong
+	 * @throws IllegalArgumentException if level is not supported by this codec
+	 */
+	OutputStream getOutputStream(OutputStream out, int level) throws IOException;
+}
@@ -4,11 +4,21 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.file.attribute.FileTime;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.SignStyle;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalField;
+import java.time.temporal.WeekFields;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /** A path decoder that replaces patterns with their actual value.
  * <br>It accepts patterns that have the format {<i>name</i>=<i>value</i>} where <i>name</i> is a lowercase string that identifies the kind of pattern and
@@ -16,15 +26,24 @@ import java.util.regex.Pattern;
  * <br>This class supports the following patterns:<ul>
  *   <li><b>d</b>: The <i>value</i> must be a valid date time pattern as described in
  *     <a href="https://docs.oracle.com/en/java/javase/11/docs/api/java.base/java/text/SimpleDateFormat.html">SimpleDateFormat</a>.
- *     <br>For example, the pattern {d=yyyy} will be replaced by the year on 4 characters at runtime.</li>
+ *     <br>For example, the pattern {d=yyyy} will be replaced by the year on 4 characters at runtime.
+ *     <br>The pattern is translated to a thread safe {@link DateTimeFormatter} that produces the same text as SimpleDateFormat (some letters, like <i>u</i>, <i>F</i>, <i>S</i>
+ *     or <i>Z</i>, have another meaning in DateTimeFormatter patterns, and characters like <i>[</i> or <i>#</i> are literals).
+ *     <br>The date is the backup date (see {@link #decodePath(String, Function, Instant)}), so that all the destinations of a backup have the same date.</li>
  *   <li><b>e</b>: The <i>value</i> must be an existing environment variable whose value will replace the pattern</li>
  *   <li><b>p</b>: The <i>value</i> must be an existing System property whose value will replace the pattern</li>
- *   <li><b>f</b>: The <i>value</i> must be an existing file whose content will replace the pattern</li>
+ *   <li><b>f</b>: The <i>value</i> must be an existing file whose content will replace the pattern.
+ *     <br>The content is cached until the file is modified.</li>
  * </ul>
+ * <br>Paths are compiled once in {@link PathTemplate}s that are cached by the decoder.
  * <br>You can add your own pattern kind by overriding {@link #decode(String, String)} method.
+ * Date patterns are decoded by {@link #decode(String, String, Instant)}, override this method to change them.
  */
 public class DefaultPathDecoder {
-	private static final Pattern PATTERN = Pattern.compile("\\{(\\p{Lower}+)=([^\\}]+)\\}");
+	/** The maximum number of templates kept in the cache. */
+	private static final int MAX_TEMPLATES = 4096;
+	/** The date of the path decoded by the current thread, when {@link #decode(String, String)} is overridden. */
+	private static final ThreadLocal<Instant> TIMESTAMP = new ThreadLocal<>();
 	
 	/** A String splitter that ignores delimiter in pattern.
 	 * @see com.fathzer.jdbbackup.utils.StringSplitter
@@ -56,42 +75,124 @@ public class DefaultPathDecoder {
 		}
 	}
 
+	private static final class FileContent {
+		private final FileTime modified;
+		private final String content;
+
+		private FileContent(FileTime modified, String content) {
+			this.modified = modified;
+			this.content = content;
+		}
+	}
+
+	private final boolean decodeOverridden;
+	private final Map<String, PathTemplate> templates = new ConcurrentHashMap<>();
+	private final Map<String, DateTimeFormatter> formatters = new ConcurrentHashMap<>();
+	private final Map<Path, FileContent> files = new ConcurrentHashMap<>();
+
 	/** Constructor.
 	 */
 	public DefaultPathDecoder() {
 		super();
+		this.decodeOverridden = isDecodeOverridden(getClass());
 	}
 
-	/** Decodes a path.
+	private static boolean isDecodeOverridden(Class<?> type) {
+		for (Class<?> current = type; current!=DefaultPathDecoder.class; current = current.getSuperclass()) {
+			try {
+				current.getDeclaredMethod("decode", String.class, String.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+				// Not overridden by this class, let's look at its super class
+			}
+		}
+		return false;
+	}
+
+	/** Compiles a path.
+	 * <br>Templates are cached, compiling the same path twice returns the same instance.
+	 * @param path The encoded path
+	 * @return a template
+	 */
+	public PathTemplate compile(String path) {
+		PathTemplate template = templates.get(path);
+		if (template==null) {
+			if (templates.size()>=MAX_TEMPLATES) {
+				// Should never happen with a reasonable number of destinations
+				templates.clear();
+			}
+			template = templates.computeIfAbsent(path, p -> new PathTemplate(this, p));
+		}
+		return template;
+	}
+
+	/** Decodes a path with the current date.
 	 * @param path The encoded path
 	 * @return The decoded path
 	 * @throws IllegalNamePatternException if the path has wrong format
 	 */
 	public String decodePath(String path) {
-		Matcher m = PATTERN.matcher(path);
-		StringBuilder sb = new StringBuilder();
-		int previous = 0;
-		while (m.find()) {
-			if (previous!=m.start()) {
-				sb.append(path.substring(previous, m.start()));
-			}
-			sb.append(decode(m.group(1), m.group(2)));
-			previous = m.end();
-		}
-		if (previous<path.length()) {
-			sb.append(path.substring(previous));
-		}
-		return sb.toString();
+		return decodePath(path, Instant.now());
 	}
 
-	/** Decodes a path and adds extension if needed.
+	/** Decodes a path.
+	 * @param path The encoded path
+	 * @param timestamp The date used to decode date patterns
+	 * @return The decoded path
+	 * @throws IllegalNamePatternException if the path has wrong format
+	 */
+	public String decodePath(String path, Instant timestamp) {
+		return compile(path).resolve(timestamp);
+	}
+
+	/** Decodes a path with the current date and adds extension if needed.
 	 * @param path The encoded path
 	 * @param extensionManager A function responsible for adding (or not) an extension to the path
 	 * @return The decoded path
 	 * @throws IllegalNamePatternException if the path has wrong format
 	 */
 	public String decodePath(String path, Function<String,CharSequence> extensionManager) {
-		return extensionManager.apply(decodePath(path)).toString();
+		return decodePath(path, extensionManager, Instant.now());
+	}
+
+	/** Decodes a path and adds extension if needed.
+	 * @param path The encoded path
+	 * @param extensionManager A function responsible for adding (or not) an extension to the path
+	 * @param timestamp The date used to decode date patterns
+	 * @return The decoded path
+	 * @throws IllegalNamePatternException if the path has wrong format
+	 */
+	public String decodePath(String path, Function<String,CharSequence> extensionManager, Instant timestamp) {
+		return extensionManager.apply(decodePath(path, timestamp)).toString();
+	}
+
+	/** Decodes a pattern at a given date.
+	 * <br>This method decodes date patterns and calls {@link #decode(String, String)} for the others.
+	 * If {@link #decode(String, String)} is overridden, it is also called for date patterns, and the date patterns it passes to this class implementation
+	 * are decoded at the given date.
+	 * @param name The pattern name.
+	 * @param value The pattern value.
+	 * @param timestamp The date used to decode date patterns
+	 * @return The decoded pattern.
+	 * @throws IllegalNamePatternException If the name in not a valid name or value is not a valid for <i>name</i> pattern.
+	 */
+	protected CharSequence decode(String name, String value, Instant timestamp) {
+		if (!"d".equals(name)) {
+			return decode(name, value);
+		} else if (!decodeOverridden) {
+			return decodeDate(value, timestamp);
+		}
+		final Instant previous = TIMESTAMP.get();
+		TIMESTAMP.set(timestamp);
+		try {
+			return decode(name, value);
+		} finally {
+			if (previous==null) {
+				TIMESTAMP.remove();
+			} else {
+				TIMESTAMP.set(previous);
+			}
+		}
 	}
 
 	/** Decodes a pattern.
@@ -103,7 +204,8 @@ public class DefaultPathDecoder {
 	 */
 	protected CharSequence decode(String name, String value) {
 		if ("d".equals(name)) {
-			return decodeDate(value);
+			final Instant timestamp = TIMESTAMP.get();
+			return decodeDate(value, timestamp==null ? Instant.now() : timestamp);
 		} else if ("e".equals(name)) {
 			return decodeEnvVar(value);
 		} else if ("p".equals(name)) {
@@ -121,7 +223,16 @@ public class DefaultPathDecoder {
 			throw new IllegalArgumentException("File "+value+" does not exists");
 		}
 		try {
-			return Files.readString(path);
+			final FileTime modified = Files.getLastModifiedTime(path);
+			final FileContent cached = files.get(path);
+			if (cached!=null && cached.modified.equals(modified)) {
+				return cached.content;
+			}
+			final String content = Files.readString(path);
+			if (modified!=null) {
+				files.put(path, new FileContent(modified, content));
+			}
+			return content;
 		} catch (IOException e) {
 			throw new IllegalArgumentException("Unable to read file "+value, e);
 		}
@@ -145,11 +256,156 @@ public class DefaultPathDecoder {
 		}
 	}
 
-	private CharSequence decodeDate(String value) {
+	private CharSequence decodeDate(String value, Instant timestamp) {
 		try {
-			return new SimpleDateFormat(value).format(new Date());
-		} catch (IllegalArgumentException e) {
+			// Formatters are immutable and thread safe, they can be shared
+			final DateTimeFormatter formatter = formatters.computeIfAbsent(value, DefaultPathDecoder::ofLegacyPattern);
+			return formatter.format(timestamp.atZone(ZoneId.systemDefault()));
+		} catch (IllegalArgumentException | DateTimeException e) {
 			throw new IllegalNamePatternException(value+" is not a valid value for date pattern");
 		}
 	}
+
+	/** Builds a formatter from a {@link java.text.SimpleDateFormat} pattern.
+	 * @param pattern The pattern
+	 * @return A formatter that formats dates like a SimpleDateFormat with this pattern
+	 * @throws IllegalArgumentException if the pattern is invalid
+	 */
+	static DateTimeFormatter ofLegacyPattern(String pattern) {
+		final DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder();
+		int index = 0;
+		while (index<pattern.length()) {
+			final char c = pattern.charAt(index);
+			if (c=='\'' && index+1<pattern.length() && pattern.charAt(index+1)=='\'') {
+				// Two quotes are a quote
+				builder.appendLiteral(c);
+				index += 2;
+			} else if (c=='\'') {
+				// Quoted text, two quotes in quoted text are a quote
+				final StringBuilder text = new StringBuilder();
+				int end = index+1;
+				while (end<pattern.length() && (pattern.charAt(end)!='\'' || (end+1<pattern.length() && pattern.charAt(end+1)=='\''))) {
+					text.append(pattern.charAt(end));
+					end += pattern.charAt(end)=='\'' ? 2 : 1;
+				}
+				if (end>=pattern.length()) {
+					throw new IllegalArgumentException("Unterminated quote");
+				}
+				builder.appendLiteral(text.toString());
+				index = end+1;
+			} else if ((c>='a' && c<='z') || (c>='A' && c<='Z')) {
+				int end = index+1;
+				while (end<pattern.length() && pattern.charAt(end)==c) {
+					end++;
+				}
+				appendField(builder, c, end-index);
+				index = end;
+			} else {
+				// Characters that are reserved by DateTimeFormatter ('[', '#', ...) are literals in SimpleDateFormat
+				builder.appendLiteral(c);
+				index++;
+			}
+		}
+		return builder.toFormatter();
+	}
+
+	private static void appendField(DateTimeFormatterBuilder builder, char letter, int count) {
+		final WeekFields weekFields = WeekFields.of(Locale.getDefault());
+		switch (letter) {
+		case 'G':
+			builder.appendText(ChronoField.ERA, TextStyle.SHORT);
+			break;
+		case 'y':
+			appendYear(builder, ChronoField.YEAR_OF_ERA, count);
+			break;
+		case 'Y':
+			appendYear(builder, weekFields.weekBasedYear(), count);
+			break;
+		case 'M':
+		case 'L':
+			if (count<3) {
+				builder.appendValue(ChronoField.MONTH_OF_YEAR, count, 19, SignStyle.NOT_NEGATIVE);
+			} else {
+				final boolean standalone = letter=='L';
+				builder.appendText(ChronoField.MONTH_OF_YEAR, count==3 ? (standalone ? TextStyle.SHORT_STANDALONE : TextStyle.SHORT) : (standalone ? TextStyle.FULL_STANDALONE : TextStyle.FULL));
+			}
+			break;
+		case 'w':
+			appendNumber(builder, weekFields.weekOfWeekBasedYear(), count);
+			break;
+		case 'W':
+			appendNumber(builder, weekFields.weekOfMonth(), count);
+			break;
+		case 'D':
+			appendNumber(builder, ChronoField.DAY_OF_YEAR, count);
+			break;
+		case 'd':
+			appendNumber(builder, ChronoField.DAY_OF_MONTH, count);
+			break;
+		case 'F':
+			// Day of week in month
+			appendNumber(builder, ChronoField.ALIGNED_WEEK_OF_MONTH, count);
+			break;
+		case 'E':
+			builder.appendText(ChronoField.DAY_OF_WEEK, count<4 ? TextStyle.SHORT : TextStyle.FULL);
+			break;
+		case 'u':
+			// Day number of week (1 = Monday), year in DateTimeFormatter
+			appendNumber(builder, ChronoField.DAY_OF_WEEK, count);
+			break;
+		case 'a':
+			builder.appendText(ChronoField.AMPM_OF_DAY, TextStyle.SHORT);
+			break;
+		case 'H':
+			appendNumber(builder, ChronoField.HOUR_OF_DAY, count);
+			break;
+		case 'k':
+			appendNumber(builder, ChronoField.CLOCK_HOUR_OF_DAY, count);
+			break;
+		case 'K':
+			appendNumber(builder, ChronoField.HOUR_OF_AMPM, count);
+			break;
+		case 'h':
+			appendNumber(builder, ChronoField.CLOCK_HOUR_OF_AMPM, count);
+			break;
+		case 'm':
+			appendNumber(builder, ChronoField.MINUTE_OF_HOUR, count);
+			break;
+		case 's':
+			appendNumber(builder, ChronoField.SECOND_OF_MINUTE, count);
+			break;
+		case 'S':
+			// Milliseconds, fraction of second in DateTimeFormatter
+			appendNumber(builder, ChronoField.MILLI_OF_SECOND, count);
+			break;
+		case 'z':
+			builder.appendZoneText(count<4 ? TextStyle.SHORT : TextStyle.FULL);
+			break;
+		case 'Z':
+			// RFC 822 time zone, whatever the count is
+			builder.appendOffset("+HHMM", "+0000");
+			break;
+		case 'X':
+			if (count>3) {
+				throw new IllegalArgumentException("Too many pattern letters: X");
+			}
+			builder.appendPattern("XXX".substring(0, count));
+			break;
+		default:
+			throw new IllegalArgumentException("Illegal pattern character '"+letter+"'");
+		}
+	}
+
+	private static void appendNumber(DateTimeFormatterBuilder builder, TemporalField field, int count) {
+		builder.appendValue(field, count, 19, SignStyle.NOT_NEGATIVE);
+	}
+
+	private static void appendYear(DateTimeFormatterBuilder builder, TemporalField field, int count) {
+		// SimpleDateFormat truncates the year only when the count is 2
+		if (count==2) {
+			builder.appendValueReduced(field, 2, 2, 2000);
+		} else {
+			builder.appendValue(field, count, 19, SignStyle.NORMAL);
+		}
+	}
 }
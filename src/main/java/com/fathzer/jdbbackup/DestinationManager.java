@@ -2,10 +2,12 @@ package com.fathzer.jdbbackup;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
 import java.util.function.Function;
 
 /** An abstract class to manage where backup are saved.
- * <br>If the manager can use a proxy to connect to a remote source, it should implement {@link ProxyCompliant} interface.
+ * <br>If the manager can use a proxy to connect to a remote source, it should implement {@link ProxyCompliant} interface, or better, {@link ProxiedDestinationManager}
+ * that allows it to be used by concurrent backups with different proxies.
  */
 public interface DestinationManager<T> {
 	/** The / character.*/
@@ -24,12 +26,40 @@ public interface DestinationManager<T> {
 	 * @throws IllegalArgumentException If the path is not valid.
 	 */
 	T validate(final String path, Function<String,CharSequence> extensionBuilder);
+
+	/** Tests whether a destination of a backup made at a given date is valid.
+	 * <br>Managers whose path contains dates should use <i>timestamp</i> rather than the current date, so that all the destinations of a backup have the same date
+	 * (see {@link DefaultPathDecoder#decodePath(String, Function, Instant)}).
+	 * <br>The default implementation calls {@link #validate(String, Function)}.
+	 * @param path The destination path.
+	 * @param extensionBuilder a function that transforms a path that may contain or not an file extension (like .gz) to a path with the extension.
+	 * @param timestamp The date of the backup.
+	 * @return An internal representation of where the backup will be saved.
+	 * @throws IllegalArgumentException If the path is not valid.
+	 */
+	default T validate(final String path, Function<String,CharSequence> extensionBuilder, Instant timestamp) {
+		return validate(path, extensionBuilder);
+	}
 	
 	/** Sends the backup file to its final destination at the path passed in {@link #validate(String, Function)}.
-	 * @param in The input stream on the temporary file to save
-	 * @param size The number of bytes to save (the size of the temporary file). The manager is free to ignore this information and save all bytes available in the input stream.
+	 * @param in The input stream on the backup to save
+	 * @param size The number of bytes to save (the size of the temporary file), or a negative number if the size is unknown (for instance in streaming mode, see {@link JDbBackup#setStreaming(boolean)}).
+	 * The manager is free to ignore this information and save all bytes available in the input stream.
 	 * @param destination The destination that was returned by {@link #validate(String, Function)}
 	 * @throws IOException If an error occurs while sending the file
 	 */
 	void send(final InputStream in, long size, T destination) throws IOException;
+	
+	/** Sends the backup file, and its manifest, to its final destination.
+	 * <br>The default implementation calls {@link #send(InputStream, long, Object)} and ignores the manifest.
+	 * Managers that want to keep the manifest (for instance in a file next to the backup) should override this method.
+	 * @param in The input stream on the backup to save
+	 * @param size The number of bytes to save (see {@link #send(InputStream, long, Object)})
+	 * @param destination The destination that was returned by {@link #validate(String, Function)}
+	 * @param manifest The manifest of the backup. In streaming mode, it is only complete once the input stream is entirely read.
+	 * @throws IOException If an error occurs while sending the file
+	 */
+	default void send(final InputStream in, long size, T destination, BackupManifest manifest) throws IOException {
+		send(in, size, destination);
+	}
 }
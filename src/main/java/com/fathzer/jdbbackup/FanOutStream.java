@@ -0,0 +1,66 @@
+package com.fathzer.jdbbackup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/** An output stream that copies its data to many {@link SpillingPipe}.
+ * <br>Pipes whose reader side is closed are ignored. If all of them are closed, writing fails as nobody is receiving the data anymore.
+ */
+final class FanOutStream extends OutputStream {
+	private final List<SpillingPipe> pipes;
+	private boolean deserted;
+
+	/** Constructor.
+	 * @param pipes The pipes where to copy the data.
+	 */
+	FanOutStream(List<SpillingPipe> pipes) {
+		this.pipes = pipes;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte)b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		// A single copy of the data is shared by all the pipes
+		final byte[] chunk = Arrays.copyOfRange(b, off, off+len);
+		boolean written = false;
+		for (SpillingPipe pipe : pipes) {
+			if (!pipe.isReaderClosed()) {
+				pipe.write(chunk);
+				written = true;
+			}
+		}
+		if (!written) {
+			deserted = true;
+			throw new IOException("No destination is receiving the backup");
+		}
+	}
+
+	/** Closes all the pipes.
+	 * <br>Their readers will reach the end of stream once they have read all the data.
+	 */
+	@Override
+	public void close() {
+		pipes.forEach(SpillingPipe::close);
+	}
+
+	/** Aborts all the pipes.
+	 * @param e The cause of the abort
+	 * @see SpillingPipe#abort(Exception)
+	 */
+	void abort(Exception e) {
+		pipes.forEach(p -> p.abort(e));
+	}
+
+	/** Tests whether writing failed because all the pipes were closed on their reader side.
+	 * @return true if no reader was remaining
+	 */
+	boolean isDeserted() {
+		return deserted;
+	}
+}
@@ -0,0 +1,10 @@
+package com.fathzer.jdbbackup;
+
+import com.fathzer.jdbbackup.utils.FileChannelInputStream;
+
+/** A {@link DestinationManager} that reads the backups it receives with channel operations when they are {@link FileChannelInputStream}s.
+ * <br>{@link FileChannelInputStream} is not buffered. {@link JDbBackup} only sends it unwrapped to managers that implement this interface,
+ * other managers receive a buffered stream.
+ */
+public interface FileChannelCompliant {
+}
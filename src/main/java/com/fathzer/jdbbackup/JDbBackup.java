@@ -1,144 +1,650 @@
 package com.fathzer.jdbbackup;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.net.PasswordAuthentication;
 import java.net.Proxy;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.util.Arrays;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fathzer.plugin.loader.PluginLoader;
-import com.fathzer.plugin.loader.classloader.ClassLoaderPluginLoader;
+import com.fathzer.jdbbackup.BackupResult.DestinationResult;
+import com.fathzer.jdbbackup.SpillingPipe.SpillFileFactory;
+import com.fathzer.jdbbackup.utils.Digester;
+import com.fathzer.jdbbackup.utils.PluginIndex;
+import com.fathzer.jdbbackup.utils.PluginRegistry;
+import com.fathzer.jdbbackup.utils.RateLimiter;
+import com.fathzer.jdbbackup.utils.Threads;
 
 /** A class able to perform a data source backup.
  */
 public class JDbBackup {
+	/** The maximum number of bytes each destination can be behind the source, in streaming mode, before data is spilled to disk. */
+	public static final int STREAMING_BUFFER_SIZE = 8*1024*1024;
+	/** The default maximum number of destinations the backup is sent to at the same time. */
+	public static final int DEFAULT_CONCURRENT_UPLOADS = 4;
 	private static final Logger log = LoggerFactory.getLogger(JDbBackup.class);
+	private static final int STREAMING_CHUNK_SIZE = 64*1024;
 	
-	private final Map<String, SourceManager> sources;
+	private final PluginRegistry<SourceManager> sources;
 	@SuppressWarnings("rawtypes")
-	private final Map<String, DestinationManager> destinations;
-	private Proxy proxy;
-	private PasswordAuthentication auth;
+	private final PluginRegistry<DestinationManager> destinations;
+	private volatile BackupContext context = BackupContext.DEFAULT;
+	private volatile StagingStore stagingStore;
+	private volatile ThreadFactory threadFactory = Threads.newFactory("jdbbackup-upload-");
+	private final BackupListeners listeners = new BackupListeners();
+	private final ProxyGate proxyGate = new ProxyGate();
 	
 	/** Constructor.
 	 * <br>All source and destination managers available on the calling thread class loader are loaded.
+	 * Managers of jars that contain a {@link PluginIndex} are only instantiated when they are used for the first time (see {@link PluginRegistry}).
 	 * <br>To load extra plugins, you can use {@link java.util.ServiceLoader} or {@link com.fathzer.plugin.loader.PluginLoader} to instantiate them,
-	 * and then adding them to the maps returned by {@link #getSourceManagers()} and {@link #getDestinationManagers()} methods.
+	 * and then add them with {@link #addSourceManager(SourceManager)} and {@link #addDestinationManager(DestinationManager)} methods, or to the maps returned by
+	 * {@link #getSourceManagers()} and {@link #getDestinationManagers()} methods.
+	 * <br>An instance can be shared by many threads, each backup uses its own {@link BackupContext}.
 	 * @see #getDestinationManagers()
 	 * @see #getSourceManagers()
 	 */
+	@SuppressWarnings("rawtypes")
 	public JDbBackup() {
-		sources = new HashMap<>();
-		destinations = new HashMap<>();
-		this.proxy = Proxy.NO_PROXY;
-		final PluginLoader<ClassLoader> loader = new ClassLoaderPluginLoader().withExceptionConsumer(e -> log.warn("An error occurred while loading plugins", e));
+		this.stagingStore = new StagingStore() {
+			@Override
+			protected File createFile() throws IOException {
+				return JDbBackup.this.createTempFile();
+			}
+		};
+		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
 		try {
-			loader.getPlugins(null, SourceManager.class).forEach(s -> sources.put(s.getScheme(), s));
-			loader.getPlugins(null, DestinationManager.class).forEach(d -> destinations.put(d.getScheme(), d));
+			sources = PluginRegistry.load(loader, SourceManager.class, SourceManager::getScheme);
+			destinations = PluginRegistry.load(loader, DestinationManager.class, DestinationManager::getScheme);
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 	
+	/** Gets the default context of the backups.
+	 * <br>It is the context used by {@link #backup(String, String...)}. It is modified by the setters of this class (for instance {@link #setProxy(Proxy, PasswordAuthentication)}).
+	 * @return a context
+	 */
+	public BackupContext getContext() {
+		return context;
+	}
+	
+	/** Sets the default context of the backups.
+	 * @param context The new context
+	 * @throws IllegalArgumentException if context is null
+	 */
+	public void setContext(BackupContext context) {
+		if (context==null) {
+			throw new IllegalArgumentException();
+		}
+		this.context = context;
+	}
+	
 	/** Sets the proxy.
 	 * @param proxy The proxy to use to connect to destination ({@link Proxy#NO_PROXY} for disabling proxy).
 	 * @param auth The proxy authentication (null if the proxy does not require authentication).
 	 * @throws IllegalArgumentException if proxy is null or if auth is not null and proxy is {@link Proxy#NO_PROXY}.
 	 */
-	public void setProxy(Proxy proxy, PasswordAuthentication auth) {
-		// Test parameters are ok
-		new ProxyCompliant(){}.setProxy(proxy, auth);
-		this.proxy = proxy;
-		this.auth = auth;
+	public synchronized void setProxy(Proxy proxy, PasswordAuthentication auth) {
+		this.context = context.withProxy(proxy, auth);
+	}
+
+	/** Sets the streaming mode.
+	 * <br>In streaming mode, if the source manager is a {@link StreamingSourceManager}, the backup is sent to all the destinations at the same time,
+	 * while it is produced, instead of being written to a temporary file first.
+	 * <br>With a single destination, no temporary file is used: the source waits for the destination when it is too slow.
+	 * <br>With many destinations, a slow destination does not slow down the others. Up to {@value #STREAMING_BUFFER_SIZE} bytes, the data it is behind on
+	 * is kept in memory, then it is written to a temporary file (see {@link #getStagingStore()}).
+	 * <br>Please note that, in streaming mode, the size passed to {@link DestinationManager#send(InputStream, long, Object)} is unknown (-1),
+	 * and that, if the source fails, destinations may have started receiving the data (their input stream throws an exception).
+	 * @param streaming true to enable streaming mode (default is false)
+	 */
+	public synchronized void setStreaming(boolean streaming) {
+		this.context = context.withStreaming(streaming);
 	}
 
 	/** Gets the source managers registry.
-	 * @return a map that links schemes to their source managers
+	 * @return a thread safe map that links schemes to their source managers
+	 * @see #addSourceManager(SourceManager)
 	 */
 	public Map<String, SourceManager> getSourceManagers() {
 		return sources;
 	}
 	
 	/** Gets the destination managers registry.
-	 * @return a map that links schemes to their destination managers
+	 * @return a thread safe map that links schemes to their destination managers
+	 * @see #addDestinationManager(DestinationManager)
 	 */
 	@SuppressWarnings("rawtypes")
 	public Map<String, DestinationManager> getDestinationManagers() {
 		return destinations;
 	}
 	
+	/** Adds a source manager.
+	 * <br>It replaces the manager that has the same {@link SourceManager#getScheme() scheme}, if any.
+	 * @param manager The manager
+	 * @throws IllegalArgumentException if manager is null
+	 */
+	public void addSourceManager(SourceManager manager) {
+		if (manager==null) {
+			throw new IllegalArgumentException();
+		}
+		sources.put(manager.getScheme(), manager);
+	}
+	
+	/** Adds a destination manager.
+	 * <br>It replaces the manager that has the same {@link DestinationManager#getScheme() scheme}, if any.
+	 * @param manager The manager
+	 * @throws IllegalArgumentException if manager is null
+	 */
+	public void addDestinationManager(DestinationManager<?> manager) {
+		if (manager==null) {
+			throw new IllegalArgumentException();
+		}
+		destinations.put(manager.getScheme(), manager);
+	}
+	
+	/** Sets the algorithm used to compute the digests of the backups.
+	 * <br>The digests are computed by the source manager while it saves the data source (when it supports it), and stored in the {@link BackupManifest}
+	 * passed to every destination and returned in the {@link BackupResult}.
+	 * @param algorithm An algorithm name (see {@link Digester#get(String)}), default is {@value Digester#CRC32C}
+	 * @throws IllegalArgumentException if the algorithm is not supported
+	 */
+	public synchronized void setDigestAlgorithm(String algorithm) {
+		this.context = context.withDigestAlgorithm(algorithm);
+	}
+	
+	/** Sets the maximum number of destinations the backup is sent to at the same time.
+	 * @param concurrentUploads a strictly positive int (default is {@value #DEFAULT_CONCURRENT_UPLOADS})
+	 * @throws IllegalArgumentException if concurrentUploads is not strictly positive
+	 */
+	public synchronized void setConcurrentUploads(int concurrentUploads) {
+		this.context = context.withConcurrentUploads(concurrentUploads);
+	}
+	
+	/** Adds a listener of the backups lifecycle.
+	 * @param listener The listener
+	 * @throws IllegalArgumentException if listener is null
+	 */
+	public void addListener(BackupListener listener) {
+		listeners.add(listener);
+	}
+	
+	/** Removes a listener.
+	 * @param listener The listener
+	 * @return true if the listener was registered
+	 */
+	public boolean removeListener(BackupListener listener) {
+		return listeners.remove(listener);
+	}
+	
+	/** Sets the factory of the threads that send the backups to the destinations.
+	 * <br>Please note that the threads used by the source managers are set on the source managers (see {@link com.fathzer.jdbbackup.sources.CompressingSourceManager#setThreadFactory(ThreadFactory)}).
+	 * @param threadFactory A thread factory (default creates virtual threads on Java 21+, see {@link Threads})
+	 * @throws IllegalArgumentException if threadFactory is null
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		if (threadFactory==null) {
+			throw new IllegalArgumentException();
+		}
+		this.threadFactory = threadFactory;
+	}
+	
+	/** Sets the default policy used to retry sending the backup to a destination after a failure.
+	 * <br>Retries replay the staged backup, the data source is never backed up again.
+	 * <br>Please note that retries are not possible in {@link #setStreaming(boolean) streaming mode} (the data is sent while it is produced).
+	 * @param retryPolicy The policy (default is {@link RetryPolicy#NONE})
+	 * @throws IllegalArgumentException if retryPolicy is null
+	 * @see #setRetryPolicy(String, RetryPolicy)
+	 */
+	public synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.context = context.withRetryPolicy(retryPolicy);
+	}
+	
+	/** Sets the policy used to retry sending the backup to the destinations of a scheme.
+	 * @param scheme The scheme of the destinations (for example <i>file</i>)
+	 * @param retryPolicy The policy or null to use the {@link #setRetryPolicy(RetryPolicy) default policy}
+	 * @throws IllegalArgumentException if scheme is null
+	 */
+	public synchronized void setRetryPolicy(String scheme, RetryPolicy retryPolicy) {
+		this.context = context.withRetryPolicy(scheme, retryPolicy);
+	}
+	
+	private static RetryPolicy getRetryPolicy(BackupContext context, Saver<?> saver) {
+		return context.getRetryPolicy(saver.getScheme());
+	}
+	
+	/** Sets the size of the parts sent to the {@link ChunkedDestinationManager}s.
+	 * <br>When chunked sends are enabled, the backups are sent in parts to the destinations whose manager implements {@link ChunkedDestinationManager}.
+	 * If such a send fails, the parts already committed by the destination are not sent again by the next send of the same backup.
+	 * <br>Please note that chunked sends are not used in {@link #setStreaming(boolean) streaming mode}.
+	 * @param chunkSize The maximum size of the parts, 0 to disable chunked sends (this is the default)
+	 * @throws IllegalArgumentException if chunkSize is negative
+	 */
+	public synchronized void setChunkSize(long chunkSize) {
+		this.context = context.withChunkSize(chunkSize);
+	}
+	
+	/** Sets the limiter of the uploads.
+	 * <br>The limiter is shared by all the uploads of all the backups that use the instance settings, its rate can be changed while backups are running.
+	 * Use {@link #backup(BackupContext, String, String...)} with {@link BackupContext#withUploadRateLimiter(RateLimiter)} to limit a single backup.
+	 * <br>Dumps of the sources that are compressed by this library (for instance mysql or jdbc) can be limited too (see {@link com.fathzer.jdbbackup.sources.CompressingSourceManager#setRateLimiter(RateLimiter)}).
+	 * @param limiter The limiter (null, the default, to not limit the uploads)
+	 */
+	public synchronized void setUploadRateLimiter(RateLimiter limiter) {
+		this.context = context.withUploadRateLimiter(limiter);
+	}
+	
 	/** Makes a backup.
+	 * <br>The backup is sent concurrently to up to {@link #setConcurrentUploads(int) a maximum number of} destinations.
+	 * A failed destination does not prevent the backup from being sent to the others.
 	 * @param source The address of the data base source (its format depends on the data base type)
 	 * @param destinations The addresses of the backup destinations (their format depends on the data base type)
-	 * @throws IOException If something went wrong.
+	 * @return The result of the backup on every destination (all of them are successful, failures are reported by a {@link BackupException}).
+	 * @throws BackupException If the backup was not sent to at least one destination. Its result describes what happened on every destination.
+	 * @throws IOException If something else went wrong.
+	 * @throws IllegalArgumentException if arguments are wrong.
+	 */
+	public BackupResult backup(String source, String... destinations) throws IOException {
+		return backup(context, source, destinations, BackupLimits.NONE);
+	}
+	
+	/** Makes a backup with a specific context.
+	 * <br>Concurrent backups can use different contexts. Please note that a shared {@link ProxyCompliant} manager can't be used with different proxies at the same time:
+	 * the dump of a source waits for the dumps of the same source with another proxy, and a send to a destination waits for the sends to
+	 * the same destination manager with another proxy (except if it is a {@link ProxiedDestinationManager}). In streaming mode, the source and
+	 * the destinations are used at the same time, the backup waits until all of them are available.
+	 * @param context The backup context
+	 * @param source The address of the data base source (its format depends on the data base type)
+	 * @param destinations The addresses of the backup destinations (their format depends on the data base type)
+	 * @return The result of the backup on every destination (see {@link #backup(String, String...)}).
+	 * @throws BackupException If the backup was not sent to at least one destination. Its result describes what happened on every destination.
+	 * @throws IOException If something else went wrong.
 	 * @throws IllegalArgumentException if arguments are wrong.
 	 */
-	public void backup(String source, String... destinations) throws IOException {
-		if (source==null || destinations==null || destinations.length==0) {
+	public BackupResult backup(BackupContext context, String source, String... destinations) throws IOException {
+		return backup(context, source, destinations, BackupLimits.NONE);
+	}
+	
+	BackupResult backup(String source, String[] destinations, BackupLimits limits) throws IOException {
+		return backup(context, source, destinations, limits);
+	}
+	
+	private BackupResult backup(BackupContext context, String source, String[] destinations, BackupLimits limits) throws IOException {
+		if (context==null || source==null || destinations==null || destinations.length==0) {
 			throw new IllegalArgumentException();
 		}
-		final List<Saver<?>> dest = Arrays.stream(destinations).map(Destination::new).map(d -> new Saver<>(d, this.destinations)).collect(Collectors.toList());
-		final File tmpFile = createTempFile();
 		try {
-			backup(source, tmpFile, dest);
-		} finally {
-			Files.delete(tmpFile.toPath());
+			final BackupResult result = doBackup(context, source, destinations, limits);
+			if (!result.isSuccessful()) {
+				throw new BackupException(result);
+			}
+			listeners.backupEnded(source, result, null);
+			return result;
+		} catch (BackupException e) {
+			listeners.backupEnded(source, e.getResult(), e);
+			throw e;
+		} catch (IOException | RuntimeException e) {
+			listeners.backupEnded(source, null, e);
+			throw e;
 		}
 	}
 	
-	/** Creates the temporary file that will be used by the source manager to create the backup.
+	private BackupResult doBackup(BackupContext context, String source, String[] destinations, BackupLimits limits) throws IOException {
+		final List<Saver<?>> dest = new ArrayList<>(destinations.length);
+		for (String address : destinations) {
+			final Destination destination = new Destination(address);
+			listeners.pluginResolved(address, this.destinations.get(destination.getScheme()));
+			dest.add(new Saver<>(destination, this.destinations));
+		}
+		final SourceManager sourceManager = getSourceManager(source);
+		if (sourceManager instanceof BackupListenerAware) {
+			((BackupListenerAware)sourceManager).setBackupListener(listeners);
+		}
+		if (sourceManager instanceof StagingStoreAware) {
+			((StagingStoreAware)sourceManager).setStagingStore(stagingStore);
+		}
+		final BackupManifest manifest = new BackupManifest(context.getDigestAlgorithm());
+		// All the destinations have the date of the backup
+		dest.forEach(s->s.prepare(sourceManager.getExtensionBuilder(source), manifest.getDate(), context.getProxy(), context.getProxyAuthentication()));
+		dest.forEach(s->s.setBackupListener(listeners));
+		if (context.isStreaming() && sourceManager instanceof StreamingSourceManager) {
+			// The source and the destinations are used at the same time, they are acquired all at once (waiting for a destination while holding the source could dead lock)
+			final List<Object> managers = new ArrayList<>();
+			managers.add(sourceManager);
+			dest.forEach(s -> managers.add(s.getProxyCompliant()));
+			final Collection<ProxyCompliant> acquired = acquireProxy(context, managers);
+			try {
+				return stream(context, (StreamingSourceManager)sourceManager, source, destinations, dest, manifest, limits);
+			} finally {
+				proxyGate.release(acquired);
+			}
+		} else {
+			return backup(context, sourceManager, source, destinations, dest, manifest, limits);
+		}
+	}
+
+	/** Acquires the shared managers that use the proxy of a backup.
+	 * <br>Managers are shared, they can't be used with another proxy until they are released (see {@link ProxyGate}).
+	 * @param context The backup context
+	 * @param managers The managers, those that are not {@link ProxyCompliant} (or null) are ignored
+	 * @return The acquired managers, they should be released with {@link ProxyGate#release(Collection)}
+	 * @throws InterruptedIOException if the thread is interrupted while waiting for the managers
+	 */
+	private Collection<ProxyCompliant> acquireProxy(BackupContext context, Collection<?> managers) throws InterruptedIOException {
+		final List<ProxyCompliant> proxied = managers.stream().filter(ProxyCompliant.class::isInstance).map(ProxyCompliant.class::cast).collect(Collectors.toList());
+		return proxied.isEmpty() ? Collections.emptyList() : proxyGate.acquire(proxied, context.getProxy(), context.getProxyAuthentication());
+	}
+	
+	/** Makes a backup asynchronously.
+	 * <br>The backup is made by a task submitted to an executor. Cancelling the returned future interrupts this task: the process that saves the data source
+	 * is killed and the sends to the destinations are interrupted.
+	 * @param executor The executor that runs the backup.
+	 * @param source The address of the data base source (its format depends on the data base type)
+	 * @param destinations The addresses of the backup destinations (their format depends on the data base type)
+	 * @return A future completed with the backup result (see {@link #backup(String, String...)}), or with the exception it threw.
+	 * @throws IllegalArgumentException if executor or source is null or if there's no destination.
+	 */
+	public CompletableFuture<BackupResult> backupAsync(Executor executor, String source, String... destinations) {
+		if (executor==null || source==null || destinations==null || destinations.length==0) {
+			throw new IllegalArgumentException();
+		}
+		final BackupContext backupContext = context;
+		final BackupFuture future = new BackupFuture(() -> backup(backupContext, source, destinations));
+		executor.execute(future);
+		return future;
+	}
+	
+	/** A future that interrupts the thread that computes it when it is cancelled.
+	 */
+	private static class BackupFuture extends CompletableFuture<BackupResult> implements Runnable {
+		private final Callable<BackupResult> task;
+		private Thread thread;
+
+		private BackupFuture(Callable<BackupResult> task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (isDone()) {
+					return;
+				}
+				thread = Thread.currentThread();
+			}
+			try {
+				complete(task.call());
+			} catch (Exception e) {
+				completeExceptionally(e);
+			} finally {
+				synchronized (this) {
+					thread = null;
+					if (isCancelled()) {
+						// Do not leave the executor thread interrupted
+						Thread.interrupted();
+					}
+				}
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			final boolean result = super.cancel(mayInterruptIfRunning);
+			if (result) {
+				synchronized (this) {
+					if (thread!=null) {
+						thread.interrupt();
+					}
+				}
+			}
+			return result;
+		}
+	}
+	
+	/** Gets the store where backups are staged before being sent to their destinations.
+	 * @return a staging store
+	 */
+	public StagingStore getStagingStore() {
+		return stagingStore;
+	}
+	
+	/** Sets the store where backups are staged before being sent to their destinations.
+	 * <br>Please note that the temporary files of the staging store returned by {@link #getStagingStore()} are created by {@link #createTempFile()}.
+	 * Replacing the store makes this method useless, the files are created by {@link StagingStore#createFile()}.
+	 * @param stagingStore The new staging store.
+	 * @throws IllegalArgumentException if stagingStore is null
+	 */
+	public void setStagingStore(StagingStore stagingStore) {
+		if (stagingStore==null) {
+			throw new IllegalArgumentException();
+		}
+		this.stagingStore = stagingStore;
+	}
+	
+	/** Creates a temporary file that will be used to stage the backup.
+	 * <br>It creates the file in the {@link StagingStore#setDirectory(java.nio.file.Path) staging store directory} and attempts to ensure that it is readable only by the owner of the account running the program.
+	 * <br>Please note that small backups are not staged in a file, but in memory (see {@link StagingStore}).
 	 * @return a File.
 	 * @throws IOException If something went wrong.
 	 */
 	protected File createTempFile() throws IOException {
-		final File tmpFile = Files.createTempFile("JDBBackup", ".gz").toFile();
-		if(!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
-			// On Posix compliant systems, java create tmp files with read/write rights only for user
-			// Let do the same on non Posix systems
-			final boolean readUserOnly = tmpFile.setReadable(true, true);
-			final boolean writeUserOnly = tmpFile.setWritable(true, true);
-			if (! (readUserOnly && writeUserOnly)) {
-				LoggerFactory.getLogger(getClass()).warn("Fail to apply security restrictions on temporary file. Restrict read to user: {}, restrict write to user: {}", readUserOnly, writeUserOnly);
+		return StagingStore.newTempFile(stagingStore.getDirectory());
+	}
+	
+	private BackupResult backup(BackupContext context, SourceManager sourceManager, String source, String[] addresses, List<Saver<?>> savers, BackupManifest manifest, BackupLimits limits) throws IOException {
+		try (StagedData staged = stagingStore.create(source)) {
+			limits.acquireDump();
+			final long dumpStart = System.nanoTime();
+			listeners.dumpStarted(source);
+			try {
+				// The source is not used with another proxy while it is dumped, the destinations only while they are sent
+				final Collection<ProxyCompliant> acquired = acquireProxy(context, Collections.singletonList(sourceManager));
+				try {
+					if (sourceManager instanceof StreamingSourceManager) {
+						// Allows the backup to be staged in memory
+						try (OutputStream out = staged.getOutputStream()) {
+							((StreamingSourceManager)sourceManager).save(source, out, manifest);
+						}
+					} else {
+						sourceManager.save(source, staged.toFile(), manifest);
+					}
+				} finally {
+					proxyGate.release(acquired);
+				}
+			} catch (IOException | RuntimeException e) {
+				listeners.dumpEnded(source, since(dumpStart), e);
+				throw e;
+			} finally {
+				limits.releaseDump();
 			}
-			if (tmpFile.setExecutable(false, false)) {
-				LoggerFactory.getLogger(getClass()).debug("Impossible to set temporary file not executable on this system");
+			final Duration dumpDuration = since(dumpStart);
+			listeners.dumpEnded(source, dumpDuration, null);
+			final long size = staged.getSize();
+			if (manifest.getSize()<0) {
+				manifest.setCompressed(size, null);
 			}
+			final ExecutorService executor = newUploadExecutor(context, savers.size());
+			final ChunkedUploader chunkedUploader = context.getChunkSize()==0 ? null : new ChunkedUploader(context.getChunkSize(), context.getUploadRateLimiter());
+			final long uploadStart = System.nanoTime();
+			try {
+				final List<Future<DestinationResult>> uploads = upload(executor, addresses, savers, saver -> getRetryPolicy(context, saver), limits, (saver, index) -> {
+					// With a single destination, the staged file is not needed after the upload, the destination can move it (unless it could be needed by a retry)
+					final boolean movable = savers.size()==1 && getRetryPolicy(context, saver).getMaxAttempts()==1;
+					final Collection<ProxyCompliant> acquired = acquireProxy(context, Collections.singletonList(saver.getProxyCompliant()));
+					try {
+						saver.send(staged, movable, manifest, chunkedUploader, context.getUploadRateLimiter(), count -> listeners.uploadProgress(addresses[index], count));
+					} finally {
+						proxyGate.release(acquired);
+					}
+				});
+				return getResult(uploads, manifest, dumpDuration, uploadStart);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+	
+	private BackupResult stream(BackupContext context, StreamingSourceManager sourceManager, String source, String[] addresses, List<Saver<?>> savers, BackupManifest manifest, BackupLimits limits) throws IOException {
+		// With a single destination, there's no other destination to slow down, no need to spill.
+		// With many destinations, spilling also prevents the source from waiting for destinations queued in the upload executor.
+		final SpillFileFactory spillFactory = savers.size()==1 ? null : stagingStore::createFile;
+		final List<SpillingPipe> pipes = new ArrayList<>(savers.size());
+		for (int i = 0; i < savers.size(); i++) {
+			pipes.add(new SpillingPipe(STREAMING_BUFFER_SIZE, spillFactory));
 		}
-		tmpFile.deleteOnExit();
-		return tmpFile;
+		final FanOutStream fanOut = new FanOutStream(pipes);
+		final ExecutorService executor = newUploadExecutor(context, savers.size());
+		final long uploadStart = System.nanoTime();
+		long dumpStart = uploadStart;
+		Duration dumpDuration;
+		try {
+			// The data is consumed while it is sent, it can't be sent again.
+			// Sends run while the source is saved, they are covered by the dump limits (waiting for an upload slot while holding a dump slot could dead lock).
+			final List<Future<DestinationResult>> uploads = upload(executor, addresses, savers, saver -> RetryPolicy.NONE, BackupLimits.NONE, (saver, index) -> {
+				final InputStream pipe = pipes.get(index).getInputStream();
+				final RateLimiter limiter = context.getUploadRateLimiter();
+				try (InputStream in = new ProgressInputStream(limiter==null ? pipe : limiter.limit(pipe), count -> listeners.uploadProgress(addresses[index], count))) {
+					saver.send(in, -1, manifest);
+				}
+			});
+			try {
+				limits.acquireDump();
+				dumpStart = System.nanoTime();
+				listeners.dumpStarted(source);
+				try {
+					final OutputStream out = new BufferedOutputStream(fanOut, STREAMING_CHUNK_SIZE);
+					sourceManager.save(source, out, manifest);
+					out.flush();
+				} finally {
+					limits.releaseDump();
+				}
+				dumpDuration = since(dumpStart);
+				listeners.dumpEnded(source, dumpDuration, null);
+				fanOut.close();
+			} catch (IOException | RuntimeException e) {
+				listeners.dumpEnded(source, since(dumpStart), e);
+				// Never close the pipes here, destinations would consider the truncated data as complete
+				fanOut.abort(e);
+				final BackupResult result = getResult(uploads, manifest, since(dumpStart), uploadStart);
+				// If all the destinations failed, their errors explain why the source failed
+				if (fanOut.isDeserted()) {
+					return result;
+				}
+				throw e;
+			}
+			return getResult(uploads, manifest, dumpDuration, uploadStart);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@FunctionalInterface
+	private interface Upload {
+		void send(Saver<?> saver, int index) throws IOException;
+	}
+	
+	private ExecutorService newUploadExecutor(BackupContext context, int destinationsCount) {
+		return Executors.newFixedThreadPool(Math.min(context.getConcurrentUploads(), destinationsCount), threadFactory);
 	}
 	
-	private void backup(String source, File tmpFile, Collection<Saver<?>> savers) throws IOException {
-		final SourceManager sourceManager = getSourceManager(new Destination(source).getScheme());
-		if (sourceManager instanceof ProxyCompliant) {
-			((ProxyCompliant)sourceManager).setProxy(proxy, auth);
+	private List<Future<DestinationResult>> upload(ExecutorService executor, String[] addresses, List<Saver<?>> savers, Function<Saver<?>, RetryPolicy> policies, BackupLimits limits, Upload upload) {
+		final List<Future<DestinationResult>> result = new ArrayList<>(savers.size());
+		for (int i = 0; i < savers.size(); i++) {
+			final int index = i;
+			result.add(executor.submit(() -> {
+				final long start = System.nanoTime();
+				final Saver<?> saver = savers.get(index);
+				final RetryPolicy policy = policies.apply(saver);
+				Exception error;
+				int attempt = 0;
+				do {
+					attempt++;
+					error = send(upload, saver, index, addresses[index], attempt, limits);
+				} while (error!=null && policy.shouldRetry(attempt, error) && wait(policy.getDelay(attempt), addresses[index], attempt, error));
+				return new DestinationResult(addresses[index], since(start), attempt, error);
+			}));
 		}
-		savers.forEach(s->s.prepare(sourceManager.getExtensionBuilder()));
-		sourceManager.save(source, tmpFile);
-		for (Saver<?> s : savers) {
-			s.setProxy(proxy, auth);
-			try (InputStream in = new BufferedInputStream(new FileInputStream(tmpFile))) {
-				s.send(in, tmpFile.length());
+		return result;
+	}
+	
+	private Exception send(Upload upload, Saver<?> saver, int index, String address, int attempt, BackupLimits limits) {
+		try {
+			limits.acquireUpload();
+		} catch (IOException e) {
+			return e;
+		}
+		final long start = System.nanoTime();
+		listeners.uploadStarted(address, attempt);
+		Exception error = null;
+		try {
+			upload.send(saver, index);
+		} catch (IOException | RuntimeException e) {
+			error = e;
+		} finally {
+			limits.releaseUpload();
+		}
+		listeners.uploadEnded(address, since(start), error);
+		return error;
+	}
+	
+	private static boolean wait(Duration delay, String address, int attempt, Exception error) {
+		log.warn("Attempt {} to send backup to {} failed, retrying in {}ms", attempt, address, delay.toMillis(), error);
+		try {
+			Thread.sleep(delay.toMillis());
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	private static Duration since(long start) {
+		return Duration.ofNanos(System.nanoTime()-start);
+	}
+	
+	private static BackupResult getResult(List<Future<DestinationResult>> uploads, BackupManifest manifest, Duration dumpDuration, long uploadStart) throws InterruptedIOException {
+		final List<DestinationResult> results = new ArrayList<>(uploads.size());
+		for (Future<DestinationResult> upload : uploads) {
+			try {
+				results.add(upload.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				// Upload tasks catch exceptions, only errors can get there
+				throw (Error)e.getCause();
 			}
 		}
+		return new BackupResult(results, manifest, dumpDuration, since(uploadStart));
 	}
 	
-	private SourceManager getSourceManager(String dbType) {
+	private SourceManager getSourceManager(String source) {
+		final String dbType = new Destination(source).getScheme();
 		final SourceManager saver = sources.get(dbType);
+		listeners.pluginResolved(source, saver);
 		if (saver==null) {
 			throw new IllegalArgumentException("Unknown data source type: "+dbType);
 		}
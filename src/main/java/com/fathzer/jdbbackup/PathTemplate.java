@@ -0,0 +1,84 @@
+package com.fathzer.jdbbackup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** A path compiled by a {@link DefaultPathDecoder}.
+ * <br>The path is parsed once in a list of literal and pattern segments. Resolving the template only decodes the pattern segments.
+ * <br>Instances of this class are immutable and thread safe.
+ * @see DefaultPathDecoder#compile(String)
+ */
+public final class PathTemplate {
+	private static final Pattern PATTERN = Pattern.compile("\\{(\\p{Lower}+)=([^\\}]+)\\}");
+
+	private final DefaultPathDecoder decoder;
+	private final String path;
+	private final Segment[] segments;
+
+	private static final class Segment {
+		/** The literal text or the value of the pattern */
+		private final String value;
+		/** The name of the pattern or null if the segment is a literal */
+		private final String name;
+
+		private Segment(String name, String value) {
+			this.name = name;
+			this.value = value;
+		}
+	}
+
+	PathTemplate(DefaultPathDecoder decoder, String path) {
+		this.decoder = decoder;
+		this.path = path;
+		final List<Segment> list = new ArrayList<>();
+		final Matcher m = PATTERN.matcher(path);
+		int previous = 0;
+		while (m.find()) {
+			if (previous!=m.start()) {
+				list.add(new Segment(null, path.substring(previous, m.start())));
+			}
+			list.add(new Segment(m.group(1), m.group(2)));
+			previous = m.end();
+		}
+		if (previous<path.length()) {
+			list.add(new Segment(null, path.substring(previous)));
+		}
+		this.segments = list.toArray(new Segment[0]);
+	}
+
+	/** Gets the path of this template.
+	 * @return The encoded path
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/** Resolves this template.
+	 * @param timestamp The instant used to decode date patterns
+	 * @return The decoded path
+	 * @throws DefaultPathDecoder.IllegalNamePatternException if a pattern is not valid
+	 * @throws IllegalArgumentException if a pattern can't be decoded (for instance if a file does not exist)
+	 */
+	public String resolve(Instant timestamp) {
+		if (segments.length==1 && segments[0].name==null) {
+			return path;
+		}
+		final StringBuilder sb = new StringBuilder(path.length()+32);
+		for (Segment segment : segments) {
+			if (segment.name==null) {
+				sb.append(segment.value);
+			} else {
+				sb.append(decoder.decode(segment.name, segment.value, timestamp));
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
@@ -0,0 +1,60 @@
+package com.fathzer.jdbbackup;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.LongConsumer;
+
+/** An input stream that reports the number of bytes read.
+ */
+class ProgressInputStream extends FilterInputStream {
+	private final LongConsumer progress;
+
+	ProgressInputStream(InputStream in, LongConsumer progress) {
+		super(in);
+		this.progress = progress;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int result = super.read();
+		if (result>=0) {
+			progress.accept(1);
+		}
+		return result;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		final int result = in.read(b, off, len);
+		if (result>0) {
+			progress.accept(result);
+		}
+		return result;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		final long result = super.skip(n);
+		if (result>0) {
+			progress.accept(result);
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		// Not supported
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	@Override
+	public boolean markSupported() {
+		// Bytes read again after a reset would be counted twice
+		return false;
+	}
+}
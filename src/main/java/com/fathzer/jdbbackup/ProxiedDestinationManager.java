@@ -0,0 +1,26 @@
+package com.fathzer.jdbbackup;
+
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.time.Instant;
+import java.util.function.Function;
+
+/** A {@link DestinationManager} whose destinations embed the proxy used to reach them.
+ * <br>The proxy of the backup is passed with every destination, so the same instance can be used at the same time by backups that use different proxies:
+ * {@link JDbBackup} never calls {@link ProxyCompliant#setProxy(Proxy, PasswordAuthentication)} on such a manager and never waits for other backups to use it.
+ * @param <T> The type of the destinations
+ */
+public interface ProxiedDestinationManager<T> extends DestinationManager<T> {
+	/** Tests whether a destination of a backup that uses a proxy is valid.
+	 * <br>The returned destination is used by all the sends of the backup, so it should contain the proxy.
+	 * @param path The destination path.
+	 * @param extensionBuilder a function that transforms a path that may contain or not an file extension (like .gz) to a path with the extension.
+	 * @param timestamp The date of the backup.
+	 * @param proxy The proxy to use to connect to the destination ({@link Proxy#NO_PROXY} if no proxy is used).
+	 * @param auth The proxy authentication (null if the proxy does not require authentication).
+	 * @return An internal representation of where the backup will be saved.
+	 * @throws IllegalArgumentException If the path is not valid.
+	 * @see #validate(String, Function, Instant)
+	 */
+	T validate(String path, Function<String,CharSequence> extensionBuilder, Instant timestamp, Proxy proxy, PasswordAuthentication auth);
+}
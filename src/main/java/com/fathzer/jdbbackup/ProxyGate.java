@@ -0,0 +1,135 @@
+package com.fathzer.jdbbackup;
+
+import java.io.InterruptedIOException;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A gate that prevents shared {@link ProxyCompliant} managers from being used with different proxies at the same time.
+ * <br>Managers are singletons that keep the proxy passed to {@link ProxyCompliant#setProxy(Proxy, PasswordAuthentication)}.
+ * Backups that use the same proxy settings use the managers concurrently, a backup that uses other settings waits until the managers are released.
+ * <br>The managers passed to an acquisition are acquired all at once, so backups waiting for each other can't dead lock.
+ * <br>The gate is fair: An acquisition never overtakes an older waiting acquisition of the same managers with other settings.
+ * So, a continuous flow of backups that use a proxy can't prevent a backup that uses another proxy from starting.
+ */
+final class ProxyGate {
+	private final Map<ProxyCompliant, Usage> usages = new IdentityHashMap<>();
+	/** The waiting acquisitions, the oldest first. */
+	private final List<Request> waiting = new ArrayList<>();
+
+	private static final class Request {
+		private final Collection<ProxyCompliant> managers;
+		private final Proxy proxy;
+		private final PasswordAuthentication auth;
+
+		private Request(Collection<ProxyCompliant> managers, Proxy proxy, PasswordAuthentication auth) {
+			this.managers = managers;
+			this.proxy = proxy;
+			this.auth = auth;
+		}
+
+		private boolean conflicts(Request other) {
+			return !isSame(proxy, auth, other.proxy, other.auth) && other.managers.stream().anyMatch(managers::contains);
+		}
+	}
+
+	private static final class Usage {
+		private final Proxy proxy;
+		private final PasswordAuthentication auth;
+		private int count;
+
+		private Usage(Proxy proxy, PasswordAuthentication auth) {
+			this.proxy = proxy;
+			this.auth = auth;
+		}
+
+		private boolean isCompatible(Proxy proxy, PasswordAuthentication auth) {
+			return isSame(this.proxy, this.auth, proxy, auth);
+		}
+	}
+
+	private static boolean isSame(Proxy proxy, PasswordAuthentication auth, Proxy otherProxy, PasswordAuthentication otherAuth) {
+		return proxy.equals(otherProxy) && (auth==otherAuth || (auth!=null && otherAuth!=null && auth.getUserName().equals(otherAuth.getUserName()) &&
+				Arrays.equals(auth.getPassword(), otherAuth.getPassword())));
+	}
+
+	/** Acquires managers for a proxy.
+	 * <br>The proxy is set on the managers that are not already used with it.
+	 * @param managers The managers (the same manager can be present more than once)
+	 * @param proxy The proxy
+	 * @param auth The proxy authentication
+	 * @return The acquired managers, that should be released with {@link #release(Collection)}
+	 * @throws InterruptedIOException if the thread is interrupted while waiting for the managers
+	 */
+	synchronized Collection<ProxyCompliant> acquire(Collection<? extends ProxyCompliant> managers, Proxy proxy, PasswordAuthentication auth) throws InterruptedIOException {
+		final Map<ProxyCompliant, Boolean> distinct = new IdentityHashMap<>();
+		managers.forEach(m -> distinct.put(m, Boolean.TRUE));
+		final Request request = new Request(distinct.keySet(), proxy, auth);
+		waiting.add(request);
+		try {
+			while (!isAvailable(request)) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			waiting.remove(request);
+			// Younger acquisitions may have been waiting for this one
+			notifyAll();
+		}
+		final List<ProxyCompliant> acquired = new ArrayList<>(distinct.size());
+		try {
+			for (ProxyCompliant manager : distinct.keySet()) {
+				Usage usage = usages.get(manager);
+				if (usage==null) {
+					manager.setProxy(proxy, auth);
+					usage = new Usage(proxy, auth);
+					usages.put(manager, usage);
+				}
+				usage.count++;
+				acquired.add(manager);
+			}
+		} catch (RuntimeException e) {
+			release(acquired);
+			throw e;
+		}
+		return acquired;
+	}
+
+	private boolean isAvailable(Request request) {
+		for (ProxyCompliant manager : request.managers) {
+			final Usage usage = usages.get(manager);
+			if (usage!=null && !usage.isCompatible(request.proxy, request.auth)) {
+				return false;
+			}
+		}
+		for (Request older : waiting) {
+			if (older==request) {
+				return true;
+			}
+			if (older.conflicts(request)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Releases managers.
+	 * @param managers The managers returned by {@link #acquire(Collection, Proxy, PasswordAuthentication)}
+	 */
+	synchronized void release(Collection<ProxyCompliant> managers) {
+		for (ProxyCompliant manager : managers) {
+			final Usage usage = usages.get(manager);
+			if (--usage.count==0) {
+				usages.remove(manager);
+			}
+		}
+		notifyAll();
+	}
+}
@@ -0,0 +1,95 @@
+package com.fathzer.jdbbackup;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/** The policy used to retry sending a backup to a destination after a failure.
+ * <br>The delay between two attempts grows exponentially, from an initial delay up to a maximum delay. A random jitter (up to half the delay)
+ * is subtracted from every delay, so that destinations that failed at the same time are not retried at the same time.
+ * <br>Only the errors accepted by a predicate are retried, by default, {@link IOException}s except the ones that are not likely to be transient
+ * (see {@link #DEFAULT_RETRYABLE}).
+ * <br>Please note that a retry only sends the staged backup again, it never makes a new backup of the source.
+ * <br>This class is immutable.
+ */
+public final class RetryPolicy {
+	/** The default retryable errors predicate.
+	 * <br>It accepts {@link IOException}s except {@link InterruptedIOException}, {@link FileNotFoundException}, {@link NoSuchFileException} and {@link AccessDeniedException}.
+	 */
+	public static final Predicate<Exception> DEFAULT_RETRYABLE = e -> e instanceof IOException && !(e instanceof InterruptedIOException ||
+			e instanceof FileNotFoundException || e instanceof NoSuchFileException || e instanceof AccessDeniedException);
+	/** A policy that never retries. */
+	public static final RetryPolicy NONE = new RetryPolicy(1, Duration.ZERO, Duration.ZERO);
+
+	private final int maxAttempts;
+	private final Duration initialDelay;
+	private final Duration maxDelay;
+	private final Predicate<Exception> retryable;
+
+	/** Constructor.
+	 * <br>The retryable errors are the ones accepted by {@link #DEFAULT_RETRYABLE}.
+	 * @param maxAttempts The maximum number of attempts (1 to never retry)
+	 * @param initialDelay The delay before the first retry
+	 * @param maxDelay The maximum delay between two attempts
+	 * @throws IllegalArgumentException if maxAttempts is not strictly positive, if a delay is null or negative or if maxDelay is less than initialDelay
+	 */
+	public RetryPolicy(int maxAttempts, Duration initialDelay, Duration maxDelay) {
+		this(maxAttempts, initialDelay, maxDelay, DEFAULT_RETRYABLE);
+	}
+
+	/** Constructor.
+	 * @param maxAttempts The maximum number of attempts (1 to never retry)
+	 * @param initialDelay The delay before the first retry
+	 * @param maxDelay The maximum delay between two attempts
+	 * @param retryable A predicate that returns true if an error can be retried
+	 * @throws IllegalArgumentException if maxAttempts is not strictly positive, if a delay is null or negative, if maxDelay is less than initialDelay or if retryable is null
+	 */
+	public RetryPolicy(int maxAttempts, Duration initialDelay, Duration maxDelay, Predicate<Exception> retryable) {
+		if (maxAttempts<=0) {
+			throw new IllegalArgumentException("Max attempts should be strictly positive");
+		}
+		if (initialDelay==null || maxDelay==null || initialDelay.isNegative() || maxDelay.compareTo(initialDelay)<0) {
+			throw new IllegalArgumentException("Delays should be positive and max delay should not be less than initial delay");
+		}
+		if (retryable==null) {
+			throw new IllegalArgumentException();
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.retryable = retryable;
+	}
+
+	/** Gets the maximum number of attempts.
+	 * @return a strictly positive int
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/** Tests whether an attempt should be retried.
+	 * @param attempt The number of the failed attempt (1 for the first one)
+	 * @param error The error of the failed attempt
+	 * @return true if another attempt should be made
+	 */
+	public boolean shouldRetry(int attempt, Exception error) {
+		return attempt<maxAttempts && retryable.test(error);
+	}
+
+	/** Gets the delay to wait after a failed attempt.
+	 * @param attempt The number of the failed attempt (1 for the first one)
+	 * @return a duration between half and the whole of min(initialDelay*2^(attempt-1), maxDelay)
+	 */
+	public Duration getDelay(int attempt) {
+		final long max = maxDelay.toMillis();
+		final int shift = Math.min(attempt-1, 62);
+		final long initial = initialDelay.toMillis();
+		final long delay = initial > (max>>shift) ? max : initial<<shift;
+		return Duration.ofMillis(delay - ThreadLocalRandom.current().nextLong(delay/2+1));
+	}
+}
@@ -1,13 +1,19 @@
 package com.fathzer.jdbbackup;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.PasswordAuthentication;
 import java.net.Proxy;
+import java.time.Instant;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
 
-class Saver<T> implements ProxyCompliant {
+import com.fathzer.jdbbackup.utils.FileChannelInputStream;
+import com.fathzer.jdbbackup.utils.RateLimiter;
+
+class Saver<T> {
 	private final Destination d;
 	private T dest;
 	private final DestinationManager<T> manager;
@@ -21,19 +27,67 @@ class Saver<T> implements ProxyCompliant {
 		this.d = d;
 	}
 
-	@Override
-	public void setProxy(Proxy proxy, PasswordAuthentication auth) {
-		ProxyCompliant.super.setProxy(proxy, auth);
-		if (manager instanceof ProxyCompliant) {
-			((ProxyCompliant)manager).setProxy(proxy, auth);
+	DestinationManager<T> getManager() {
+		return manager;
+	}
+	
+	String getScheme() {
+		return d.getScheme();
+	}
+	
+	@SuppressWarnings("unchecked")
+	void prepare(Function<String,CharSequence> extensionBuilder, Instant timestamp, Proxy proxy, PasswordAuthentication auth) {
+		if (manager instanceof ProxiedDestinationManager) {
+			this.dest = ((ProxiedDestinationManager<T>)manager).validate(d.getPath(), extensionBuilder, timestamp, proxy, auth);
+		} else {
+			this.dest = manager.validate(d.getPath(), extensionBuilder, timestamp);
 		}
 	}
+
+	/** Gets the manager that should be used with the proxy of the backup.
+	 * @return The manager, or null if the manager does not use a proxy or receives it with the destination (see {@link ProxiedDestinationManager}).
+	 */
+	ProxyCompliant getProxyCompliant() {
+		return manager instanceof ProxyCompliant && !(manager instanceof ProxiedDestinationManager) ? (ProxyCompliant)manager : null;
+	}
 	
-	void prepare(Function<String,CharSequence> extensionBuilder) {
-		this.dest = manager.validate(d.getPath(), extensionBuilder);
+	void send(InputStream in, long size, BackupManifest manifest) throws IOException {
+		manager.send(in, size, dest, manifest);
 	}
 	
-	void send(InputStream in, long size) throws IOException {
-		manager.send(in, size, dest);
+	void setBackupListener(BackupListener listener) {
+		if (manager instanceof BackupListenerAware) {
+			((BackupListenerAware)manager).setBackupListener(listener);
+		}
+	}
+	
+	/** Gets a stream on a staged backup.
+	 * @return The unbuffered stream of the backup if the manager can use its channel (see {@link FileChannelCompliant}), a buffered stream otherwise.
+	 */
+	private InputStream newInputStream(StagedData staged, boolean movable) throws IOException {
+		if (manager instanceof FileChannelCompliant) {
+			return staged.newInputStream(movable);
+		}
+		final InputStream in = staged.newInputStream(false);
+		return in instanceof FileChannelInputStream ? new BufferedInputStream(in) : in;
+	}
+
+	@SuppressWarnings("unchecked")
+	void send(StagedData staged, boolean movable, BackupManifest manifest, ChunkedUploader uploader, RateLimiter limiter, LongConsumer progress) throws IOException {
+		if (uploader!=null && manager instanceof ChunkedDestinationManager) {
+			uploader.send((ChunkedDestinationManager<T>)manager, dest, staged, manifest);
+			progress.accept(staged.getSize());
+		} else if (limiter!=null) {
+			send(new ProgressInputStream(limiter.limit(newInputStream(staged, movable)), progress), staged.getSize(), manifest);
+		} else {
+			final InputStream in = newInputStream(staged, movable);
+			if (in instanceof FileChannelInputStream) {
+				// Wrapping the stream would prevent the destination from avoiding copies
+				send(in, staged.getSize(), manifest);
+				progress.accept(staged.getSize());
+			} else {
+				send(new ProgressInputStream(in, progress), staged.getSize(), manifest);
+			}
+		}
 	}
 }
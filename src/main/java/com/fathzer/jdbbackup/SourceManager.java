@@ -19,6 +19,17 @@ public interface SourceManager {
 		return BasicExtensionBuilder.INSTANCE;
 	}
 	
+	/** Gets the extension builder of this manager for a source.
+	 * <br>This method allows the extension to depend on the source address (for instance, on the compression selected in the source address).
+	 * <br>The default implementation returns {@link #getExtensionBuilder()}.
+	 * @param source The address of the data source to save
+	 * @return a function
+	 * @throws IllegalArgumentException if source is invalid
+	 */
+	default Function<String,CharSequence> getExtensionBuilder(String source) {
+		return getExtensionBuilder();
+	}
+	
 	/** Gets the scheme used in the URL to identify the type of data source this manager can dump.
 	 * @return a string (example mysql)
 	 */
@@ -31,4 +42,16 @@ public interface SourceManager {
 	 * @throws IOException If something went wrong
 	 */
 	void save(String source, File destFile) throws IOException;
+	
+	/** Saves a data source to the specified location and fills the backup manifest.
+	 * <br>The default implementation calls {@link #save(String, File)} and leaves the manifest unchanged.
+	 * Implementations that can compute the manifest information while saving the data source (without reading the backup again) should override this method.
+	 * @param source The address of the data source to save (Its format depends on the SourceManager)
+	 * @param destFile the backup destination file.
+	 * @param manifest The manifest to fill.
+	 * @throws IOException If something went wrong
+	 */
+	default void save(String source, File destFile, BackupManifest manifest) throws IOException {
+		save(source, destFile);
+	}
 }
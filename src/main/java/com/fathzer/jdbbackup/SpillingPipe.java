@@ -0,0 +1,237 @@
+package com.fathzer.jdbbackup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/** A pipe between the thread that produces a backup and the thread that sends it to a destination.
+ * <br>Up to a memory limit, the data written in the pipe is kept in memory. When the reader is too slow, the writer does not wait for it;
+ * the bytes the reader is behind on are written to a spill file. This file is created only if needed and is deleted when the pipe is closed.
+ * When the reader has caught up with the spill file, the data is kept in memory again.
+ * <br>If no spill file factory is provided, the writer waits for the reader when the memory limit is reached.
+ * <br>Chunks written in the pipe are not copied, the writer should not modify them after they were written.
+ */
+final class SpillingPipe {
+	/** A factory of spill files. */
+	@FunctionalInterface
+	interface SpillFileFactory {
+		/** Creates a new empty file.
+		 * @return a file
+		 * @throws IOException If something went wrong
+		 */
+		File create() throws IOException;
+	}
+
+	private final long memoryLimit;
+	private final SpillFileFactory spillFactory;
+	private final Deque<byte[]> chunks = new ArrayDeque<>();
+	/** The read position in the first chunk. */
+	private int chunkPosition;
+	/** The number of unread bytes in memory. */
+	private long memorySize;
+	private File spillFile;
+	private FileChannel spill;
+	/** true if the data is written in the spill file. */
+	private boolean spilling;
+	private long spillReadPosition;
+	private long spillWritePosition;
+	private boolean writerClosed;
+	private boolean readerClosed;
+	private Exception writerError;
+	private final InputStream in = new PipeInputStream();
+
+	/** Constructor.
+	 * @param memoryLimit The maximum number of unread bytes kept in memory
+	 * @param spillFactory The factory used to create the spill file, or null to block the writer when the memory limit is reached.
+	 */
+	SpillingPipe(long memoryLimit, SpillFileFactory spillFactory) {
+		this.memoryLimit = memoryLimit;
+		this.spillFactory = spillFactory;
+	}
+
+	/** Writes a chunk of data.
+	 * <br>If the reader side was closed, the data is silently discarded.
+	 * @param chunk The data to write.
+	 * @throws IOException If the spill file can't be written
+	 */
+	synchronized void write(byte[] chunk) throws IOException {
+		if (spillFactory==null) {
+			// Always accept a chunk when nothing is buffered, otherwise a chunk bigger than the limit would block forever
+			while (!readerClosed && memorySize>0 && memorySize+chunk.length>memoryLimit) {
+				await();
+			}
+		}
+		if (readerClosed || chunk.length==0) {
+			return;
+		}
+		if (spilling || (spillFactory!=null && memorySize+chunk.length>memoryLimit)) {
+			if (spill==null) {
+				spillFile = spillFactory.create();
+				spill = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			spilling = true;
+			final ByteBuffer buffer = ByteBuffer.wrap(chunk);
+			while (buffer.hasRemaining()) {
+				spillWritePosition += spill.write(buffer, spillWritePosition);
+			}
+		} else {
+			chunks.add(chunk);
+			memorySize += chunk.length;
+		}
+		notifyAll();
+	}
+
+	/** Closes the writer side of the pipe.
+	 * <br>Once all the data is read, the reader will reach the end of stream.
+	 */
+	synchronized void close() {
+		writerClosed = true;
+		notifyAll();
+	}
+
+	/** Aborts the writer side of the pipe.
+	 * <br>The reader will receive an exception instead of the remaining data.
+	 * @param e The cause of the abort
+	 */
+	synchronized void abort(Exception e) {
+		writerError = e;
+		notifyAll();
+	}
+
+	/** Gets the reader side of the pipe.
+	 * <br>Closing the returned stream discards all the unread data and deletes the spill file.
+	 * @return an input stream
+	 */
+	InputStream getInputStream() {
+		return in;
+	}
+
+	/** Tests whether the reader side of the pipe is closed.
+	 * @return true if the reader side is closed
+	 */
+	synchronized boolean isReaderClosed() {
+		return readerClosed;
+	}
+
+	/** Tests whether a spill file was created.
+	 * @return true if a spill file was created
+	 */
+	synchronized boolean hasSpilled() {
+		return spillFile!=null;
+	}
+
+	private void await() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private int read(byte[] b, int off, int len) throws IOException {
+		if (len==0) {
+			return 0;
+		}
+		final long position;
+		final int count;
+		synchronized (this) {
+			while (true) {
+				if (readerClosed) {
+					throw new IOException("Stream closed");
+				}
+				if (writerError!=null) {
+					throw new IOException("Backup failed", writerError);
+				}
+				if (!chunks.isEmpty()) {
+					return readMemory(b, off, len);
+				}
+				if (spillReadPosition<spillWritePosition) {
+					position = spillReadPosition;
+					count = (int) Math.min(len, spillWritePosition-spillReadPosition);
+					break;
+				}
+				if (spilling) {
+					// The reader has caught up with the writer, the spill file can be reused from its start
+					spilling = false;
+					spillReadPosition = 0;
+					spillWritePosition = 0;
+				}
+				if (writerClosed) {
+					return -1;
+				}
+				await();
+			}
+		}
+		// The spill file is read outside the lock in order to not block the writer.
+		// The writer never writes in the region being read and the positions are only reset by the reader.
+		final ByteBuffer buffer = ByteBuffer.wrap(b, off, count);
+		while (buffer.hasRemaining()) {
+			final int read = spill.read(buffer, position+buffer.position()-off);
+			if (read<0) {
+				throw new IOException("Unexpected end of spill file");
+			}
+		}
+		synchronized (this) {
+			spillReadPosition += count;
+		}
+		return count;
+	}
+
+	private int readMemory(byte[] b, int off, int len) {
+		final byte[] chunk = chunks.getFirst();
+		final int count = Math.min(len, chunk.length-chunkPosition);
+		System.arraycopy(chunk, chunkPosition, b, off, count);
+		chunkPosition += count;
+		if (chunkPosition==chunk.length) {
+			chunks.removeFirst();
+			chunkPosition = 0;
+		}
+		memorySize -= count;
+		notifyAll();
+		return count;
+	}
+
+	private synchronized void closeReader() throws IOException {
+		if (readerClosed) {
+			return;
+		}
+		readerClosed = true;
+		chunks.clear();
+		memorySize = 0;
+		notifyAll();
+		if (spill!=null) {
+			try {
+				spill.close();
+			} finally {
+				Files.delete(spillFile.toPath());
+			}
+		}
+	}
+
+	private class PipeInputStream extends InputStream {
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			final int count = read(b, 0, 1);
+			return count<0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return SpillingPipe.this.read(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			closeReader();
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package com.fathzer.jdbbackup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.fathzer.jdbbackup.utils.FileChannelInputStream;
+
+/** A backup staged in a {@link StagingStore}.
+ * <br>The backup is written once, either through {@link #getOutputStream()} or in the file returned by {@link #toFile()}.
+ * Then it can be read concurrently by many threads using {@link #newInputStream(boolean)}.
+ */
+public final class StagedData implements Closeable {
+	private final StagingStore store;
+	private final String source;
+	private ByteBuffer buffer;
+	private File file;
+	private FileChannel channel;
+	private long size = -1;
+	private volatile boolean closed;
+
+	StagedData(StagingStore store, String source, int capacity) {
+		this.store = store;
+		this.source = source;
+		if (capacity>0) {
+			this.buffer = store.allocate(capacity);
+		}
+	}
+
+	/** Gets a stream to write the backup.
+	 * <br>The backup is complete when this stream is closed.
+	 * @return an output stream
+	 * @throws IOException If the stream can't be created
+	 */
+	public synchronized OutputStream getOutputStream() throws IOException {
+		checkWritable();
+		if (buffer==null) {
+			openFile();
+		}
+		return new StagingOutputStream();
+	}
+
+	/** Gets a file where to write the backup.
+	 * <br>The backup is complete when this method returns (the file is supposed to be written before calling {@link #newInputStream(boolean)}).
+	 * @return a file
+	 * @throws IOException If the file can't be created
+	 */
+	public synchronized File toFile() throws IOException {
+		checkWritable();
+		freeMemory();
+		file = store.createFile();
+		return file;
+	}
+
+	private void checkWritable() {
+		if ((buffer!=null && buffer.position()>0) || file!=null || closed) {
+			throw new IllegalStateException("Data is already written");
+		}
+	}
+
+	/** Tests whether the backup is kept in memory.
+	 * @return true if the backup is in memory, false if it is in a file.
+	 */
+	public synchronized boolean isInMemory() {
+		return file==null;
+	}
+
+	/** Gets the size of the backup.
+	 * <br>This method should only be called once the backup is completely written.
+	 * @return a number of bytes
+	 * @throws IOException If the size can't be read
+	 */
+	public synchronized long getSize() throws IOException {
+		if (size<0) {
+			size = buffer!=null ? buffer.position() : getChannel().size();
+		}
+		return size;
+	}
+
+	/** Gets a new stream on the backup.
+	 * <br>The streams returned by this method can be read concurrently.
+	 * @param movable true if the reader is allowed to move the backup file (see {@link FileChannelInputStream#getMovableFile()}).
+	 * It should only be true if the returned stream is the last one.
+	 * @return an input stream
+	 * @throws IOException If the stream can't be created
+	 */
+	public synchronized InputStream newInputStream(boolean movable) throws IOException {
+		if (buffer!=null) {
+			final ByteBuffer data = buffer.duplicate();
+			data.flip();
+			return new ByteBufferInputStream(data);
+		}
+		return new FileChannelInputStream(getChannel(), 0, getSize(), movable ? file.toPath() : null);
+	}
+
+	/** Gets a new stream on a range of the backup.
+	 * <br>The streams returned by this method can be read concurrently.
+	 * @param offset The offset of the range
+	 * @param length The length of the range
+	 * @return an input stream
+	 * @throws IOException If the stream can't be created
+	 * @throws IllegalArgumentException if the range is not inside the backup
+	 */
+	public synchronized InputStream newInputStream(long offset, long length) throws IOException {
+		if (offset<0 || length<0 || offset+length>getSize()) {
+			throw new IllegalArgumentException("Range ["+offset+", "+(offset+length)+"[ is outside the backup");
+		}
+		if (buffer!=null) {
+			final ByteBuffer data = buffer.duplicate();
+			data.limit((int)(offset+length));
+			data.position((int)offset);
+			return new ByteBufferInputStream(data);
+		}
+		return new FileChannelInputStream(getChannel(), offset, length);
+	}
+
+	private FileChannel getChannel() throws IOException {
+		if (channel==null) {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		} else if (!channel.isOpen()) {
+			throw new IOException("Staged data is closed");
+		}
+		return channel;
+	}
+
+	/** Releases the memory and deletes the file used by the backup.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		// The size is only known (and remembered) if the backup was completed
+		store.release(source, buffer, size);
+		buffer = null;
+		if (file!=null) {
+			try {
+				if (channel!=null) {
+					channel.close();
+				}
+			} finally {
+				// The file may have been moved by a reader
+				Files.deleteIfExists(file.toPath());
+			}
+		}
+	}
+
+	private void freeMemory() {
+		store.release(source, buffer, -1);
+		buffer = null;
+	}
+
+	private void openFile() throws IOException {
+		file = store.createFile();
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+	}
+
+	private synchronized void write(byte[] b, int off, int len) throws IOException {
+		if (buffer!=null && buffer.remaining()<len) {
+			grow(buffer.position()+len);
+		}
+		if (buffer!=null) {
+			buffer.put(b, off, len);
+		} else {
+			final ByteBuffer data = ByteBuffer.wrap(b, off, len);
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+		}
+	}
+
+	private void grow(int required) throws IOException {
+		// Doubling the buffer limits the number of copies
+		final int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(required, 2L*buffer.capacity()));
+		ByteBuffer bigger = store.allocate(capacity);
+		if (bigger==null && capacity>required) {
+			bigger = store.allocate(required);
+		}
+		if (bigger==null) {
+			spill();
+			return;
+		}
+		buffer.flip();
+		bigger.put(buffer);
+		store.release(source, buffer, -1);
+		buffer = bigger;
+	}
+
+	private void spill() throws IOException {
+		openFile();
+		// The buffer is released once written, it can then be reused by another backup
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		freeMemory();
+	}
+
+	private synchronized void endOfWrite() throws IOException {
+		if (channel!=null) {
+			// The file will be reopened for reading
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private class StagingOutputStream extends OutputStream {
+		private volatile boolean closed;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			StagedData.this.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				endOfWrite();
+			}
+		}
+	}
+
+	private class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer data;
+
+		private ByteBufferInputStream(ByteBuffer data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read() throws IOException {
+			checkOpen();
+			return data.hasRemaining() ? data.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkOpen();
+			if (len==0) {
+				return 0;
+			}
+			if (!data.hasRemaining()) {
+				return -1;
+			}
+			final int count = Math.min(len, data.remaining());
+			data.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) {
+			final int count = (int) Math.max(0, Math.min(n, data.remaining()));
+			data.position(data.position()+count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return data.remaining();
+		}
+
+		private void checkOpen() throws IOException {
+			// Once closed, the buffer can be reused by another backup
+			if (closed) {
+				throw new IOException("Staged data is closed");
+			}
+		}
+	}
+}
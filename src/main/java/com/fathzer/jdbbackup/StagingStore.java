@@ -0,0 +1,225 @@
+package com.fathzer.jdbbackup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.LoggerFactory;
+
+/** The place where backups are staged before being sent to their destinations.
+ * <br>Small backups are kept in off-heap memory, bigger ones are written to a temporary file. The data is first written to memory and, when it exceeds
+ * a threshold (see {@link #setMemoryThreshold(int)}), it is spilled to a file.
+ * <br>The total memory used by all the staged backups is capped (see {@link #setMaxMemory(long)}). When the cap is reached, new backups are staged on disk.
+ * <br>Memory buffers released by the staged backups are kept and reused by the next ones. They are counted in the cap, and discarded when the cap requires it.
+ * <br>The store remembers the size of the previous backups of each source. This allows it to allocate the right memory buffer at once,
+ * or to directly write on disk the backups that are known to be too big for memory.
+ * <br>Temporary files are created by {@link #createFile()}. By default, they are created in the default temporary directory (another one, a tmpfs for instance,
+ * can be set with {@link #setDirectory(Path)}) and it attempts to ensure they are readable only by the owner of the account running the program.
+ * <br>This class is thread safe.
+ */
+public class StagingStore {
+	/** The default size above which a backup is spilled to disk. */
+	public static final int DEFAULT_MEMORY_THRESHOLD = 4*1024*1024;
+	/** The default maximum amount of memory used by all the staged backups. */
+	public static final long DEFAULT_MAX_MEMORY = 64L*1024*1024;
+	/** The smallest memory buffer allocated for a backup. */
+	static final int MIN_BUFFER_SIZE = 64*1024;
+	private static final int MAX_REMEMBERED_SOURCES = 1024;
+
+	private Path directory;
+	private int memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+	private long maxMemory = DEFAULT_MAX_MEMORY;
+	private long usedMemory;
+	/** The buffers released by the staged backups, ready to be reused. */
+	private final List<ByteBuffer> pool = new ArrayList<>();
+	private long pooledMemory;
+	private final Map<String, Long> previousSizes = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size()>MAX_REMEMBERED_SOURCES;
+		}
+	};
+
+	/** Sets the directory where temporary files are created.
+	 * @param directory a directory or null to use the default temporary directory (this is the default).
+	 */
+	public synchronized void setDirectory(Path directory) {
+		this.directory = directory;
+	}
+
+	/** Gets the directory where temporary files are created.
+	 * @return a directory or null if the default temporary directory is used.
+	 */
+	public synchronized Path getDirectory() {
+		return directory;
+	}
+
+	/** Sets the size above which a backup is spilled to disk.
+	 * @param memoryThreshold a positive int, 0 to always stage backups on disk (default is {@value #DEFAULT_MEMORY_THRESHOLD}).
+	 * @throws IllegalArgumentException if memoryThreshold is negative
+	 */
+	public synchronized void setMemoryThreshold(int memoryThreshold) {
+		if (memoryThreshold<0) {
+			throw new IllegalArgumentException("Memory threshold should be positive");
+		}
+		this.memoryThreshold = memoryThreshold;
+		trim(0);
+	}
+
+	/** Sets the maximum amount of memory used by all the backups staged at the same time.
+	 * @param maxMemory a positive number of bytes (default is {@value #DEFAULT_MAX_MEMORY}).
+	 * @throws IllegalArgumentException if maxMemory is negative
+	 */
+	public synchronized void setMaxMemory(long maxMemory) {
+		if (maxMemory<0) {
+			throw new IllegalArgumentException("Max memory should be positive");
+		}
+		this.maxMemory = maxMemory;
+		trim(0);
+	}
+
+	/** Creates a new staging area for a backup.
+	 * @param source The address of the backed up source. It is used to remember the size of the backups of this source.
+	 * @return a new staging area. It should be closed once the backup is sent to its destinations.
+	 */
+	public StagedData create(String source) {
+		final int capacity;
+		synchronized (this) {
+			final Long previous = previousSizes.get(source);
+			if (previous==null) {
+				capacity = Math.min(MIN_BUFFER_SIZE, memoryThreshold);
+			} else if (previous>memoryThreshold) {
+				// Too big for memory
+				capacity = 0;
+			} else {
+				// Leave some room for growth
+				capacity = (int) Math.min(memoryThreshold, Math.max(previous+previous/8, Math.min(MIN_BUFFER_SIZE, memoryThreshold)));
+			}
+		}
+		return new StagedData(this, source, capacity);
+	}
+
+	/** Gets a memory buffer for a staged backup.
+	 * <br>The smallest released buffer that is big enough is reused. If there's none, a new buffer is allocated.
+	 * @param capacity The minimum capacity of the buffer
+	 * @return a cleared buffer or null if the memory threshold or the memory cap would be exceeded.
+	 */
+	synchronized ByteBuffer allocate(int capacity) {
+		if (capacity>memoryThreshold) {
+			return null;
+		}
+		int best = -1;
+		for (int i = 0; i < pool.size(); i++) {
+			final int candidate = pool.get(i).capacity();
+			if (candidate>=capacity && (best<0 || candidate<pool.get(best).capacity())) {
+				best = i;
+			}
+		}
+		if (best>=0) {
+			final ByteBuffer buffer = pool.remove(best);
+			pooledMemory -= buffer.capacity();
+			usedMemory += buffer.capacity();
+			return buffer;
+		}
+		trim(capacity);
+		if (usedMemory+pooledMemory+capacity>maxMemory) {
+			return null;
+		}
+		usedMemory += capacity;
+		return ByteBuffer.allocateDirect(capacity);
+	}
+
+	/** Discards the released buffers that are bigger than the memory threshold and, if needed, other ones to keep room for a new buffer.
+	 * <br>The memory of discarded buffers is freed by the garbage collector.
+	 * @param required The capacity of the new buffer
+	 */
+	private void trim(int required) {
+		pool.removeIf(buffer -> {
+			final boolean discarded = buffer.capacity()>memoryThreshold;
+			if (discarded) {
+				pooledMemory -= buffer.capacity();
+			}
+			return discarded;
+		});
+		// Discard the biggest buffers first, it frees the memory with the fewest buffers
+		pool.sort(Comparator.comparingInt(ByteBuffer::capacity));
+		while (!pool.isEmpty() && usedMemory+pooledMemory+required>maxMemory) {
+			pooledMemory -= pool.remove(pool.size()-1).capacity();
+		}
+	}
+
+	/** Releases the memory buffer of a staged backup.
+	 * @param source The address of the backed up source.
+	 * @param buffer The buffer used by the backup, null if it has none. The buffer should not be used anymore after this call.
+	 * @param size The size of the backup or a negative number if it failed.
+	 */
+	synchronized void release(String source, ByteBuffer buffer, long size) {
+		if (buffer!=null) {
+			usedMemory -= buffer.capacity();
+			buffer.clear();
+			pool.add(buffer);
+			pooledMemory += buffer.capacity();
+			trim(0);
+		}
+		if (size>=0) {
+			previousSizes.put(source, size);
+		}
+	}
+
+	/** Gets the memory currently used by staged backups.
+	 * @return a number of bytes
+	 */
+	public synchronized long getUsedMemory() {
+		return usedMemory;
+	}
+
+	/** Gets the memory allocated by this store.
+	 * @return The memory currently used by staged backups plus the memory of the released buffers kept for reuse (in bytes). It never exceeds the memory cap.
+	 */
+	public synchronized long getAllocatedMemory() {
+		return usedMemory+pooledMemory;
+	}
+
+	/** Creates a temporary file.
+	 * <br>The file is created in the {@link #setDirectory(Path) directory of this store} and this method attempts to make it readable only by its owner.
+	 * <br>If you think the implementation is not safe enough, you can override this method.
+	 * @return a File.
+	 * @throws IOException If something went wrong.
+	 */
+	protected File createFile() throws IOException {
+		return newTempFile(getDirectory());
+	}
+
+	/** Creates a temporary file readable only by its owner.
+	 * @param dir The directory where to create the file, null to use the default temporary directory
+	 * @return a File.
+	 * @throws IOException If something went wrong.
+	 */
+	static File newTempFile(Path dir) throws IOException {
+		final File tmpFile = (dir==null ? Files.createTempFile("JDBBackup", ".gz") : Files.createTempFile(dir, "JDBBackup", ".gz")).toFile();
+		if(!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			// On Posix compliant systems, java create tmp files with read/write rights only for user
+			// Let do the same on non Posix systems
+			final boolean readUserOnly = tmpFile.setReadable(true, true);
+			final boolean writeUserOnly = tmpFile.setWritable(true, true);
+			if (! (readUserOnly && writeUserOnly)) {
+				LoggerFactory.getLogger(StagingStore.class).warn("Fail to apply security restrictions on temporary file. Restrict read to user: {}, restrict write to user: {}", readUserOnly, writeUserOnly);
+			}
+			if (tmpFile.setExecutable(false, false)) {
+				LoggerFactory.getLogger(StagingStore.class).debug("Impossible to set temporary file not executable on this system");
+			}
+		}
+		tmpFile.deleteOnExit();
+		return tmpFile;
+	}
+}
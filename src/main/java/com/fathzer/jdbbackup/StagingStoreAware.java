@@ -0,0 +1,11 @@
+package com.fathzer.jdbbackup;
+
+/** A source manager that creates temporary files.
+ * <br>{@link JDbBackup} sets its {@link StagingStore} before using the manager, the temporary files should be created in the {@link StagingStore#getDirectory() store directory}.
+ */
+public interface StagingStoreAware {
+	/** Sets the staging store.
+	 * @param store The staging store of the backup (never null).
+	 */
+	void setStagingStore(StagingStore store);
+}
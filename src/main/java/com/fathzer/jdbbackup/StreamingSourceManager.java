@@ -0,0 +1,28 @@
+package com.fathzer.jdbbackup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** A {@link SourceManager} able to write its backup directly to a stream, without any intermediate file.
+ * <br>{@link JDbBackup} uses this capability in streaming mode (see {@link JDbBackup#setStreaming(boolean)}).
+ */
+public interface StreamingSourceManager extends SourceManager {
+	/** Saves a data source to a stream.
+	 * @param source The address of the data source to save (Its format depends on the SourceManager)
+	 * @param out The stream where to write the backup. It should be flushed, but not closed, by this method.
+	 * @throws IOException If something went wrong
+	 */
+	void save(String source, OutputStream out) throws IOException;
+
+	/** Saves a data source to a stream and fills the backup manifest.
+	 * <br>The default implementation calls {@link #save(String, OutputStream)} and leaves the manifest unchanged.
+	 * @param source The address of the data source to save (Its format depends on the SourceManager)
+	 * @param out The stream where to write the backup. It should be flushed, but not closed, by this method.
+	 * @param manifest The manifest to fill.
+	 * @throws IOException If something went wrong
+	 * @see SourceManager#save(String, java.io.File, BackupManifest)
+	 */
+	default void save(String source, OutputStream out, BackupManifest manifest) throws IOException {
+		save(source, out);
+	}
+}
@@ -1,28 +1,409 @@
 package com.fathzer.jdbbackup.destinations;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Function;
 
+import org.slf4j.LoggerFactory;
+
+import com.fathzer.jdbbackup.BackupManifest;
+import com.fathzer.jdbbackup.ChunkedDestinationManager;
 import com.fathzer.jdbbackup.DefaultPathDecoder;
 import com.fathzer.jdbbackup.DestinationManager;
+import com.fathzer.jdbbackup.FileChannelCompliant;
+import com.fathzer.jdbbackup.utils.FileChannelInputStream;
 
 /** A destination manager that saves the backups locally.
  * <br>It uses an instance of {@link DefaultPathDecoder} in order to build the destination path.
+ * <br>Backups are written to a temporary file in the destination directory, then atomically renamed to their final name.
+ * So, readers never see half-written backups.
+ * <br>When the backup is read from a file (see {@link FileChannelInputStream}), this manager avoids copying data through the heap:
+ * <ul>
+ * <li>If the file can be moved, it is simply renamed (when it is on the same file system as the destination).</li>
+ * <li>If the same backup is saved to many destinations of the same file system, it is written once, other destinations are hard links to this copy.</li>
+ * <li>Otherwise, data is transferred with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.</li>
+ * </ul>
+ * <br>It can also save the {@link BackupManifest} of the backups (see {@link #setManifestExtension(String)}).
+ * <br>It supports chunked sends: parts are written with positional writes to a hidden <i>.part</i> file, next to the destination, that is renamed to the destination
+ * when the upload is completed. If the upload is interrupted, the part file is kept and the upload can be resumed, even by another process, at the part file size.
+ * Starting a new upload deletes the part files of the previous uploads to the same destination.
+ * <br>The access rights of the backups do not depend on the way they are saved: A moved backup gets the access rights of a file created in the destination directory
+ * (on file systems that support POSIX permissions).
  */
-public class FileManager implements DestinationManager<Path> {
+public class FileManager implements ChunkedDestinationManager<Path>, FileChannelCompliant {
+	private static final String PART_SUFFIX = ".part";
+
+	/** The copies written by the running backups, per backup channel and file store. */
+	private final Map<FileChannel, Map<FileStore, CompletableFuture<Path>>> copies = new WeakHashMap<>();
+	private FsyncPolicy fsyncPolicy = FsyncPolicy.FILE;
+	private String manifestExtension;
+
 	@Override
 	public Path validate(String fileName, Function<String,CharSequence> extensionBuilder) {
-		return new File(DefaultPathDecoder.INSTANCE.decodePath(fileName, extensionBuilder)).toPath();
+		return validate(fileName, extensionBuilder, Instant.now());
+	}
+
+	@Override
+	public Path validate(String fileName, Function<String,CharSequence> extensionBuilder, Instant timestamp) {
+		return new File(DefaultPathDecoder.INSTANCE.decodePath(fileName, extensionBuilder, timestamp)).toPath();
+	}
+
+	/** Sets the policy used to force the backups to the storage device.
+	 * @param fsyncPolicy The policy (default is {@link FsyncPolicy#FILE})
+	 * @throws IllegalArgumentException if fsyncPolicy is null
+	 */
+	public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+		if (fsyncPolicy==null) {
+			throw new IllegalArgumentException();
+		}
+		this.fsyncPolicy = fsyncPolicy;
+	}
+
+	/** Sets the extension of the manifest files.
+	 * <br>When this extension is not null, the {@link BackupManifest} of every backup is saved, as a properties file, next to the backup.
+	 * Its name is the name of the backup followed by a period and the extension.
+	 * @param manifestExtension The extension (without period) or null to not save the manifests (this is the default)
+	 */
+	public void setManifestExtension(String manifestExtension) {
+		this.manifestExtension = manifestExtension;
+	}
+
+	@Override
+	public void send(InputStream in, long size, Path dest, BackupManifest manifest) throws IOException {
+		send(in, size, dest);
+		sendManifest(dest, manifest);
+	}
+
+	private void sendManifest(Path dest, BackupManifest manifest) throws IOException {
+		if (manifestExtension!=null) {
+			final Path manifestFile = dest.resolveSibling(dest.getFileName()+"."+manifestExtension);
+			send(new ByteArrayInputStream(toBytes(manifest)), -1, manifestFile);
+		}
+	}
+
+	private static byte[] toBytes(BackupManifest manifest) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		manifest.toProperties().store(out, null);
+		return out.toByteArray();
 	}
 
 	@Override
 	public void send(InputStream in, long size, Path dest) throws IOException {
-	    Files.copy(in, dest, StandardCopyOption.REPLACE_EXISTING);
+		final Path tmp = getTempPath(dest);
+		// The future that other destinations of the same backup may wait for, in order to link to this copy
+		final CompletableFuture<Path> copy = new CompletableFuture<>();
+		try {
+			if (in instanceof FileChannelInputStream) {
+				send((FileChannelInputStream)in, tmp, dest, copy);
+			} else {
+				try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+					in.transferTo(Channels.newOutputStream(out));
+					force(out);
+				}
+			}
+			commit(tmp, dest);
+			copy.complete(dest);
+		} catch (IOException | RuntimeException e) {
+			copy.completeExceptionally(e);
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+	}
+
+	private void send(FileChannelInputStream in, Path tmp, Path dest, CompletableFuture<Path> copy) throws IOException {
+		if (rename(in, tmp)) {
+			return;
+		}
+		final FileStore store = Files.getFileStore(dest.toAbsolutePath().getParent());
+		final CompletableFuture<Path> existing = claim(in.getChannel(), store, copy);
+		if (existing!=null && link(existing, tmp)) {
+			in.skip(in.getRemaining());
+			return;
+		}
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+			transfer(in, out);
+			force(out);
+		}
+	}
+
+	private boolean rename(FileChannelInputStream in, Path tmp) throws IOException {
+		final Path file = in.getMovableFile();
+		if (file==null || in.getPosition()!=0 || in.getRemaining()!=in.getChannel().size()) {
+			return false;
+		}
+		final Set<PosixFilePermission> permissions = getDefaultPermissions(tmp);
+		try {
+			Files.move(file, tmp, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// Not the same file system or the file is locked (on Windows, a file opened by a channel can't be moved)
+			return false;
+		}
+		if (permissions!=null) {
+			// The moved file should have the same access rights as a copy
+			Files.setPosixFilePermissions(tmp, permissions);
+		}
+		if (fsyncPolicy!=FsyncPolicy.NONE) {
+			in.getChannel().force(true);
+		}
+		in.skip(in.getRemaining());
+		return true;
+	}
+
+	/** Gets the permissions of a file created in the destination directory.
+	 * @param tmp A path that does not exist in the destination directory
+	 * @return The permissions, null if the file system does not support POSIX permissions
+	 * @throws IOException If the file can't be created
+	 */
+	private static Set<PosixFilePermission> getDefaultPermissions(Path tmp) throws IOException {
+		if (Files.getFileStore(tmp.toAbsolutePath().getParent()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+			Files.createFile(tmp);
+			try {
+				return Files.getPosixFilePermissions(tmp);
+			} finally {
+				Files.delete(tmp);
+			}
+		}
+		return null;
+	}
+
+	private synchronized CompletableFuture<Path> claim(FileChannel channel, FileStore store, CompletableFuture<Path> copy) {
+		final Map<FileStore, CompletableFuture<Path>> storeCopies = copies.computeIfAbsent(channel, k -> new HashMap<>());
+		final CompletableFuture<Path> existing = storeCopies.get(store);
+		if (existing==null || existing.isCompletedExceptionally()) {
+			storeCopies.put(store, copy);
+			return null;
+		}
+		return existing;
+	}
+
+	private static boolean link(CompletableFuture<Path> existing, Path tmp) throws InterruptedIOException {
+		try {
+			Files.createLink(tmp, existing.get());
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException | IOException | UnsupportedOperationException e) {
+			// The other copy failed or links are not supported
+			LoggerFactory.getLogger(FileManager.class).debug("Unable to link backup copy", e);
+			return false;
+		}
+	}
+
+	private static void transfer(FileChannelInputStream in, FileChannel out) throws IOException {
+		final FileChannel channel = in.getChannel();
+		long position = in.getPosition();
+		long remaining = in.getRemaining();
+		while (remaining>0) {
+			final long count = channel.transferTo(position, remaining, out);
+			if (count<=0) {
+				// The file was truncated, the incomplete copy should not replace the destination
+				throw new EOFException("Backup is truncated, "+remaining+" bytes are missing");
+			}
+			position += count;
+			remaining -= count;
+		}
+		in.skip(position-in.getPosition());
+	}
+
+	private void force(FileChannel channel) throws IOException {
+		if (fsyncPolicy!=FsyncPolicy.NONE) {
+			channel.force(true);
+		}
+	}
+
+	private void commit(Path tmp, Path dest) throws IOException {
+		try {
+			Files.move(tmp, dest, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+		}
+		if (fsyncPolicy==FsyncPolicy.FILE_AND_DIRECTORY) {
+			try (FileChannel dir = FileChannel.open(dest.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+				dir.force(true);
+			} catch (IOException e) {
+				// Some systems (Windows for instance) can't open a directory
+				LoggerFactory.getLogger(getClass()).debug("Unable to synchronize directory of {}", dest, e);
+			}
+		}
+	}
+
+	private static Path getTempPath(Path dest) {
+		return dest.resolveSibling("."+dest.getFileName()+"."+randomId()+".tmp");
+	}
+
+	private static String randomId() {
+		return Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+	}
+
+	private static Path getPartPath(Path dest, String id) {
+		return dest.resolveSibling("."+dest.getFileName()+"."+id+PART_SUFFIX);
+	}
+
+	@Override
+	public Upload startUpload(Path dest, long size, String id) throws IOException {
+		deleteParts(dest);
+		return new PartUpload(dest, getPartPath(dest, id==null ? randomId() : id), size);
+	}
+
+	/** Deletes the part files of the previous uploads to a destination.
+	 * <br>These uploads can't be resumed anymore, because a new upload is started.
+	 * @param dest The destination
+	 * @throws IOException If a part file can't be deleted
+	 */
+	private static void deleteParts(Path dest) throws IOException {
+		final Path dir = dest.toAbsolutePath().getParent();
+		if (!Files.isDirectory(dir)) {
+			return;
+		}
+		final String prefix = "."+dest.getFileName()+".";
+		try (DirectoryStream<Path> parts = Files.newDirectoryStream(dir, p -> isPart(p.getFileName().toString(), prefix))) {
+			for (Path part : parts) {
+				Files.deleteIfExists(part);
+			}
+		}
+	}
+
+	private static boolean isPart(String name, String prefix) {
+		// The id is between the prefix and the suffix, it contains no period
+		return name.startsWith(prefix) && name.endsWith(PART_SUFFIX) && name.indexOf('.', prefix.length())==name.length()-PART_SUFFIX.length();
+	}
+
+	@Override
+	public Upload resumeUpload(Path dest, long size, String id) throws IOException {
+		final Path part = getPartPath(dest, id);
+		if (!Files.isRegularFile(part) || Files.size(part)>size) {
+			return null;
+		}
+		return new PartUpload(dest, part, size);
+	}
+
+	private class PartUpload implements Upload {
+		private final Path dest;
+		private final Path part;
+		private final long size;
+
+		private PartUpload(Path dest, Path part, long size) {
+			this.dest = dest;
+			this.part = part;
+			this.size = size;
+		}
+
+		@Override
+		public long getCommittedOffset() throws IOException {
+			// Parts are forced before sendPart returns, so the file size is the committed offset (unless fsync policy is NONE)
+			return Files.exists(part) ? Files.size(part) : 0;
+		}
+
+		@Override
+		public void sendPart(long offset, InputStream in, long length) throws IOException {
+			if (offset+length>size) {
+				throw new IOException("Part ["+offset+", "+(offset+length)+"[ is outside the backup");
+			}
+			try (FileChannel out = FileChannel.open(part, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+				if (offset>out.size()) {
+					throw new IOException("Missing data before offset "+offset+" (committed offset is "+out.size()+")");
+				}
+				long written = 0;
+				if (in instanceof FileChannelInputStream) {
+					final FileChannelInputStream fin = (FileChannelInputStream)in;
+					while (written<length) {
+						final long count = fin.getChannel().transferTo(fin.getPosition(), length-written, new PositionalChannel(out, offset+written));
+						if (count<=0) {
+							break;
+						}
+						fin.skip(count);
+						written += count;
+					}
+				} else {
+					final byte[] buffer = new byte[(int) Math.min(length, 64*1024)];
+					while (written<length) {
+						final int count = in.read(buffer, 0, (int) Math.min(buffer.length, length-written));
+						if (count<0) {
+							break;
+						}
+						final ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+						while (data.hasRemaining()) {
+							out.write(data, offset+written+data.position());
+						}
+						written += count;
+					}
+				}
+				if (written!=length) {
+					throw new EOFException("Part is "+written+" bytes long instead of "+length);
+				}
+				force(out);
+			}
+		}
+
+		@Override
+		public void complete(BackupManifest manifest) throws IOException {
+			final long committed = getCommittedOffset();
+			if (committed!=size) {
+				throw new IOException("Upload is incomplete ("+committed+"/"+size+" bytes)");
+			}
+			commit(part, dest);
+			sendManifest(dest, manifest);
+		}
+
+		@Override
+		public void abort() throws IOException {
+			Files.deleteIfExists(part);
+		}
+	}
+
+	/** A channel that writes at a given position of a file channel, without changing its position. */
+	private static class PositionalChannel implements WritableByteChannel {
+		private final FileChannel channel;
+		private long position;
+
+		private PositionalChannel(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() {
+			// The channel is closed by its owner
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			final int count = channel.write(src, position);
+			position += count;
+			return count;
+		}
 	}
 
 	@Override
@@ -0,0 +1,17 @@
+package com.fathzer.jdbbackup.destinations;
+
+/** The policy used by {@link FileManager} to force written backups to the storage device.
+ */
+public enum FsyncPolicy {
+	/** The operating system decides when data is written to the storage device.
+	 * <br>This is the fastest policy, but a backup may be lost (or empty) after a system crash.
+	 */
+	NONE,
+	/** The backup file content is forced to the storage device before the file is renamed to its final name.
+	 */
+	FILE,
+	/** Like {@link #FILE}, and the directory that contains the backup is also forced after the renaming.
+	 * <br>This guarantees that the backup is still present after a system crash (on systems that support directory synchronization).
+	 */
+	FILE_AND_DIRECTORY
+}
@@ -0,0 +1,107 @@
+package com.fathzer.jdbbackup.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A lock-free histogram of durations.
+ * <br>Durations are counted in buckets whose bounds are powers of two milliseconds: the first bucket counts durations shorter than 1ms,
+ * the bucket <i>i</i> counts durations from 2<sup>i-1</sup> (inclusive) to 2<sup>i</sup>ms (exclusive).
+ * So, percentiles are approximations by excess, at most twice the real value.
+ * <br>This class is thread safe.
+ */
+public class LatencyHistogram {
+	/** The number of buckets. The last one counts the durations longer than 2<sup>{@value}-2</sup>ms (about 6 days). */
+	public static final int BUCKETS = 32;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/** Records a duration.
+	 * @param duration The duration (negative durations are recorded as zero)
+	 */
+	public void record(Duration duration) {
+		final long millis = Math.max(0, duration.toMillis());
+		buckets.incrementAndGet(getBucket(millis));
+		count.increment();
+		sum.add(millis);
+		if (millis>max.get()) {
+			max.accumulateAndGet(millis, Math::max);
+		}
+	}
+
+	static int getBucket(long millis) {
+		return Math.min(BUCKETS-1, 64-Long.numberOfLeadingZeros(millis));
+	}
+
+	/** Gets the number of recorded durations.
+	 * @return a positive long
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/** Gets the sum of the recorded durations.
+	 * @return a duration
+	 */
+	public Duration getSum() {
+		return Duration.ofMillis(sum.sum());
+	}
+
+	/** Gets the longest recorded duration.
+	 * @return a duration (zero if nothing was recorded)
+	 */
+	public Duration getMax() {
+		return Duration.ofMillis(max.get());
+	}
+
+	/** Gets the number of durations counted in each bucket.
+	 * @return an array of {@link #BUCKETS} longs
+	 */
+	public long[] getBuckets() {
+		final long[] result = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			result[i] = buckets.get(i);
+		}
+		return result;
+	}
+
+	/** Gets a percentile.
+	 * @param percentile The percentile, between 0 and 100 (for instance 99 for the 99th percentile)
+	 * @return The upper bound of the bucket that contains the percentile (never more than {@link #getMax()}), zero if nothing was recorded.
+	 * @throws IllegalArgumentException if percentile is not between 0 and 100
+	 */
+	public Duration getPercentile(double percentile) {
+		if (percentile<0 || percentile>100) {
+			throw new IllegalArgumentException("Percentile should be between 0 and 100");
+		}
+		final long[] counts = getBuckets();
+		long total = 0;
+		for (long c : counts) {
+			total += c;
+		}
+		if (total==0) {
+			return Duration.ZERO;
+		}
+		final long rank = Math.max(1, (long)Math.ceil(percentile*total/100));
+		long cumulated = 0;
+		int bucket = 0;
+		while (bucket<BUCKETS-1) {
+			cumulated += counts[bucket];
+			if (cumulated>=rank) {
+				break;
+			}
+			bucket++;
+		}
+		final long upperBound = bucket==0 ? 0 : (1L<<bucket)-1;
+		return Duration.ofMillis(Math.min(upperBound, max.get()));
+	}
+
+	@Override
+	public String toString() {
+		return "count="+getCount()+", p50="+getPercentile(50).toMillis()+"ms, p99="+getPercentile(99).toMillis()+"ms, max="+getMax().toMillis()+"ms";
+	}
+}
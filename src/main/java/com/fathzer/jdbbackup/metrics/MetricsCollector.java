@@ -0,0 +1,138 @@
+package com.fathzer.jdbbackup.metrics;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fathzer.jdbbackup.BackupListener;
+import com.fathzer.jdbbackup.BackupResult;
+
+/** A {@link BackupListener} that collects metrics in memory.
+ * <br>It maintains counters (see {@link #getCounters()}) and latency histograms of the dumps and uploads. It can be scraped at any time by a monitoring system.
+ * <br>This class is thread safe and lock-free, counters are {@link LongAdder}s, so the byte events cost almost nothing.
+ * <br>Example:<pre>
+ * final MetricsCollector metrics = new MetricsCollector();
+ * jdbBackup.addListener(metrics);
+ * </pre>
+ */
+public class MetricsCollector implements BackupListener {
+	/** The number of backups. */
+	public static final String BACKUPS = "backups";
+	/** The number of failed backups. */
+	public static final String FAILED_BACKUPS = "backups.failed";
+	/** The number of addresses whose scheme is unknown. */
+	public static final String UNRESOLVED_PLUGINS = "plugins.unresolved";
+	/** The number of dumps. */
+	public static final String DUMPS = "dumps";
+	/** The number of failed dumps. */
+	public static final String FAILED_DUMPS = "dumps.failed";
+	/** The number of bytes read from the sources. */
+	public static final String BYTES_READ = "bytes.read";
+	/** The number of compressed bytes. */
+	public static final String BYTES_COMPRESSED = "bytes.compressed";
+	/** The number of upload attempts. */
+	public static final String UPLOADS = "uploads";
+	/** The number of failed upload attempts. */
+	public static final String FAILED_UPLOADS = "uploads.failed";
+	/** The number of bytes sent to the destinations. */
+	public static final String BYTES_UPLOADED = "bytes.uploaded";
+
+	private final LongAdder backups = new LongAdder();
+	private final LongAdder failedBackups = new LongAdder();
+	private final LongAdder unresolvedPlugins = new LongAdder();
+	private final LongAdder dumps = new LongAdder();
+	private final LongAdder failedDumps = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesCompressed = new LongAdder();
+	private final LongAdder uploads = new LongAdder();
+	private final LongAdder failedUploads = new LongAdder();
+	private final LongAdder bytesUploaded = new LongAdder();
+	private final LatencyHistogram dumpLatency = new LatencyHistogram();
+	private final LatencyHistogram uploadLatency = new LatencyHistogram();
+
+	@Override
+	public void pluginResolved(String address, Object manager) {
+		if (manager==null) {
+			unresolvedPlugins.increment();
+		}
+	}
+
+	@Override
+	public void bytesRead(String source, long count) {
+		bytesRead.add(count);
+	}
+
+	@Override
+	public void bytesCompressed(String source, long count) {
+		bytesCompressed.add(count);
+	}
+
+	@Override
+	public void dumpEnded(String source, Duration duration, Exception error) {
+		dumps.increment();
+		if (error!=null) {
+			failedDumps.increment();
+		}
+		dumpLatency.record(duration);
+	}
+
+	@Override
+	public void uploadProgress(String destination, long count) {
+		bytesUploaded.add(count);
+	}
+
+	@Override
+	public void uploadEnded(String destination, Duration duration, Exception error) {
+		uploads.increment();
+		if (error!=null) {
+			failedUploads.increment();
+		}
+		uploadLatency.record(duration);
+	}
+
+	@Override
+	public void backupEnded(String source, BackupResult result, Exception error) {
+		backups.increment();
+		if (error!=null) {
+			failedBackups.increment();
+		}
+	}
+
+	/** Gets a snapshot of the counters.
+	 * @return a map that links the counter names (the constants of this class) to their values
+	 */
+	public Map<String, Long> getCounters() {
+		final Map<String, Long> result = new LinkedHashMap<>();
+		result.put(BACKUPS, backups.sum());
+		result.put(FAILED_BACKUPS, failedBackups.sum());
+		result.put(UNRESOLVED_PLUGINS, unresolvedPlugins.sum());
+		result.put(DUMPS, dumps.sum());
+		result.put(FAILED_DUMPS, failedDumps.sum());
+		result.put(BYTES_READ, bytesRead.sum());
+		result.put(BYTES_COMPRESSED, bytesCompressed.sum());
+		result.put(UPLOADS, uploads.sum());
+		result.put(FAILED_UPLOADS, failedUploads.sum());
+		result.put(BYTES_UPLOADED, bytesUploaded.sum());
+		return result;
+	}
+
+	/** Gets the histogram of the dumps durations.
+	 * @return a histogram
+	 */
+	public LatencyHistogram getDumpLatency() {
+		return dumpLatency;
+	}
+
+	/** Gets the histogram of the upload attempts durations.
+	 * @return a histogram
+	 */
+	public LatencyHistogram getUploadLatency() {
+		return uploadLatency;
+	}
+
+	@Override
+	public String toString() {
+		return getCounters()+", dumps: {"+dumpLatency+"}, uploads: {"+uploadLatency+"}";
+	}
+}
@@ -0,0 +1,3 @@
+/** Metrics about the backups.
+*/
+package com.fathzer.jdbbackup.metrics;
@@ -0,0 +1,83 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/** A bounded pool of byte buffers.
+ * <br>Buffers are allocated lazily, the first time they are needed, until the maximum number of buffers is reached.
+ * Then, {@link #take()} blocks until a buffer is released.
+ */
+final class BufferPool {
+	private final BlockingQueue<ByteBuffer> free;
+	private final int bufferSize;
+	private final int count;
+	private final boolean direct;
+	private int allocated;
+
+	/** Constructor.
+	 * @param bufferSize The size of the buffers.
+	 * @param count The maximum number of buffers.
+	 * @param direct true to allocate direct buffers.
+	 * @throws IllegalArgumentException if size or count is not strictly positive.
+	 */
+	BufferPool(int bufferSize, int count, boolean direct) {
+		if (bufferSize<=0 || count<=0) {
+			throw new IllegalArgumentException("Buffer size and count should be strictly positive");
+		}
+		this.free = new ArrayBlockingQueue<>(count);
+		this.bufferSize = bufferSize;
+		this.count = count;
+		this.direct = direct;
+	}
+
+	/** Gets a buffer from the pool.
+	 * @return A cleared buffer
+	 * @throws InterruptedIOException if the thread is interrupted while waiting for a free buffer.
+	 */
+	ByteBuffer take() throws InterruptedIOException {
+		ByteBuffer result = free.poll();
+		if (result==null) {
+			result = allocate();
+		}
+		if (result==null) {
+			try {
+				result = free.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+		return result;
+	}
+
+	private synchronized ByteBuffer allocate() {
+		if (allocated==count) {
+			return null;
+		}
+		allocated++;
+		return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+	}
+
+	/** Returns a buffer to the pool.
+	 * @param buffer a buffer previously obtained with {@link #take()}
+	 */
+	void release(ByteBuffer buffer) {
+		buffer.clear();
+		free.offer(buffer);
+	}
+
+	/** Gets the size of the buffers of this pool.
+	 * @return a positive int
+	 */
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	/** Gets the maximum number of buffers of this pool.
+	 * @return a positive int
+	 */
+	int getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,336 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fathzer.jdbbackup.utils.AddressParameters;
+import com.fathzer.jdbbackup.utils.BasicExtensionBuilder;
+
+/** A source manager that dumps a data source with a configured command line.
+ * <br>It allows to back up any data source that has a dump tool that writes the dump on its standard output (for instance <i>mongodump --archive</i>)
+ * without writing a plugin.
+ * <br>The URI format is cmd://<i>name</i>[?<i>parameters</i>], where <i>name</i> is the name of a command defined in the configuration.
+ * <br>The configuration is a {@link Properties} instance whose keys are the command name followed by a period and a property name:<ul>
+ * <li><i>command</i>: The command line (required). Its tokens are separated by spaces, a token that contains spaces should be enclosed in double quotes.</li>
+ * <li><i>env.VARIABLE</i>: The value of the <i>VARIABLE</i> environment variable of the command.</li>
+ * <li><i>directory</i>: The working directory of the command (default is the working directory of the current process).</li>
+ * <li><i>exitCodes</i>: A comma separated list of the exit codes that mean the command succeeded (default is 0).</li>
+ * <li><i>timeout</i>: The maximum duration of the command in seconds. The command is killed and the dump fails if it lasts longer (default is no timeout).</li>
+ * <li><i>extension</i>: The extension of the dump before compression (default is {@value #DEFAULT_EXTENSION}).</li>
+ * </ul>
+ * The command and the environment variables values can contain ${<i>parameter</i>} placeholders that are replaced by the parameters of the source address.
+ * The tokens of the command are split before the replacement, so a parameter value is always passed as a part of a single argument.
+ * A source address that misses a parameter, or that has a parameter that is not used by the command, is rejected.
+ * <br>For instance, with the configuration:<pre>
+ * mongo.command=mongodump --archive --db=${db}
+ * mongo.env.MONGODB_URI=${uri}
+ * mongo.extension=archive
+ * mongo.timeout=3600</pre>
+ * cmd://mongo?db=sales&amp;uri=mongodb://host:27017 backs up the sales database in a <i>archive.gz</i> file.
+ * <br>Like other {@link CompressingSourceManager}s, the {@value #COMPRESSION_PARAMETER} and {@value #RATE_PARAMETER} parameters select the compression and limit the dump rate.
+ * <br>The configuration of the instance created by the plugins loader is read, when the first source is saved, from the properties file whose path is the
+ * {@value #CONFIGURATION_PROPERTY} system property. If the property is not set, no command is defined.
+ * Another configuration can be used by registering an instance created with {@link #CommandDumper(Properties)} (see {@link com.fathzer.jdbbackup.JDbBackup#addSourceManager(com.fathzer.jdbbackup.SourceManager)}).
+ */
+public class CommandDumper extends SourceManagerFromProcess {
+	/** The name of the system property that contains the path of the configuration file. */
+	public static final String CONFIGURATION_PROPERTY = "jdbbackup.commands";
+	/** The default extension of the dumps. */
+	public static final String DEFAULT_EXTENSION = "dump";
+
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]+)\\}");
+	private static final String ENV_PREFIX = "env.";
+
+	private Map<String, Definition> definitions;
+
+	/** Constructor.
+	 * <br>The commands are read from the file set in the {@value #CONFIGURATION_PROPERTY} system property.
+	 */
+	public CommandDumper() {
+		super();
+	}
+
+	/** Constructor.
+	 * @param configuration The commands configuration
+	 * @throws IllegalArgumentException if the configuration is invalid
+	 */
+	public CommandDumper(Properties configuration) {
+		super();
+		this.definitions = parse(configuration);
+	}
+
+	@Override
+	public String getScheme() {
+		return "cmd";
+	}
+
+	/** A configured command. */
+	private static final class Definition {
+		private final List<String> command;
+		private final Map<String, String> environment = new LinkedHashMap<>();
+		private final Path directory;
+		private final Set<Integer> exitCodes = new HashSet<>();
+		private final long timeout;
+		private final String extension;
+
+		private Definition(String name, Map<String, String> properties) {
+			final Map<String, String> remaining = new TreeMap<>(properties);
+			final String commandLine = remaining.remove("command");
+			if (commandLine==null || commandLine.trim().isEmpty()) {
+				throw new IllegalArgumentException("Command "+name+" has no command line");
+			}
+			this.command = tokenize(commandLine);
+			final String dir = remaining.remove("directory");
+			this.directory = dir==null ? null : Paths.get(dir);
+			final String codes = remaining.remove("exitCodes");
+			for (String code : (codes==null ? "0" : codes).split(",")) {
+				exitCodes.add(parseInt(name, "exitCodes", code.trim(), Integer.MIN_VALUE));
+			}
+			final String seconds = remaining.remove("timeout");
+			this.timeout = seconds==null ? 0 : 1000L*parseInt(name, "timeout", seconds.trim(), 1);
+			this.extension = remaining.getOrDefault("extension", DEFAULT_EXTENSION);
+			remaining.remove("extension");
+			remaining.entrySet().removeIf(e -> {
+				final boolean env = e.getKey().startsWith(ENV_PREFIX) && e.getKey().length()>ENV_PREFIX.length();
+				if (env) {
+					environment.put(e.getKey().substring(ENV_PREFIX.length()), e.getValue());
+				}
+				return env;
+			});
+			if (!remaining.isEmpty()) {
+				throw new IllegalArgumentException("Command "+name+" has unsupported properties "+remaining.keySet());
+			}
+		}
+
+		private static int parseInt(String name, String property, String value, int min) {
+			try {
+				final int result = Integer.parseInt(value);
+				if (result>=min) {
+					return result;
+				}
+			} catch (NumberFormatException e) {
+				// The error is thrown below
+			}
+			throw new IllegalArgumentException("Invalid "+property+" for command "+name+": "+value);
+		}
+	}
+
+	/** The command line and environment of a source. */
+	private static final class Invocation {
+		private final Definition definition;
+		private final List<String> command = new ArrayList<>();
+		private final Map<String, String> environment = new HashMap<>();
+
+		private Invocation(Definition definition, Map<String, String> parameters) {
+			this.definition = definition;
+			final Set<String> unused = new HashSet<>(parameters.keySet());
+			definition.command.forEach(token -> command.add(resolve(token, parameters, unused)));
+			definition.environment.forEach((k,v) -> environment.put(k, resolve(v, parameters, unused)));
+			if (!unused.isEmpty()) {
+				throw new IllegalArgumentException("Unsupported parameters "+unused);
+			}
+		}
+
+		private static String resolve(String template, Map<String, String> parameters, Set<String> unused) {
+			final Matcher matcher = PLACEHOLDER.matcher(template);
+			final StringBuilder result = new StringBuilder();
+			while (matcher.find()) {
+				final String name = matcher.group(1);
+				final String value = parameters.get(name);
+				if (value==null) {
+					throw new IllegalArgumentException("Missing parameter "+name);
+				}
+				unused.remove(name);
+				matcher.appendReplacement(result, Matcher.quoteReplacement(value));
+			}
+			matcher.appendTail(result);
+			return result.toString();
+		}
+	}
+
+	private static Map<String, Definition> parse(Properties configuration) {
+		final Map<String, Map<String, String>> properties = new HashMap<>();
+		for (String key : configuration.stringPropertyNames()) {
+			final int index = key.indexOf('.');
+			if (index<=0) {
+				throw new IllegalArgumentException("Invalid key "+key);
+			}
+			properties.computeIfAbsent(key.substring(0, index), k -> new HashMap<>()).put(key.substring(index+1), configuration.getProperty(key));
+		}
+		final Map<String, Definition> result = new HashMap<>();
+		properties.forEach((name, props) -> result.put(name, new Definition(name, props)));
+		return Collections.unmodifiableMap(result);
+	}
+
+	/** Splits a command line in tokens.
+	 * @param commandLine The command line
+	 * @return The tokens
+	 * @throws IllegalArgumentException if a double quote is not closed
+	 */
+	static List<String> tokenize(String commandLine) {
+		final List<String> tokens = new ArrayList<>();
+		final StringBuilder token = new StringBuilder();
+		boolean quoted = false;
+		boolean inToken = false;
+		for (int i = 0; i < commandLine.length(); i++) {
+			final char c = commandLine.charAt(i);
+			if (c=='"') {
+				quoted = !quoted;
+				inToken = true;
+			} else if (Character.isWhitespace(c) && !quoted) {
+				if (inToken) {
+					tokens.add(token.toString());
+					token.setLength(0);
+					inToken = false;
+				}
+			} else {
+				token.append(c);
+				inToken = true;
+			}
+		}
+		if (quoted) {
+			throw new IllegalArgumentException("Unclosed double quote in "+commandLine);
+		}
+		if (inToken) {
+			tokens.add(token.toString());
+		}
+		return tokens;
+	}
+
+	private synchronized Map<String, Definition> getDefinitions() {
+		if (definitions==null) {
+			final Properties configuration = new Properties();
+			final String path = System.getProperty(CONFIGURATION_PROPERTY);
+			if (path!=null) {
+				try (InputStream in = Files.newInputStream(Paths.get(path))) {
+					configuration.load(in);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Unable to read commands configuration "+path, e);
+				}
+			}
+			definitions = parse(configuration);
+		}
+		return definitions;
+	}
+
+	private Definition getDefinition(AddressParameters address) {
+		final String prefix = getScheme()+"://";
+		if (!address.getAddress().startsWith(prefix)) {
+			throw new IllegalArgumentException("Invalid URI");
+		}
+		final String name = address.getAddress().substring(prefix.length());
+		final Definition definition = getDefinitions().get(name);
+		if (definition==null) {
+			throw new IllegalArgumentException("Unknown command "+name);
+		}
+		return definition;
+	}
+
+	private Invocation getInvocation(String source) {
+		final AddressParameters address = new AddressParameters(source);
+		return new Invocation(getDefinition(address), address.getParameters());
+	}
+
+	@Override
+	public Function<String, CharSequence> getExtensionBuilder() {
+		return new BasicExtensionBuilder(DEFAULT_EXTENSION+".gz");
+	}
+
+	@Override
+	protected Function<String, CharSequence> getExtensionBuilder(AddressParameters source) {
+		return new BasicExtensionBuilder(getDefinition(source).extension+".gz");
+	}
+
+	@Override
+	protected List<String> getCommand(String source) {
+		return getInvocation(source).command;
+	}
+
+	@Override
+	protected Map<String, String> getEnvironment(String source) {
+		return getInvocation(source).environment;
+	}
+
+	@Override
+	protected Dump start(String source) throws IOException {
+		final Definition definition = getInvocation(source).definition;
+		final ProcessBuilder builder = new ProcessBuilder(getCommand(source));
+		builder.environment().putAll(getEnvironment(source));
+		if (definition.directory!=null) {
+			builder.directory(definition.directory.toFile());
+		}
+		final Dump dump = start(builder, definition.exitCodes::contains);
+		return definition.timeout==0 ? dump : new TimedDump(dump, definition.timeout);
+	}
+
+	/** A dump that is killed if it lasts too long. */
+	private final class TimedDump implements Dump {
+		private final Dump dump;
+		private final long timeout;
+		private final Thread watchdog;
+		private volatile boolean timedOut;
+
+		private TimedDump(Dump dump, long timeout) {
+			this.dump = dump;
+			this.timeout = timeout;
+			this.watchdog = getThreadFactory().newThread(this::watch);
+			watchdog.start();
+		}
+
+		private void watch() {
+			try {
+				Thread.sleep(timeout);
+				timedOut = true;
+				dump.kill();
+			} catch (InterruptedException e) {
+				// The dump ended before the timeout
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return dump.getInputStream();
+		}
+
+		@Override
+		public void waitFor() throws IOException, InterruptedException {
+			try {
+				dump.waitFor();
+			} catch (IOException e) {
+				if (timedOut) {
+					throw new IOException("Command timed out after "+timeout/1000+"s", e);
+				}
+				throw e;
+			} finally {
+				watchdog.interrupt();
+			}
+			if (timedOut) {
+				throw new IOException("Command timed out after "+timeout/1000+"s");
+			}
+		}
+
+		@Override
+		public void kill() {
+			watchdog.interrupt();
+			dump.kill();
+		}
+	}
+}
@@ -0,0 +1,562 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.slf4j.LoggerFactory;
+
+import com.fathzer.jdbbackup.BackupListener;
+import com.fathzer.jdbbackup.BackupListenerAware;
+import com.fathzer.jdbbackup.BackupManifest;
+import com.fathzer.jdbbackup.CompressionCodec;
+import com.fathzer.jdbbackup.StagingStore;
+import com.fathzer.jdbbackup.StagingStoreAware;
+import com.fathzer.jdbbackup.StreamingSourceManager;
+import com.fathzer.jdbbackup.utils.AddressParameters;
+import com.fathzer.jdbbackup.utils.BasicExtensionBuilder;
+import com.fathzer.jdbbackup.utils.Digester;
+import com.fathzer.jdbbackup.utils.RateLimiter;
+import com.fathzer.jdbbackup.utils.Threads;
+import com.fathzer.plugin.loader.PluginLoader;
+import com.fathzer.plugin.loader.classloader.ClassLoaderPluginLoader;
+
+/** A class able to save a data source to a compressed file.
+ * <br>Subclasses produce the raw data of the backup (see {@link #start(String)}), this class compresses it.
+ * <br>The default compression is gzip. Another {@link CompressionCodec} can be selected with the {@value #COMPRESSION_PARAMETER} parameter of the source address.
+ * Its value has the format <i>codec</i>[:<i>level</i>]. For example, mysql://u:p@host/db?compression=gzip:9 uses the best gzip compression and
+ * mysql://u:p@host/db?compression=none does not compress the data. This parameter is removed from the source address passed to {@link #start(String)}.
+ * <br>The codec also drives the extension of the backup file (for instance, a .sql.gz extension becomes .sql with <i>none</i> codec).
+ * <br>The raw data is compressed by a pipeline of threads (reader, compressor and writer) connected by bounded queues of pooled buffers.
+ * The buffers can be configured using {@link #setBuffers(int, int, boolean)}.
+ * <br>By default, the compression is performed by a single thread. It can be performed by multiple threads using {@link #setParallelCompression(int, int)}.
+ * <br>The compressed data can be written to a file or directly to a stream.
+ * <br>The dump of a source can be split in parts that are dumped and compressed concurrently (see {@link #getParts(String)}).
+ * <br>The sizes and digests of the backup, before and after compression, are computed while the data is compressed (see {@link BackupManifest}).
+ * <br>The reads of the raw data can be limited by a {@link RateLimiter} shared by all the backups of this manager (see {@link #setRateLimiter(RateLimiter)}).
+ * The reads of a single backup can also be limited with the {@value #RATE_PARAMETER} parameter of the source address (see {@link RateLimiter#parseRate(String)} for its format).
+ * For example, mysql://u:p@host/db?rate=10m limits the backup to 10MB/s. This parameter is removed from the source address passed to {@link #start(String)}.
+ */
+public abstract class CompressingSourceManager implements StreamingSourceManager, BackupListenerAware, StagingStoreAware {
+	/** The name of the source address parameter that selects the compression codec. */
+	public static final String COMPRESSION_PARAMETER = "compression";
+	/** The name of the source address parameter that limits the throughput of a backup. */
+	public static final String RATE_PARAMETER = "rate";
+	/** The default size of compression pipeline buffers. */
+	public static final int DEFAULT_BUFFER_SIZE = 64*1024;
+	/** The default maximum number of buffers between two stages of the compression pipeline. */
+	public static final int DEFAULT_BUFFER_COUNT = 8;
+	/** The default size of the blocks compressed in parallel. */
+	public static final int DEFAULT_BLOCK_SIZE = 128*1024;
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private int bufferCount = DEFAULT_BUFFER_COUNT;
+	private boolean directBuffers;
+	private int compressionWorkers = 1;
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+	private Map<String, CompressionCodec> codecs;
+	private ThreadFactory threadFactory = Threads.newFactory("jdbbackup-dump-");
+	private volatile BackupListener listener;
+	private volatile RateLimiter rateLimiter;
+	private volatile StagingStore stagingStore;
+
+	/** A running dump of a data source.
+	 */
+	protected interface Dump {
+		/** Gets the raw data of the dump.
+		 * @return an input stream. It should be closed when the dump ends (even if it fails).
+		 */
+		InputStream getInputStream();
+
+		/** Waits for the end of the dump.
+		 * @throws IOException If the dump failed
+		 * @throws InterruptedException If the thread is interrupted while waiting
+		 */
+		void waitFor() throws IOException, InterruptedException;
+
+		/** Stops the dump.
+		 * <br>This method is called when the compression fails or when the backup is cancelled.
+		 */
+		void kill();
+	}
+
+	/** Constructor.
+	 */
+	protected CompressingSourceManager() {
+		super();
+	}
+	
+	/** Gets the compression codecs registry.
+	 * <br>The first time this method is called, all the codecs available on the calling thread class loader are loaded.
+	 * To use extra codecs, you can add them to the returned map.
+	 * @return a map that links names to their codecs
+	 */
+	public synchronized Map<String, CompressionCodec> getCompressionCodecs() {
+		if (codecs==null) {
+			final Map<String, CompressionCodec> map = new HashMap<>();
+			final PluginLoader<ClassLoader> loader = new ClassLoaderPluginLoader().withExceptionConsumer(e -> LoggerFactory.getLogger(getClass()).warn("An error occurred while loading codecs", e));
+			try {
+				loader.getPlugins(null, CompressionCodec.class).forEach(c -> map.put(c.getName(), c));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			codecs = map;
+		}
+		return codecs;
+	}
+	
+	/** Sets the buffers used by the compression pipeline.
+	 * @param size The size of each buffer in bytes (default is {@value #DEFAULT_BUFFER_SIZE})
+	 * @param count The maximum number of buffers between two stages of the pipeline (default is {@value #DEFAULT_BUFFER_COUNT})
+	 * @param direct true to use direct (off heap) buffers (default is false)
+	 * @throws IllegalArgumentException if size or count is not strictly positive
+	 */
+	public void setBuffers(int size, int count, boolean direct) {
+		if (size<=0 || count<=0) {
+			throw new IllegalArgumentException("Buffer size and count should be strictly positive");
+		}
+		this.bufferSize = size;
+		this.bufferCount = count;
+		this.directBuffers = direct;
+	}
+	
+	/** Sets the parallel compression settings.
+	 * <br>When more than one worker is set, the process output is split into fixed size blocks that are compressed concurrently
+	 * (like <a href="https://zlib.net/pigz/">pigz</a> does). The result is a standard gzip file.
+	 * <br>Parallel compression is only supported by gzip codec, these settings are ignored with other codecs.
+	 * <br>Please note that the compressed file is a little bit bigger than the one produced by a single thread compression.
+	 * @param workers The number of threads used to compress data (default is 1, which means no parallel compression)
+	 * @param blockSize The size of the blocks in bytes (default is {@value #DEFAULT_BLOCK_SIZE})
+	 * @throws IllegalArgumentException if workers or blockSize is not strictly positive
+	 */
+	public void setParallelCompression(int workers, int blockSize) {
+		if (workers<=0 || blockSize<=0) {
+			throw new IllegalArgumentException("Workers and block size should be strictly positive");
+		}
+		this.compressionWorkers = workers;
+		this.blockSize = blockSize;
+	}
+	
+	/** Sets the factory of the threads that produce the data and run the compression pipeline stages.
+	 * <br>Please note that the parallel compression workers (see {@link #setParallelCompression(int, int)}) are CPU intensive, they are always platform threads.
+	 * @param threadFactory A thread factory (default creates virtual threads on Java 21+, see {@link Threads})
+	 * @throws IllegalArgumentException if threadFactory is null
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		if (threadFactory==null) {
+			throw new IllegalArgumentException();
+		}
+		this.threadFactory = threadFactory;
+	}
+	
+	/** Gets the factory of the threads that produce the data and run the compression pipeline stages.
+	 * @return a thread factory
+	 */
+	protected ThreadFactory getThreadFactory() {
+		return threadFactory;
+	}
+	
+	/** Sets the limiter shared by all the backups of this manager.
+	 * <br>The limiter's rate can be changed while backups are running. It is the parent of the limiters created for the sources that have a {@value #RATE_PARAMETER} parameter.
+	 * @param rateLimiter The limiter (null, the default, to not limit the backups)
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/** Gets the limiter shared by all the backups of this manager.
+	 * @return a limiter or null
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+	
+	@Override
+	public void setBackupListener(BackupListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void setStagingStore(StagingStore store) {
+		this.stagingStore = store;
+	}
+
+	/** Gets the directory where this manager should create its temporary files.
+	 * @return The {@link #setStagingStore(StagingStore) staging store directory}, null to use the default temporary directory.
+	 */
+	protected Path getTempDirectory() {
+		final StagingStore store = stagingStore;
+		return store==null ? null : store.getDirectory();
+	}
+	
+	/** Gets the extension builder of a source with the default compression codec.
+	 * <br>The compression codec selected in the source address is applied to this extension builder by {@link #getExtensionBuilder(String)}.
+	 * <br>The default implementation returns {@link #getExtensionBuilder()}.
+	 * @param source The source address parameters
+	 * @return a function
+	 * @throws IllegalArgumentException if source is invalid
+	 */
+	protected Function<String, CharSequence> getExtensionBuilder(AddressParameters source) {
+		return getExtensionBuilder();
+	}
+	
+	@Override
+	public Function<String, CharSequence> getExtensionBuilder(String source) {
+		final AddressParameters address = new AddressParameters(source);
+		final Compression compression = getCompression(address);
+		final Function<String, CharSequence> builder = getExtensionBuilder(address);
+		if (GzipCodec.NAME.equals(compression.codec.getName()) || !(builder instanceof BasicExtensionBuilder)) {
+			return builder;
+		}
+		String extension = ((BasicExtensionBuilder)builder).getExtension();
+		final String gzipExtension = "."+new GzipCodec().getExtension();
+		if (extension.endsWith(gzipExtension)) {
+			extension = extension.substring(0, extension.length()-gzipExtension.length());
+		}
+		if (!compression.codec.getExtension().isEmpty()) {
+			extension = extension+"."+compression.codec.getExtension();
+		}
+		return new BasicExtensionBuilder(extension);
+	}
+
+	private static class Compression {
+		private final CompressionCodec codec;
+		private final int level;
+
+		private Compression(CompressionCodec codec, int level) {
+			this.codec = codec;
+			this.level = level;
+		}
+	}
+
+	/** Gets the compression settings of a source and removes them from the source parameters.
+	 * @param source The source address
+	 * @return The compression settings
+	 * @throws IllegalArgumentException if compression parameter is invalid
+	 */
+	private Compression getCompression(AddressParameters source) {
+		final String value = source.getParameters().remove(COMPRESSION_PARAMETER);
+		if (value==null) {
+			return new Compression(new GzipCodec(), CompressionCodec.DEFAULT_LEVEL);
+		}
+		final int index = value.indexOf(':');
+		final String name = index<0 ? value : value.substring(0, index);
+		final CompressionCodec codec = getCompressionCodecs().get(name);
+		if (codec==null) {
+			throw new IllegalArgumentException("Unknown compression codec: "+name);
+		}
+		int level = CompressionCodec.DEFAULT_LEVEL;
+		if (index>=0) {
+			try {
+				level = Integer.parseInt(value.substring(index+1));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid compression level in "+value);
+			}
+			checkLevel(codec, level);
+		}
+		return new Compression(codec, level);
+	}
+
+	/** Gets the limiter of a source and removes its parameter from the source parameters.
+	 * @param source The source address
+	 * @return A limiter or null if the backup is not limited
+	 * @throws IllegalArgumentException if rate parameter is invalid
+	 */
+	private RateLimiter getRateLimiter(AddressParameters source) {
+		final String value = source.getParameters().remove(RATE_PARAMETER);
+		final RateLimiter global = rateLimiter;
+		return value==null ? global : new RateLimiter(RateLimiter.parseRate(value), global);
+	}
+
+	private static void checkLevel(CompressionCodec codec, int level) {
+		// Codecs have no other way to validate a level than creating a stream
+		try {
+			codec.getOutputStream(OutputStream.nullOutputStream(), level).close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void save(String source, File destFile) throws IOException {
+		save(source, destFile, null);
+	}
+
+	@Override
+	public void save(String source, File destFile, BackupManifest manifest) throws IOException {
+		save(source, destFile, null, manifest);
+	}
+
+	@Override
+	public void save(String source, OutputStream out) throws IOException {
+		save(source, out, null);
+	}
+
+	@Override
+	public void save(String source, OutputStream out, BackupManifest manifest) throws IOException {
+		save(source, null, out, manifest);
+	}
+
+	private void save(String source, File destFile, OutputStream out, BackupManifest manifest) throws IOException {
+		final AddressParameters address = new AddressParameters(source);
+		final Compression compression = getCompression(address);
+		final RateLimiter limiter = getRateLimiter(address);
+		final List<String> parts = getParts(address.toString());
+		if (parts.size()>1) {
+			new PartsSaver(source, parts, compression, limiter).save(destFile, out, manifest);
+			return;
+		}
+		final Digester rawDigester = manifest==null ? null : manifest.newDigester();
+		final Digester compressedDigester = manifest==null ? null : manifest.newDigester();
+		final Part part = new Part(source, parts.get(0), context -> destFile==null ? new Compressor(out, context) : new Compressor(destFile, context), compression, limiter, rawDigester, compressedDigester);
+		try {
+			part.waitFor();
+			if (manifest!=null) {
+				manifest.setCompression(compression.codec.getName());
+				manifest.setRaw(part.compressor.getRawSize(), rawDigester.getValue());
+				manifest.setCompressed(part.compressor.getCompressedSize(), compressedDigester.getValue());
+				manifest.setCompressionTime(part.compressor.getCompressionTime());
+			}
+		} catch (InterruptedException e) {
+			throw interrupted(e, Collections.singletonList(part));
+		}
+	}
+
+	private InterruptedIOException interrupted(InterruptedException e, List<Part> parts) {
+		LoggerFactory.getLogger(getClass()).warn("Backup was interrupted", e);
+		// Do not leave the dump running (the backup may have been cancelled)
+		parts.forEach(Part::kill);
+		Thread.currentThread().interrupt();
+		return new InterruptedIOException();
+	}
+
+	/** A dump and the compressor of its data.
+	 */
+	private final class Part {
+		private final ProcessContext context;
+		private final Dump dump;
+		private final Compressor compressor;
+		private final Thread compressThread;
+
+		private Part(String source, String part, Function<ProcessContext, Compressor> compressorBuilder, Compression compression, RateLimiter limiter, Digester rawDigester, Digester compressedDigester) throws IOException {
+			this.dump = start(part);
+			this.context = new ProcessContext(dump.getInputStream(), dump::kill);
+			this.compressor = compressorBuilder.apply(context);
+			compressor.setBuffers(bufferSize, bufferCount, directBuffers);
+			compressor.setCompression(compression.codec, compression.level);
+			compressor.setParallel(compressionWorkers, blockSize);
+			compressor.setDigesters(rawDigester, compressedDigester);
+			compressor.setThreadFactory(threadFactory);
+			compressor.setRateLimiter(limiter);
+			final BackupListener currentListener = listener;
+			if (currentListener!=null) {
+				compressor.setProgress(count -> currentListener.bytesRead(source, count), count -> currentListener.bytesCompressed(source, count));
+			}
+			this.compressThread = threadFactory.newThread(compressor);
+			compressThread.start();
+		}
+
+		private void waitFor() throws IOException, InterruptedException {
+			IOException dumpError = null;
+			try {
+				dump.waitFor();
+			} catch (IOException e) {
+				dumpError = e;
+			}
+			compressThread.join();
+			if (compressor.getError()!=null) {
+				throw compressor.getError();
+			}
+			if (dumpError!=null) {
+				throw dumpError;
+			}
+		}
+
+		private void kill() {
+			context.kill();
+			compressThread.interrupt();
+		}
+	}
+
+	/** Saves a dump split in parts.
+	 * <br>Parts are compressed concurrently to temporary files that are then concatenated.
+	 * The temporary files are created in the directory of the destination file or, when the dump is written to a stream, in the directory of the staging store.
+	 */
+	private final class PartsSaver {
+		private final String source;
+		private final List<String> sources;
+		private final Compression compression;
+		private final RateLimiter limiter;
+		private final List<Part> parts;
+		private final List<Path> files;
+
+		private PartsSaver(String source, List<String> sources, Compression compression, RateLimiter limiter) {
+			this.source = source;
+			this.sources = sources;
+			this.compression = compression;
+			this.limiter = limiter;
+			this.parts = new ArrayList<>(sources.size());
+			this.files = new ArrayList<>(sources.size());
+		}
+
+		private void save(File destFile, OutputStream out, BackupManifest manifest) throws IOException {
+			final Path directory = destFile==null ? getTempDirectory() : destFile.getAbsoluteFile().toPath().getParent();
+			try {
+				try {
+					for (String part : sources) {
+						final Path file = directory==null ? Files.createTempFile("jdbbackup-", ".part") : Files.createTempFile(directory, "jdbbackup-", ".part");
+						files.add(file);
+						parts.add(new Part(source, part, context -> new Compressor(file.toFile(), context), compression, limiter, null, null));
+					}
+				} catch (IOException | RuntimeException e) {
+					// Stop the parts that are already started
+					parts.forEach(Part::kill);
+					waitFor();
+					throw e;
+				}
+				final IOException error = waitFor();
+				if (error!=null) {
+					throw error;
+				}
+				final String indexText = getIndex(sources);
+				final byte[] rawIndex = indexText==null ? new byte[0] : indexText.getBytes(StandardCharsets.UTF_8);
+				final byte[] index = indexText==null ? null : compress(rawIndex);
+				final Digester digester = manifest==null ? null : manifest.newDigester();
+				final long size;
+				if (destFile==null) {
+					size = concatenate(index, out, digester);
+					out.flush();
+				} else {
+					try (OutputStream fileOut = new FileOutputStream(destFile)) {
+						size = concatenate(index, fileOut, digester);
+					}
+				}
+				if (manifest!=null) {
+					manifest.setCompression(compression.codec.getName());
+					// The raw data is never available as a whole, its digest is unknown
+					manifest.setRaw(parts.stream().mapToLong(p -> p.compressor.getRawSize()).sum()+rawIndex.length, null);
+					manifest.setCompressed(size, digester.getValue());
+					manifest.setCompressionTime(parts.stream().map(p -> p.compressor.getCompressionTime()).reduce(Duration.ZERO, Duration::plus));
+				}
+			} catch (InterruptedException e) {
+				throw interrupted(e, parts);
+			} finally {
+				for (Path file : files) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+
+		/** Waits for the end of all the parts.
+		 * <br>As soon as a part fails, all the other ones are killed.
+		 * @return The error of the first failed part, null if all parts succeeded
+		 * @throws InterruptedException If the thread is interrupted while waiting
+		 */
+		private IOException waitFor() throws InterruptedException {
+			final CountDownLatch latch = new CountDownLatch(parts.size());
+			final AtomicReference<IOException> error = new AtomicReference<>();
+			for (Part part : parts) {
+				threadFactory.newThread(() -> {
+					try {
+						part.waitFor();
+					} catch (IOException e) {
+						if (error.compareAndSet(null, e)) {
+							parts.forEach(Part::kill);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						latch.countDown();
+					}
+				}).start();
+			}
+			latch.await();
+			return error.get();
+		}
+
+		private byte[] compress(byte[] data) throws IOException {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (OutputStream compressed = compression.codec.getOutputStream(bytes, compression.level)) {
+				compressed.write(data);
+			}
+			return bytes.toByteArray();
+		}
+
+		private long concatenate(byte[] index, OutputStream out, Digester digester) throws IOException {
+			long size = 0;
+			if (index!=null) {
+				write(out, index, index.length, digester);
+				size += index.length;
+			}
+			final byte[] buffer = new byte[bufferSize];
+			for (Path file : files) {
+				try (InputStream in = Files.newInputStream(file)) {
+					for (int count = in.read(buffer); count>=0; count = in.read(buffer)) {
+						write(out, buffer, count, digester);
+						size += count;
+					}
+				}
+			}
+			return size;
+		}
+
+		private void write(OutputStream out, byte[] buffer, int count, Digester digester) throws IOException {
+			out.write(buffer, 0, count);
+			if (digester!=null) {
+				digester.update(buffer, 0, count);
+			}
+		}
+	}
+
+	/** Splits the dump of a data source in parts that are dumped concurrently.
+	 * <br>Each part is started with {@link #start(String)} and compressed on its own. Compressed parts are stored in temporary files (in the
+	 * directory of the destination file, if any, or in the {@link #setStagingStore(StagingStore) staging store directory}), then concatenated in the order of the returned list. Gzip, like most codecs, decompresses
+	 * concatenated streams as a single stream, so the backup is restored as the concatenation of the parts. Codecs that do not support
+	 * concatenated streams should not be used with split dumps.
+	 * <br>The raw digest of a split dump is unknown (see {@link BackupManifest#getRawDigest()}).
+	 * <br>The default implementation does not split the dump.
+	 * @param source The data source address (without the {@value #COMPRESSION_PARAMETER} and {@value #RATE_PARAMETER} parameters)
+	 * @return The addresses of the parts, in restore order
+	 * @throws IOException If the parts can't be computed
+	 * @throws IllegalArgumentException if source is invalid 
+	 */
+	protected List<String> getParts(String source) throws IOException {
+		return Collections.singletonList(source);
+	}
+
+	/** Gets the index of a dump split in parts.
+	 * <br>The index is the first part of the backup, it should be ignored when the backup is restored (for instance, a sql comment).
+	 * <br>The default implementation returns null.
+	 * @param parts The addresses of the parts returned by {@link #getParts(String)}
+	 * @return The index or null to not include any index in the backup
+	 */
+	protected String getIndex(List<String> parts) {
+		return null;
+	}
+
+	/** Starts the dump of a data source.
+	 * @param source The data source address (without the {@value #COMPRESSION_PARAMETER} and {@value #RATE_PARAMETER} parameters)
+	 * @return The running dump
+	 * @throws IOException If the dump can't be started
+	 * @throws IllegalArgumentException if source is invalid 
+	 */
+	protected abstract Dump start(String source) throws IOException;
+}
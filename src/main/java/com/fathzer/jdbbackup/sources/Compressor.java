@@ -1,38 +1,544 @@
 package com.fathzer.jdbbackup.sources;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
+import com.fathzer.jdbbackup.CompressionCodec;
+import com.fathzer.jdbbackup.utils.Digester;
+import com.fathzer.jdbbackup.utils.RateLimiter;
+
+/** A multi-stage compression pipeline.
+ * <br>The thread that runs this class reads the process output in blocks, a deflate stage compresses these blocks and a writer stage writes the
+ * compressed blocks to the destination (a file or an output stream). Stages are connected by bounded queues of pooled buffers.
+ * <br>The compression codec is gzip by default, it can be changed using {@link #setCompression(CompressionCodec, int)}.
+ * <br>With gzip codec, the deflate stage can compress blocks in parallel (see {@link #setParallel(int, int)}).
+ * <br>The digests of the data, before and after compression, can be computed in the same pass (see {@link #setDigesters(Digester, Digester)}).
+ * <br>If a stage fails, the process is killed and the other stages are stopped.
+ */
 final class Compressor implements Runnable {
+	/** The marker that denotes the end of data in queues. */
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+	/** The maximum size of a deflate dictionary. */
+	private static final int DICTIONARY_SIZE = 32*1024;
+	/** An empty final deflate block. */
+	private static final byte[] FINAL_BLOCK = {3, 0};
+
 	private final File destFile;
+	private final OutputStream destStream;
 	private final ProcessContext process;
+	private CompressionCodec codec = new GzipCodec();
+	private int level = CompressionCodec.DEFAULT_LEVEL;
+	private int bufferSize = CompressingSourceManager.DEFAULT_BUFFER_SIZE;
+	private int bufferCount = CompressingSourceManager.DEFAULT_BUFFER_COUNT;
+	private boolean direct;
+	private int workers = 1;
+	private int blockSize = CompressingSourceManager.DEFAULT_BLOCK_SIZE;
+	private BufferPool rawBuffers;
+	private BufferPool compressedBuffers;
+	private BlockingQueue<ByteBuffer> rawQueue;
+	private BlockingQueue<ByteBuffer> compressedQueue;
+	private final List<Thread> stages;
+	private ThreadFactory threadFactory = Thread::new;
+	private LongConsumer rawProgress;
+	private RateLimiter rateLimiter;
+	private LongConsumer compressedProgress;
+	private boolean aborted;
 	private IOException err;
+	private Digester rawDigester;
+	private Digester compressedDigester;
+	private long rawSize;
+	private long compressedSize;
+	/** The time spent compressing data, in nanoseconds. */
+	private final AtomicLong compressionTime = new AtomicLong();
 
+	/** Constructor.
+	 * @param destFile The file where to write the compressed data
+	 * @param process The process that produces the data
+	 */
 	Compressor(File destFile, ProcessContext process) {
+		this(destFile, null, process);
+	}
+
+	/** Constructor.
+	 * @param out The stream where to write the compressed data. It is flushed, but not closed, at the end of the compression.
+	 * @param process The process that produces the data
+	 */
+	Compressor(OutputStream out, ProcessContext process) {
+		this(null, out, process);
+	}
+
+	private Compressor(File destFile, OutputStream destStream, ProcessContext process) {
 		this.destFile = destFile;
+		this.destStream = destStream;
 		this.process = process;
+		this.stages = new ArrayList<>(3);
+	}
+
+	/** Sets the pipeline buffers.
+	 * @param size The size of the buffers
+	 * @param count The maximum number of buffers between two stages
+	 * @param direct true to use direct buffers
+	 */
+	void setBuffers(int size, int count, boolean direct) {
+		this.bufferSize = size;
+		this.bufferCount = count;
+		this.direct = direct;
+	}
+
+	/** Sets the compression codec.
+	 * @param codec The codec.
+	 * @param level The compression level.
+	 */
+	void setCompression(CompressionCodec codec, int level) {
+		this.codec = codec;
+		this.level = level;
+	}
+
+	/** Sets the progress consumers.
+	 * @param raw The consumer of the number of bytes read from the process (null to not report them)
+	 * @param compressed The consumer of the number of compressed bytes written (null to not report them)
+	 */
+	void setProgress(LongConsumer raw, LongConsumer compressed) {
+		this.rawProgress = raw;
+		this.compressedProgress = compressed;
+	}
+
+	/** Sets the limiter of the process output reads.
+	 * @param rateLimiter The limiter (null to not limit the reads)
+	 */
+	void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/** Sets the factory of the pipeline stages threads.
+	 * @param threadFactory The thread factory (default creates platform threads)
+	 */
+	void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
+	/** Sets the parallel compression settings.
+	 * <br>These settings are ignored if the codec is not {@link GzipCodec}.
+	 * @param workers The number of threads that compress the blocks. 1 to compress in a single thread.
+	 * @param blockSize The size of the blocks compressed by the workers.
+	 */
+	void setParallel(int workers, int blockSize) {
+		this.workers = workers;
+		this.blockSize = blockSize;
+	}
+
+	/** Sets the digesters that compute the digests of the data while it is compressed.
+	 * @param raw The digester of the data before compression, null to not compute it.
+	 * @param compressed The digester of the compressed data, null to not compute it.
+	 */
+	void setDigesters(Digester raw, Digester compressed) {
+		this.rawDigester = raw;
+		this.compressedDigester = compressed;
+	}
+
+	/** Gets the size of the data before compression.
+	 * <br>This method should be called after the compression is complete.
+	 * @return a number of bytes
+	 */
+	long getRawSize() {
+		return rawSize;
+	}
+
+	/** Gets the size of the compressed data.
+	 * <br>This method should be called after the compression is complete.
+	 * @return a number of bytes
+	 */
+	long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/** Gets the time spent compressing the data.
+	 * <br>With parallel compression, it is the sum of the times spent by all the workers.
+	 * <br>This method should be called after the compression is complete.
+	 * @return a duration
+	 */
+	Duration getCompressionTime() {
+		return Duration.ofNanos(compressionTime.get());
 	}
 
 	@Override
 	public void run() {
-		InputStream in = process.getInputStream();
-		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(destFile))) {
-			for (int c=in.read(); c!=-1; c=in.read()) {
-				out.write(c);
+		final boolean parallel = isParallel();
+		// Raw and compressed buffers are in distinct pools, otherwise the reader could starve the deflate stage
+		this.rawBuffers = parallel ? new BufferPool(blockSize, bufferCount+2*workers, direct) : new BufferPool(bufferSize, bufferCount, direct);
+		this.compressedBuffers = new BufferPool(bufferSize, bufferCount, direct);
+		this.rawQueue = new ArrayBlockingQueue<>(rawBuffers.getCount()+1);
+		this.compressedQueue = new ArrayBlockingQueue<>(bufferCount+1);
+		final Thread deflateStage = threadFactory.newThread(parallel ? this::parallelDeflate : this::deflate);
+		final Thread writeStage = threadFactory.newThread(this::write);
+		synchronized (this) {
+			stages.add(Thread.currentThread());
+			stages.add(deflateStage);
+			stages.add(writeStage);
+		}
+		deflateStage.start();
+		writeStage.start();
+		try {
+			read();
+		} catch (IOException e) {
+			fail(e);
+		} finally {
+			stageEnded();
+		}
+		join(deflateStage);
+		join(writeStage);
+	}
+
+	private void read() throws IOException {
+		final ReadableByteChannel in = Channels.newChannel(process.getInputStream());
+		boolean eof = false;
+		while (!eof) {
+			final ByteBuffer buffer = rawBuffers.take();
+			eof = fill(in, buffer);
+			buffer.flip();
+			// The reader stage mostly waits for the process, it is the cheapest place to compute the raw digest
+			rawSize += buffer.remaining();
+			if (rawDigester!=null) {
+				rawDigester.update(buffer);
+			}
+			if (rawProgress!=null && buffer.hasRemaining()) {
+				rawProgress.accept(buffer.remaining());
+			}
+			if (rateLimiter!=null) {
+				// While the reader waits, the process output pipe fills up and the process is slowed down
+				rateLimiter.acquire(buffer.remaining());
 			}
+			if (buffer.hasRemaining()) {
+				put(rawQueue, buffer);
+			} else {
+				rawBuffers.release(buffer);
+			}
+		}
+		put(rawQueue, END);
+	}
+
+	private static boolean fill(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer)<0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void deflate() {
+		// The stream is closed only on success: In case of failure, the writer stage may be dead and would never consume the remaining data
+		try {
+			final QueueOutputStream queue = new QueueOutputStream();
+			final OutputStream out = codec.getOutputStream(queue, level);
+			byte[] array = null;
+			for (ByteBuffer buffer = take(rawQueue); buffer!=END; buffer = take(rawQueue)) {
+				final long start = System.nanoTime();
+				if (buffer.hasArray()) {
+					out.write(buffer.array(), buffer.arrayOffset()+buffer.position(), buffer.remaining());
+				} else {
+					// Direct buffer
+					if (array==null) {
+						array = new byte[buffer.capacity()];
+					}
+					final int length = buffer.remaining();
+					buffer.get(array, 0, length);
+					out.write(array, 0, length);
+				}
+				// Time spent waiting for the writer stage is not compression time
+				compressionTime.addAndGet(System.nanoTime()-start-queue.getWaitTime());
+				rawBuffers.release(buffer);
+			}
+			out.close();
 		} catch (IOException e) {
-			if (!process.isKilled()) {
-				this.err = e;
-				process.kill();
+			fail(e);
+		} catch (RuntimeException e) {
+			fail(new IOException(e));
+		} finally {
+			stageEnded();
+		}
+	}
+
+	/** Compresses blocks in parallel, the same way <a href="https://zlib.net/pigz/">pigz</a> does.
+	 * <br>Each block is compressed by a worker as an independent raw deflate stream, using the tail of the previous block as dictionary, and terminated by a sync flush.
+	 * The concatenation of these streams, in the block order, is a valid deflate stream.
+	 */
+	private void parallelDeflate() {
+		// Workers are CPU intensive, they should not be virtual threads
+		final ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+			final Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		});
+		final Deque<Future<byte[]>> pending = new ArrayDeque<>(2*workers);
+		final CRC32 crc = new CRC32();
+		long size = 0;
+		byte[] dictionary = null;
+		try {
+			put(compressedQueue, ByteBuffer.wrap(GzipOutputStream.HEADER));
+			for (ByteBuffer block = take(rawQueue); block!=END; block = take(rawQueue)) {
+				crc.update(block.duplicate());
+				size += block.remaining();
+				final byte[] blockDictionary = dictionary;
+				dictionary = getTail(block);
+				final ByteBuffer input = block;
+				pending.add(executor.submit(() -> compress(input, blockDictionary)));
+				// Limit the number of blocks in progress and write the blocks as soon as possible
+				while (pending.size()>=2*workers || (!pending.isEmpty() && pending.peek().isDone())) {
+					put(compressedQueue, ByteBuffer.wrap(get(pending.poll())));
+				}
 			}
+			while (!pending.isEmpty()) {
+				put(compressedQueue, ByteBuffer.wrap(get(pending.poll())));
+			}
+			put(compressedQueue, ByteBuffer.wrap(FINAL_BLOCK));
+			put(compressedQueue, ByteBuffer.wrap(GzipOutputStream.getTrailer(crc.getValue(), size)));
+			put(compressedQueue, END);
+		} catch (IOException e) {
+			fail(e);
+		} finally {
+			executor.shutdownNow();
+			stageEnded();
+		}
+	}
+
+	private static byte[] getTail(ByteBuffer block) {
+		final ByteBuffer tail = block.duplicate();
+		final byte[] result = new byte[Math.min(DICTIONARY_SIZE, tail.remaining())];
+		tail.position(tail.limit()-result.length);
+		tail.get(result);
+		return result;
+	}
+
+	private byte[] compress(ByteBuffer block, byte[] dictionary) {
+		final long start = System.nanoTime();
+		final Deflater deflater = Deflaters.get(level);
+		try {
+			if (dictionary!=null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(block);
+			// Compressed data is usually far smaller than the block (and a sync flush never produces more than a few bytes more)
+			byte[] result = new byte[block.remaining()/2+64];
+			int length = 0;
+			boolean flushed = false;
+			while (!flushed) {
+				if (length==result.length) {
+					result = Arrays.copyOf(result, 2*result.length);
+				}
+				final int available = result.length-length;
+				final int count = deflater.deflate(result, length, available, Deflater.SYNC_FLUSH);
+				length += count;
+				// If the deflater did not fill the output buffer, the flush is complete
+				flushed = count<available && deflater.needsInput();
+			}
+			return length==result.length ? result : Arrays.copyOf(result, length);
+		} finally {
+			Deflaters.release(level, deflater);
+			rawBuffers.release(block);
+			compressionTime.addAndGet(System.nanoTime()-start);
+		}
+	}
+
+	private static byte[] get(Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private boolean isParallel() {
+		return workers>1 && codec instanceof GzipCodec;
+	}
+
+	private void write() {
+		final boolean pooled = !isParallel();
+		try (WritableByteChannel out = openOutput()) {
+			for (ByteBuffer buffer = take(compressedQueue); buffer!=END; buffer = take(compressedQueue)) {
+				compressedSize += buffer.remaining();
+				if (compressedDigester!=null) {
+					compressedDigester.update(buffer);
+				}
+				final int count = buffer.remaining();
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				if (compressedProgress!=null && count>0) {
+					compressedProgress.accept(count);
+				}
+				if (pooled) {
+					compressedBuffers.release(buffer);
+				}
+			}
+		} catch (IOException e) {
+			fail(e);
+		} finally {
+			stageEnded();
+		}
+	}
+
+	private WritableByteChannel openOutput() throws IOException {
+		if (destFile!=null) {
+			return FileChannel.open(destFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		// The stream belongs to the caller, closing the channel should only flush it
+		return Channels.newChannel(new FilterOutputStream(destStream) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				out.flush();
+			}
+		});
+	}
+
+	/** An output stream that packs the deflate stage output in pooled buffers and sends them to the writer stage.
+	 */
+	private class QueueOutputStream extends OutputStream {
+		private ByteBuffer current;
+		private long waitTime;
+
+		/** Gets the time spent waiting for the writer stage since the last call to this method.
+		 * @return a number of nanoseconds
+		 */
+		private long getWaitTime() {
+			final long result = waitTime;
+			waitTime = 0;
+			return result;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len>0) {
+				if (current==null) {
+					final long start = System.nanoTime();
+					current = compressedBuffers.take();
+					waitTime += System.nanoTime()-start;
+				}
+				final int count = Math.min(len, current.remaining());
+				current.put(b, off, count);
+				off += count;
+				len -= count;
+				if (!current.hasRemaining()) {
+					flushBuffer();
+				}
+			}
+		}
+
+		private void flushBuffer() throws InterruptedIOException {
+			final long start = System.nanoTime();
+			current.flip();
+			put(compressedQueue, current);
+			current = null;
+			waitTime += System.nanoTime()-start;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (current!=null) {
+				flushBuffer();
+			}
+			put(compressedQueue, END);
+		}
+	}
+
+	private static ByteBuffer take(BlockingQueue<ByteBuffer> queue) throws InterruptedIOException {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	private static void put(BlockingQueue<ByteBuffer> queue, ByteBuffer buffer) throws InterruptedIOException {
+		try {
+			queue.put(buffer);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	/** Stops the pipeline.
+	 * <br>The process is killed and the running stages are interrupted.
+	 * @param e The error that caused the failure.
+	 */
+	private synchronized void fail(IOException e) {
+		if (!process.isKilled()) {
+			this.err = e;
+			process.kill();
+		}
+		aborted = true;
+		final Thread current = Thread.currentThread();
+		stages.stream().filter(t -> t!=current).forEach(Thread::interrupt);
+	}
+
+	/** Signals the current stage is ended.
+	 * <br>Once this method is called, the stage's thread will no more be interrupted if another stage fails.
+	 */
+	private synchronized void stageEnded() {
+		stages.remove(Thread.currentThread());
+		if (aborted) {
+			// Clear the interruption that may have been sent by a failing stage.
+			// This matters for the thread that runs this compressor, it will continue its life after the compression is done.
+			Thread.interrupted();
+		}
+	}
+
+	private static void join(Thread thread) {
+		boolean interrupted = false;
+		boolean done = false;
+		while (!done) {
+			try {
+				thread.join();
+				done = true;
+			} catch (InterruptedException e) {
+				// The stages should be waited anyway
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
-	public IOException getError() {
+	public synchronized IOException getError() {
 		return err;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/** A pool of {@link Deflater} instances shared by all the backups.
+ * <br>Creating a Deflater allocates a significant amount of native memory, reusing them avoids this cost on every backup.
+ * <br>Pooled deflaters are <a href="https://www.rfc-editor.org/rfc/rfc1951">raw deflaters</a> (nowrap mode), as required by gzip format.
+ */
+final class Deflaters {
+	private static final int MAX_POOLED_PER_LEVEL = Math.max(4, Runtime.getRuntime().availableProcessors());
+	/** One queue per level (DEFAULT_COMPRESSION, then levels 0 to 9), changing the level of a deflater is not free. */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static final BlockingQueue<Deflater>[] POOLS = new BlockingQueue[11];
+
+	static {
+		for (int i = 0; i < POOLS.length; i++) {
+			POOLS[i] = new ArrayBlockingQueue<>(MAX_POOLED_PER_LEVEL);
+		}
+	}
+
+	private Deflaters() {
+		super();
+	}
+
+	/** Gets a deflater.
+	 * @param level The compression level (from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION})
+	 * @return A deflater in nowrap mode, ready to be used.
+	 * @throws IllegalArgumentException if level is invalid
+	 */
+	static Deflater get(int level) {
+		final Deflater deflater = getPool(level).poll();
+		return deflater==null ? new Deflater(level, true) : deflater;
+	}
+
+	/** Returns a deflater to the pool.
+	 * <br>If the pool is full, the deflater is ended.
+	 * @param level The level of the deflater.
+	 * @param deflater A deflater previously returned by {@link #get(int)} with the same level.
+	 */
+	static void release(int level, Deflater deflater) {
+		deflater.reset();
+		if (!getPool(level).offer(deflater)) {
+			deflater.end();
+		}
+	}
+
+	private static BlockingQueue<Deflater> getPool(int level) {
+		if (level<Deflater.DEFAULT_COMPRESSION || level>Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level "+level);
+		}
+		return POOLS[level+1];
+	}
+}
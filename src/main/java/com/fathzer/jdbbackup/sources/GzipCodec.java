@@ -0,0 +1,31 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fathzer.jdbbackup.CompressionCodec;
+
+/** The gzip compression codec.
+ * <br>Its levels are the ones of {@link java.util.zip.Deflater} (from 0 to 9).
+ * <br>This codec reuses the deflaters across backups and is the only one that supports parallel compression in {@link CompressingSourceManager}.
+ */
+public class GzipCodec implements CompressionCodec {
+	/** The name of this codec. */
+	public static final String NAME = "gzip";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String getExtension() {
+		return "gz";
+	}
+
+	@Override
+	public OutputStream getOutputStream(OutputStream out, int level) throws IOException {
+		// DEFAULT_LEVEL and Deflater.DEFAULT_COMPRESSION are both -1
+		return new GzipOutputStream(out, level, CompressingSourceManager.DEFAULT_BUFFER_SIZE);
+	}
+}
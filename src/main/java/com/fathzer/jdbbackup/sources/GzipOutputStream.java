@@ -0,0 +1,75 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/** A gzip output stream that works with a pooled {@link Deflater}.
+ * <br>Unlike {@link java.util.zip.GZIPOutputStream}, it does not end the deflater when closed, but returns it to the pool (see {@link Deflaters}).
+ * <br>The compressed data is exactly the same as the one produced by {@link java.util.zip.GZIPOutputStream} (only the OS field of the header may differ, depending on the java version).
+ */
+final class GzipOutputStream extends DeflaterOutputStream {
+	/** The gzip header (no file name, no modification time, unknown OS).*/
+	static final byte[] HEADER = {0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff};
+
+	private final CRC32 crc = new CRC32();
+	private final int level;
+	private boolean closed;
+
+	/** Constructor.
+	 * @param out The underlying output stream
+	 * @param level The compression level
+	 * @param size The output buffer size
+	 * @throws IOException If an error occurs while writing the header
+	 * @throws IllegalArgumentException if level is invalid
+	 */
+	GzipOutputStream(OutputStream out, int level, int size) throws IOException {
+		super(out, Deflaters.get(level), size);
+		this.level = level;
+		out.write(HEADER);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		super.write(b, off, len);
+		crc.update(b, off, len);
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (!def.finished()) {
+			super.finish();
+			out.write(getTrailer(crc.getValue(), def.getBytesRead()));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			super.close();
+			// If close fails, the deflater is not returned to the pool (it will be ended by the garbage collector)
+			Deflaters.release(level, def);
+		}
+	}
+
+	/** Gets a gzip trailer.
+	 * @param crc The CRC32 of the uncompressed data
+	 * @param size The size of the uncompressed data
+	 * @return an array of 8 bytes
+	 */
+	static byte[] getTrailer(long crc, long size) {
+		final byte[] trailer = new byte[8];
+		writeInt(trailer, 0, (int)crc);
+		writeInt(trailer, 4, (int)size);
+		return trailer;
+	}
+
+	private static void writeInt(byte[] buf, int offset, int value) {
+		for (int i = 0; i < 4; i++) {
+			buf[offset+i] = (byte)(value >> (8*i));
+		}
+	}
+}
@@ -0,0 +1,523 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.LoggerFactory;
+
+import com.fathzer.jdbbackup.sources.JdbcFormat.TableDescriptor;
+import com.fathzer.jdbbackup.utils.AddressParameters;
+import com.fathzer.jdbbackup.utils.BasicExtensionBuilder;
+
+/** A source manager that dumps a database through JDBC.
+ * <br>It requires no external tool, only the JDBC driver of the database in the class path.
+ * <br>The URI format is jdbc://<i>url</i>[?<i>parameters</i>], where jdbc:<i>url</i> is the JDBC URL of the database.
+ * For instance jdbc://postgresql://host:5432/db?user=u&amp;password=p dumps the database whose JDBC URL is jdbc:postgresql://host:5432/db.
+ * <br>The following parameters are removed from the JDBC URL, the other ones are passed to the driver:<ul>
+ * <li>{@value #USER_PARAMETER} and {@value #PASSWORD_PARAMETER}: The database credentials</li>
+ * <li>{@value #FORMAT_PARAMETER}: sql (the default) to dump INSERT statements or csv to dump CSV (RFC 4180) tables</li>
+ * <li>{@value #TABLES_PARAMETER}: A comma separated list of tables to dump. By default, all the tables of the connection's catalog and schema are dumped</li>
+ * <li>{@value #THREADS_PARAMETER}: The number of tables read concurrently (default is 1)</li>
+ * <li>{@value #FETCH_SIZE_PARAMETER}: The number of rows fetched from the database in one round trip (default is {@value #DEFAULT_FETCH_SIZE})</li>
+ * </ul>
+ * <br>The tables are read in read only transactions with the repeatable read isolation level (or serializable if the database does not support it).
+ * When tables are read concurrently, each thread has its own connection and all the connections read the same snapshot of the database, so the dump is consistent
+ * (see {@link #getWorkerConnections(Connection, int, String, Properties)}). Only PostgreSQL and MySQL/MariaDB support it, the {@value #THREADS_PARAMETER} parameter
+ * is rejected with other databases.
+ * The formatting of the rows is always performed concurrently.
+ * <br><b>With sql format, only data is dumped</b>: The dump does not contain the schema of the database (tables, indexes, constraints, etc...), so it is <b>not</b> a backup
+ * that can be restored by itself. The schema has to be created (for instance from a schema only dump made by the database tools) before the statements are executed.
+ * The statements of concurrently read tables are interleaved, so constraints between tables should be enabled after the restoration.
+ * <br>With csv format, tables are always read one after the other, each table is preceded by a line that contains its name and a header line, and is followed by an empty line.
+ * <br>Some drivers ignore the fetch size unless an URL parameter is set (for instance, useCursorFetch=true with MySQL), they read whole tables in memory.
+ * <br>The JDBC drivers are searched with the service loader of the thread context class loader, then with {@link DriverManager}.
+ */
+public class JdbcDumper extends CompressingSourceManager {
+	/** The name of the parameter that contains the database user. */
+	public static final String USER_PARAMETER = "user";
+	/** The name of the parameter that contains the database password. */
+	public static final String PASSWORD_PARAMETER = "password";
+	/** The name of the parameter that selects the output format. */
+	public static final String FORMAT_PARAMETER = "format";
+	/** The name of the parameter that selects the dumped tables. */
+	public static final String TABLES_PARAMETER = "tables";
+	/** The name of the parameter that sets the number of tables read concurrently. */
+	public static final String THREADS_PARAMETER = "threads";
+	/** The name of the parameter that sets the fetch size. */
+	public static final String FETCH_SIZE_PARAMETER = "fetchSize";
+	/** The default fetch size. */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+
+	private static final String SCHEME = "jdbc";
+	private static final String PREFIX = SCHEME+"://";
+	/** The size of the blocks of text sent to the compressor. A block always contains complete rows. */
+	private static final int BLOCK_SIZE = 64*1024;
+	/** The maximum number of blocks waiting for the compressor. */
+	private static final int QUEUE_SIZE = 8;
+	private static final byte[] END = new byte[0];
+	private static final String CONSISTENT_SNAPSHOT = "START TRANSACTION WITH CONSISTENT SNAPSHOT";
+
+	@Override
+	public String getScheme() {
+		return SCHEME;
+	}
+
+	@Override
+	public Function<String, CharSequence> getExtensionBuilder() {
+		return BasicExtensionBuilder.INSTANCE;
+	}
+
+	@Override
+	protected Function<String, CharSequence> getExtensionBuilder(AddressParameters source) {
+		return new BasicExtensionBuilder(getFormat(source.getParameters()).getExtension()+".gz");
+	}
+
+	private static JdbcFormat getFormat(Map<String, String> parameters) {
+		final String value = parameters.remove(FORMAT_PARAMETER);
+		if (value==null) {
+			return JdbcFormat.SQL;
+		}
+		try {
+			return JdbcFormat.valueOf(value.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown format: "+value);
+		}
+	}
+
+	private static int getPositiveInt(Map<String, String> parameters, String name, int defaultValue) {
+		final String value = parameters.remove(name);
+		if (value==null) {
+			return defaultValue;
+		}
+		try {
+			final int result = Integer.parseInt(value);
+			if (result>0) {
+				return result;
+			}
+		} catch (NumberFormatException e) {
+			// The error is thrown below
+		}
+		throw new IllegalArgumentException(name+" should be a strictly positive integer, not "+value);
+	}
+
+	@Override
+	protected Dump start(String source) throws IOException {
+		if (!source.startsWith(PREFIX)) {
+			throw new IllegalArgumentException("Does not support "+source+" scheme");
+		}
+		final AddressParameters address = new AddressParameters(source.substring(PREFIX.length()));
+		final Map<String, String> parameters = address.getParameters();
+		final Properties properties = new Properties();
+		final String user = parameters.remove(USER_PARAMETER);
+		if (user!=null) {
+			properties.setProperty(USER_PARAMETER, user);
+		}
+		final String password = parameters.remove(PASSWORD_PARAMETER);
+		if (password!=null) {
+			properties.setProperty(PASSWORD_PARAMETER, password);
+		}
+		final JdbcFormat format = getFormat(parameters);
+		final String tables = parameters.remove(TABLES_PARAMETER);
+		final int threads = getPositiveInt(parameters, THREADS_PARAMETER, 1);
+		final int fetchSize = getPositiveInt(parameters, FETCH_SIZE_PARAMETER, DEFAULT_FETCH_SIZE);
+		if (address.getAddress().isEmpty()) {
+			throw new IllegalArgumentException("Invalid URI");
+		}
+		final String url = SCHEME+':'+address;
+		final List<Connection> connections = new ArrayList<>();
+		try {
+			try {
+				final Connection connection = getConnection(url, properties);
+				connections.add(connection);
+				prepare(connection);
+				final List<String> names = getTables(connection, tables);
+				final int count = Math.min(format==JdbcFormat.CSV ? 1 : threads, names.size());
+				if (count>1) {
+					connections.addAll(getWorkerConnections(connection, count-1, url, properties));
+				}
+				final JdbcDump dump = new JdbcDump(connections, format, fetchSize);
+				dump.start(names);
+				return dump;
+			} catch (SQLException | RuntimeException e) {
+				connections.forEach(JdbcDumper::close);
+				throw e;
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/** Opens the connections of the other workers of a parallel dump.
+	 * <br>The new connections should read the same snapshot of the database as the first one, otherwise the dump would not be consistent.
+	 * <br>This implementation supports:<ul>
+	 * <li>PostgreSQL: The snapshot of the first connection is exported with <i>pg_export_snapshot()</i> and imported by the other connections
+	 * with <i>SET TRANSACTION SNAPSHOT</i>.</li>
+	 * <li>MySQL and MariaDB: All the connections start a transaction <i>WITH CONSISTENT SNAPSHOT</i> while the first connection holds a global read lock
+	 * (<i>FLUSH TABLES WITH READ LOCK</i>, which requires the RELOAD privilege). The lock is released as soon as the transactions are started.</li>
+	 * </ul>
+	 * @param first The connection that read the list of tables. It is in a read only transaction.
+	 * @param count The number of connections to open
+	 * @param url The JDBC URL of the database
+	 * @param properties The connection properties (user and password)
+	 * @return The new connections, in read only transactions that read the same snapshot as <i>first</i>
+	 * @throws SQLException If a connection fails
+	 * @throws IllegalArgumentException If the database can't share a snapshot between connections
+	 */
+	protected List<Connection> getWorkerConnections(Connection first, int count, String url, Properties properties) throws SQLException {
+		final String product = first.getMetaData().getDatabaseProductName();
+		final String lowerCaseProduct = product.toLowerCase(Locale.ROOT);
+		if (lowerCaseProduct.contains("postgresql")) {
+			final String snapshot;
+			try (Statement statement = first.createStatement(); ResultSet rs = statement.executeQuery("SELECT pg_export_snapshot()")) {
+				if (!rs.next()) {
+					throw new SQLException("No snapshot exported");
+				}
+				snapshot = rs.getString(1);
+			}
+			return connect(count, url, properties, "SET TRANSACTION SNAPSHOT '"+snapshot.replace("'", "''")+"'");
+		} else if (lowerCaseProduct.contains("mysql") || lowerCaseProduct.contains("mariadb")) {
+			// The lock prevents any commit between the start of the transactions
+			execute(first, "FLUSH TABLES WITH READ LOCK");
+			try {
+				execute(first, CONSISTENT_SNAPSHOT);
+				return connect(count, url, properties, CONSISTENT_SNAPSHOT);
+			} finally {
+				execute(first, "UNLOCK TABLES");
+			}
+		}
+		throw new IllegalArgumentException(product+" connections can't share a snapshot, "+THREADS_PARAMETER+" should be 1");
+	}
+
+	private List<Connection> connect(int count, String url, Properties properties, String initialization) throws SQLException {
+		final List<Connection> connections = new ArrayList<>(count);
+		try {
+			for (int i = 0; i < count; i++) {
+				final Connection connection = getConnection(url, properties);
+				connections.add(connection);
+				prepare(connection);
+				execute(connection, initialization);
+			}
+			return connections;
+		} catch (SQLException | RuntimeException e) {
+			connections.forEach(JdbcDumper::close);
+			throw e;
+		}
+	}
+
+	private static void execute(Connection connection, String sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+	/** Prepares a connection to read a consistent snapshot of the database.
+	 * @param connection The connection
+	 * @throws SQLException If something went wrong
+	 */
+	private static void prepare(Connection connection) throws SQLException {
+		final DatabaseMetaData metadata = connection.getMetaData();
+		connection.setAutoCommit(false);
+		connection.setReadOnly(true);
+		if (metadata.supportsTransactionIsolationLevel(Connection.TRANSACTION_REPEATABLE_READ)) {
+			connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+		} else if (metadata.supportsTransactionIsolationLevel(Connection.TRANSACTION_SERIALIZABLE)) {
+			connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+		}
+	}
+
+	/** Gets a connection to a database.
+	 * @param url The JDBC URL of the database
+	 * @param properties The connection properties (user and password)
+	 * @return a connection
+	 * @throws SQLException If the connection fails or no driver accepts the URL
+	 */
+	protected Connection getConnection(String url, Properties properties) throws SQLException {
+		// DriverManager ignores the drivers that are not visible from this class (for instance, drivers loaded with plugins)
+		for (Driver driver : ServiceLoader.load(Driver.class, Thread.currentThread().getContextClassLoader())) {
+			if (driver.acceptsURL(url)) {
+				return driver.connect(url, properties);
+			}
+		}
+		return DriverManager.getConnection(url, properties);
+	}
+
+	/** Gets the tables to dump.
+	 * @param connection The connection
+	 * @param wanted The comma separated list of the tables passed in the URI, null to dump all the tables
+	 * @return The names of the tables, as they are stored in the database
+	 * @throws SQLException If metadata can't be read
+	 * @throws IllegalArgumentException If a wanted table does not exist
+	 */
+	private static List<String> getTables(Connection connection, String wanted) throws SQLException {
+		final List<String> existing = new ArrayList<>();
+		try (ResultSet rs = connection.getMetaData().getTables(connection.getCatalog(), getSchema(connection), "%", new String[] {"TABLE"})) {
+			while (rs.next()) {
+				existing.add(rs.getString("TABLE_NAME"));
+			}
+		}
+		if (wanted==null) {
+			return existing;
+		}
+		final List<String> result = new ArrayList<>();
+		for (String table : wanted.split(",")) {
+			result.add(find(existing, table.trim()));
+		}
+		return result;
+	}
+
+	private static String getSchema(Connection connection) throws SQLException {
+		try {
+			return connection.getSchema();
+		} catch (AbstractMethodError e) {
+			// Driver older than JDBC 4.1
+			return null;
+		}
+	}
+
+	private static String find(Collection<String> tables, String table) {
+		// Databases do not store unquoted identifiers with the same case, so the case is only used to choose between homonyms
+		if (tables.contains(table)) {
+			return table;
+		}
+		return tables.stream().filter(table::equalsIgnoreCase).findAny().orElseThrow(() -> new IllegalArgumentException("Unknown table "+table));
+	}
+
+	private static void close(Connection connection) {
+		try {
+			try {
+				connection.rollback();
+			} finally {
+				connection.close();
+			}
+		} catch (SQLException e) {
+			LoggerFactory.getLogger(JdbcDumper.class).warn("Error while closing connection", e);
+		}
+	}
+
+	/** A dump in progress.
+	 * <br>Workers read tables, each one with its own connection, and send blocks of formatted rows to a bounded queue. The queue is read by the compressor through {@link #getInputStream()}.
+	 */
+	private final class JdbcDump implements Dump {
+		private final List<Connection> connections;
+		private final JdbcFormat format;
+		private final int fetchSize;
+		private final String quote;
+		private final boolean backslashEscape;
+		private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUE_SIZE);
+		private final Queue<String> tables = new ConcurrentLinkedQueue<>();
+		private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+		private final List<Thread> workers = new ArrayList<>();
+		private final AtomicInteger running = new AtomicInteger();
+		private final InputStream in = new BlocksInputStream();
+		private volatile Throwable error;
+		private volatile boolean killed;
+
+		private JdbcDump(List<Connection> connections, JdbcFormat format, int fetchSize) throws SQLException {
+			this.connections = connections;
+			this.format = format;
+			this.fetchSize = fetchSize;
+			final DatabaseMetaData metadata = connections.get(0).getMetaData();
+			this.quote = metadata.getIdentifierQuoteString();
+			final String product = metadata.getDatabaseProductName().toLowerCase(Locale.ROOT);
+			this.backslashEscape = product.contains("mysql") || product.contains("mariadb");
+		}
+
+		/** Starts one worker per connection.
+		 * @param names The tables to dump. There are at least as many tables as connections, unless the list is empty.
+		 */
+		private void start(List<String> names) {
+			tables.addAll(names);
+			if (names.isEmpty()) {
+				blocks.add(END);
+				return;
+			}
+			running.set(connections.size());
+			for (Connection connection : connections) {
+				workers.add(getThreadFactory().newThread(() -> work(connection)));
+			}
+			workers.forEach(Thread::start);
+		}
+
+		private void work(Connection connection) {
+			try {
+				for (String table = tables.poll(); table!=null && error==null && !killed; table = tables.poll()) {
+					dump(connection, table);
+				}
+			} catch (InterruptedIOException e) {
+				// The dump was killed
+			} catch (SQLException | RuntimeException e) {
+				fail(e);
+			} catch (Error e) {
+				fail(e);
+				throw e;
+			} finally {
+				if (running.decrementAndGet()==0) {
+					end();
+				}
+			}
+		}
+
+		private void dump(Connection connection, String table) throws SQLException, InterruptedIOException {
+			final StringBuilder out = new StringBuilder(BLOCK_SIZE+BLOCK_SIZE/4);
+			try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+				statements.add(statement);
+				try {
+					statement.setFetchSize(fetchSize);
+					try (ResultSet rs = statement.executeQuery("SELECT * FROM "+JdbcFormat.quote(table, quote))) {
+						final TableDescriptor descriptor = new TableDescriptor(format, table, rs.getMetaData(), quote, backslashEscape);
+						format.appendTableStart(out, descriptor);
+						while (rs.next()) {
+							format.appendRow(out, descriptor, rs);
+							if (out.length()>=BLOCK_SIZE) {
+								send(out);
+							}
+						}
+						format.appendTableEnd(out, descriptor);
+					}
+				} finally {
+					statements.remove(statement);
+				}
+			}
+			send(out);
+		}
+
+		private void send(StringBuilder out) throws InterruptedIOException {
+			if (out.length()==0) {
+				return;
+			}
+			final byte[] block = out.toString().getBytes(StandardCharsets.UTF_8);
+			out.setLength(0);
+			try {
+				blocks.put(block);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		/** Records the first error of the dump and stops the other workers.
+		 * <br>The dump ends, but {@link #waitFor()} reports the error, so an incomplete dump is never considered successful.
+		 * @param e The error
+		 */
+		private synchronized void fail(Throwable e) {
+			if (error==null && !killed) {
+				error = e;
+				cancel();
+			}
+		}
+
+		private void cancel() {
+			for (Statement statement : statements) {
+				try {
+					statement.cancel();
+				} catch (SQLException e) {
+					// Statement is already closed or can't be cancelled, it will end by itself
+				}
+			}
+		}
+
+		private void end() {
+			if (!killed) {
+				try {
+					blocks.put(END);
+					return;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			// Nobody reads the blocks anymore
+			blocks.clear();
+			blocks.offer(END);
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return in;
+		}
+
+		@Override
+		public void waitFor() throws IOException, InterruptedException {
+			try {
+				for (Thread worker : workers) {
+					worker.join();
+				}
+			} finally {
+				connections.forEach(JdbcDumper::close);
+			}
+			if (error!=null) {
+				throw new IOException(error);
+			}
+		}
+
+		@Override
+		public void kill() {
+			synchronized (this) {
+				killed = true;
+			}
+			cancel();
+			workers.forEach(Thread::interrupt);
+			blocks.clear();
+			blocks.offer(END);
+		}
+
+		private class BlocksInputStream extends InputStream {
+			private byte[] block = new byte[0];
+			private int position;
+			private boolean eof;
+
+			@Override
+			public int read() throws IOException {
+				final byte[] b = new byte[1];
+				return read(b, 0, 1)<0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len==0) {
+					return 0;
+				}
+				while (position==block.length) {
+					if (eof) {
+						return -1;
+					}
+					try {
+						block = blocks.take();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+					position = 0;
+					eof = block==END;
+				}
+				final int count = Math.min(len, block.length-position);
+				System.arraycopy(block, position, b, off, count);
+				position += count;
+				return count;
+			}
+		}
+	}
+}
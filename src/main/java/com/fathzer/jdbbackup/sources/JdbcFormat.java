@@ -0,0 +1,311 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/** The output formats of {@link JdbcDumper}.
+ */
+enum JdbcFormat {
+	/** INSERT statements, one per row. */
+	SQL("sql") {
+		@Override
+		String getHeader(TableDescriptor table) {
+			final StringBuilder header = new StringBuilder("INSERT INTO ").append(table.name).append(" (");
+			for (int i = 0; i < table.columns.length; i++) {
+				if (i>0) {
+					header.append(',');
+				}
+				header.append(table.columns[i]);
+			}
+			return header.append(") VALUES (").toString();
+		}
+
+		@Override
+		void appendRow(StringBuilder out, TableDescriptor table, ResultSet rs) throws SQLException {
+			out.append(table.header);
+			for (int i = 0; i < table.types.length; i++) {
+				if (i>0) {
+					out.append(',');
+				}
+				appendSqlValue(out, rs, i+1, table.types[i], table.backslashEscape);
+			}
+			out.append(");\n");
+		}
+	},
+	/** CSV (RFC 4180), each table is preceded by its name and its header row, and followed by an empty line. */
+	CSV("csv") {
+		@Override
+		String getHeader(TableDescriptor table) {
+			final StringBuilder header = new StringBuilder();
+			appendCsv(header, table.rawName);
+			header.append("\r\n");
+			for (int i = 0; i < table.rawColumns.length; i++) {
+				if (i>0) {
+					header.append(',');
+				}
+				appendCsv(header, table.rawColumns[i]);
+			}
+			return header.append("\r\n").toString();
+		}
+
+		@Override
+		void appendTableStart(StringBuilder out, TableDescriptor table) {
+			out.append(table.header);
+		}
+
+		@Override
+		void appendRow(StringBuilder out, TableDescriptor table, ResultSet rs) throws SQLException {
+			for (int i = 0; i < table.types.length; i++) {
+				if (i>0) {
+					out.append(',');
+				}
+				appendCsvValue(out, rs, i+1, table.types[i]);
+			}
+			out.append("\r\n");
+		}
+
+		@Override
+		void appendTableEnd(StringBuilder out, TableDescriptor table) {
+			out.append("\r\n");
+		}
+	};
+
+	private static final String NULL = "NULL";
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private final String extension;
+
+	private JdbcFormat(String extension) {
+		this.extension = extension;
+	}
+
+	/** Gets the extension of the files in this format (without compression).
+	 * @return a String
+	 */
+	String getExtension() {
+		return extension;
+	}
+
+	/** The description of a dumped table.
+	 */
+	static final class TableDescriptor {
+		private final String rawName;
+		private final String name;
+		private final String[] rawColumns;
+		private final String[] columns;
+		private final int[] types;
+		private final boolean backslashEscape;
+		private final String header;
+
+		/** Constructor.
+		 * @param format The output format
+		 * @param rawName The name of the table
+		 * @param metadata The metadata of the table's result set
+		 * @param quote The identifiers quote string (a space if the database does not support quoted identifiers)
+		 * @param backslashEscape true if backslashes are escape characters in the database's string literals
+		 * @throws SQLException If metadata can't be read
+		 */
+		TableDescriptor(JdbcFormat format, String rawName, ResultSetMetaData metadata, String quote, boolean backslashEscape) throws SQLException {
+			this.rawName = rawName;
+			this.name = quote(rawName, quote);
+			final int count = metadata.getColumnCount();
+			this.rawColumns = new String[count];
+			this.columns = new String[count];
+			this.types = new int[count];
+			for (int i = 0; i < count; i++) {
+				rawColumns[i] = metadata.getColumnName(i+1);
+				columns[i] = quote(rawColumns[i], quote);
+				types[i] = metadata.getColumnType(i+1);
+			}
+			this.backslashEscape = backslashEscape;
+			this.header = format.getHeader(this);
+		}
+	}
+
+	/** Quotes an identifier.
+	 * @param identifier The identifier
+	 * @param quote The identifiers quote string (a space if the database does not support quoted identifiers)
+	 * @return the quoted identifier
+	 */
+	static String quote(String identifier, String quote) {
+		if (quote==null || quote.trim().isEmpty()) {
+			return identifier;
+		}
+		return quote+identifier.replace(quote, quote+quote)+quote;
+	}
+
+	abstract String getHeader(TableDescriptor table);
+
+	/** Appends the text that precedes the rows of a table.
+	 * @param out The output
+	 * @param table The table
+	 */
+	void appendTableStart(StringBuilder out, TableDescriptor table) {
+		// Nothing to append by default
+	}
+
+	/** Appends the current row of a result set.
+	 * @param out The output
+	 * @param table The table
+	 * @param rs The result set
+	 * @throws SQLException If the row can't be read
+	 */
+	abstract void appendRow(StringBuilder out, TableDescriptor table, ResultSet rs) throws SQLException;
+
+	/** Appends the text that follows the rows of a table.
+	 * @param out The output
+	 * @param table The table
+	 */
+	void appendTableEnd(StringBuilder out, TableDescriptor table) {
+		// Nothing to append by default
+	}
+
+	private static void appendSqlValue(StringBuilder out, ResultSet rs, int column, int type, boolean backslashEscape) throws SQLException {
+		switch (type) {
+		case Types.BIT:
+		case Types.BOOLEAN:
+			final boolean bool = rs.getBoolean(column);
+			out.append(rs.wasNull() ? NULL : (bool ? "TRUE" : "FALSE"));
+			break;
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			final String number = rs.getString(column);
+			if (number==null) {
+				out.append(NULL);
+			} else if (isNumber(number)) {
+				out.append(number);
+			} else {
+				// NaN and infinities have no numeric literal
+				appendSqlString(out, number, backslashEscape);
+			}
+			break;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			final byte[] bytes = rs.getBytes(column);
+			if (bytes==null) {
+				out.append(NULL);
+			} else {
+				out.append("X'");
+				appendHex(out, bytes);
+				out.append('\'');
+			}
+			break;
+		case Types.DATE:
+			appendTemporal(out, "DATE ", rs.getString(column));
+			break;
+		case Types.TIME:
+		case Types.TIME_WITH_TIMEZONE:
+			appendTemporal(out, "TIME ", rs.getString(column));
+			break;
+		case Types.TIMESTAMP:
+		case Types.TIMESTAMP_WITH_TIMEZONE:
+			appendTemporal(out, "TIMESTAMP ", rs.getString(column));
+			break;
+		default:
+			final String value = rs.getString(column);
+			if (value==null) {
+				out.append(NULL);
+			} else {
+				appendSqlString(out, value, backslashEscape);
+			}
+		}
+	}
+
+	private static boolean isNumber(String value) {
+		if (value.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if ((c<'0' || c>'9') && c!='.' && c!='-' && c!='+' && c!='E' && c!='e') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void appendTemporal(StringBuilder out, String keyword, String value) {
+		// Temporal values are dumped as the driver formats them, this prevents any time zone conversion
+		if (value==null) {
+			out.append(NULL);
+		} else {
+			out.append(keyword);
+			appendSqlString(out, value, false);
+		}
+	}
+
+	private static void appendSqlString(StringBuilder out, String value, boolean backslashEscape) {
+		out.append('\'');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c=='\'') {
+				out.append("''");
+			} else if (c=='\\' && backslashEscape) {
+				out.append("\\\\");
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('\'');
+	}
+
+	private static void appendCsvValue(StringBuilder out, ResultSet rs, int column, int type) throws SQLException {
+		switch (type) {
+		case Types.BIT:
+		case Types.BOOLEAN:
+			final boolean bool = rs.getBoolean(column);
+			if (!rs.wasNull()) {
+				out.append(bool);
+			}
+			break;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			final byte[] bytes = rs.getBytes(column);
+			if (bytes!=null && bytes.length==0) {
+				// Like empty strings, empty binaries are quoted to differentiate them from null
+				out.append("\"\"");
+			} else if (bytes!=null) {
+				appendHex(out, bytes);
+			}
+			break;
+		default:
+			final String value = rs.getString(column);
+			if (value!=null) {
+				appendCsv(out, value);
+			}
+		}
+	}
+
+	private static void appendCsv(StringBuilder out, String value) {
+		boolean quote = value.isEmpty();
+		for (int i = 0; i < value.length() && !quote; i++) {
+			final char c = value.charAt(i);
+			quote = c==',' || c=='"' || c=='\r' || c=='\n';
+		}
+		if (quote) {
+			// An empty string is quoted to differentiate it from null
+			out.append('"').append(value.replace("\"", "\"\"")).append('"');
+		} else {
+			out.append(value);
+		}
+	}
+
+	private static void appendHex(StringBuilder out, byte[] bytes) {
+		for (byte b : bytes) {
+			out.append(HEX[(b>>4) & 0xF]).append(HEX[b & 0xF]);
+		}
+	}
+}
@@ -1,50 +1,396 @@
 package com.fathzer.jdbbackup.sources;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.PasswordAuthentication;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import com.fathzer.jdbbackup.utils.AddressParameters;
 import com.fathzer.plugin.loader.utils.LoginParser;
 
 /** A source manager that dumps MYSQL database.
  * <br>It requires mysqldump to be installed on the machine.
- * <br>The URI format is mysql://<i>user</i>:<i>pwd</i>@<i>host</i>[:<i>port</i>]/<i>database</i>
+ * <br>The URI format is mysql://<i>user</i>:<i>pwd</i>@<i>host</i>[:<i>port</i>]/<i>database</i>[?<i>parameters</i>]
  * <br>Default port is 3306
+ * <br>The following parameters are supported:<ul>
+ * <li>{@value #TABLES_PARAMETER}: A comma separated list of the tables to dump. By default, the whole database is dumped.</li>
+ * <li>{@value #EXCLUDE_TABLES_PARAMETER}: A comma separated list of the tables that are not dumped (--ignore-table). It can't be used with {@value #TABLES_PARAMETER}.</li>
+ * <li>{@value #THREADS_PARAMETER}: The number of mysqldump processes that run concurrently (default is 1).</li>
+ * <li>{@value #SINGLE_TRANSACTION_PARAMETER}: Dumps the tables in a single transaction, without locking them (--single-transaction). It can't be used with {@value #LOCK_TABLES_PARAMETER}.</li>
+ * <li>{@value #LOCK_TABLES_PARAMETER}: Locks the tables while they are dumped (--lock-tables).</li>
+ * <li>{@value #QUICK_PARAMETER}: Reads the rows one by one instead of buffering whole tables (--quick).</li>
+ * <li>{@value #EXTENDED_INSERT_PARAMETER}: Inserts several rows per INSERT statement (--extended-insert).</li>
+ * <li>{@value #NETWORK_COMPRESSION_PARAMETER}: Compresses the data sent by the server, which is useful for remote hosts (--compress).</li>
+ * <li>{@value #NET_BUFFER_LENGTH_PARAMETER}: The maximum size in bytes of extended INSERT statements (--net-buffer-length), between {@value #MIN_NET_BUFFER_LENGTH} and
+ * {@value #MAX_NET_BUFFER_LENGTH}. It can't be used when {@value #EXTENDED_INSERT_PARAMETER} is false.</li>
+ * </ul>
+ * Boolean parameters accept true (an empty value means true) or false. True adds the mysqldump option, false adds its --skip- form. When a
+ * boolean parameter is missing, the mysqldump default applies. For instance, mysql://u:p@host/db?singleTransaction&amp;networkCompression=true&amp;excludeTables=logs,sessions
+ * <br>Other parameters are rejected.
+ * <br>With more than one thread, the tables are listed using the mysql command (which should also be installed), then split in groups of about
+ * the same size (data and indexes). Each group is dumped by its own mysqldump process and compressed on its own (see {@link #getParts(String)}).
+ * The views are dumped after all the tables, because they may depend on any of them. The backup starts with an sql comment that lists the groups in restore order.
+ * <br>Please note that each process has its own connection to the database, the tables of different groups may not be consistent with each other.
  */
 public class MySQLDumper extends SourceManagerFromProcess {
-	@Override
-	protected List<String> getCommand(String source) {
-		URI params = URI.create(source);
+	/** The name of the parameter that selects the dumped tables. */
+	public static final String TABLES_PARAMETER = "tables";
+	/** The name of the parameter that sets the number of concurrent mysqldump processes. */
+	public static final String THREADS_PARAMETER = "threads";
+	/** The name of the parameter that excludes tables from the dump. */
+	public static final String EXCLUDE_TABLES_PARAMETER = "excludeTables";
+	/** The name of the boolean parameter that maps to --single-transaction. */
+	public static final String SINGLE_TRANSACTION_PARAMETER = "singleTransaction";
+	/** The name of the boolean parameter that maps to --lock-tables. */
+	public static final String LOCK_TABLES_PARAMETER = "lockTables";
+	/** The name of the boolean parameter that maps to --quick. */
+	public static final String QUICK_PARAMETER = "quick";
+	/** The name of the boolean parameter that maps to --extended-insert. */
+	public static final String EXTENDED_INSERT_PARAMETER = "extendedInsert";
+	/** The name of the boolean parameter that maps to --compress. */
+	public static final String NETWORK_COMPRESSION_PARAMETER = "networkCompression";
+	/** The name of the parameter that maps to --net-buffer-length. */
+	public static final String NET_BUFFER_LENGTH_PARAMETER = "netBufferLength";
+	/** The minimum value of {@value #NET_BUFFER_LENGTH_PARAMETER} parameter. */
+	public static final int MIN_NET_BUFFER_LENGTH = 4096;
+	/** The maximum value of {@value #NET_BUFFER_LENGTH_PARAMETER} parameter. */
+	public static final int MAX_NET_BUFFER_LENGTH = 16*1024*1024;
+
+	private static final Map<String, String> BOOLEAN_OPTIONS = new LinkedHashMap<>();
+	static {
+		BOOLEAN_OPTIONS.put(SINGLE_TRANSACTION_PARAMETER, "single-transaction");
+		BOOLEAN_OPTIONS.put(LOCK_TABLES_PARAMETER, "lock-tables");
+		BOOLEAN_OPTIONS.put(QUICK_PARAMETER, "quick");
+		BOOLEAN_OPTIONS.put(EXTENDED_INSERT_PARAMETER, "extended-insert");
+		BOOLEAN_OPTIONS.put(NETWORK_COMPRESSION_PARAMETER, "compress");
+	}
+
+	private static final String VIEW = "VIEW";
+
+	private static final class Target {
+		private final String host;
+		private final int port;
+		private final String dbName;
+		private final PasswordAuthentication login;
+
+		private Target(URI params) {
+			this.port = getPort(params);
+			this.dbName = getDBName(params);
+			this.host = params.getHost();
+			this.login = LoginParser.fromString(params.getUserInfo());
+			if (isEmpty(dbName) || isEmpty(host) || port<=0 || login==null || isEmpty(login.getUserName()) || login.getPassword().length==0) {
+				throw new IllegalArgumentException("Invalid URI");
+			}
+		}
+
+		private List<String> getCommand(String command) {
+			final List<String> commands = new ArrayList<>();
+			commands.add(command);
+			commands.add("--host="+host);
+			commands.add("--port="+port);
+			commands.add("--user="+login.getUserName());
+			commands.add("--password="+new String(login.getPassword()));
+			return commands;
+		}
+	}
+
+	/** A table of the database. */
+	private static final class Table {
+		private final String name;
+		private final boolean view;
+		private final long size;
+
+		private Table(String name, boolean view, long size) {
+			this.name = name;
+			this.view = view;
+			this.size = size;
+		}
+	}
+
+	/** The mysqldump options of a source. */
+	private static final class Options {
+		private final List<String> options = new ArrayList<>();
+		private final List<String> tables;
+		private final List<String> excludedTables;
+
+		/** Constructor.
+		 * @param parameters The source parameters
+		 * @throws IllegalArgumentException if a parameter is unknown or invalid, or if parameters are not compatible
+		 */
+		private Options(Map<String, String> parameters) {
+			final Map<String, String> remaining = new LinkedHashMap<>(parameters);
+			final Map<String, Boolean> flags = new HashMap<>();
+			for (Map.Entry<String, String> option : BOOLEAN_OPTIONS.entrySet()) {
+				final String value = remaining.remove(option.getKey());
+				if (value!=null) {
+					final boolean flag = parseBoolean(option.getKey(), value);
+					flags.put(option.getKey(), flag);
+					options.add((flag ? "--" : "--skip-")+option.getValue());
+				}
+			}
+			final String netBufferLength = remaining.remove(NET_BUFFER_LENGTH_PARAMETER);
+			if (netBufferLength!=null) {
+				options.add("--net-buffer-length="+parseNetBufferLength(netBufferLength));
+			}
+			final String wanted = remaining.remove(TABLES_PARAMETER);
+			this.tables = wanted==null ? null : splitTables(wanted);
+			final String excluded = remaining.remove(EXCLUDE_TABLES_PARAMETER);
+			this.excludedTables = excluded==null ? null : splitTables(excluded);
+			// Threads are managed by getParts
+			remaining.remove(THREADS_PARAMETER);
+			if (!remaining.isEmpty()) {
+				throw new IllegalArgumentException("Unsupported parameters "+remaining.keySet());
+			}
+			if (Boolean.TRUE.equals(flags.get(SINGLE_TRANSACTION_PARAMETER)) && Boolean.TRUE.equals(flags.get(LOCK_TABLES_PARAMETER))) {
+				throw new IllegalArgumentException(SINGLE_TRANSACTION_PARAMETER+" and "+LOCK_TABLES_PARAMETER+" are mutually exclusive");
+			}
+			if (netBufferLength!=null && Boolean.FALSE.equals(flags.get(EXTENDED_INSERT_PARAMETER))) {
+				throw new IllegalArgumentException(NET_BUFFER_LENGTH_PARAMETER+" requires extended inserts");
+			}
+			if (tables!=null && excludedTables!=null) {
+				throw new IllegalArgumentException(TABLES_PARAMETER+" and "+EXCLUDE_TABLES_PARAMETER+" are mutually exclusive");
+			}
+		}
+
+		private static boolean parseBoolean(String name, String value) {
+			if (value.isEmpty() || "true".equalsIgnoreCase(value)) {
+				return true;
+			} else if ("false".equalsIgnoreCase(value)) {
+				return false;
+			}
+			throw new IllegalArgumentException(name+" should be true or false, not "+value);
+		}
+
+		private static int parseNetBufferLength(String value) {
+			try {
+				final int result = Integer.parseInt(value);
+				if (result>=MIN_NET_BUFFER_LENGTH && result<=MAX_NET_BUFFER_LENGTH) {
+					return result;
+				}
+			} catch (NumberFormatException e) {
+				// The error is thrown below
+			}
+			throw new IllegalArgumentException(NET_BUFFER_LENGTH_PARAMETER+" should be an integer between "+MIN_NET_BUFFER_LENGTH+" and "+MAX_NET_BUFFER_LENGTH+", not "+value);
+		}
+	}
+
+	private Target getTarget(AddressParameters source) {
+		final URI params = URI.create(source.getAddress());
 		if (!getScheme().equals(params.getScheme())) {
 			throw new IllegalArgumentException("Does not support "+params.getScheme()+" scheme");
 		}
-		final int port = getPort(params);
-		final String dbName = getDBName(params);
-		final PasswordAuthentication login = LoginParser.fromString(params.getUserInfo());  
-		if (isEmpty(dbName) || isEmpty(params.getHost()) || port<=0 || login==null || isEmpty(login.getUserName()) || login.getPassword().length==0) {
-			throw new IllegalArgumentException("Invalid URI");
-		}
-		final List<String> commands = new ArrayList<>();
-		commands.add("mysqldump");
-		commands.add("--host="+params.getHost());
-		commands.add("--port="+port);
-		commands.add("--user="+login.getUserName());
-		commands.add("--password="+new String(login.getPassword()));
+		return new Target(params);
+	}
+
+	@Override
+	protected List<String> getCommand(String source) {
+		final AddressParameters address = new AddressParameters(source);
+		final Target target = getTarget(address);
+		final Options options = new Options(address.getParameters());
+		final List<String> commands = target.getCommand("mysqldump");
 		commands.add("--add-drop-database");
-		commands.add(dbName);
+		commands.addAll(options.options);
+		if (options.excludedTables!=null) {
+			options.excludedTables.forEach(table -> commands.add("--ignore-table="+target.dbName+"."+table));
+		}
+		commands.add(target.dbName);
+		if (options.tables!=null) {
+			commands.addAll(options.tables);
+		}
+		return commands;
+	}
+
+	/** Gets the command line that lists the tables of the database.
+	 * <br>The command should output one line per table. It contains the name of the table, its type (BASE TABLE or VIEW) and its size in bytes, separated by tabs.
+	 * @param source The data source address
+	 * @return The list of the tokens that compose the command
+	 * @throws IllegalArgumentException if source is invalid
+	 */
+	protected List<String> getTablesCommand(String source) {
+		final Target target = getTarget(new AddressParameters(source));
+		final List<String> commands = target.getCommand("mysql");
+		commands.add("--batch");
+		commands.add("--skip-column-names");
+		commands.add("--execute=SELECT TABLE_NAME, TABLE_TYPE, COALESCE(DATA_LENGTH,0)+COALESCE(INDEX_LENGTH,0) FROM information_schema.TABLES WHERE TABLE_SCHEMA='"+
+				target.dbName.replace("\\", "\\\\").replace("'", "''")+"'");
 		return commands;
 	}
-	
-	private int getPort(URI uri) {
+
+	/** {@inheritDoc}
+	 * <br>This implementation splits the dump in groups of tables when the {@value #THREADS_PARAMETER} parameter is greater than 1.
+	 * The tables are split in <i>threads</i> groups of about the same size, followed by a group that contains the views.
+	 */
+	@Override
+	protected List<String> getParts(String source) throws IOException {
+		final AddressParameters address = new AddressParameters(source);
+		final int threads = getThreads(address.getParameters().remove(THREADS_PARAMETER));
+		if (threads==1) {
+			return Collections.singletonList(address.toString());
+		}
+		getTarget(address);
+		final Options options = new Options(address.getParameters());
+		final List<Table> tables = getTables(address.toString());
+		if (options.tables!=null) {
+			final Set<String> names = new HashSet<>(options.tables);
+			tables.removeIf(t -> !names.remove(t.name));
+			if (!names.isEmpty()) {
+				throw new IllegalArgumentException("Unknown tables "+names);
+			}
+		}
+		if (options.excludedTables!=null) {
+			// Parts list their tables explicitly
+			tables.removeIf(t -> options.excludedTables.contains(t.name));
+			address.getParameters().remove(EXCLUDE_TABLES_PARAMETER);
+		}
+		if (tables.isEmpty()) {
+			return Collections.singletonList(address.toString());
+		}
+		final List<List<String>> groups = balance(tables.stream().filter(t -> !t.view).collect(Collectors.toList()), threads);
+		final List<String> views = tables.stream().filter(t -> t.view).map(t -> t.name).sorted().collect(Collectors.toList());
+		if (!views.isEmpty()) {
+			groups.add(views);
+		}
+		final List<String> parts = new ArrayList<>(groups.size());
+		for (List<String> group : groups) {
+			address.getParameters().put(TABLES_PARAMETER, String.join(",", group));
+			parts.add(address.toString());
+		}
+		return parts;
+	}
+
+	private static int getThreads(String value) {
+		if (value==null) {
+			return 1;
+		}
+		try {
+			final int result = Integer.parseInt(value);
+			if (result>0) {
+				return result;
+			}
+		} catch (NumberFormatException e) {
+			// The error is thrown below
+		}
+		throw new IllegalArgumentException(THREADS_PARAMETER+" should be a strictly positive integer, not "+value);
+	}
+
+	/** Splits tables in groups of about the same size.
+	 * <br>The largest tables are assigned first, each one to the smallest group.
+	 * @param tables The tables
+	 * @param count The maximum number of groups
+	 * @return The non empty groups, each one contains table names sorted alphabetically
+	 */
+	private static List<List<String>> balance(List<Table> tables, int count) {
+		final List<List<String>> groups = new ArrayList<>(count);
+		final long[] sizes = new long[count];
+		for (int i = 0; i < count; i++) {
+			groups.add(new ArrayList<>());
+		}
+		tables.sort(Comparator.comparingLong((Table t) -> t.size).reversed().thenComparing(t -> t.name));
+		for (Table table : tables) {
+			int smallest = 0;
+			for (int i = 1; i < count; i++) {
+				if (sizes[i]<sizes[smallest]) {
+					smallest = i;
+				}
+			}
+			groups.get(smallest).add(table.name);
+			sizes[smallest] += table.size;
+		}
+		groups.removeIf(List::isEmpty);
+		groups.forEach(Collections::sort);
+		return groups;
+	}
+
+	private List<Table> getTables(String source) throws IOException {
+		final Process process = new ProcessBuilder(getTablesCommand(source)).start();
+		final List<Table> tables = new ArrayList<>();
+		// The error stream is read concurrently, a full error pipe would block the process
+		final ByteArrayOutputStream errorBytes = new ByteArrayOutputStream();
+		final Thread errorThread = getThreadFactory().newThread(() -> {
+			try (InputStream err = process.getErrorStream()) {
+				err.transferTo(errorBytes);
+			} catch (IOException e) {
+				// The process is destroyed, its errors are useless
+			}
+		});
+		errorThread.start();
+		try {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				for (String line = reader.readLine(); line!=null; line = reader.readLine()) {
+					if (!line.isEmpty()) {
+						tables.add(parseTable(line));
+					}
+				}
+			}
+			final int result = process.waitFor();
+			errorThread.join();
+			final String errors = new String(errorBytes.toByteArray(), StandardCharsets.UTF_8).trim();
+			if (result!=0) {
+				throw new IOException("Unable to list tables, process failed with code "+result+(errors.isEmpty() ? "" : ": "+errors));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			process.destroy();
+		}
+		return tables;
+	}
+
+	private static Table parseTable(String line) throws IOException {
+		final String[] fields = line.split("\t");
+		try {
+			if (fields.length==3) {
+				return new Table(fields[0], VIEW.equals(fields[1]), Long.parseLong(fields[2].trim()));
+			}
+		} catch (NumberFormatException e) {
+			// The error is thrown below
+		}
+		throw new IOException("Unexpected table description: "+line);
+	}
+
+	/** {@inheritDoc}
+	 * <br>This implementation returns an sql comment that lists the tables of every part.
+	 */
+	@Override
+	protected String getIndex(List<String> parts) {
+		final StringBuilder index = new StringBuilder();
+		index.append("-- Dump split in ").append(parts.size()).append(" parts, restore them in this order:\n");
+		for (int i = 0; i < parts.size(); i++) {
+			index.append("-- ").append(i+1).append(": ").append(new AddressParameters(parts.get(i)).getParameters().get(TABLES_PARAMETER)).append('\n');
+		}
+		return index.toString();
+	}
+
+	private static List<String> splitTables(String tables) {
+		return Arrays.stream(tables.split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
+	}
+
+	private static int getPort(URI uri) {
 		int port = uri.getPort();
 		if (port==-1) {
 			port=3306;
 		}
 		return port;
 	}
-	
-	private String getDBName(URI uri) {
+
+	private static String getDBName(URI uri) {
 		String result = uri.getPath();
 		if (result.startsWith("/")) {
 			// Remove initial /
@@ -57,8 +403,8 @@ public class MySQLDumper extends SourceManagerFromProcess {
 	public String getScheme() {
 		return "mysql";
 	}
-	
-	private boolean isEmpty(String str) {
+
+	private static boolean isEmpty(String str) {
 		return str==null || str.trim().isEmpty();
 	}
 }
@@ -0,0 +1,31 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.OutputStream;
+
+import com.fathzer.jdbbackup.CompressionCodec;
+
+/** A codec that does not compress data.
+ * <br>It is useful when the destination compresses data by itself.
+ */
+public class NoCompressionCodec implements CompressionCodec {
+	/** The name of this codec. */
+	public static final String NAME = "none";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public String getExtension() {
+		return "";
+	}
+
+	@Override
+	public OutputStream getOutputStream(OutputStream out, int level) {
+		if (level!=DEFAULT_LEVEL) {
+			throw new IllegalArgumentException("No level supported by "+NAME+" codec");
+		}
+		return out;
+	}
+}
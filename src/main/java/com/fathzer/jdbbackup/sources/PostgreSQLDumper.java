@@ -0,0 +1,264 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.PasswordAuthentication;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.slf4j.LoggerFactory;
+
+import com.fathzer.jdbbackup.utils.AddressParameters;
+import com.fathzer.jdbbackup.utils.BasicExtensionBuilder;
+import com.fathzer.plugin.loader.utils.LoginParser;
+
+/** A source manager that dumps PostgreSQL database.
+ * <br>It requires pg_dump to be installed on the machine.
+ * <br>The URI format is postgresql://<i>user</i>:<i>pwd</i>@<i>host</i>[:<i>port</i>]/<i>database</i>[?{@value #THREADS_PARAMETER}=<i>n</i>]
+ * <br>Default port is 5432. The {@value #THREADS_PARAMETER} parameter sets the number of tables dumped concurrently by pg_dump (default is 1).
+ * <br>The database is dumped with the pg_dump directory format in a temporary directory (created in the {@link #setStagingStore(com.fathzer.jdbbackup.StagingStore) staging store directory} if any). The directory is then read as a tar archive that is
+ * compressed while it is built, without any intermediate archive file. Each dumped file is deleted as soon as it is archived.
+ * To restore the backup, extract the archive and use pg_restore on the extracted <i>dump</i> directory (with the -j option to restore tables concurrently).
+ * <br>The credentials are not passed on the command line: The user name is passed in the PGUSER environment variable and the password in a temporary
+ * <a href="https://www.postgresql.org/docs/current/libpq-pgpass.html">password file</a> that is deleted as soon as pg_dump ends.
+ */
+public class PostgreSQLDumper extends SourceManagerFromProcess {
+	/** The name of the parameter that sets the number of concurrent pg_dump jobs. */
+	public static final String THREADS_PARAMETER = "threads";
+	/** The name of the dump directory in the archive. */
+	public static final String DUMP_DIRECTORY = "dump";
+
+	private static final String PASSWORD_FILE = "pgpass";
+
+	@Override
+	public String getScheme() {
+		return "postgresql";
+	}
+
+	@Override
+	public Function<String, CharSequence> getExtensionBuilder() {
+		return new BasicExtensionBuilder("tar.gz");
+	}
+
+	private static final class Target {
+		private final String host;
+		private final int port;
+		private final String dbName;
+		private final PasswordAuthentication login;
+		private final int threads;
+
+		private Target(String scheme, String source) {
+			final AddressParameters address = new AddressParameters(source);
+			final URI uri = URI.create(address.getAddress());
+			if (!scheme.equals(uri.getScheme())) {
+				throw new IllegalArgumentException("Does not support "+uri.getScheme()+" scheme");
+			}
+			this.host = uri.getHost();
+			this.port = uri.getPort()==-1 ? 5432 : uri.getPort();
+			final String path = uri.getPath();
+			this.dbName = path!=null && path.startsWith("/") ? path.substring(1) : path;
+			this.login = LoginParser.fromString(uri.getUserInfo());
+			if (isEmpty(dbName) || isEmpty(host) || port<=0 || login==null || isEmpty(login.getUserName()) || login.getPassword().length==0) {
+				throw new IllegalArgumentException("Invalid URI");
+			}
+			final Map<String, String> parameters = address.getParameters();
+			final String value = parameters.remove(THREADS_PARAMETER);
+			this.threads = value==null ? 1 : parseThreads(value);
+			if (!parameters.isEmpty()) {
+				throw new IllegalArgumentException("Unsupported parameters "+parameters.keySet());
+			}
+		}
+
+		private static int parseThreads(String value) {
+			try {
+				final int result = Integer.parseInt(value);
+				if (result>0) {
+					return result;
+				}
+			} catch (NumberFormatException e) {
+				// The error is thrown below
+			}
+			throw new IllegalArgumentException(THREADS_PARAMETER+" should be a strictly positive integer, not "+value);
+		}
+
+		private static boolean isEmpty(String str) {
+			return str==null || str.trim().isEmpty();
+		}
+	}
+
+	/** {@inheritDoc}
+	 * <br>The command is executed in a temporary directory, it should create the {@value #DUMP_DIRECTORY} directory.
+	 */
+	@Override
+	protected List<String> getCommand(String source) {
+		final Target target = new Target(getScheme(), source);
+		final List<String> commands = new ArrayList<>();
+		commands.add("pg_dump");
+		commands.add("--host="+target.host);
+		commands.add("--port="+target.port);
+		commands.add("--dbname="+target.dbName);
+		commands.add("--no-password");
+		commands.add("--format=directory");
+		// The archive is compressed as a whole
+		commands.add("--compress=0");
+		commands.add("--file="+DUMP_DIRECTORY);
+		if (target.threads>1) {
+			commands.add("--jobs="+target.threads);
+		}
+		return commands;
+	}
+
+	@Override
+	protected Map<String, String> getEnvironment(String source) {
+		return Collections.singletonMap("PGUSER", new Target(getScheme(), source).login.getUserName());
+	}
+
+	/** Gets the content of the password file.
+	 * @param source The data source access URI
+	 * @return a String
+	 */
+	String getPasswordFile(String source) {
+		final Target target = new Target(getScheme(), source);
+		// The file is used by this dump only, so it matches any host, port and database
+		return "*:*:*:"+escape(target.login.getUserName())+":"+escape(new String(target.login.getPassword()))+"\n";
+	}
+
+	private static String escape(String field) {
+		return field.replace("\\", "\\\\").replace(":", "\\:");
+	}
+
+	@Override
+	protected Dump start(String source) throws IOException {
+		final String passwords = getPasswordFile(source);
+		// pg_dump writes the whole uncompressed dump in this directory, it should be where the backups are staged
+		final Path tmp = getTempDirectory();
+		final Path directory = tmp==null ? Files.createTempDirectory("jdbbackup-") : Files.createTempDirectory(tmp, "jdbbackup-");
+		try {
+			final Path passwordFile = directory.resolve(PASSWORD_FILE);
+			if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+				// libpq ignores password files that are readable by other users
+				Files.createFile(passwordFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+			}
+			Files.write(passwordFile, passwords.getBytes(StandardCharsets.UTF_8));
+			final ProcessBuilder builder = new ProcessBuilder(getCommand(source)).directory(directory.toFile());
+			builder.environment().remove("PGPASSWORD");
+			builder.environment().putAll(getEnvironment(source));
+			builder.environment().put("PGPASSFILE", passwordFile.toAbsolutePath().toString());
+			return new DirectoryDump(start(builder), directory, passwordFile);
+		} catch (IOException | RuntimeException e) {
+			delete(directory);
+			throw e;
+		}
+	}
+
+	private static void delete(Path directory) {
+		try (Stream<Path> walk = Files.walk(directory)) {
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> {
+				try {
+					Files.deleteIfExists(path);
+				} catch (IOException e) {
+					LoggerFactory.getLogger(PostgreSQLDumper.class).warn("Unable to delete {}", path, e);
+				}
+			});
+		} catch (IOException | UncheckedIOException e) {
+			// The directory was already deleted (or is deleted concurrently)
+		}
+	}
+
+	/** A dump whose data is the archive of the directory produced by a process.
+	 * <br>The archive is available when the process ends. The temporary directory is deleted when the archive is read or when the dump is killed.
+	 */
+	private static final class DirectoryDump implements Dump {
+		private final Dump process;
+		private final Path directory;
+		private final Path passwordFile;
+		private final InputStream in;
+		private boolean killed;
+
+		private DirectoryDump(Dump process, Path directory, Path passwordFile) {
+			this.process = process;
+			this.directory = directory;
+			this.passwordFile = passwordFile;
+			this.in = new ArchiveInputStream();
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return in;
+		}
+
+		@Override
+		public void waitFor() throws IOException, InterruptedException {
+			process.waitFor();
+		}
+
+		@Override
+		public void kill() {
+			synchronized (this) {
+				killed = true;
+			}
+			process.kill();
+			delete(directory);
+		}
+
+		private class ArchiveInputStream extends InputStream {
+			private InputStream archive;
+
+			@Override
+			public int read() throws IOException {
+				final byte[] b = new byte[1];
+				return read(b, 0, 1)<0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (archive==null) {
+					archive = open();
+				}
+				final int result = archive.read(b, off, len);
+				if (result<0) {
+					delete(directory);
+				}
+				return result;
+			}
+
+			private InputStream open() throws IOException {
+				// The process output should be empty, it is read to prevent the process from blocking on a full pipe
+				try (InputStream out = process.getInputStream()) {
+					out.transferTo(OutputStream.nullOutputStream());
+				}
+				try {
+					process.waitFor();
+				} catch (IOException e) {
+					// The error is reported by DirectoryDump.waitFor
+					return InputStream.nullInputStream();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				} finally {
+					Files.deleteIfExists(passwordFile);
+				}
+				synchronized (DirectoryDump.this) {
+					if (killed) {
+						return InputStream.nullInputStream();
+					}
+				}
+				return new TarStream(directory.resolve(DUMP_DIRECTORY), true);
+			}
+		}
+	}
+}
@@ -3,18 +3,28 @@ package com.fathzer.jdbbackup.sources;
 import java.io.InputStream;
 
 class ProcessContext {
-	private Process process;
+	private final InputStream in;
+	private final Runnable killer;
 	private boolean isKilled;
 	
 	public ProcessContext(Process process) {
+		this(process.getInputStream(), process::destroy);
+	}
+
+	/** Constructor.
+	 * @param in The data produced
+	 * @param killer The action that stops the production of data
+	 */
+	ProcessContext(InputStream in, Runnable killer) {
 		super();
-		this.process = process;
+		this.in = in;
+		this.killer = killer;
 		this.isKilled = false;
 	}
 
 	public synchronized void kill() {
 		isKilled = true;
-		process.destroy();
+		killer.run();
 	}
 
 	public synchronized boolean isKilled() {
@@ -22,7 +32,7 @@ class ProcessContext {
 	}
 
 	public InputStream getInputStream() {
-		return process.getInputStream();
+		return in;
 	}
 	
 	
@@ -1,39 +1,56 @@
 package com.fathzer.jdbbackup.sources;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.InterruptedIOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fathzer.jdbbackup.SourceManager;
-
-/** A class able to save data source obtained through a command line to a compressed (.gz) file.
+/** A class able to save data source obtained through a command line to a compressed file.
+ * <br>The standard output of the command is compressed (see {@link CompressingSourceManager}), its error output is logged.
  */
-public abstract class SourceManagerFromProcess implements SourceManager {
+public abstract class SourceManagerFromProcess extends CompressingSourceManager {
 	/** Constructor.
 	 */
 	protected SourceManagerFromProcess() {
 		super();
 	}
-	
+
 	@Override
-	public void save(String source, File destFile) throws IOException {
-		final List<String> commands = getCommand(source);
+	protected Dump start(String source) throws IOException {
+		final ProcessBuilder builder = new ProcessBuilder(getCommand(source));
+		builder.environment().putAll(getEnvironment(source));
+		return start(builder);
+	}
+
+	/** Starts a process whose standard output is the raw data of the dump.
+	 * <br>The error output of the process is logged. The dump fails if the process exit code is not 0.
+	 * @param builder The process builder
+	 * @return The running dump
+	 * @throws IOException If the process can't be started
+	 */
+	protected Dump start(ProcessBuilder builder) throws IOException {
+		return start(builder, code -> code==0);
+	}
 
-		final ProcessBuilder pb = new ProcessBuilder(commands);
-		final Process process = pb.start();
+	/** Starts a process whose standard output is the raw data of the dump.
+	 * <br>The error output of the process is logged.
+	 * @param builder The process builder
+	 * @param success A predicate that returns true if an exit code means the process succeeded. The dump fails if it returns false.
+	 * @return The running dump
+	 * @throws IOException If the process can't be started
+	 */
+	protected Dump start(ProcessBuilder builder, IntPredicate success) throws IOException {
+		final Process process = builder.start();
 		final ProcessContext context = new ProcessContext(process);
-		final Compressor compressor = new Compressor(destFile, context);
-		final Thread compressThread = new Thread(compressor);
-		compressThread.start();
 		final InputStream err = process.getErrorStream();
-		Thread errorThread = new Thread(() -> {
+		final Thread errorThread = getThreadFactory().newThread(() -> {
 				final Logger logger = LoggerFactory.getLogger(SourceManagerFromProcess.this.getClass());
 				try (BufferedReader bufErr = new BufferedReader(new InputStreamReader(err))) {
 					for (String line = bufErr.readLine(); line!=null; line = bufErr.readLine()) {
@@ -47,27 +64,43 @@ public abstract class SourceManagerFromProcess implements SourceManager {
 				}
 			});
 		errorThread.start();
-		try {
-			final int result = process.waitFor();
-			compressThread.join();
-			errorThread.join();
-			if (compressor.getError()!=null) {
-				throw compressor.getError();
+		return new Dump() {
+			@Override
+			public InputStream getInputStream() {
+				return process.getInputStream();
+			}
+
+			@Override
+			public void waitFor() throws IOException, InterruptedException {
+				final int result = process.waitFor();
+				errorThread.join();
+				if (!success.test(result)) {
+					throw new IOException ("Process failed with code "+result);
+				}
 			}
-			if (result!=0) {
-				throw new IOException ("Process failed with code "+result);
+
+			@Override
+			public void kill() {
+				context.kill();
 			}
-		} catch (InterruptedException e) {
-			LoggerFactory.getLogger(getClass()).warn("Backup was interrupted", e);
-			Thread.currentThread().interrupt();
-			throw new InterruptedIOException();
-		}
-    }
+		};
+	}
 
 	/** Gets the command line to execute to save the data source.
-	 * @param source The data source access URI
+	 * @param source The data source access URI (without the {@value #COMPRESSION_PARAMETER} and {@value #RATE_PARAMETER} parameters)
 	 * @return The list of the tokens that compose the command
 	 * @throws IllegalArgumentException if source is invalid 
 	 */
 	protected abstract List<String> getCommand(String source);
-}
\ No newline at end of file
+
+	/** Gets the environment variables to add to the environment of the command.
+	 * <br>The environment is a good place to pass secrets: unlike the command line, it is not visible to the other users of the machine.
+	 * <br>The default implementation returns an empty map.
+	 * @param source The data source access URI (without the {@value #COMPRESSION_PARAMETER} and {@value #RATE_PARAMETER} parameters)
+	 * @return A map of variable names to values
+	 * @throws IllegalArgumentException if source is invalid 
+	 */
+	protected Map<String, String> getEnvironment(String source) {
+		return Collections.emptyMap();
+	}
+}
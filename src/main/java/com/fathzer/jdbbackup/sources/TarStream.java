@@ -0,0 +1,199 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** An input stream that reads a directory as a tar (ustar) archive.
+ * <br>The archive is built while it is read, there's no copy of the directory. Its entries are the directory and its content, with paths relative to the directory parent.
+ * <br>Files larger than 8GB have their size encoded in base 256, like GNU tar does.
+ * <br>Files can be deleted as soon as they are read, so that a dump does not use twice its size on the disk.
+ */
+class TarStream extends InputStream {
+	private static final int BLOCK = 512;
+	/** Archives are padded to a multiple of the default tar record size (20 blocks). */
+	private static final int RECORD = 20*BLOCK;
+	/** The maximum size that can be written as an octal number in the size field. */
+	private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+	private final Path root;
+	private final boolean delete;
+	private final Iterator<Path> paths;
+	private byte[] buffer = new byte[0];
+	private int position;
+	private InputStream file;
+	private Path current;
+	private long remaining;
+	private long total;
+	private boolean ended;
+
+	/** Constructor.
+	 * @param directory The directory to archive
+	 * @param delete true to delete the files once they are read
+	 * @throws IOException If the directory can't be walked
+	 */
+	TarStream(Path directory, boolean delete) throws IOException {
+		this.root = directory.getParent()==null ? directory : directory.getParent();
+		this.delete = delete;
+		try (Stream<Path> walk = Files.walk(directory)) {
+			this.paths = walk.sorted().collect(Collectors.toList()).iterator();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] b = new byte[1];
+		return read(b, 0, 1)<0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len==0) {
+			return 0;
+		}
+		while (true) {
+			if (position<buffer.length) {
+				final int count = Math.min(len, buffer.length-position);
+				System.arraycopy(buffer, position, b, off, count);
+				position += count;
+				total += count;
+				return count;
+			}
+			if (file!=null) {
+				final int count = file.read(b, off, (int)Math.min(len, remaining));
+				if (count>0) {
+					remaining -= count;
+					total += count;
+					return count;
+				}
+				endFile();
+			} else if (!next()) {
+				return -1;
+			}
+		}
+	}
+
+	private void endFile() throws IOException {
+		file.close();
+		file = null;
+		if (remaining>0) {
+			throw new IOException(current+" was truncated while it was archived");
+		}
+		if (delete) {
+			Files.delete(current);
+		}
+		setBuffer(new byte[padding(total, BLOCK)]);
+	}
+
+	private boolean next() throws IOException {
+		if (ended) {
+			return false;
+		}
+		if (!paths.hasNext()) {
+			ended = true;
+			// Two empty blocks end the archive
+			setBuffer(new byte[2*BLOCK+padding(total+2*BLOCK, RECORD)]);
+			return true;
+		}
+		current = paths.next();
+		final boolean directory = Files.isDirectory(current);
+		final long size = directory ? 0 : Files.size(current);
+		setBuffer(header(getName(current, directory), size, directory, Files.getLastModifiedTime(current).toMillis()/1000));
+		if (!directory) {
+			file = Files.newInputStream(current);
+			remaining = size;
+		}
+		return true;
+	}
+
+	private String getName(Path path, boolean directory) {
+		final List<String> names = new ArrayList<>();
+		root.relativize(path).forEach(p -> names.add(p.toString()));
+		final String name = String.join("/", names);
+		return directory ? name+"/" : name;
+	}
+
+	private void setBuffer(byte[] buffer) {
+		this.buffer = buffer;
+		this.position = 0;
+	}
+
+	private static int padding(long size, int unit) {
+		return (int)((unit - size%unit) % unit);
+	}
+
+	/** Builds a ustar header.
+	 * @param name The entry name
+	 * @param size The entry size
+	 * @param directory true if the entry is a directory
+	 * @param time The last modification time in seconds
+	 * @return a block
+	 * @throws IOException if the name is too long
+	 */
+	static byte[] header(String name, long size, boolean directory, long time) throws IOException {
+		final byte[] header = new byte[BLOCK];
+		final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length<=100) {
+			System.arraycopy(bytes, 0, header, 0, bytes.length);
+		} else {
+			// Long names are split in a prefix and a name
+			final int index = name.lastIndexOf('/', name.length()-2);
+			final byte[] prefix = index<0 ? bytes : name.substring(0, index).getBytes(StandardCharsets.UTF_8);
+			final byte[] suffix = index<0 ? bytes : name.substring(index+1).getBytes(StandardCharsets.UTF_8);
+			if (index<0 || prefix.length>155 || suffix.length>100) {
+				throw new IOException("Name is too long to be archived: "+name);
+			}
+			System.arraycopy(suffix, 0, header, 0, suffix.length);
+			System.arraycopy(prefix, 0, header, 345, prefix.length);
+		}
+		octal(header, 100, 8, directory ? 0755 : 0644);
+		octal(header, 108, 8, 0);
+		octal(header, 116, 8, 0);
+		if (size<=MAX_OCTAL_SIZE) {
+			octal(header, 124, 12, size);
+		} else {
+			header[124] = (byte)0x80;
+			for (int i = 0; i < 8; i++) {
+				header[135-i] = (byte)(size>>>(8*i));
+			}
+		}
+		octal(header, 136, 12, time);
+		header[156] = (byte)(directory ? '5' : '0');
+		System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+		Arrays.fill(header, 148, 156, (byte)' ');
+		int checksum = 0;
+		for (byte b : header) {
+			checksum += b & 0xFF;
+		}
+		octal(header, 148, 7, checksum);
+		return header;
+	}
+
+	/** Writes a zero padded octal number followed by a NUL character.
+	 */
+	private static void octal(byte[] header, int offset, int length, long value) {
+		final String octal = Long.toOctalString(value);
+		final byte[] bytes = octal.getBytes(StandardCharsets.US_ASCII);
+		final int start = offset+length-1-bytes.length;
+		Arrays.fill(header, offset, start, (byte)'0');
+		System.arraycopy(bytes, 0, header, start, bytes.length);
+		header[offset+length-1] = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		ended = true;
+		if (file!=null) {
+			file.close();
+			file = null;
+		}
+	}
+}
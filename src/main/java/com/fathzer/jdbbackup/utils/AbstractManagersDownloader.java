@@ -1,9 +1,28 @@
 package com.fathzer.jdbbackup.utils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,10 +30,23 @@ import org.slf4j.LoggerFactory;
 import com.fathzer.plugin.loader.utils.AbstractPluginsDownloader;
 
 /** A class that loads plugins from an Internet remote repository.
+ * <br>Plugin jars are downloaded concurrently (see {@link #setDownloadThreads(int)}).
+ * A jar is written in the local directory only once it is completely downloaded and, if its expected digest is known (see {@link #getChecksum(URI)}), verified.
+ * <br>The registry and the jars are cached in the local directory with their http validators (ETag and Last-Modified).
+ * They are revalidated with conditional requests, unless they were validated less than {@link #setCacheMaxAge(Duration) a maximum age} ago.
+ * In such a case, no request at all is sent to the server.
  */
 public abstract class AbstractManagersDownloader extends AbstractPluginsDownloader {
 	private static final Logger log = LoggerFactory.getLogger(AbstractManagersDownloader.class);
-	
+	/** The default number of jars downloaded at the same time. */
+	public static final int DEFAULT_DOWNLOAD_THREADS = 4;
+	private static final String CHECKSUM_PREFIX = "sha256=";
+	private static final int NOT_MODIFIED = 304;
+
+	private int downloadThreads = DEFAULT_DOWNLOAD_THREADS;
+	private Duration cacheMaxAge = Duration.ZERO;
+	private DownloadCache cache;
+
 	/** Constructor.
 	 * @param uri The uri where to load the remote plugin registry.
 	 * @param localDirectory The folder where plugins jar files will be loaded.
@@ -23,16 +55,45 @@ public abstract class AbstractManagersDownloader extends AbstractPluginsDownload
 		super(uri, localDirectory);
 	}
 
-	
+	/** Sets the maximum number of jars downloaded at the same time.
+	 * @param downloadThreads a strictly positive int (default is {@value #DEFAULT_DOWNLOAD_THREADS})
+	 * @throws IllegalArgumentException if downloadThreads is not strictly positive
+	 */
+	public void setDownloadThreads(int downloadThreads) {
+		if (downloadThreads<=0) {
+			throw new IllegalArgumentException("Download threads should be strictly positive");
+		}
+		this.downloadThreads = downloadThreads;
+	}
+
+	/** Sets the duration during which the cached registry and jars are used without contacting the server.
+	 * @param cacheMaxAge a positive or zero duration (default is zero: cached files are always revalidated)
+	 * @throws IllegalArgumentException if cacheMaxAge is null or negative
+	 */
+	public void setCacheMaxAge(Duration cacheMaxAge) {
+		if (cacheMaxAge==null || cacheMaxAge.isNegative()) {
+			throw new IllegalArgumentException();
+		}
+		this.cacheMaxAge = cacheMaxAge;
+	}
+
+	private synchronized DownloadCache getCache() {
+		if (cache==null) {
+			cache = new DownloadCache(getLocalDirectory());
+		}
+		return cache;
+	}
+
 	@Override
 	public boolean clean() throws IOException {
-		final boolean result = super.clean();
+		final boolean index = getCache().clear();
+		final boolean result = super.clean() || index;
 		if (result) {
 			log.info("Existing downloaded {} deleted from {}", getPluginTypeWording(), getLocalDirectory());
 		}
 		return result;
 	}
-	
+
 	@Override
 	protected boolean shouldLoad(URI uri, Path path) {
 		final boolean result = super.shouldLoad(uri, path);
@@ -46,7 +107,212 @@ public abstract class AbstractManagersDownloader extends AbstractPluginsDownload
 
 	@Override
 	public Map<String, URI> getURIMap() throws IOException {
+		final DownloadCache index = getCache();
+		final Path cached = getLocalDirectory().resolve(DownloadCache.REGISTRY);
+		final DownloadCache.Entry entry = index.get(DownloadCache.REGISTRY);
+		if (entry!=null && entry.isFresh(cacheMaxAge)) {
+			log.info("Using {} registry cached in {}", getPluginTypeWording(), cached);
+			return readRegistry(cached);
+		}
 		log.info("Downloading {} registry from {}", getPluginTypeWording(), getUri());
-		return super.getURIMap();
+		final HttpRequest.Builder builder = getRepositoryRequestBuilder();
+		if (entry!=null) {
+			entry.addConditions(builder);
+		}
+		final HttpResponse<byte[]> response = send(getHttpClient(), builder.build(), BodyHandlers.ofByteArray());
+		if (entry!=null && response.statusCode()==NOT_MODIFIED) {
+			log.info("{} registry was not modified", getPluginTypeWording());
+			index.put(DownloadCache.REGISTRY, entry.touch());
+			index.save();
+			return readRegistry(cached);
+		}
+		checkStatus(response, getUri());
+		// Parse the registry before caching it, an invalid registry should not replace a valid one
+		final Map<String, URI> result = getURIMap(new ByteArrayInputStream(response.body()));
+		Files.createDirectories(getLocalDirectory());
+		final Path tmp = Files.createTempFile(getLocalDirectory(), DownloadCache.REGISTRY, ".part");
+		try {
+			Files.write(tmp, response.body());
+			DownloadCache.move(tmp, cached);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		index.put(DownloadCache.REGISTRY, DownloadCache.Entry.of(response.headers(), null));
+		index.save();
+		return result;
+	}
+
+	private Map<String, URI> readRegistry(Path cached) throws IOException {
+		try (InputStream in = Files.newInputStream(cached)) {
+			return getURIMap(in);
+		}
+	}
+
+	/** Downloads plugins jars.
+	 * <br>Jars are downloaded concurrently. If some jars can't be downloaded, the others are still downloaded and cached before the exception is thrown.
+	 * @param keys The keys of the plugins in the registry
+	 * @return A map whose keys are the plugin keys and the values the paths of the jar files in the local directory
+	 * @throws IllegalArgumentException if a key is not in the registry
+	 * @throws IOException If something went wrong (the exceptions thrown by other failed downloads are suppressed exceptions of the thrown one)
+	 */
+	@Override
+	public Map<String, Path> download(String... keys) throws IOException {
+		if (keys.length==0) {
+			return Collections.emptyMap();
+		}
+		final Map<String, URI> registry = getURIMap();
+		final Map<String, URI> uris = new LinkedHashMap<>();
+		for (String key : keys) {
+			final URI uri = registry.get(key);
+			if (uri==null) {
+				throw new IllegalArgumentException("Unable to find "+key+" in "+getPluginTypeWording()+" registry");
+			}
+			uris.put(key, uri);
+		}
+		final HttpClient client = getHttpClient();
+		final Map<URI, Future<Path>> tasks = new HashMap<>();
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(downloadThreads, uris.size()), Threads.newFactory("jdbbackup-download-"));
+		try {
+			for (URI uri : uris.values()) {
+				// Two keys may share the same jar
+				tasks.computeIfAbsent(uri, u -> executor.submit(() -> load(client, u)));
+			}
+			final Map<String, Path> result = new HashMap<>();
+			IOException error = null;
+			for (Map.Entry<String, URI> entry : uris.entrySet()) {
+				try {
+					result.put(entry.getKey(), tasks.get(entry.getValue()).get());
+				} catch (ExecutionException e) {
+					error = addError(error, e.getCause());
+				}
+			}
+			getCache().save();
+			if (error!=null) {
+				throw error;
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static IOException addError(IOException error, Throwable cause) {
+		if (cause instanceof Error) {
+			throw (Error)cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException)cause;
+		}
+		if (error==null) {
+			return (IOException)cause;
+		}
+		error.addSuppressed(cause);
+		return error;
+	}
+
+	private Path load(HttpClient client, URI uri) throws IOException {
+		final Path path = getDownloadTarget(uri);
+		if (!shouldLoad(uri, path)) {
+			final String expected = getChecksum(uri);
+			final DownloadCache.Entry entry = getCache().get(path.getFileName().toString());
+			if (entry==null) {
+				// Downloaded before the index existed
+				if (expected==null || expected.equalsIgnoreCase(DownloadCache.digest(path))) {
+					return path;
+				}
+			} else if ((expected==null || expected.equalsIgnoreCase(entry.getDigest())) && DownloadCache.digest(path).equals(entry.getDigest())) {
+				if (entry.isFresh(cacheMaxAge) || !entry.isConditional()) {
+					return path;
+				}
+				log.info("Checking whether {} was modified", uri);
+				return fetch(client, uri, path, entry);
+			}
+			log.warn("{} does not match its expected checksum, downloading it again", path);
+		}
+		return fetch(client, uri, path, null);
+	}
+
+	/** Downloads a jar file.
+	 * <br>The file is downloaded in a temporary file, its digest is verified, then it replaces the target file.
+	 * @param uri The jar uri
+	 * @param path The file where to store the jar
+	 * @throws IOException If something went wrong, for instance if the downloaded file does not match its expected digest
+	 */
+	@Override
+	protected void downloadFile(URI uri, Path path) throws IOException {
+		fetch(getHttpClient(), uri, path, null);
+		getCache().save();
+	}
+
+	private Path fetch(HttpClient client, URI uri, Path path, DownloadCache.Entry previous) throws IOException {
+		final HttpRequest.Builder builder = getJarRequestBuilder(withoutFragment(uri));
+		if (previous!=null) {
+			previous.addConditions(builder);
+		}
+		final Path directory = path.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		final String name = path.getFileName().toString();
+		final Path tmp = Files.createTempFile(directory, name, ".part");
+		try {
+			final HttpResponse<Path> response = send(client, builder.build(), BodyHandlers.ofFile(tmp));
+			if (previous!=null && response.statusCode()==NOT_MODIFIED) {
+				getCache().put(name, previous.touch());
+				return path;
+			}
+			checkStatus(response, uri);
+			final String digest = DownloadCache.digest(tmp);
+			final String expected = getChecksum(uri);
+			if (expected!=null && !expected.equalsIgnoreCase(digest)) {
+				throw new IOException(String.format("Checksum mismatch for %s: expected %s but was %s", uri, expected, digest));
+			}
+			DownloadCache.move(tmp, path);
+			getCache().put(name, DownloadCache.Entry.of(response.headers(), digest));
+			return path;
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/** Gets the expected digest of a jar.
+	 * <br>By default, the digest is read in the uri fragment, whose format should be <i>sha256=hexDigest</i>
+	 * (for instance <i>https://myrepo.com/plugin.jar#sha256=9f86d0...</i>). The fragment is not sent to the server.
+	 * <br>This method can be overridden in order to read the digest elsewhere.
+	 * @param uri The jar uri
+	 * @return The hexadecimal SHA-256 digest of the jar, or null if it is unknown (the jar is then not verified)
+	 */
+	protected String getChecksum(URI uri) {
+		final String fragment = uri.getFragment();
+		if (fragment!=null && fragment.toLowerCase(Locale.ROOT).startsWith(CHECKSUM_PREFIX)) {
+			return fragment.substring(CHECKSUM_PREFIX.length());
+		}
+		return null;
+	}
+
+	private static URI withoutFragment(URI uri) {
+		if (uri.getFragment()==null) {
+			return uri;
+		}
+		try {
+			return new URI(uri.getScheme(), uri.getSchemeSpecificPart(), null);
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static <T> HttpResponse<T> send(HttpClient client, HttpRequest request, BodyHandler<T> handler) throws IOException {
+		try {
+			return client.send(request, handler);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private static void checkStatus(HttpResponse<?> response, URI uri) throws IOException {
+		if (response.statusCode()!=200) {
+			throw new IOException(String.format("Unexpected status %d while downloading %s", response.statusCode(), uri));
+		}
 	}
 }
@@ -0,0 +1,89 @@
+package com.fathzer.jdbbackup.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/** The query parameters of a source or destination address.
+ * <br>Parameters follow the first '?' of the address that is not in a pattern (between curly brackets).
+ * They are separated by '&amp;' and have the <i>name</i>=<i>value</i> format (a parameter with no '=' has an empty value).
+ * <br>Values are not decoded.
+ * <br>Example: In mysql://u:p@host/db?compression=none&amp;quick, the address is mysql://u:p@host/db and there's two parameters: compression (value is none) and quick (empty value).
+ */
+public class AddressParameters {
+	private final String address;
+	private final Map<String, String> parameters;
+
+	/** Constructor.
+	 * @param address An address that may contain parameters
+	 * @throws IllegalArgumentException if a parameter is defined twice or has an empty name
+	 */
+	public AddressParameters(String address) {
+		final int index = getQueryStart(address);
+		this.parameters = new LinkedHashMap<>();
+		if (index<0) {
+			this.address = address;
+		} else {
+			this.address = address.substring(0, index);
+			final StringSplitter splitter = new StringSplitter(address.substring(index+1), '&', (s,p) -> -1);
+			while (splitter.hasNext()) {
+				final String parameter = splitter.next();
+				if (!parameter.isEmpty()) {
+					add(parameter);
+				}
+			}
+		}
+	}
+
+	private void add(String parameter) {
+		final int index = parameter.indexOf('=');
+		final String name = index<0 ? parameter : parameter.substring(0, index);
+		final String value = index<0 ? "" : parameter.substring(index+1);
+		if (name.isEmpty()) {
+			throw new IllegalArgumentException("Parameter name is missing in "+parameter);
+		}
+		if (parameters.put(name, value)!=null) {
+			throw new IllegalArgumentException("Parameter "+name+" is defined more than once");
+		}
+	}
+
+	private static int getQueryStart(String address) {
+		boolean inPattern = false;
+		for (int i = 0; i < address.length(); i++) {
+			final char c = address.charAt(i);
+			if (c=='{') {
+				inPattern = true;
+			} else if (c=='}') {
+				inPattern = false;
+			} else if (c=='?' && !inPattern) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Gets the address without its parameters.
+	 * @return a String
+	 */
+	public String getAddress() {
+		return address;
+	}
+
+	/** Gets the parameters.
+	 * @return a modifiable map whose keys are the parameters names, in the order they are declared.
+	 */
+	public Map<String, String> getParameters() {
+		return parameters;
+	}
+
+	/** Gets the address with its current parameters.
+	 * @return a String
+	 */
+	@Override
+	public String toString() {
+		if (parameters.isEmpty()) {
+			return address;
+		}
+		return address + '?' + parameters.entrySet().stream().map(e -> e.getValue().isEmpty() ? e.getKey() : e.getKey()+'='+e.getValue()).collect(Collectors.joining("&"));
+	}
+}
@@ -19,6 +19,13 @@ public class BasicExtensionBuilder implements Function<String,CharSequence> {
 		this.extension = extension;
 	}
 
+	/** Gets the extension added by this builder.
+	 * @return The extension with no period
+	 */
+	public String getExtension() {
+		return extension;
+	}
+
 	@Override
 	public CharSequence apply(String path) {
 		if (hasExtension(path)) {
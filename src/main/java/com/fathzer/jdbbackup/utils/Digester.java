@@ -0,0 +1,136 @@
+package com.fathzer.jdbbackup.utils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/** A class that computes a digest (a checksum or a cryptographic hash) of some data.
+ * <br>Supported algorithms are {@value #CRC32C}, CRC32, ADLER32 and all the {@link MessageDigest} algorithms available on the platform (SHA-256 for instance).
+ * <br>This class is not thread safe.
+ */
+public abstract class Digester {
+	/** The CRC32C algorithm. This is the cheapest algorithm, it is hardware accelerated on most platforms. */
+	public static final String CRC32C = "CRC32C";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final String algorithm;
+
+	private Digester(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	/** Gets a new digester.
+	 * @param algorithm The algorithm name (case insensitive for checksums)
+	 * @return A new Digester
+	 * @throws IllegalArgumentException if the algorithm is not supported
+	 */
+	public static Digester get(String algorithm) {
+		if (algorithm==null) {
+			throw new IllegalArgumentException();
+		}
+		final String upperCase = algorithm.toUpperCase(Locale.ROOT);
+		switch (upperCase) {
+		case CRC32C:
+			return new ChecksumDigester(upperCase, CRC32C::new);
+		case "CRC32":
+			return new ChecksumDigester(upperCase, CRC32::new);
+		case "ADLER32":
+			return new ChecksumDigester(upperCase, Adler32::new);
+		default:
+			try {
+				return new MessageDigester(MessageDigest.getInstance(algorithm));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalArgumentException("Unknown digest algorithm "+algorithm, e);
+			}
+		}
+	}
+
+	/** Gets the algorithm of this digester.
+	 * @return the algorithm name
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/** Updates the digest with the remaining bytes of a buffer.
+	 * <br>The buffer position is not changed.
+	 * @param buffer The buffer
+	 */
+	public abstract void update(ByteBuffer buffer);
+
+	/** Updates the digest with some bytes.
+	 * @param b The bytes
+	 * @param off The offset of the first byte
+	 * @param len The number of bytes
+	 */
+	public abstract void update(byte[] b, int off, int len);
+
+	/** Gets the digest value.
+	 * @return The digest as an hexadecimal lower case string
+	 */
+	public abstract String getValue();
+
+	static String toHex(byte[] bytes) {
+		final char[] result = new char[2*bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			result[2*i] = HEX[(bytes[i]>>4) & 0xf];
+			result[2*i+1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(result);
+	}
+
+	private static class ChecksumDigester extends Digester {
+		private final Checksum checksum;
+
+		private ChecksumDigester(String algorithm, Supplier<Checksum> supplier) {
+			super(algorithm);
+			this.checksum = supplier.get();
+		}
+
+		@Override
+		public void update(ByteBuffer buffer) {
+			checksum.update(buffer.duplicate());
+		}
+
+		@Override
+		public void update(byte[] b, int off, int len) {
+			checksum.update(b, off, len);
+		}
+
+		@Override
+		public String getValue() {
+			final long value = checksum.getValue();
+			return toHex(new byte[] {(byte)(value>>24), (byte)(value>>16), (byte)(value>>8), (byte)value});
+		}
+	}
+
+	private static class MessageDigester extends Digester {
+		private final MessageDigest digest;
+
+		private MessageDigester(MessageDigest digest) {
+			super(digest.getAlgorithm());
+			this.digest = digest;
+		}
+
+		@Override
+		public void update(ByteBuffer buffer) {
+			digest.update(buffer.duplicate());
+		}
+
+		@Override
+		public void update(byte[] b, int off, int len) {
+			digest.update(b, off, len);
+		}
+
+		@Override
+		public String getValue() {
+			return toHex(digest.digest());
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package com.fathzer.jdbbackup.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Properties;
+
+/** The index of the files downloaded by an {@link AbstractManagersDownloader}.
+ * <br>It records, for every file of the local directory, its http validators (ETag and Last-Modified), its SHA-256 digest and when it was last validated.
+ * It is stored in a properties file of the local directory.
+ * <br>This class is thread safe.
+ */
+final class DownloadCache {
+	/** The name of the index file. */
+	static final String INDEX = ".download-index.properties";
+	/** The name of the file that contains the last downloaded registry. */
+	static final String REGISTRY = ".registry";
+	/** The name of the digest algorithm used to check downloaded files. */
+	static final String ALGORITHM = "SHA-256";
+
+	private static final String ETAG = ".etag";
+	private static final String LAST_MODIFIED = ".lastModified";
+	private static final String DIGEST = ".sha256";
+	private static final String TIME = ".time";
+
+	/** An entry of the index. */
+	static final class Entry {
+		private final String etag;
+		private final String lastModified;
+		private final String digest;
+		private final long time;
+
+		Entry(String etag, String lastModified, String digest, long time) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.digest = digest;
+			this.time = time;
+		}
+
+		/** Creates an entry from the headers of a http response.
+		 * @param headers The response headers
+		 * @param digest The SHA-256 digest of the downloaded file
+		 * @return a new entry validated now
+		 */
+		static Entry of(HttpHeaders headers, String digest) {
+			return new Entry(headers.firstValue("ETag").orElse(null), headers.firstValue("Last-Modified").orElse(null), digest, System.currentTimeMillis());
+		}
+
+		String getDigest() {
+			return digest;
+		}
+
+		/** Tests whether this entry was validated less than a duration ago.
+		 * @param maxAge a duration
+		 * @return true if the entry was validated less than <i>maxAge</i> ago
+		 */
+		boolean isFresh(Duration maxAge) {
+			return System.currentTimeMillis()-time < maxAge.toMillis();
+		}
+
+		/** Tests whether this entry can be validated with a conditional request.
+		 * @return true if the entry has an ETag or a Last-Modified date
+		 */
+		boolean isConditional() {
+			return etag!=null || lastModified!=null;
+		}
+
+		/** Adds the conditional headers of this entry to a request.
+		 * @param builder The request builder
+		 * @return the builder
+		 */
+		HttpRequest.Builder addConditions(HttpRequest.Builder builder) {
+			if (etag!=null) {
+				builder.header("If-None-Match", etag);
+			}
+			if (lastModified!=null) {
+				builder.header("If-Modified-Since", lastModified);
+			}
+			return builder;
+		}
+
+		/** Gets a copy of this entry validated now.
+		 * @return a new entry
+		 */
+		Entry touch() {
+			return new Entry(etag, lastModified, digest, System.currentTimeMillis());
+		}
+	}
+
+	private final Path directory;
+	private final Properties properties = new Properties();
+	private boolean modified;
+
+	/** Constructor.
+	 * <br>A missing or unreadable index is considered as empty.
+	 * @param directory The directory that contains the index
+	 */
+	DownloadCache(Path directory) {
+		this.directory = directory;
+		try (InputStream in = Files.newInputStream(directory.resolve(INDEX))) {
+			properties.load(in);
+		} catch (IOException | IllegalArgumentException e) {
+			properties.clear();
+		}
+	}
+
+	/** Gets the entry of a file.
+	 * @param name The name of a file of the local directory
+	 * @return an entry or null if the file is unknown or was deleted
+	 */
+	synchronized Entry get(String name) {
+		final String time = properties.getProperty(name+TIME);
+		if (time==null || !Files.isRegularFile(directory.resolve(name))) {
+			return null;
+		}
+		try {
+			return new Entry(properties.getProperty(name+ETAG), properties.getProperty(name+LAST_MODIFIED), properties.getProperty(name+DIGEST), Long.parseLong(time));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/** Sets the entry of a file.
+	 * @param name The name of a file of the local directory
+	 * @param entry The entry of the file or null to remove the file from the index
+	 */
+	synchronized void put(String name, Entry entry) {
+		set(name+ETAG, entry==null ? null : entry.etag);
+		set(name+LAST_MODIFIED, entry==null ? null : entry.lastModified);
+		set(name+DIGEST, entry==null ? null : entry.digest);
+		set(name+TIME, entry==null ? null : Long.toString(entry.time));
+		modified = true;
+	}
+
+	private void set(String key, String value) {
+		if (value==null) {
+			properties.remove(key);
+		} else {
+			properties.setProperty(key, value);
+		}
+	}
+
+	/** Saves the index if it was modified.
+	 * @throws IOException If something went wrong
+	 */
+	synchronized void save() throws IOException {
+		if (!modified) {
+			return;
+		}
+		Files.createDirectories(directory);
+		final Path tmp = Files.createTempFile(directory, INDEX, ".part");
+		try {
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				properties.store(out, null);
+			}
+			move(tmp, directory.resolve(INDEX));
+			modified = false;
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/** Deletes the index and the cached registry.
+	 * @return true if a file was deleted
+	 * @throws IOException If something went wrong
+	 */
+	synchronized boolean clear() throws IOException {
+		properties.clear();
+		modified = false;
+		final boolean registry = Files.deleteIfExists(directory.resolve(REGISTRY));
+		return Files.deleteIfExists(directory.resolve(INDEX)) || registry;
+	}
+
+	/** Moves a file, atomically if the file system supports it.
+	 * @param source The file to move
+	 * @param target The new path of the file (it is replaced if it exists)
+	 * @throws IOException If something went wrong
+	 */
+	static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/** Computes the SHA-256 digest of a file.
+	 * @param file A file
+	 * @return The hexadecimal digest of the file
+	 * @throws NoSuchFileException if the file does not exist
+	 * @throws IOException If something went wrong
+	 */
+	static String digest(Path file) throws IOException {
+		final Digester digester = Digester.get(ALGORITHM);
+		final ByteBuffer buffer = ByteBuffer.allocate(65536);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (channel.read(buffer)>=0) {
+				buffer.flip();
+				digester.update(buffer);
+				buffer.clear();
+			}
+		}
+		return digester.getValue();
+	}
+}
@@ -0,0 +1,131 @@
+package com.fathzer.jdbbackup.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/** An input stream that reads a region of a {@link FileChannel} using positional reads.
+ * <br>Positional reads do not change the channel position, so many streams can read the same channel concurrently
+ * (for instance, to send the same backup to many destinations at the same time).
+ * <br>This stream is not buffered, reading it byte per byte is slow. Closing it does not close the channel.
+ * <br>Destination managers can use {@link #getChannel()} and {@link #getPosition()} to copy the data with channel operations
+ * (like {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}).
+ */
+public class FileChannelInputStream extends InputStream {
+	private final FileChannel channel;
+	private final Path movableFile;
+	private final long end;
+	private long position;
+	private long mark;
+
+	/** Constructor.
+	 * @param channel The channel to read
+	 * @param position The position of the first byte to read
+	 * @param size The number of bytes to read
+	 * @throws IllegalArgumentException if position or size is negative
+	 */
+	public FileChannelInputStream(FileChannel channel, long position, long size) {
+		this(channel, position, size, null);
+	}
+
+	/** Constructor.
+	 * @param channel The channel to read
+	 * @param position The position of the first byte to read
+	 * @param size The number of bytes to read
+	 * @param movableFile The file read by the channel if the reader of this stream is allowed to move it (because nobody else needs it anymore), null if it is not allowed.
+	 * @throws IllegalArgumentException if position or size is negative
+	 */
+	public FileChannelInputStream(FileChannel channel, long position, long size, Path movableFile) {
+		if (position<0 || size<0) {
+			throw new IllegalArgumentException("Position and size should be positive");
+		}
+		this.channel = channel;
+		this.movableFile = movableFile;
+		this.position = position;
+		this.mark = position;
+		this.end = position+size;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] b = new byte[1];
+		return read(b, 0, 1)<0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len==0) {
+			return 0;
+		}
+		if (position>=end) {
+			return -1;
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(b, off, (int)Math.min(len, end-position));
+		final int count = channel.read(buffer, position);
+		if (count<0) {
+			// The file was truncated
+			position = end;
+			return -1;
+		}
+		position += count;
+		return count;
+	}
+
+	@Override
+	public long skip(long n) {
+		final long count = Math.max(0, Math.min(n, end-position));
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return (int)Math.min(Integer.MAX_VALUE, end-position);
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		this.mark = position;
+	}
+
+	@Override
+	public synchronized void reset() {
+		this.position = mark;
+	}
+
+	/** Gets the channel read by this stream.
+	 * @return a file channel
+	 */
+	public FileChannel getChannel() {
+		return channel;
+	}
+
+	/** Gets the file read by this stream, if the reader is allowed to move it.
+	 * <br>When this method returns a file, the reader can, for instance, rename it to its final destination instead of copying its data.
+	 * @return a path or null if the reader should not move the file.
+	 */
+	public Path getMovableFile() {
+		return movableFile;
+	}
+
+	/** Gets the position of the next byte to read in the channel.
+	 * @return a positive long
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/** Gets the number of bytes remaining to read.
+	 * @return a positive long
+	 */
+	public long getRemaining() {
+		return end-position;
+	}
+}
@@ -0,0 +1,139 @@
+package com.fathzer.jdbbackup.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import com.fathzer.jdbbackup.DestinationManager;
+import com.fathzer.jdbbackup.SourceManager;
+
+/** The index of the plugins of a jar.
+ * <br>The index links the schemes of the plugins declared in the jar's <i>META-INF/services</i> files to their class names.
+ * It allows {@link PluginRegistry} to instantiate a plugin only when its scheme is requested.
+ * <br>The index is generated at build time by the {@link #main(String[])} method of this class. With Maven, it can be done with the <i>exec-maven-plugin</i>
+ * (goal <i>java</i>, phase <i>process-classes</i>, argument <i>${project.build.outputDirectory}</i>).
+ * <br>The index is a properties file located at {@value #RESOURCE}. Its keys are the service interface name followed by a period and the scheme,
+ * its values the plugin class names. For instance: <code>com.fathzer.jdbbackup.SourceManager.mysql=com.fathzer.jdbbackup.sources.MySQLDumper</code>
+ */
+public final class PluginIndex {
+	/** The path of the index in a jar. */
+	public static final String RESOURCE = "META-INF/jdbbackup/plugins.properties";
+	/** The path of the services files in a jar. */
+	static final String SERVICES = "META-INF/services/";
+
+	private PluginIndex() {
+		super();
+	}
+
+	/** Generates the index of the source and destination managers of a classes directory.
+	 * <br>The plugins are instantiated with the thread context class loader, which should contain the classes directory and the plugins dependencies.
+	 * @param args The classes directory
+	 * @throws IOException If an error occurs while reading the services files or writing the index
+	 */
+	@SuppressWarnings("rawtypes")
+	public static void main(String[] args) throws IOException {
+		if (args.length!=1) {
+			throw new IllegalArgumentException("Usage: PluginIndex classesDirectory");
+		}
+		final Path classes = Path.of(args[0]);
+		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		final Map<String, String> index = new TreeMap<>();
+		index.putAll(build(classes, loader, SourceManager.class, SourceManager::getScheme));
+		index.putAll(build(classes, loader, DestinationManager.class, DestinationManager::getScheme));
+		write(classes, index);
+	}
+
+	/** Builds the index entries of a type of plugins.
+	 * @param <T> The type of plugins
+	 * @param classes The classes directory
+	 * @param loader The class loader used to instantiate the plugins
+	 * @param type The service interface
+	 * @param schemeGetter A function that gets the scheme of a plugin
+	 * @return The index entries, an empty map if the directory declares no plugin of this type
+	 * @throws IOException If an error occurs while reading the services file
+	 */
+	static <T> Map<String, String> build(Path classes, ClassLoader loader, Class<T> type, Function<T, String> schemeGetter) throws IOException {
+		final Map<String, String> result = new TreeMap<>();
+		final Path services = classes.resolve(SERVICES+type.getName());
+		if (!Files.isRegularFile(services)) {
+			return result;
+		}
+		final List<String> classNames;
+		try (InputStream in = Files.newInputStream(services)) {
+			classNames = readServices(in);
+		}
+		for (String className : classNames) {
+			final T plugin = PluginRegistry.newInstance(loader, type, className);
+			final String previous = result.put(type.getName()+"."+schemeGetter.apply(plugin), className);
+			if (previous!=null) {
+				throw new IllegalStateException(previous+" and "+className+" have the same scheme");
+			}
+		}
+		return result;
+	}
+
+	private static void write(Path classes, Map<String, String> index) throws IOException {
+		final Path file = classes.resolve(RESOURCE);
+		if (index.isEmpty()) {
+			Files.deleteIfExists(file);
+			return;
+		}
+		Files.createDirectories(file.getParent());
+		final StringBuilder content = new StringBuilder("# Generated by ").append(PluginIndex.class.getName()).append(", do not edit\n");
+		index.forEach((k,v) -> content.append(k).append('=').append(v).append('\n'));
+		try (OutputStream out = Files.newOutputStream(file)) {
+			out.write(content.toString().getBytes(StandardCharsets.ISO_8859_1));
+		}
+	}
+
+	/** Reads an index.
+	 * @param in The index content
+	 * @param type The service interface
+	 * @return A map that links the schemes of the plugins that implement <i>type</i> to their class names.
+	 * @throws IOException If the index can't be read
+	 */
+	static Map<String, String> read(InputStream in, Class<?> type) throws IOException {
+		final Properties properties = new Properties();
+		properties.load(in);
+		final String prefix = type.getName()+".";
+		final Map<String, String> result = new TreeMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(prefix)) {
+				result.put(key.substring(prefix.length()), properties.getProperty(key).trim());
+			}
+		}
+		return result;
+	}
+
+	/** Reads the class names of a services file.
+	 * @param in The services file content
+	 * @return The class names, in the order they are declared.
+	 * @throws IOException If the file can't be read
+	 * @see java.util.ServiceLoader
+	 */
+	static List<String> readServices(InputStream in) throws IOException {
+		final List<String> result = new ArrayList<>();
+		try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8); BufferedReader lines = new BufferedReader(reader)) {
+			for (String line = lines.readLine(); line!=null; line = lines.readLine()) {
+				final int comment = line.indexOf('#');
+				final String className = (comment<0 ? line : line.substring(0, comment)).trim();
+				if (!className.isEmpty() && !result.contains(className)) {
+					result.add(className);
+				}
+			}
+		}
+		return result;
+	}
+}
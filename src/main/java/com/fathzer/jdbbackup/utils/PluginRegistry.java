@@ -0,0 +1,186 @@
+package com.fathzer.jdbbackup.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.AbstractMap;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A map of plugins whose keys are their schemes.
+ * <br>Plugins of jars that contain a {@link PluginIndex} are only instantiated the first time their scheme is requested (for instance with {@link #get(Object)}).
+ * Plugins declared in the <i>META-INF/services</i> files of jars with no index are instantiated when the registry is loaded.
+ * <br>When several jars declare the same scheme, the last one in the class path wins.
+ * <br>Methods that need all the plugins (like {@link #entrySet()} or {@link #values()}) instantiate the plugins that were not yet instantiated.
+ * <br>This class is thread safe.
+ * @param <T> The type of plugins
+ */
+public class PluginRegistry<T> extends AbstractMap<String, T> {
+	private static final Logger log = LoggerFactory.getLogger(PluginRegistry.class);
+
+	private final ClassLoader loader;
+	private final Class<T> type;
+	private final Function<T, String> schemeGetter;
+	private final Map<String, T> plugins = new ConcurrentHashMap<>();
+	/** The class names of the plugins that are not yet instantiated. */
+	private final Map<String, String> indexed = new ConcurrentHashMap<>();
+
+	private PluginRegistry(ClassLoader loader, Class<T> type, Function<T, String> schemeGetter) {
+		this.loader = loader;
+		this.type = type;
+		this.schemeGetter = schemeGetter;
+	}
+
+	/** Loads the plugins available in a class loader.
+	 * <br>Plugins that can't be instantiated are logged and ignored.
+	 * @param <T> The type of plugins
+	 * @param loader The class loader
+	 * @param type The service interface of the plugins
+	 * @param schemeGetter A function that gets the scheme of a plugin
+	 * @return a new registry
+	 * @throws IOException If the indexes or services files can't be read
+	 */
+	public static <T> PluginRegistry<T> load(ClassLoader loader, Class<T> type, Function<T, String> schemeGetter) throws IOException {
+		final PluginRegistry<T> registry = new PluginRegistry<>(loader, type, schemeGetter);
+		final Map<String, URL> indexes = new HashMap<>();
+		for (Enumeration<URL> urls = loader.getResources(PluginIndex.RESOURCE); urls.hasMoreElements();) {
+			final URL index = urls.nextElement();
+			indexes.putIfAbsent(getRoot(index, PluginIndex.RESOURCE), index);
+		}
+		// Jars are processed in class path order and the last jar that declares a scheme wins, whether it is indexed or not
+		final String servicesPath = PluginIndex.SERVICES+type.getName();
+		for (Enumeration<URL> services = loader.getResources(servicesPath); services.hasMoreElements();) {
+			final URL url = services.nextElement();
+			final URL index = indexes.get(getRoot(url, servicesPath));
+			if (index!=null) {
+				try (InputStream in = index.openStream()) {
+					PluginIndex.read(in, type).forEach(registry::addIndexed);
+				}
+			} else {
+				// No index in this jar, fallback to the instantiation of all its plugins
+				try (InputStream in = url.openStream()) {
+					for (String className : PluginIndex.readServices(in)) {
+						registry.add(className);
+					}
+				}
+			}
+		}
+		return registry;
+	}
+
+	private static String getRoot(URL url, String path) {
+		final String name = url.toString();
+		return name.substring(0, name.length()-path.length());
+	}
+
+	private void addIndexed(String scheme, String className) {
+		plugins.remove(scheme);
+		indexed.put(scheme, className);
+	}
+
+	private void add(String className) {
+		try {
+			final T plugin = newInstance(loader, type, className);
+			final String scheme = schemeGetter.apply(plugin);
+			indexed.remove(scheme);
+			plugins.put(scheme, plugin);
+		} catch (RuntimeException e) {
+			log.warn("An error occurred while loading plugins", e);
+		}
+	}
+
+	static <T> T newInstance(ClassLoader loader, Class<T> type, String className) {
+		try {
+			return Class.forName(className, true, loader).asSubclass(type).getConstructor().newInstance();
+		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | NoSuchMethodException e) {
+			throw new IllegalArgumentException("Unable to instantiate "+className, e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalArgumentException("Unable to instantiate "+className, e.getCause());
+		}
+	}
+
+	@Override
+	public T get(Object scheme) {
+		if (scheme==null) {
+			return null;
+		}
+		final T plugin = plugins.get(scheme);
+		// The plugin may be being instantiated by another thread (it is no more in indexed and not yet in plugins), instantiate waits for it
+		return plugin!=null || !(scheme instanceof String) ? plugin : instantiate((String)scheme);
+	}
+
+	private synchronized T instantiate(String scheme) {
+		final String className = indexed.remove(scheme);
+		if (className!=null) {
+			add(className);
+		}
+		final T plugin = plugins.get(scheme);
+		if (className!=null && plugin==null) {
+			log.warn("Plugin index is wrong, {} does not have scheme {}", className, scheme);
+		}
+		return plugin;
+	}
+
+	@Override
+	public boolean containsKey(Object scheme) {
+		if (scheme==null) {
+			return false;
+		}
+		if (plugins.containsKey(scheme) || indexed.containsKey(scheme)) {
+			return true;
+		}
+		synchronized (this) {
+			// Same as get, the plugin may be being instantiated
+			return plugins.containsKey(scheme) || indexed.containsKey(scheme);
+		}
+	}
+
+	@Override
+	public synchronized T put(String scheme, T plugin) {
+		indexed.remove(scheme);
+		return plugins.put(scheme, plugin);
+	}
+
+	@Override
+	public synchronized T remove(Object scheme) {
+		if (scheme==null) {
+			return null;
+		}
+		indexed.remove(scheme);
+		return plugins.remove(scheme);
+	}
+
+	@Override
+	public int size() {
+		return plugins.size()+indexed.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return plugins.isEmpty() && indexed.isEmpty();
+	}
+
+	@Override
+	public Set<Entry<String, T>> entrySet() {
+		for (String scheme : indexed.keySet()) {
+			instantiate(scheme);
+		}
+		return plugins.entrySet();
+	}
+
+	/** Tests whether the plugin of a scheme is instantiated.
+	 * @param scheme A scheme
+	 * @return true if the plugin is instantiated, false if it is not yet instantiated or if the scheme is unknown
+	 */
+	public boolean isInstantiated(String scheme) {
+		return plugins.containsKey(scheme);
+	}
+}
@@ -0,0 +1,201 @@
+package com.fathzer.jdbbackup.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** A token bucket that limits a throughput in bytes per second.
+ * <br>The bucket is filled at the limiter's rate and holds at most one second of traffic (the burst), every byte transferred consumes a token.
+ * When the bucket is empty, the transfers wait until enough tokens are available.
+ * <br>A limiter can have a parent. Transfers limited by a child also consume the parent's tokens. This allows, for instance, to limit each backup
+ * with its own child limiter while sharing a global budget between concurrent backups.
+ * <br>The rate can be changed at any time, even while transfers are limited (see {@link #setRate(long)}).
+ * <br>This class is thread safe. A limiter costs an atomic operation per read, not per byte, and nothing at all when its rate is {@link #UNLIMITED}.
+ */
+public class RateLimiter {
+	/** The rate of a limiter that does not limit anything. */
+	public static final long UNLIMITED = Long.MAX_VALUE;
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final RateLimiter parent;
+	private volatile long rate;
+	/** The time (in nanoseconds) when the bucket will be full again. It is in the future when tokens were consumed, even before they were produced. */
+	private final AtomicLong refillTime;
+
+	/** Constructor.
+	 * @param rate The maximum throughput in bytes per second, {@link #UNLIMITED} to not limit the throughput
+	 * @throws IllegalArgumentException if rate is not strictly positive
+	 */
+	public RateLimiter(long rate) {
+		this(rate, null);
+	}
+
+	/** Constructor.
+	 * @param rate The maximum throughput in bytes per second, {@link #UNLIMITED} to not limit the throughput
+	 * @param parent The parent limiter, null if this limiter has no parent
+	 * @throws IllegalArgumentException if rate is not strictly positive
+	 */
+	public RateLimiter(long rate, RateLimiter parent) {
+		this.rate = checkRate(rate);
+		this.parent = parent;
+		this.refillTime = new AtomicLong(System.nanoTime());
+	}
+
+	private static long checkRate(long rate) {
+		if (rate<=0) {
+			throw new IllegalArgumentException("Rate should be strictly positive");
+		}
+		return rate;
+	}
+
+	/** Gets the rate of this limiter.
+	 * @return a number of bytes per second or {@link #UNLIMITED}
+	 */
+	public long getRate() {
+		return rate;
+	}
+
+	/** Sets the rate of this limiter.
+	 * <br>The new rate applies to the tokens consumed after this method is called. Transfers that are already waiting for tokens are not woken up earlier.
+	 * @param rate The maximum throughput in bytes per second, {@link #UNLIMITED} to not limit the throughput
+	 * @throws IllegalArgumentException if rate is not strictly positive
+	 */
+	public void setRate(long rate) {
+		this.rate = checkRate(rate);
+	}
+
+	/** Gets the parent of this limiter.
+	 * @return a limiter or null if this limiter has no parent
+	 */
+	public RateLimiter getParent() {
+		return parent;
+	}
+
+	/** Consumes tokens, waiting if needed.
+	 * <br>The tokens are consumed in this limiter and in its ancestors.
+	 * @param bytes The number of bytes to transfer
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	public void acquire(long bytes) throws InterruptedIOException {
+		if (bytes<=0) {
+			return;
+		}
+		long deadline = 0;
+		boolean wait = false;
+		for (RateLimiter limiter = this; limiter!=null; limiter = limiter.parent) {
+			final long rate = limiter.rate;
+			if (rate!=UNLIMITED) {
+				final long limiterDeadline = limiter.consume(bytes, rate);
+				if (!wait || limiterDeadline-deadline>0) {
+					deadline = limiterDeadline;
+					wait = true;
+				}
+			}
+		}
+		if (wait) {
+			waitUntil(deadline);
+		}
+	}
+
+	/** Consumes tokens.
+	 * @param bytes The number of tokens to consume
+	 * @param rate The rate of this limiter
+	 * @return the time (in nanoseconds) when the tokens will be available
+	 */
+	private long consume(long bytes, long rate) {
+		final long cost = bytes<=Long.MAX_VALUE/NANOS_PER_SECOND ? bytes*NANOS_PER_SECOND/rate : (long)((double)bytes*NANOS_PER_SECOND/rate);
+		while (true) {
+			final long now = System.nanoTime();
+			final long current = refillTime.get();
+			// The bucket can't hold more than one second of tokens
+			final long start = current-now<0 ? now : current;
+			final long next = start+cost;
+			if (refillTime.compareAndSet(current, next)) {
+				return next-NANOS_PER_SECOND;
+			}
+		}
+	}
+
+	private static void waitUntil(long deadline) throws InterruptedIOException {
+		for (long delay = deadline-System.nanoTime(); delay>0; delay = deadline-System.nanoTime()) {
+			LockSupport.parkNanos(delay);
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+	}
+
+	/** Gets an input stream whose reads are limited by this limiter.
+	 * @param in The stream to limit
+	 * @return a new input stream. Please note that mark/reset is not supported by this stream.
+	 */
+	public InputStream limit(InputStream in) {
+		return new LimitedInputStream(in);
+	}
+
+	private class LimitedInputStream extends FilterInputStream {
+		private LimitedInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int result = super.read();
+			if (result>=0) {
+				acquire(1);
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int result = in.read(b, off, len);
+			acquire(result);
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final long result = super.skip(n);
+			acquire(result);
+			return result;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			// Not supported
+		}
+
+		@Override
+		public synchronized void reset() throws IOException {
+			throw new IOException("mark/reset not supported");
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	/** Parses a rate.
+	 * @param value A number of bytes per second, optionally followed by a k, m or g unit (for instance 512k or 10M). Units are powers of 1024.
+	 * @return a number of bytes per second
+	 * @throws IllegalArgumentException if value is not a valid rate
+	 */
+	public static long parseRate(String value) {
+		final String rate = value.trim().toLowerCase(Locale.ROOT);
+		final int index = "kmg".indexOf(rate.isEmpty() ? ' ' : rate.charAt(rate.length()-1));
+		try {
+			final long number = Long.parseLong(index<0 ? rate : rate.substring(0, rate.length()-1));
+			return checkRate(Math.multiplyExact(number, 1L<<(10*(index+1))));
+		} catch (NumberFormatException | ArithmeticException e) {
+			throw new IllegalArgumentException("Invalid rate: "+value);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package com.fathzer.jdbbackup.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** The threads used by the library to pump streams (process outputs, uploads, etc...).
+ * <br>These threads mostly wait for I/O. On Java 21 and later, they are virtual threads (this library is a multi-release jar).
+ * On previous Java versions, they are daemon platform threads.
+ */
+public final class Threads {
+	private Threads() {
+		super();
+	}
+
+	/** Tests whether the factories returned by {@link #newFactory(String)} create virtual threads.
+	 * @return true on Java 21 and later
+	 */
+	public static boolean isVirtual() {
+		return false;
+	}
+
+	/** Creates a new thread factory.
+	 * @param namePrefix The prefix of the thread names. The names are made of this prefix followed by a counter.
+	 * @return a thread safe factory
+	 */
+	public static ThreadFactory newFactory(String namePrefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return r -> {
+			final Thread thread = new Thread(r, namePrefix+count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,171 @@
+package com.fathzer.jdbbackup;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.jdbbackup.BackupBatch.JobReport;
+
+class BackupBatchTest {
+	private static class Counter {
+		private final AtomicInteger active = new AtomicInteger();
+		private final AtomicInteger max = new AtomicInteger();
+
+		private void run(long delay) throws InterruptedIOException {
+			max.accumulateAndGet(active.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} finally {
+				active.decrementAndGet();
+			}
+		}
+	}
+
+	private static class FakeSource implements SourceManager {
+		private final Counter dumps = new Counter();
+		private final Map<String, Counter> hosts = new ConcurrentHashMap<>();
+
+		@Override
+		public String getScheme() {
+			return "fake";
+		}
+
+		@Override
+		public void save(String source, File destFile) throws IOException {
+			if (source.contains("fail")) {
+				throw new IOException("Unable to dump "+source);
+			}
+			final Counter host = hosts.computeIfAbsent(BackupBatch.getHost(source), k -> new Counter());
+			host.max.accumulateAndGet(host.active.incrementAndGet(), Math::max);
+			try {
+				dumps.run(source.contains("huge") ? 300 : 20);
+			} finally {
+				host.active.decrementAndGet();
+			}
+			Files.write(destFile.toPath(), source.getBytes());
+		}
+	}
+
+	private static class FakeDestination implements DestinationManager<String> {
+		private final Counter uploads = new Counter();
+		private final Map<String, String> received = new ConcurrentHashMap<>();
+
+		@Override
+		public String getScheme() {
+			return "dest";
+		}
+
+		@Override
+		public String validate(String path, Function<String, CharSequence> extensionBuilder) {
+			return path;
+		}
+
+		@Override
+		public void send(InputStream in, long size, String destination) throws IOException {
+			uploads.run(20);
+			received.put(destination, new String(in.readAllBytes()));
+		}
+	}
+
+	@Test
+	void test() throws IOException {
+		final JDbBackup backup = new JDbBackup();
+		final FakeSource source = new FakeSource();
+		backup.addSourceManager(source);
+		final FakeDestination dest = new FakeDestination();
+		backup.addDestinationManager(dest);
+
+		final BackupBatch batch = new BackupBatch(backup);
+		batch.setThreads(6);
+		batch.setDumpsPerHost(2);
+		batch.setCompressionSlots(3);
+		batch.setUploadSlots(2);
+		batch.add("fake://u:p@hostA/huge", "dest://huge");
+		for (int i = 0; i < 10; i++) {
+			batch.add("fake://u:p@hostA/a"+i, "dest://a"+i);
+			batch.add("fake://hostB:3306/b"+i, "dest://b"+i, "dest://b"+i+"bis");
+		}
+		batch.add("fake://hostC/fail", "dest://fail");
+		batch.add("fake://hostC/c", "unknown://c");
+
+		final List<JobReport> reports = batch.run();
+		assertEquals(23, reports.size());
+		assertEquals("fake://u:p@hostA/huge", reports.get(0).getSource());
+		assertEquals(List.of("dest://b0", "dest://b0bis"), reports.get(2).getDestinations());
+		assertEquals(2, reports.stream().filter(r -> !r.isSuccessful()).count());
+		final JobReport failed = reports.get(21);
+		assertNull(failed.getResult());
+		assertEquals("Unable to dump fake://hostC/fail", failed.getError().getMessage());
+		assertTrue(reports.get(22).getError() instanceof IllegalArgumentException);
+		assertEquals(31, dest.received.size());
+		assertEquals("fake://hostB:3306/b5", dest.received.get("b5bis"));
+		assertTrue(reports.stream().filter(JobReport::isSuccessful).allMatch(r -> r.getResult().isSuccessful()));
+
+		// Limits are respected
+		assertEquals(2, source.hosts.get("hosta").max.get());
+		assertEquals(2, source.hosts.get("hostb:3306").max.get());
+		assertTrue(source.dumps.max.get()<=3);
+		assertEquals(2, dest.uploads.max.get());
+
+		// The huge job does not prevent the others jobs of its host to run
+		assertTrue(reports.get(1).getWaitTime().compareTo(reports.get(0).getDuration())<0, reports.stream().map(JobReport::toString).collect(Collectors.joining("\n")));
+
+		assertThrows(IllegalArgumentException.class, () -> batch.setThreads(0));
+		assertThrows(IllegalArgumentException.class, () -> batch.setDumpsPerHost(0));
+		assertThrows(IllegalArgumentException.class, () -> batch.setCompressionSlots(0));
+		assertThrows(IllegalArgumentException.class, () -> batch.setUploadSlots(0));
+		assertThrows(IllegalArgumentException.class, () -> batch.add("fake://x"));
+		assertThrows(IllegalArgumentException.class, () -> new BackupBatch(null));
+	}
+
+	@Test
+	void testWaitTime() throws IOException {
+		final JDbBackup backup = new JDbBackup();
+		backup.addSourceManager(new FakeSource());
+		backup.addDestinationManager(new FakeDestination());
+		final BackupBatch batch = new BackupBatch(backup);
+		batch.setThreads(2);
+		batch.setDumpsPerHost(1);
+		batch.add("fake://hostA/huge", "dest://huge");
+		batch.add("fake://hostA/a", "dest://a");
+
+		final List<JobReport> reports = batch.run();
+		// The second job waits for the dump of the first one
+		final String message = reports.stream().map(JobReport::toString).collect(Collectors.joining("\n"));
+		assertTrue(reports.get(1).getWaitTime().compareTo(Duration.ofMillis(300))>=0, message);
+		assertTrue(reports.get(0).getWaitTime().compareTo(reports.get(1).getWaitTime())<0, message);
+	}
+
+	@Test
+	void testGetHost() {
+		assertEquals("host:3306", BackupBatch.getHost("mysql://user:p@ss@Host:3306/db?x=y"));
+		assertEquals("host", BackupBatch.getHost("mysql://host?x=y"));
+		assertEquals("java", BackupBatch.getHost("java://"));
+		assertEquals("java", BackupBatch.getHost("java:///file"));
+		assertEquals("db.mycompany.com:3306", BackupBatch.getHost("mysql://{f=dblogin.txt}@db.mycompany.com:3306/mydb"));
+		// The query is ignored
+		assertEquals("host", BackupBatch.getHost("mysql://u:p@host/db?x=a@b/c"));
+		assertEquals("mongo", BackupBatch.getHost("cmd://mongo?uri=mongodb://u@h:27017"));
+		// JDBC URLs are unwrapped
+		assertEquals("h1", BackupBatch.getHost("jdbc://mysql://h1/db?user=u&password=p@ss"));
+		assertEquals("h2:5432", BackupBatch.getHost("jdbc://postgresql://H2:5432/db"));
+		assertEquals("h3:1433", BackupBatch.getHost("jdbc://sqlserver://h3:1433;databaseName=db"));
+		assertEquals("jdbc", BackupBatch.getHost("jdbc://h2:mem:db"));
+	}
+}
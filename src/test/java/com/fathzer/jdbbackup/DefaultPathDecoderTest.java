@@ -5,27 +5,72 @@ import static org.mockito.Mockito.*;
 
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.Date;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.*;
 
+import com.fathzer.jdbbackup.DefaultPathDecoder.IllegalNamePatternException;
 import com.fathzer.jdbbackup.DefaultPathDecoder.StringSplitter;
 
 class DefaultPathDecoderTest {
+	private static final Instant DATE = LocalDateTime.of(1970, 1, 15, 10, 30).atZone(ZoneId.systemDefault()).toInstant();
 
 	@Test
 	void testDates() {
 		assertThrows(IllegalArgumentException.class, () -> DefaultPathDecoder.INSTANCE.decodePath("x{v=jh}"));
 		assertThrows(IllegalArgumentException.class, () -> DefaultPathDecoder.INSTANCE.decodePath("x{d=jh}"));
-		try (MockedConstruction<Date> mock = mockConstruction(Date.class)) {
-			// instances of Date used by the PathDecoder will be replaced by mockito with a Date that corresponds to 1/1/1970.
-			assertEquals("y1970/m01", DefaultPathDecoder.INSTANCE.decodePath("y{d=YYYY}/m{d=MM}"));
-			assertEquals("197001", DefaultPathDecoder.INSTANCE.decodePath("{d=YYYY}{d=MM}"));
-		}
+		assertEquals("y1970/m01", DefaultPathDecoder.INSTANCE.decodePath("y{d=YYYY}/m{d=MM}", DATE));
+		assertEquals("197001", DefaultPathDecoder.INSTANCE.decodePath("{d=YYYY}{d=MM}", DATE));
+		assertEquals("1970-01-15.sql", DefaultPathDecoder.INSTANCE.decodePath("{d=yyyy-MM-dd}", s -> s+".sql", DATE));
+		// Letters and characters that have another meaning in DateTimeFormatter patterns keep their SimpleDateFormat meaning
+		assertEquals("4-3-000-015", DefaultPathDecoder.INSTANCE.decodePath("{d=u-F-SSS-ddd}", DATE));
+		assertEquals("1970[01]#", DefaultPathDecoder.INSTANCE.decodePath("{d=yyyy[MM]#}", DATE));
+		assertEquals("at 10'30", DefaultPathDecoder.INSTANCE.decodePath("{d='at' HH''mm}", DATE));
+		assertThrows(IllegalArgumentException.class, () -> DefaultPathDecoder.INSTANCE.decodePath("x{d='yyyy}"));
+	}
+
+	@Test
+	void testTemplates() {
+		final PathTemplate template = DefaultPathDecoder.INSTANCE.compile("db/y{d=yyyy}/m{d=MM}");
+		assertSame(template, DefaultPathDecoder.INSTANCE.compile("db/y{d=yyyy}/m{d=MM}"));
+		assertEquals("db/y{d=yyyy}/m{d=MM}", template.getPath());
+		assertEquals("db/y1970/m01", template.resolve(DATE));
+		assertEquals("db/backup", DefaultPathDecoder.INSTANCE.compile("db/backup").resolve(DATE));
+		assertEquals("", DefaultPathDecoder.INSTANCE.compile("").resolve(DATE));
+		// Errors are detected when the template is resolved
+		final PathTemplate wrong = DefaultPathDecoder.INSTANCE.compile("x{v=jh}");
+		assertThrows(IllegalNamePatternException.class, () -> wrong.resolve(DATE));
+	}
+
+	@Test
+	void testOverride() {
+		final DefaultPathDecoder decoder = new DefaultPathDecoder() {
+			@Override
+			protected CharSequence decode(String name, String value) {
+				return "u".equals(name) ? value.toUpperCase() : super.decode(name, value);
+			}
+		};
+		assertEquals("DB-1970", decoder.decodePath("{u=db}-{d=yyyy}", DATE));
+		assertThrows(IllegalNamePatternException.class, () -> decoder.decodePath("{v=db}"));
+
+		// Overrides of date patterns are used, the dates decoded by the super class are the given one
+		final DefaultPathDecoder dateDecoder = new DefaultPathDecoder() {
+			@Override
+			protected CharSequence decode(String name, String value) {
+				return "d".equals(name) && "quarter".equals(value) ? "Q1" : super.decode(name, value);
+			}
+		};
+		assertEquals("1970-Q1", dateDecoder.decodePath("{d=yyyy}-{d=quarter}", DATE));
+		assertEquals("1970-Q1", dateDecoder.compile("{d=yyyy}-{d=quarter}").resolve(DATE));
 	}
 
 	@Test
@@ -78,6 +123,23 @@ class DefaultPathDecoderTest {
 		}
 	}
 	
+	@Test
+	void testFileCache(@TempDir Path dir) throws IOException {
+		final DefaultPathDecoder decoder = new DefaultPathDecoder();
+		final Path file = Files.writeString(dir.resolve("login.txt"), "user1");
+		final FileTime modified = Files.getLastModifiedTime(file);
+		final String path = "{f="+file+"}@host";
+		assertEquals("user1@host", decoder.decodePath(path));
+		// The content is cached while the file is not modified
+		Files.writeString(file, "user2");
+		Files.setLastModifiedTime(file, modified);
+		assertEquals("user1@host", decoder.decodePath(path));
+		Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis()+10000));
+		assertEquals("user2@host", decoder.decodePath(path));
+		Files.delete(file);
+		assertThrows(IllegalArgumentException.class, () -> decoder.decodePath(path));
+	}
+
 	@Test
 	void testEmptySplitter() {
 		{
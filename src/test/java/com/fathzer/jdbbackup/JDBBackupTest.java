@@ -8,9 +8,27 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.PasswordAuthentication;
 import java.net.Proxy;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
@@ -18,11 +36,18 @@ import java.util.zip.GZIPInputStream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.EnabledIf;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
 import org.slf4j.LoggerFactory;
 import org.slf4j.simple.LogUtils;
 import org.slf4j.simple.SimpleLogger;
 
+import com.fathzer.jdbbackup.BackupResult.DestinationResult;
+import com.fathzer.jdbbackup.metrics.MetricsCollector;
 import com.fathzer.jdbbackup.sources.FakeJavaSource;
+import com.fathzer.jdbbackup.sources.SourceManagerFromProcess;
+import com.fathzer.jdbbackup.utils.Digester;
+import com.fathzer.jdbbackup.utils.RateLimiter;
 import com.fathzer.plugin.loader.utils.ProxySettings;
 
 class JDBBackupTest {
@@ -68,6 +93,53 @@ class JDBBackupTest {
 		}
 	}
 	
+	private static class CollectingDestManager implements DestinationManager<String> {
+		private final boolean fail;
+		private final AtomicInteger transientFailures = new AtomicInteger();
+		private final AtomicInteger sends = new AtomicInteger();
+		private final AtomicInteger active = new AtomicInteger();
+		private final AtomicInteger maxActive = new AtomicInteger();
+		private long delay;
+		private byte[] content;
+		private long size;
+
+		private CollectingDestManager(boolean fail) {
+			this.fail = fail;
+		}
+
+		@Override
+		public String getScheme() {
+			return fail ? "failing" : "collect";
+		}
+
+		@Override
+		public String validate(String path, Function<String, CharSequence> extensionBuilder) {
+			return path;
+		}
+
+		@Override
+		public void send(InputStream in, long size, String destination) throws IOException {
+			sends.incrementAndGet();
+			if (fail) {
+				throw new IOException("Destination is unreachable");
+			}
+			if (transientFailures.getAndDecrement()>0) {
+				throw new IOException("Connection reset");
+			}
+			maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(delay);
+				this.size = size;
+				this.content = in.readAllBytes();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} finally {
+				active.decrementAndGet();
+			}
+		}
+	}
+	
 	@AfterEach
 	void cleanup() {
 		new File(DEST_PATH).delete();
@@ -78,12 +150,12 @@ class JDBBackupTest {
 	void testProxyAndMore() throws IOException {
 		final JDbBackup bcp = new JDbBackup();
 		final ProxyCompliantFakeJavaSource sm = new ProxyCompliantFakeJavaSource();
-		bcp.getSourceManagers().put("pxs", sm);
+		bcp.addSourceManager(sm);
 		final fakeDestManager dm = new fakeDestManager();
-		bcp.getDestinationManagers().put("fd", dm);
+		bcp.addDestinationManager(dm);
 		final ProxySettings p = ProxySettings.fromString("u:p@host:1234");
 		bcp.setProxy(p.toProxy(), p.getLogin());
-		bcp.backup("pxs://", "fd://myPath");
+		bcp.backup("java://", "fd://myPath");
 		assertEquals(p.toProxy(), sm.proxy);
 		assertEquals(p.getLogin(), sm.auth);
 		assertEquals("myPath", dm.path);
@@ -94,7 +166,7 @@ class JDBBackupTest {
 	void testOk() throws IOException {
 		final ObservableJDbBackup b = new ObservableJDbBackup();
 		// No destination
-		assertThrows(IllegalArgumentException.class, () -> b.backup(null, (String)null));
+		assertThrows(IllegalArgumentException.class, () -> b.backup((String)null, (String)null));
 		assertThrows(IllegalArgumentException.class, () -> b.backup(null, new String[0]));
 		assertThrows(IllegalArgumentException.class, () -> b.backup("java://", (String)null));
 		assertThrows(IllegalArgumentException.class, () -> b.backup("java://", new String[0]));
@@ -102,7 +174,7 @@ class JDBBackupTest {
 
 		// No DbName
 		assertTrue(b.tmpFile==null || !b.tmpFile.exists());
-		assertThrows(IllegalArgumentException.class, () -> b.backup(null, dest));
+		assertThrows(IllegalArgumentException.class, () -> b.backup((String)null, dest));
 		assertTrue(b.tmpFile==null || !b.tmpFile.exists());
 		
 		// Unknown DB Type
@@ -137,4 +209,503 @@ class JDBBackupTest {
 			LogUtils.setLevel(log, previous);
 		}
 	}
+
+	@Test
+	@EnabledIf("com.fathzer.jdbbackup.JavaProcessAvailabilityChecker#available")
+	void testStreaming() throws IOException {
+		final ObservableJDbBackup b = new ObservableJDbBackup();
+		b.setStreaming(true);
+		final CollectingDestManager collector = new CollectingDestManager(false);
+		b.addDestinationManager(collector);
+		final String dest = "file://"+DEST_PATH;
+		FakeJavaSource.shouldFail = false;
+		
+		// With a single destination, no temporary file is created
+		b.backup("java://", dest);
+		assertNull(b.tmpFile);
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new GZIPInputStream(new FileInputStream(new File(DEST_PATH)))))) {
+			assertEquals(FakeJavaSource.CONTENT, reader.lines().collect(Collectors.toList()));
+		}
+		
+		// All destinations receive the same data
+		b.backup("java://", dest, "collect://any");
+		assertEquals(-1, collector.size);
+		assertArrayEquals(Files.readAllBytes(new File(DEST_PATH).toPath()), collector.content);
+		
+		// A failing destination does not prevent the others from receiving the data
+		final CollectingDestManager failing = new CollectingDestManager(true);
+		b.addDestinationManager(failing);
+		collector.content = null;
+		final BackupException e = assertThrows(BackupException.class, () -> b.backup("java://", "failing://any", "collect://any"));
+		assertEquals("Destination is unreachable", e.getCause().getMessage());
+		assertArrayEquals(Files.readAllBytes(new File(DEST_PATH).toPath()), collector.content);
+		
+		// A failing only destination stops the backup
+		assertThrows(IOException.class, () -> b.backup("java://", "failing://any"));
+	}
+
+	@Test
+	@EnabledIf("com.fathzer.jdbbackup.JavaProcessAvailabilityChecker#available")
+	void testConcurrentUploads() throws IOException {
+		final JDbBackup b = new JDbBackup();
+		final CollectingDestManager collector = new CollectingDestManager(false);
+		collector.delay = 200;
+		b.addDestinationManager(collector);
+		final CollectingDestManager failing = new CollectingDestManager(true);
+		b.addDestinationManager(failing);
+		FakeJavaSource.shouldFail = false;
+		
+		final BackupResult result = b.backup("java://", "file://"+DEST_PATH, "collect://a", "collect://b");
+		assertTrue(result.isSuccessful());
+		assertEquals(Arrays.asList("file://"+DEST_PATH, "collect://a", "collect://b"), result.getDestinations().stream().map(DestinationResult::getDestination).collect(Collectors.toList()));
+		assertEquals(2, collector.maxActive.get());
+		// The manifest is computed while the backup is compressed
+		final BackupManifest manifest = result.getManifest();
+		assertEquals("gzip", manifest.getCompression());
+		assertEquals(new File(DEST_PATH).length(), manifest.getSize());
+		assertEquals(digest(Digester.CRC32C, new FileInputStream(DEST_PATH)), manifest.getDigest());
+		assertEquals(digest(Digester.CRC32C, new GZIPInputStream(new FileInputStream(DEST_PATH))), manifest.getRawDigest());
+		assertEquals(new File(DEST_PATH).length(), collector.size);
+		assertArrayEquals(Files.readAllBytes(new File(DEST_PATH).toPath()), collector.content);
+		
+		// A failed destination does not hide the others
+		collector.content = null;
+		final BackupException e = assertThrows(BackupException.class, () -> b.backup("java://", "collect://a", "failing://any", "failing://other"));
+		final BackupResult failed = e.getResult();
+		assertFalse(failed.isSuccessful());
+		assertTrue(failed.getDestinations().get(0).isSuccessful());
+		assertArrayEquals(Files.readAllBytes(new File(DEST_PATH).toPath()), collector.content);
+		assertEquals(Arrays.asList("failing://any", "failing://other"), failed.getFailures().stream().map(DestinationResult::getDestination).collect(Collectors.toList()));
+		assertEquals("Destination is unreachable", e.getCause().getMessage());
+		assertEquals(1, e.getSuppressed().length);
+		
+		// Concurrency can be limited
+		b.setConcurrentUploads(1);
+		collector.maxActive.set(0);
+		b.backup("java://", "collect://a", "collect://b");
+		assertEquals(1, collector.maxActive.get());
+		assertThrows(IllegalArgumentException.class, () -> b.setConcurrentUploads(0));
+	}
+
+	@Test
+	void testRetry() throws IOException {
+		final AtomicInteger saves = new AtomicInteger();
+		final SourceManager source = new SourceManager() {
+			@Override
+			public String getScheme() {
+				return "counting";
+			}
+
+			@Override
+			public void save(String source, File destFile) throws IOException {
+				saves.incrementAndGet();
+				Files.write(destFile.toPath(), new byte[] {1, 2, 3});
+			}
+		};
+		final JDbBackup b = new JDbBackup();
+		b.addSourceManager(source);
+		final CollectingDestManager collector = new CollectingDestManager(false);
+		b.addDestinationManager(collector);
+		final CollectingDestManager failing = new CollectingDestManager(true);
+		b.addDestinationManager(failing);
+
+		// No retry by default
+		collector.transientFailures.set(1);
+		assertThrows(BackupException.class, () -> b.backup("counting://", "collect://a"));
+		assertEquals(1, saves.get());
+
+		// The staged backup is sent again, the source is not saved again
+		b.setRetryPolicy(new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(20)));
+		collector.transientFailures.set(2);
+		collector.sends.set(0);
+		saves.set(0);
+		final BackupResult result = b.backup("counting://", "collect://a");
+		assertEquals(1, saves.get());
+		assertEquals(3, collector.sends.get());
+		assertEquals(3, result.getDestinations().get(0).getAttempts());
+		assertArrayEquals(new byte[] {1, 2, 3}, collector.content);
+
+		// Retries are limited
+		collector.transientFailures.set(3);
+		final BackupException e = assertThrows(BackupException.class, () -> b.backup("counting://", "collect://a"));
+		assertEquals(3, e.getResult().getDestinations().get(0).getAttempts());
+		assertEquals("Connection reset", e.getCause().getMessage());
+
+		// Policies can be set per scheme
+		b.setRetryPolicy(failing.getScheme(), RetryPolicy.NONE);
+		failing.sends.set(0);
+		assertThrows(BackupException.class, () -> b.backup("counting://", "failing://a"));
+		assertEquals(1, failing.sends.get());
+		b.setRetryPolicy(failing.getScheme(), null);
+		failing.sends.set(0);
+		assertThrows(BackupException.class, () -> b.backup("counting://", "failing://a"));
+		assertEquals(3, failing.sends.get());
+
+		// The per scheme policies are part of the context, the context of a backup is never overridden by the instance settings
+		b.setRetryPolicy(failing.getScheme(), RetryPolicy.NONE);
+		final BackupContext retrying = BackupContext.DEFAULT.withRetryPolicy(new RetryPolicy(3, Duration.ZERO, Duration.ZERO));
+		failing.sends.set(0);
+		assertThrows(BackupException.class, () -> b.backup(retrying, "counting://", "failing://a"));
+		assertEquals(3, failing.sends.get());
+		failing.sends.set(0);
+		assertThrows(BackupException.class, () -> b.backup(retrying.withRetryPolicy(failing.getScheme(), new RetryPolicy(2, Duration.ZERO, Duration.ZERO)), "counting://", "failing://a"));
+		assertEquals(2, failing.sends.get());
+		assertEquals(RetryPolicy.NONE, b.getContext().getRetryPolicy(failing.getScheme()));
+		assertThrows(IllegalArgumentException.class, () -> retrying.withRetryPolicy(null, RetryPolicy.NONE));
+		b.setRetryPolicy(failing.getScheme(), null);
+
+		// Non retryable errors are not retried
+		b.setRetryPolicy(new RetryPolicy(3, Duration.ZERO, Duration.ZERO, x -> false));
+		failing.sends.set(0);
+		assertThrows(BackupException.class, () -> b.backup("counting://", "failing://a"));
+		assertEquals(1, failing.sends.get());
+		assertThrows(IllegalArgumentException.class, () -> b.setRetryPolicy(null));
+	}
+
+	@Test
+	@EnabledIf("com.fathzer.jdbbackup.JavaProcessAvailabilityChecker#available")
+	void testAsync() throws Exception {
+		final JDbBackup b = new JDbBackup();
+		final CollectingDestManager collector = new CollectingDestManager(false);
+		b.addDestinationManager(collector);
+		FakeJavaSource.shouldFail = false;
+		final AtomicInteger uploadThreads = new AtomicInteger();
+		b.setThreadFactory(r -> {
+			uploadThreads.incrementAndGet();
+			return new Thread(r);
+		});
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final BackupResult result = b.backupAsync(executor, "java://", "collect://a", "collect://b").get(30, TimeUnit.SECONDS);
+			assertTrue(result.isSuccessful());
+			assertEquals(2, uploadThreads.get());
+			assertEquals(collector.content.length, result.getSize());
+			assertEquals(2*result.getSize(), result.getUploadedSize());
+			assertEquals(FakeJavaSource.CONTENT.stream().mapToInt(l -> l.length()+System.lineSeparator().length()).sum(), result.getRawSize());
+			assertNotNull(result.getCompressionDuration());
+			assertTrue(result.getDumpDuration().compareTo(result.getCompressionDuration())>=0);
+			assertFalse(result.getUploadDuration().isNegative());
+
+			// Errors are reported by the future
+			final ExecutionException e = assertThrows(ExecutionException.class, () -> b.backupAsync(executor, "java://", "unknown://a").get(30, TimeUnit.SECONDS));
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+			assertThrows(IllegalArgumentException.class, () -> b.backupAsync(null, "java://", "collect://a"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	@EnabledOnOs({OS.LINUX, OS.MAC})
+	void testAsyncCancel() throws Exception {
+		final JDbBackup b = new JDbBackup();
+		b.addSourceManager(new SourceManagerFromProcess() {
+			@Override
+			public String getScheme() {
+				return "sleep";
+			}
+
+			@Override
+			protected List<String> getCommand(String source) {
+				return Arrays.asList("sleep", "60");
+			}
+		});
+		final CollectingDestManager collector = new CollectingDestManager(false);
+		b.addDestinationManager(collector);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final CompletableFuture<BackupResult> future = b.backupAsync(executor, "sleep://", "collect://a");
+			Thread.sleep(500);
+			assertFalse(future.isDone());
+			assertTrue(future.cancel(true));
+			assertTrue(future.isCancelled());
+			// The process is killed, the executor's thread is released
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+			assertNull(collector.content);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	@EnabledIf("com.fathzer.jdbbackup.JavaProcessAvailabilityChecker#available")
+	void testListeners() throws IOException {
+		final JDbBackup b = new JDbBackup();
+		final CollectingDestManager collector = new CollectingDestManager(false);
+		b.addDestinationManager(collector);
+		final CollectingDestManager failing = new CollectingDestManager(true);
+		b.addDestinationManager(failing);
+		FakeJavaSource.shouldFail = false;
+		final MetricsCollector metrics = new MetricsCollector();
+		final List<String> events = new CopyOnWriteArrayList<>();
+		final BackupListener recorder = new BackupListener() {
+			@Override
+			public void dumpStarted(String source) {
+				events.add("dumpStarted "+source);
+			}
+
+			@Override
+			public void uploadStarted(String destination, int attempt) {
+				events.add("uploadStarted "+destination+" "+attempt);
+			}
+
+			@Override
+			public void backupEnded(String source, BackupResult result, Exception error) {
+				events.add("backupEnded "+source+" "+(error==null));
+			}
+		};
+		b.addListener(metrics);
+		b.addListener(recorder);
+		// A failing listener does not break the backup
+		b.addListener(new BackupListener() {
+			@Override
+			public void uploadProgress(String destination, long count) {
+				throw new IllegalStateException();
+			}
+		});
+
+		final BackupResult result = b.backup("java://", "collect://a", "collect://b");
+		assertEquals(Arrays.asList("backupEnded java:// true", "dumpStarted java://", "uploadStarted collect://a 1", "uploadStarted collect://b 1"), events.stream().sorted().collect(Collectors.toList()));
+		Map<String, Long> counters = metrics.getCounters();
+		assertEquals(1, (long)counters.get(MetricsCollector.BACKUPS));
+		assertEquals(1, (long)counters.get(MetricsCollector.DUMPS));
+		assertEquals(result.getRawSize(), (long)counters.get(MetricsCollector.BYTES_READ));
+		assertEquals(result.getSize(), (long)counters.get(MetricsCollector.BYTES_COMPRESSED));
+		assertEquals(2*result.getSize(), (long)counters.get(MetricsCollector.BYTES_UPLOADED));
+		assertEquals(2, (long)counters.get(MetricsCollector.UPLOADS));
+		assertEquals(1, metrics.getDumpLatency().getCount());
+		assertEquals(2, metrics.getUploadLatency().getCount());
+
+		assertThrows(BackupException.class, () -> b.backup("java://", "failing://a"));
+		assertThrows(IllegalArgumentException.class, () -> b.backup("java://", "unknown://a"));
+		counters = metrics.getCounters();
+		assertEquals(3, (long)counters.get(MetricsCollector.BACKUPS));
+		assertEquals(2, (long)counters.get(MetricsCollector.FAILED_BACKUPS));
+		assertEquals(1, (long)counters.get(MetricsCollector.FAILED_UPLOADS));
+		assertEquals(1, (long)counters.get(MetricsCollector.UNRESOLVED_PLUGINS));
+
+		assertTrue(b.removeListener(metrics));
+		assertFalse(b.removeListener(metrics));
+		b.backup("java://", "collect://a");
+		assertEquals(3, (long)metrics.getCounters().get(MetricsCollector.BACKUPS));
+	}
+
+	@Test
+	void testUploadRateLimit() throws Exception {
+		final int size = 60000;
+		final JDbBackup b = new JDbBackup();
+		b.addSourceManager(new SourceManager() {
+			@Override
+			public String getScheme() {
+				return "mem";
+			}
+
+			@Override
+			public void save(String source, File destFile) throws IOException {
+				Files.write(destFile.toPath(), new byte[size]);
+			}
+		});
+		final AtomicLong acquired = new AtomicLong();
+		final RateLimiter limiter = new RateLimiter(40000) {
+			@Override
+			public void acquire(long bytes) throws InterruptedIOException {
+				acquired.addAndGet(Math.max(0, bytes));
+				super.acquire(bytes);
+			}
+		};
+		b.setUploadRateLimiter(limiter);
+		assertSame(limiter, b.getContext().getUploadRateLimiter());
+		// The limiter allows a burst of 40000 bytes, the remaining 20000 are sent in 0.5s
+		final long start = System.nanoTime();
+		b.backup("mem://", "file://"+DEST_PATH);
+		final long time = (System.nanoTime()-start)/1000000;
+		assertTrue(time>=450, "Time is "+time);
+		assertEquals(size, new File(DEST_PATH).length());
+		assertEquals(size, acquired.get());
+		
+		// Context without limiter
+		b.backup(b.getContext().withUploadRateLimiter(null), "mem://", "file://"+DEST_PATH);
+		assertEquals(size, new File(DEST_PATH).length());
+		assertEquals(size, acquired.get());
+	}
+
+	@Test
+	void testSharedInstance() throws Exception {
+		final SourceManager source = new SourceManager() {
+			@Override
+			public String getScheme() {
+				return "mem";
+			}
+
+			@Override
+			public void save(String source, File destFile) throws IOException {
+				Files.write(destFile.toPath(), new byte[] {1, 2, 3});
+			}
+		};
+		// A destination whose path is the port of the proxy the backup is supposed to use
+		final AtomicInteger wrongProxies = new AtomicInteger();
+		final AtomicInteger sends = new AtomicInteger();
+		final class ProxiedDestManager implements DestinationManager<Integer>, ProxyCompliant {
+			private volatile Proxy proxy = Proxy.NO_PROXY;
+
+			@Override
+			public void setProxy(Proxy proxy, PasswordAuthentication auth) {
+				this.proxy = proxy;
+			}
+
+			@Override
+			public String getScheme() {
+				return "proxied";
+			}
+
+			@Override
+			public Integer validate(String path, Function<String, CharSequence> extensionBuilder) {
+				return Integer.valueOf(path);
+			}
+
+			@Override
+			public void send(InputStream in, long size, Integer port) throws IOException {
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+				if (((InetSocketAddress)proxy.address()).getPort()!=port) {
+					wrongProxies.incrementAndGet();
+				}
+				sends.incrementAndGet();
+				in.readAllBytes();
+			}
+		}
+		final JDbBackup b = new JDbBackup();
+		b.addSourceManager(source);
+		b.addDestinationManager(new ProxiedDestManager());
+		// Registries can also be modified directly
+		b.getSourceManagers().put("x", source);
+		assertSame(source, b.getSourceManagers().get("x"));
+		assertSame(source, b.getSourceManagers().remove("x"));
+		assertSame(source, b.getSourceManagers().get("mem"));
+		assertThrows(IllegalArgumentException.class, () -> b.setContext(null));
+		assertThrows(IllegalArgumentException.class, () -> b.backup((BackupContext)null, "mem://", "proxied://1"));
+
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<CompletableFuture<BackupResult>> futures = new ArrayList<>();
+			for (int i = 0; i < 20; i++) {
+				final int port = 1000+(i%2);
+				final BackupContext context = BackupContext.DEFAULT.withProxy(new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved("proxy", port)), null);
+				futures.add(CompletableFuture.supplyAsync(() -> {
+					try {
+						return b.backup(context, "mem://", "proxied://"+port, "proxied://"+port);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, executor));
+			}
+			for (CompletableFuture<BackupResult> future : futures) {
+				assertTrue(future.get(30, TimeUnit.SECONDS).isSuccessful());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(40, sends.get());
+		assertEquals(0, wrongProxies.get());
+		// The default context is not changed by the backups
+		assertEquals(Proxy.NO_PROXY, b.getContext().getProxy());
+	}
+
+	@Test
+	void testProxiedDestination() throws Exception {
+		final SourceManager source = new SourceManager() {
+			@Override
+			public String getScheme() {
+				return "mem";
+			}
+
+			@Override
+			public void save(String source, File destFile) throws IOException {
+				Files.write(destFile.toPath(), new byte[] {1, 2, 3});
+			}
+		};
+		// A destination whose path is the port of the proxy the backup is supposed to use.
+		// Its sends end only when another backup, that uses another proxy, is sending at the same time.
+		final CountDownLatch together = new CountDownLatch(2);
+		final AtomicInteger wrongProxies = new AtomicInteger();
+		final class PortManager implements ProxiedDestinationManager<int[]>, ProxyCompliant {
+			@Override
+			public void setProxy(Proxy proxy, PasswordAuthentication auth) {
+				throw new IllegalStateException("Proxy is passed with the destination");
+			}
+
+			@Override
+			public String getScheme() {
+				return "port";
+			}
+
+			@Override
+			public int[] validate(String path, Function<String, CharSequence> extensionBuilder) {
+				throw new IllegalStateException("Proxy is passed with the destination");
+			}
+
+			@Override
+			public int[] validate(String path, Function<String, CharSequence> extensionBuilder, Instant timestamp, Proxy proxy, PasswordAuthentication auth) {
+				return new int[] {Integer.parseInt(path), ((InetSocketAddress)proxy.address()).getPort()};
+			}
+
+			@Override
+			public void send(InputStream in, long size, int[] ports) throws IOException {
+				if (ports[0]!=ports[1]) {
+					wrongProxies.incrementAndGet();
+				}
+				in.readAllBytes();
+				together.countDown();
+				try {
+					if (!together.await(5, TimeUnit.SECONDS)) {
+						throw new IOException("Backups were not sent at the same time");
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+		}
+		final JDbBackup b = new JDbBackup();
+		b.addSourceManager(source);
+		b.addDestinationManager(new PortManager());
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final List<CompletableFuture<BackupResult>> futures = new ArrayList<>();
+			for (int port = 1000; port < 1002; port++) {
+				final BackupContext context = BackupContext.DEFAULT.withProxy(new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved("proxy", port)), null);
+				final String destination = "port://"+port;
+				futures.add(CompletableFuture.supplyAsync(() -> {
+					try {
+						return b.backup(context, "mem://", destination);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, executor));
+			}
+			for (CompletableFuture<BackupResult> future : futures) {
+				assertTrue(future.get(30, TimeUnit.SECONDS).isSuccessful());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(0, wrongProxies.get());
+	}
+
+	private static String digest(String algorithm, InputStream in) throws IOException {
+		final Digester digester = Digester.get(algorithm);
+		try (InputStream stream = in) {
+			final byte[] buffer = new byte[8192];
+			for (int count = stream.read(buffer); count>=0; count = stream.read(buffer)) {
+				digester.update(buffer, 0, count);
+			}
+		}
+		return digester.getValue();
+	}
 }
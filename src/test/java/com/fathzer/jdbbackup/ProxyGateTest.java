@@ -0,0 +1,99 @@
+package com.fathzer.jdbbackup;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import com.fathzer.plugin.loader.utils.ProxySettings;
+
+class ProxyGateTest {
+	private static class KnownManager implements ProxyCompliant {
+		private Proxy proxy = Proxy.NO_PROXY;
+		private PasswordAuthentication proxyAuth;
+		private int calls;
+		
+		@Override
+		public void setProxy(Proxy proxy, PasswordAuthentication auth) {
+			this.proxy = proxy;
+			this.proxyAuth = auth;
+			this.calls++;
+		}
+	}
+
+	@Test
+	void test() throws Exception {
+		final ProxyGate gate = new ProxyGate();
+		final KnownManager manager = new KnownManager();
+		final KnownManager other = new KnownManager();
+		final ProxySettings proxy = ProxySettings.fromString("a:b@x.com:4128");
+
+		final Collection<ProxyCompliant> first = gate.acquire(Arrays.asList(manager, manager, other), proxy.toProxy(), proxy.getLogin());
+		assertEquals(2, first.size());
+		assertEquals(new InetSocketAddress("x.com",4128), manager.proxy.address());
+		assertEquals("a",manager.proxyAuth.getUserName());
+		assertArrayEquals(new char[] {'b'},manager.proxyAuth.getPassword());
+		assertEquals(1, manager.calls);
+
+		// Same settings => no wait, and the proxy is not set again
+		final ProxySettings same = ProxySettings.fromString("a:b@x.com:4128");
+		final Collection<ProxyCompliant> second = gate.acquire(Collections.singleton(manager), same.toProxy(), same.getLogin());
+		assertEquals(1, manager.calls);
+
+		// Other settings => wait until the manager is released
+		final CompletableFuture<Collection<ProxyCompliant>> third = CompletableFuture.supplyAsync(() -> {
+			try {
+				return gate.acquire(Collections.singleton(manager), Proxy.NO_PROXY, null);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		assertThrows(TimeoutException.class, () -> third.get(200, TimeUnit.MILLISECONDS));
+		gate.release(first);
+		assertThrows(TimeoutException.class, () -> third.get(200, TimeUnit.MILLISECONDS));
+		gate.release(second);
+		gate.release(third.get(5, TimeUnit.SECONDS));
+		assertEquals(Proxy.NO_PROXY, manager.proxy);
+		assertNull(manager.proxyAuth);
+		assertEquals(2, manager.calls);
+	}
+
+	@Test
+	void testFairness() throws Exception {
+		final ProxyGate gate = new ProxyGate();
+		final KnownManager manager = new KnownManager();
+		final Proxy proxy = ProxySettings.fromString("x.com:4128").toProxy();
+		final Collection<ProxyCompliant> first = gate.acquire(Collections.singleton(manager), proxy, null);
+		final CompletableFuture<Collection<ProxyCompliant>> other = acquire(gate, manager, Proxy.NO_PROXY);
+		assertThrows(TimeoutException.class, () -> other.get(200, TimeUnit.MILLISECONDS));
+		// The manager is used with the same proxy, but an older acquisition with another proxy is waiting
+		final CompletableFuture<Collection<ProxyCompliant>> same = acquire(gate, manager, proxy);
+		assertThrows(TimeoutException.class, () -> same.get(200, TimeUnit.MILLISECONDS));
+		gate.release(first);
+		final Collection<ProxyCompliant> acquired = other.get(5, TimeUnit.SECONDS);
+		assertEquals(Proxy.NO_PROXY, manager.proxy);
+		assertThrows(TimeoutException.class, () -> same.get(200, TimeUnit.MILLISECONDS));
+		gate.release(acquired);
+		gate.release(same.get(5, TimeUnit.SECONDS));
+		assertEquals(proxy, manager.proxy);
+	}
+
+	private static CompletableFuture<Collection<ProxyCompliant>> acquire(ProxyGate gate, ProxyCompliant manager, Proxy proxy) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return gate.acquire(Collections.singleton(manager), proxy, null);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+}
@@ -0,0 +1,42 @@
+package com.fathzer.jdbbackup;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class RetryPolicyTest {
+	@Test
+	void test() {
+		final RetryPolicy policy = new RetryPolicy(4, Duration.ofMillis(100), Duration.ofMillis(300));
+		assertEquals(4, policy.getMaxAttempts());
+		for (int i = 0; i < 100; i++) {
+			assertBetween(50, 100, policy.getDelay(1));
+			assertBetween(100, 200, policy.getDelay(2));
+			// Capped
+			assertBetween(150, 300, policy.getDelay(3));
+			assertBetween(150, 300, policy.getDelay(100));
+		}
+		assertTrue(policy.shouldRetry(1, new IOException()));
+		assertTrue(policy.shouldRetry(3, new IOException()));
+		assertFalse(policy.shouldRetry(4, new IOException()));
+		assertFalse(policy.shouldRetry(1, new FileNotFoundException()));
+		assertFalse(policy.shouldRetry(1, new InterruptedIOException()));
+		assertFalse(policy.shouldRetry(1, new IllegalArgumentException()));
+		assertFalse(RetryPolicy.NONE.shouldRetry(1, new IOException()));
+		assertEquals(Duration.ZERO, RetryPolicy.NONE.getDelay(1));
+
+		assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(0, Duration.ZERO, Duration.ZERO));
+		assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(1, Duration.ofSeconds(2), Duration.ofSeconds(1)));
+		assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(1, null, Duration.ofSeconds(1)));
+		assertThrows(IllegalArgumentException.class, () -> new RetryPolicy(1, Duration.ZERO, Duration.ZERO, null));
+	}
+
+	private static void assertBetween(long min, long max, Duration delay) {
+		assertTrue(delay.toMillis()>=min && delay.toMillis()<=max, delay+" is not in ["+min+", "+max+"]");
+	}
+}
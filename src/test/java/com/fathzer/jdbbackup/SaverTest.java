@@ -4,29 +4,19 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetSocketAddress;
-import java.net.PasswordAuthentication;
-import java.net.Proxy;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import org.junit.jupiter.api.Test;
 
-import com.fathzer.plugin.loader.utils.ProxySettings;
+import com.fathzer.jdbbackup.utils.FileChannelInputStream;
 
 class SaverTest {
 	
-	private static class KnownManager implements DestinationManager<Object>, ProxyCompliant {
-		private Proxy proxy = Proxy.NO_PROXY;
-		private PasswordAuthentication proxyAuth;
-		
-		@Override
-		public void setProxy(Proxy proxy, PasswordAuthentication auth) {
-			this.proxy = proxy;
-			this.proxyAuth = auth;
-		}
-
+	private static class KnownManager implements DestinationManager<Object> {
 		@Override
 		public String getScheme() {
 			return "known";
@@ -39,9 +29,20 @@ class SaverTest {
 
 		@Override
 		public void send(InputStream in, long size, Object destination) throws IOException {
+			received = in;
+			in.readAllBytes();
+		}
+	}
+
+	private static class ChannelManager extends KnownManager implements FileChannelCompliant {
+		@Override
+		public String getScheme() {
+			return "channel";
 		}
 	}
 
+	private static InputStream received;
+
 	@Test
 	void test() throws Exception {
 		@SuppressWarnings("rawtypes")
@@ -54,21 +55,31 @@ class SaverTest {
 		registry.put(manager.getScheme(), manager);
 		
 		final Saver<?> s = new Saver<>(new Destination("known://klm"), registry);
-		ProxySettings proxy = ProxySettings.fromString("127.0.0.1:3128");
-		s.setProxy(proxy.toProxy(), proxy.getLogin());
-		assertEquals(new InetSocketAddress("127.0.0.1",3128), manager.proxy.address());
-		assertNull(manager.proxyAuth);
-
-		proxy = ProxySettings.fromString("a:b@x.com:4128");
-		s.setProxy(proxy.toProxy(), proxy.getLogin());
-		assertEquals(new InetSocketAddress("x.com",4128), manager.proxy.address());
-		assertEquals("a",manager.proxyAuth.getUserName());
-		assertArrayEquals(new char[] {'b'},manager.proxyAuth.getPassword());
-		assertThrows(IllegalArgumentException.class, () -> s.setProxy(Proxy.NO_PROXY, manager.proxyAuth));
+		assertSame(manager, s.getManager());
+		assertEquals("known", s.getScheme());
+	}
 
-		s.setProxy(proxy.toProxy(), null);
-		assertNull(manager.proxyAuth);
-		
-		assertThrows(IllegalArgumentException.class, () -> s.setProxy(null, null));
+	@Test
+	void testFileChannel() throws Exception {
+		@SuppressWarnings("rawtypes")
+		final Map<String, DestinationManager> registry = new HashMap<>();
+		registry.put("known", new KnownManager());
+		registry.put("channel", new ChannelManager());
+		final StagingStore store = new StagingStore();
+		store.setMemoryThreshold(0);
+		try (StagedData staged = store.create("src")) {
+			try (OutputStream out = staged.getOutputStream()) {
+				out.write(new byte[1000]);
+			}
+			final AtomicLong progress = new AtomicLong();
+			// Only managers that can use the channel receive the unbuffered stream
+			new Saver<>(new Destination("known://klm"), registry).send(staged, true, null, null, null, progress::addAndGet);
+			assertFalse(received instanceof FileChannelInputStream);
+			assertEquals(1000, progress.get());
+			new Saver<>(new Destination("channel://klm"), registry).send(staged, true, null, null, null, progress::addAndGet);
+			assertTrue(received instanceof FileChannelInputStream);
+			assertEquals(2000, progress.get());
+			assertNotNull(((FileChannelInputStream)received).getMovableFile());
+		}
 	}
 }
@@ -0,0 +1,121 @@
+package com.fathzer.jdbbackup;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpillingPipeTest {
+	@TempDir
+	Path dir;
+
+	private File spillFile;
+
+	private File createSpillFile() throws IOException {
+		spillFile = Files.createTempFile(dir, "spill", ".tmp").toFile();
+		return spillFile;
+	}
+
+	@Test
+	void testMemoryOnly() throws IOException {
+		final SpillingPipe pipe = new SpillingPipe(1000, this::createSpillFile);
+		pipe.write(chunk(0, 600));
+		pipe.write(chunk(600, 400));
+		pipe.close();
+		assertArrayEquals(chunk(0, 1000), pipe.getInputStream().readAllBytes());
+		pipe.getInputStream().close();
+		assertFalse(pipe.hasSpilled());
+		assertNull(spillFile);
+	}
+
+	@Test
+	void testSpill() throws IOException {
+		final SpillingPipe pipe = new SpillingPipe(1000, this::createSpillFile);
+		final InputStream in = pipe.getInputStream();
+		// The writer does not wait for the reader, the bytes it is behind on are spilled
+		pipe.write(chunk(0, 800));
+		pipe.write(chunk(800, 800));
+		assertTrue(pipe.hasSpilled());
+		assertTrue(spillFile.exists());
+		assertArrayEquals(chunk(0, 1200), in.readNBytes(1200));
+		pipe.write(chunk(1600, 500));
+		assertArrayEquals(chunk(1200, 900), in.readNBytes(900));
+		pipe.write(chunk(2100, 900));
+		pipe.write(chunk(3000, 300));
+		pipe.close();
+		assertArrayEquals(chunk(2100, 1200), in.readAllBytes());
+		in.close();
+		assertFalse(spillFile.exists());
+	}
+
+	@Test
+	void testBlocking() throws Exception {
+		final SpillingPipe pipe = new SpillingPipe(1000, null);
+		final AtomicReference<Exception> error = new AtomicReference<>();
+		final Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 100; i++) {
+					pipe.write(chunk(i*300, 300));
+				}
+				pipe.close();
+			} catch (IOException e) {
+				error.set(e);
+			}
+		});
+		writer.start();
+		try (InputStream in = pipe.getInputStream()) {
+			Thread.sleep(50);
+			// The writer should wait for the reader
+			assertTrue(writer.isAlive());
+			assertArrayEquals(chunk(0, 30000), in.readAllBytes());
+		}
+		writer.join();
+		assertNull(error.get());
+		assertFalse(pipe.hasSpilled());
+	}
+
+	@Test
+	void testAbort() throws IOException {
+		final SpillingPipe pipe = new SpillingPipe(1000, this::createSpillFile);
+		pipe.write(chunk(0, 100));
+		final IOException cause = new IOException("source failure");
+		pipe.abort(cause);
+		final IOException e = assertThrows(IOException.class, () -> pipe.getInputStream().read());
+		assertSame(cause, e.getCause());
+	}
+
+	@Test
+	void testReaderClosed() throws Exception {
+		final SpillingPipe pipe = new SpillingPipe(1000, null);
+		pipe.write(chunk(0, 1000));
+		final Thread writer = new Thread(() -> {
+			try {
+				pipe.write(chunk(1000, 1000));
+			} catch (IOException e) {
+				// Should not happen
+			}
+		});
+		writer.start();
+		// Closing the reader side releases the blocked writer and discards the data
+		pipe.getInputStream().close();
+		writer.join();
+		assertTrue(pipe.isReaderClosed());
+		pipe.write(chunk(0, 10));
+		assertThrows(IOException.class, () -> pipe.getInputStream().read());
+	}
+
+	private static byte[] chunk(int start, int length) {
+		final byte[] result = new byte[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = (byte)(start+i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,187 @@
+package com.fathzer.jdbbackup;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fathzer.jdbbackup.utils.FileChannelInputStream;
+
+class StagingStoreTest {
+	@TempDir
+	Path dir;
+
+	private static class ObservableStagingStore extends StagingStore {
+		private final List<File> files = new ArrayList<>();
+
+		@Override
+		protected File createFile() throws IOException {
+			final File file = super.createFile();
+			files.add(file);
+			return file;
+		}
+	}
+
+	@Test
+	void testMemory() throws IOException {
+		final ObservableStagingStore store = new ObservableStagingStore();
+		final byte[] data = data(100000);
+		try (StagedData staged = store.create("src")) {
+			write(staged, data, 1000);
+			assertTrue(staged.isInMemory());
+			assertEquals(data.length, staged.getSize());
+			assertTrue(store.getUsedMemory()>=data.length);
+			// Data can be read many times
+			try (InputStream in1 = staged.newInputStream(false); InputStream in2 = staged.newInputStream(true)) {
+				assertArrayEquals(data, in1.readAllBytes());
+				assertArrayEquals(data, in2.readAllBytes());
+			}
+		}
+		assertTrue(store.files.isEmpty());
+		assertEquals(0, store.getUsedMemory());
+	}
+
+	@Test
+	void testSpill() throws IOException {
+		final ObservableStagingStore store = new ObservableStagingStore();
+		store.setDirectory(dir);
+		store.setMemoryThreshold(50000);
+		final byte[] data = data(100000);
+		try (StagedData staged = store.create("src")) {
+			write(staged, data, 1000);
+			assertFalse(staged.isInMemory());
+			assertEquals(1, store.files.size());
+			assertEquals(dir, store.files.get(0).toPath().getParent());
+			if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+				assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE), Files.getPosixFilePermissions(store.files.get(0).toPath()));
+			}
+			assertEquals(0, store.getUsedMemory());
+			assertEquals(data.length, staged.getSize());
+			try (InputStream in = staged.newInputStream(true)) {
+				assertTrue(in instanceof FileChannelInputStream);
+				assertEquals(store.files.get(0).toPath(), ((FileChannelInputStream)in).getMovableFile());
+				assertArrayEquals(data, in.readAllBytes());
+			}
+		}
+		assertFalse(store.files.get(0).exists());
+
+		// The previous backup of the source was too big, it is directly written on disk
+		try (StagedData staged = store.create("src")) {
+			try (OutputStream out = staged.getOutputStream()) {
+				assertFalse(staged.isInMemory());
+				out.write(data, 0, 10);
+			}
+			assertEquals(10, staged.getSize());
+		}
+		assertEquals(2, store.files.size());
+
+		// The previous backup was small, it is kept in memory
+		try (StagedData staged = store.create("src")) {
+			write(staged, data, 1000);
+		}
+		assertEquals(3, store.files.size());
+	}
+
+	@Test
+	void testMemoryCap() throws IOException {
+		final ObservableStagingStore store = new ObservableStagingStore();
+		store.setMaxMemory(StagingStore.MIN_BUFFER_SIZE);
+		try (StagedData staged1 = store.create("src1"); StagedData staged2 = store.create("src2")) {
+			write(staged1, data(10), 10);
+			write(staged2, data(10), 10);
+			assertTrue(staged1.isInMemory());
+			// No more memory available
+			assertFalse(staged2.isInMemory());
+		}
+		assertEquals(0, store.getUsedMemory());
+		assertThrows(IllegalArgumentException.class, () -> store.setMaxMemory(-1));
+		assertThrows(IllegalArgumentException.class, () -> store.setMemoryThreshold(-1));
+	}
+
+	@Test
+	void testBufferReuse() throws IOException {
+		final ObservableStagingStore store = new ObservableStagingStore();
+		store.setMaxMemory(3L*StagingStore.MIN_BUFFER_SIZE);
+		InputStream closedIn = null;
+		for (int i = 0; i < 10; i++) {
+			try (StagedData staged = store.create("src"+i)) {
+				write(staged, data(1000), 1000);
+				assertTrue(staged.isInMemory());
+				closedIn = staged.newInputStream(false);
+			}
+		}
+		// The buffer of the first backup is reused by the next ones
+		assertEquals(0, store.getUsedMemory());
+		assertEquals(StagingStore.MIN_BUFFER_SIZE, store.getAllocatedMemory());
+		// The buffer may be used by another backup, it can't be read anymore
+		assertThrows(IOException.class, closedIn::read);
+
+		try (StagedData staged1 = store.create("a"); StagedData staged2 = store.create("b")) {
+			write(staged1, data(10), 10);
+			write(staged2, data(10), 10);
+			assertEquals(2L*StagingStore.MIN_BUFFER_SIZE, store.getAllocatedMemory());
+		}
+		// A released buffer is discarded to make room for a bigger one
+		final byte[] data = data(100000);
+		try (StagedData staged = store.create("c")) {
+			write(staged, data, 1000);
+			assertTrue(staged.isInMemory());
+			assertEquals(3L*StagingStore.MIN_BUFFER_SIZE, store.getAllocatedMemory());
+			try (InputStream in = staged.newInputStream(false)) {
+				assertArrayEquals(data, in.readAllBytes());
+			}
+		}
+		assertEquals(0, store.getUsedMemory());
+		assertEquals(3L*StagingStore.MIN_BUFFER_SIZE, store.getAllocatedMemory());
+
+		// Lowering the cap discards released buffers
+		store.setMaxMemory(StagingStore.MIN_BUFFER_SIZE);
+		assertTrue(store.getAllocatedMemory()<=StagingStore.MIN_BUFFER_SIZE);
+	}
+
+	@Test
+	void testFile() throws IOException {
+		final ObservableStagingStore store = new ObservableStagingStore();
+		final byte[] data = data(1000);
+		try (StagedData staged = store.create("src")) {
+			final File file = staged.toFile();
+			assertFalse(staged.isInMemory());
+			Files.write(file.toPath(), data);
+			assertEquals(data.length, staged.getSize());
+			try (InputStream in = staged.newInputStream(false)) {
+				assertArrayEquals(data, in.readAllBytes());
+			}
+			assertThrows(IllegalStateException.class, () -> staged.getOutputStream());
+		}
+		assertFalse(store.files.get(0).exists());
+		assertEquals(0, store.getUsedMemory());
+	}
+
+	private static void write(StagedData staged, byte[] data, int chunkSize) throws IOException {
+		try (OutputStream out = staged.getOutputStream()) {
+			for (int i = 0; i < data.length; i += chunkSize) {
+				out.write(data, i, Math.min(chunkSize, data.length-i));
+			}
+		}
+	}
+
+	private static byte[] data(int size) {
+		final byte[] result = new byte[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = (byte)(i*31);
+		}
+		return result;
+	}
+}
@@ -2,13 +2,235 @@ package com.fathzer.jdbbackup.destinations;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+import java.util.stream.Stream;
+
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fathzer.jdbbackup.BackupManifest;
+import com.fathzer.jdbbackup.ChunkedDestinationManager.Upload;
+import com.fathzer.jdbbackup.ChunkedUploader;
+import com.fathzer.jdbbackup.StagedData;
+import com.fathzer.jdbbackup.StagingStore;
+import com.fathzer.jdbbackup.utils.Digester;
+import com.fathzer.jdbbackup.utils.FileChannelInputStream;
 
 class FileManagerTest {
+	private static final byte[] CONTENT = "This is a backup".getBytes(StandardCharsets.UTF_8);
+
+	@TempDir
+	Path dir;
 
 	@Test
 	void test() {
 		FileManager manager = new FileManager();
 		assertEquals("file",manager.getScheme());
+		assertThrows(IllegalArgumentException.class, () -> manager.setFsyncPolicy(null));
+	}
+
+	@Test
+	void testStream() throws IOException {
+		final FileManager manager = new FileManager();
+		final Path dest = dir.resolve("backup.gz");
+		Files.write(dest, new byte[] {1, 2, 3});
+		manager.send(new ByteArrayInputStream(CONTENT), -1, dest);
+		assertArrayEquals(CONTENT, Files.readAllBytes(dest));
+		assertEquals(1, count(dir));
+
+		manager.setFsyncPolicy(FsyncPolicy.FILE_AND_DIRECTORY);
+		final Path missing = dir.resolve("missing/backup.gz");
+		assertThrows(IOException.class, () -> manager.send(new ByteArrayInputStream(CONTENT), -1, missing));
+	}
+
+	@Test
+	void testChannel() throws IOException {
+		final FileManager manager = new FileManager();
+		manager.setFsyncPolicy(FsyncPolicy.NONE);
+		final Path staged = Files.write(dir.resolve("staged"), CONTENT);
+		final Path dest = dir.resolve("backup.gz");
+		try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.READ)) {
+			// Not movable => transferred
+			final FileChannelInputStream in = new FileChannelInputStream(channel, 0, channel.size());
+			manager.send(in, channel.size(), dest);
+			assertEquals(0, in.getRemaining());
+			assertArrayEquals(CONTENT, Files.readAllBytes(dest));
+			assertTrue(Files.exists(staged));
+
+			// Movable => renamed
+			final boolean posix = Files.getFileStore(dir).supportsFileAttributeView(PosixFileAttributeView.class);
+			if (posix) {
+				// Like a staged file, only the owner can read it
+				Files.setPosixFilePermissions(staged, PosixFilePermissions.fromString("rw-------"));
+			}
+			final Path renamed = dir.resolve("renamed.gz");
+			manager.send(new FileChannelInputStream(channel, 0, channel.size(), staged), channel.size(), renamed);
+			assertArrayEquals(CONTENT, Files.readAllBytes(renamed));
+			assertFalse(Files.exists(staged));
+			if (posix) {
+				// The renamed backup has the same permissions as the copied one
+				assertEquals(Files.getPosixFilePermissions(dest), Files.getPosixFilePermissions(renamed));
+			}
+			assertEquals(2, count(dir));
+		}
+
+		// A truncated file does not replace the destination
+		final Path truncated = Files.write(dir.resolve("truncated"), CONTENT);
+		try (FileChannel channel = FileChannel.open(truncated, StandardOpenOption.READ)) {
+			final FileChannelInputStream in = new FileChannelInputStream(channel, 0, channel.size()+10);
+			assertThrows(EOFException.class, () -> manager.send(in, channel.size()+10, dest));
+		}
+		assertArrayEquals(CONTENT, Files.readAllBytes(dest));
+		assertEquals(3, count(dir));
+	}
+
+	@Test
+	void testLinks() throws Exception {
+		final FileManager manager = new FileManager();
+		final Path staged = Files.write(dir.resolve("staged"), CONTENT);
+		final Path dest1 = dir.resolve("backup1.gz");
+		final Path dest2 = dir.resolve("backup2.gz");
+		try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.READ)) {
+			final Thread other = new Thread(() -> {
+				try {
+					manager.send(new FileChannelInputStream(channel, 0, channel.size()), channel.size(), dest1);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			other.start();
+			manager.send(new FileChannelInputStream(channel, 0, channel.size()), channel.size(), dest2);
+			other.join();
+		}
+		assertArrayEquals(CONTENT, Files.readAllBytes(dest1));
+		assertArrayEquals(CONTENT, Files.readAllBytes(dest2));
+		// The backup was written once, the other destination is a link to the copy
+		assertTrue(Files.isSameFile(dest1, dest2));
+		assertEquals(3, count(dir));
+	}
+
+	@Test
+	void testManifest() throws IOException {
+		final FileManager manager = new FileManager();
+		final Path dest = dir.resolve("backup.gz");
+		final BackupManifest manifest = new BackupManifest("SHA-256");
+		manifest.setCompressed(CONTENT.length, "0123");
+		// No manifest by default
+		manager.send(new ByteArrayInputStream(CONTENT), CONTENT.length, dest, manifest);
+		assertEquals(1, count(dir));
+
+		manager.setManifestExtension("manifest");
+		manager.send(new ByteArrayInputStream(CONTENT), CONTENT.length, dest, manifest);
+		assertArrayEquals(CONTENT, Files.readAllBytes(dest));
+		final Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(dir.resolve("backup.gz.manifest"))) {
+			properties.load(in);
+		}
+		assertEquals("SHA-256", properties.getProperty("algorithm"));
+		assertEquals("0123", properties.getProperty("digest"));
+		assertEquals(Integer.toString(CONTENT.length), properties.getProperty("size"));
+		assertNull(properties.getProperty("raw.digest"));
+		assertEquals(2, count(dir));
+	}
+
+	@Test
+	void testChunked() throws IOException {
+		final FileManager manager = new FileManager();
+		final Path dest = dir.resolve("backup.gz");
+		final long size = CONTENT.length;
+		// Send the first part, then forget the upload (as if the process crashed)
+		Upload upload = manager.startUpload(dest, size, "id");
+		assertEquals(0, upload.getCommittedOffset());
+		upload.sendPart(0, new ByteArrayInputStream(CONTENT, 0, 5), 5);
+		assertEquals(5, upload.getCommittedOffset());
+		assertFalse(Files.exists(dest));
+
+		// Other content can't be resumed
+		assertNull(manager.resumeUpload(dest, size, "other"));
+		upload = manager.resumeUpload(dest, size, "id");
+		assertNotNull(upload);
+		assertEquals(5, upload.getCommittedOffset());
+		final Upload resumed = upload;
+		final BackupManifest manifest = new BackupManifest(Digester.CRC32C);
+		// Gaps and incomplete uploads are refused
+		assertThrows(IOException.class, () -> resumed.sendPart(10, new ByteArrayInputStream(CONTENT, 10, 6), 6));
+		assertThrows(IOException.class, () -> resumed.complete(manifest));
+		// Too short part
+		assertThrows(IOException.class, () -> resumed.sendPart(5, new ByteArrayInputStream(CONTENT, 5, 2), 5));
+
+		try (FileChannel channel = FileChannel.open(Files.write(dir.resolve("staged"), CONTENT), StandardOpenOption.READ)) {
+			upload.sendPart(5, new FileChannelInputStream(channel, 5, size-5), size-5);
+		}
+		upload.complete(manifest);
+		assertArrayEquals(CONTENT, Files.readAllBytes(dest));
+		assertNull(manager.resumeUpload(dest, size, "id"));
+		assertEquals(2, count(dir));
+
+		// A new upload deletes the parts of the interrupted uploads to the same destination
+		final Path other = dir.resolve("backup.gz.old");
+		manager.startUpload(other, size, "keep").sendPart(0, new ByteArrayInputStream(CONTENT, 0, 5), 5);
+		manager.startUpload(dest, size, "old").sendPart(0, new ByteArrayInputStream(CONTENT, 0, 5), 5);
+		assertEquals(4, count(dir));
+		manager.startUpload(dest, size, "new").sendPart(0, new ByteArrayInputStream(CONTENT, 0, 5), 5);
+		assertNull(manager.resumeUpload(dest, size, "old"));
+		assertNotNull(manager.resumeUpload(dest, size, "new"));
+		assertNotNull(manager.resumeUpload(other, size, "keep"));
+		manager.resumeUpload(dest, size, "new").abort();
+		manager.resumeUpload(other, size, "keep").abort();
+		assertEquals(2, count(dir));
+
+		// Aborted uploads leave nothing
+		upload = manager.startUpload(dir.resolve("aborted.gz"), size, null);
+		upload.sendPart(0, new ByteArrayInputStream(CONTENT, 0, 5), 5);
+		upload.abort();
+		assertEquals(2, count(dir));
+	}
+
+	@Test
+	void testChunkedUploader() throws IOException {
+		final FileManager manager = new FileManager();
+		manager.setManifestExtension("manifest");
+		final StagingStore store = new StagingStore();
+		store.setDirectory(dir);
+		final BackupManifest manifest = new BackupManifest(Digester.CRC32C);
+		manifest.setCompressed(CONTENT.length, "0123");
+		final Path dest = dir.resolve("backup.gz");
+		final ChunkedUploader uploader = new ChunkedUploader(3);
+		assertThrows(IllegalArgumentException.class, () -> new ChunkedUploader(0));
+		for (int threshold : new int[] {StagingStore.DEFAULT_MEMORY_THRESHOLD, 0}) {
+			store.setMemoryThreshold(threshold);
+			try (StagedData staged = store.create("src")) {
+				try (OutputStream out = staged.getOutputStream()) {
+					out.write(CONTENT);
+				}
+				assertEquals(threshold!=0, staged.isInMemory());
+				// A previous upload of the same content is resumed
+				final Upload upload = manager.startUpload(dest, CONTENT.length, "CRC32C-0123-"+CONTENT.length);
+				upload.sendPart(0, new ByteArrayInputStream(CONTENT, 0, 4), 4);
+				uploader.send(manager, dest, staged, manifest);
+				assertArrayEquals(CONTENT, Files.readAllBytes(dest));
+				assertTrue(Files.exists(dir.resolve("backup.gz.manifest")));
+			}
+			// The destination and its manifest
+			assertEquals(2, count(dir));
+		}
+	}
+
+	private static long count(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.count();
+		}
 	}
 }
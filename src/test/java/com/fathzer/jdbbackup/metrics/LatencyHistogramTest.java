@@ -0,0 +1,35 @@
+package com.fathzer.jdbbackup.metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+	@Test
+	void test() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(Duration.ZERO, histogram.getPercentile(50));
+		assertEquals(0, LatencyHistogram.getBucket(0));
+		assertEquals(1, LatencyHistogram.getBucket(1));
+		assertEquals(2, LatencyHistogram.getBucket(3));
+		assertEquals(3, LatencyHistogram.getBucket(4));
+		assertEquals(LatencyHistogram.BUCKETS-1, LatencyHistogram.getBucket(Long.MAX_VALUE));
+
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(Duration.ofMillis(i));
+		}
+		histogram.record(Duration.ofMillis(-5));
+		assertEquals(101, histogram.getCount());
+		assertEquals(Duration.ofMillis(5050), histogram.getSum());
+		assertEquals(Duration.ofMillis(100), histogram.getMax());
+		assertEquals(1, histogram.getBuckets()[0]);
+		// 50th percentile is in [32, 64[
+		assertEquals(Duration.ofMillis(63), histogram.getPercentile(50));
+		// Never more than max
+		assertEquals(Duration.ofMillis(100), histogram.getPercentile(99));
+		assertEquals(Duration.ZERO, histogram.getPercentile(0));
+		assertThrows(IllegalArgumentException.class, () -> histogram.getPercentile(101));
+	}
+}
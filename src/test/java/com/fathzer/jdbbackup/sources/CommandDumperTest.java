@@ -0,0 +1,93 @@
+package com.fathzer.jdbbackup.sources;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+class CommandDumperTest {
+	@TempDir
+	Path dir;
+
+	private Properties getConfiguration() {
+		final String classPath = new File("target/classes").getAbsolutePath()+File.pathSeparator+new File("target/test-classes").getAbsolutePath();
+		final Properties configuration = new Properties();
+		configuration.setProperty("fake.command", "java -cp \""+classPath+"\" "+FakeCommand.class.getName()+" ${code} \"hello ${name}\"");
+		configuration.setProperty("fake.env.FAKE_SECRET", "${secret}");
+		configuration.setProperty("fake.directory", dir.toString());
+		configuration.setProperty("fake.exitCodes", "0, 1");
+		configuration.setProperty("fake.extension", "txt");
+		configuration.setProperty("slow.command", "java -cp \""+classPath+"\" "+FakeCommand.class.getName()+" sleep");
+		configuration.setProperty("slow.timeout", "1");
+		return configuration;
+	}
+
+	@Test
+	void testCommand() {
+		final CommandDumper d = new CommandDumper(getConfiguration());
+		assertEquals("cmd", d.getScheme());
+		final List<String> command = d.getCommand("cmd://fake?code=0&name=John Doe&secret=s");
+		assertEquals(Arrays.asList("0", "hello John Doe"), command.subList(command.size()-2, command.size()));
+		assertEquals(Collections.singletonMap("FAKE_SECRET", "s"), d.getEnvironment("cmd://fake?code=0&name=x&secret=s"));
+		assertEquals("x.txt.gz", d.getExtensionBuilder("cmd://fake?code=0&name=x&secret=s").apply("x"));
+		assertEquals("x.txt", d.getExtensionBuilder("cmd://fake?code=0&name=x&secret=s&compression=none").apply("x"));
+		assertEquals("x.dump.gz", d.getExtensionBuilder("cmd://slow").apply("x"));
+
+		// Unknown command, missing or unused parameters
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("cmd://unknown"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("mysql://fake?code=0&name=x&secret=s"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("cmd://fake?code=0&name=x"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("cmd://fake?code=0&name=x&secret=s&other=1"));
+
+		assertEquals(Arrays.asList("a", "b c", "", "de fg"), CommandDumper.tokenize(" a \"b c\"  \"\" d\"e f\"g"));
+		assertThrows(IllegalArgumentException.class, () -> CommandDumper.tokenize("a \"b"));
+		// Invalid configurations
+		assertThrows(IllegalArgumentException.class, () -> new CommandDumper(properties("fake.directory", "x")));
+		assertThrows(IllegalArgumentException.class, () -> new CommandDumper(properties("fake.command", "x", "fake.unknown", "y")));
+		assertThrows(IllegalArgumentException.class, () -> new CommandDumper(properties("fake.command", "x", "fake.timeout", "0")));
+		assertThrows(IllegalArgumentException.class, () -> new CommandDumper(properties("fake.command", "x", "fake.exitCodes", "a")));
+		assertThrows(IllegalArgumentException.class, () -> new CommandDumper(properties("command", "x")));
+		// Without configuration file, no command is defined
+		assertThrows(IllegalArgumentException.class, () -> new CommandDumper().getCommand("cmd://fake?code=0&name=x&secret=s"));
+	}
+
+	private static Properties properties(String... keyValues) {
+		final Properties result = new Properties();
+		for (int i = 0; i < keyValues.length; i+=2) {
+			result.setProperty(keyValues[i], keyValues[i+1]);
+		}
+		return result;
+	}
+
+	@Test
+	@Timeout(30)
+	void testSave() throws IOException {
+		final CommandDumper d = new CommandDumper(getConfiguration());
+		// Exit code 1 is a success
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		d.save("cmd://fake?code=1&name=John&secret=s3cret", out);
+		final String[] lines;
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			lines = new String(in.readAllBytes(), StandardCharsets.UTF_8).split(System.lineSeparator());
+		}
+		assertEquals(Arrays.asList("hello John", "s3cret", dir.toRealPath().toString()), Arrays.asList(lines));
+
+		assertThrows(IOException.class, () -> d.save("cmd://fake?code=2&name=John&secret=s3cret", new ByteArrayOutputStream()));
+		final IOException e = assertThrows(IOException.class, () -> d.save("cmd://slow", new ByteArrayOutputStream()));
+		assertTrue(e.getMessage().contains("timed out"), e.getMessage());
+	}
+}
@@ -0,0 +1,116 @@
+package com.fathzer.jdbbackup.sources;
+
+import static com.fathzer.jdbbackup.sources.CompressorTest.assertSameContent;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fathzer.jdbbackup.CompressionCodec;
+
+class CompressionCodecTest {
+	private static final long SIZE = 1000000;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void testRegistry() {
+		final FakeJavaSource source = new FakeJavaSource();
+		assertTrue(source.getCompressionCodecs().get(GzipCodec.NAME) instanceof GzipCodec);
+		assertTrue(source.getCompressionCodecs().get(NoCompressionCodec.NAME) instanceof NoCompressionCodec);
+		assertEquals("x.txt.gz", source.getExtensionBuilder("java://").apply("x"));
+		assertEquals("x.txt.gz", source.getExtensionBuilder("java://?compression=gzip:9").apply("x"));
+		assertEquals("x.txt", source.getExtensionBuilder("java://?compression=none").apply("x"));
+		assertEquals("x.sql", new MySQLDumper().getExtensionBuilder("mysql://u:p@host/db?compression=none").apply("x"));
+		assertEquals("x.zip", new MySQLDumper().getExtensionBuilder("mysql://u:p@host/db?compression=none").apply("x.zip"));
+		assertThrows(IllegalArgumentException.class, () -> source.getExtensionBuilder("java://?compression=unknown"));
+		assertThrows(IllegalArgumentException.class, () -> source.getExtensionBuilder("java://?compression=gzip:x"));
+		assertThrows(IllegalArgumentException.class, () -> source.getExtensionBuilder("java://?compression=gzip:10"));
+		assertThrows(IllegalArgumentException.class, () -> source.getExtensionBuilder("java://?compression=none:1"));
+
+		// Test extra codecs
+		source.getCompressionCodecs().put("fake", new FakeCodec());
+		assertEquals("x.txt.fk", source.getExtensionBuilder("java://?compression=fake").apply("x"));
+	}
+
+	@Test
+	void testCompressor() throws IOException {
+		final Path file = dir.resolve("dump");
+		// No compression
+		Compressor compressor = new Compressor(file.toFile(), new ProcessContext(new FakeProcess(new DumpGenerator(SIZE))));
+		compressor.setCompression(new NoCompressionCodec(), CompressionCodec.DEFAULT_LEVEL);
+		// Parallel settings should be ignored
+		compressor.setParallel(2, 1000);
+		compressor.run();
+		assertNull(compressor.getError());
+		try (InputStream in = new FileInputStream(file.toFile())) {
+			assertSameContent(new DumpGenerator(SIZE), in);
+		}
+
+		// Gzip with levels
+		long previousSize = Long.MAX_VALUE;
+		for (int level : new int[] {0, 1, 9}) {
+			compressor = new Compressor(file.toFile(), new ProcessContext(new FakeProcess(new DumpGenerator(SIZE))));
+			compressor.setCompression(new GzipCodec(), level);
+			compressor.run();
+			assertNull(compressor.getError());
+			try (InputStream in = new GZIPInputStream(new FileInputStream(file.toFile()))) {
+				assertSameContent(new DumpGenerator(SIZE), in);
+			}
+			assertTrue(file.toFile().length()<previousSize);
+			previousSize = file.toFile().length();
+		}
+	}
+
+	@Test
+	void testCodecError() {
+		final FakeProcess process = new FakeProcess(new DumpGenerator(SIZE));
+		final Compressor compressor = new Compressor(dir.resolve("dump").toFile(), new ProcessContext(process));
+		compressor.setCompression(new GzipCodec(), 12);
+		compressor.run();
+		assertNotNull(compressor.getError());
+		assertTrue(process.isDestroyed());
+	}
+
+	@Test
+	void testGzipCodec() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = new GzipCodec().getOutputStream(bytes, CompressionCodec.DEFAULT_LEVEL)) {
+			new DumpGenerator(SIZE).transferTo(out);
+		}
+		final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		try (OutputStream out = new java.util.zip.GZIPOutputStream(expected)) {
+			new DumpGenerator(SIZE).transferTo(out);
+		}
+		// Skip the header, its OS field depends on the java version
+		final int headerSize = 10;
+		assertArrayEquals(Arrays.copyOfRange(expected.toByteArray(), headerSize, expected.size()), Arrays.copyOfRange(bytes.toByteArray(), headerSize, bytes.size()));
+	}
+
+	private static class FakeCodec implements CompressionCodec {
+		@Override
+		public String getName() {
+			return "fake";
+		}
+
+		@Override
+		public String getExtension() {
+			return "fk";
+		}
+
+		@Override
+		public OutputStream getOutputStream(OutputStream out, int level) {
+			return out;
+		}
+	}
+}
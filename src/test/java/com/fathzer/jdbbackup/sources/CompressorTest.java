@@ -0,0 +1,181 @@
+package com.fathzer.jdbbackup.sources;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fathzer.jdbbackup.utils.Digester;
+import com.fathzer.jdbbackup.utils.RateLimiter;
+
+class CompressorTest {
+	private static final long SIZE = 16L*1024*1024;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void testBuffers() throws IOException {
+		final File file = dir.resolve("dump.gz").toFile();
+		for (boolean direct : new boolean[] {false, true}) {
+			final FakeProcess process = new FakeProcess(new DumpGenerator(SIZE));
+			final ProcessContext context = new ProcessContext(process);
+			final Compressor compressor = new Compressor(file, context);
+			compressor.setBuffers(SourceManagerFromProcess.DEFAULT_BUFFER_SIZE, SourceManagerFromProcess.DEFAULT_BUFFER_COUNT, direct);
+			compressor.run();
+			assertNull(compressor.getError());
+			assertFalse(process.isDestroyed());
+			assertContent(SIZE, file);
+		}
+	}
+
+	@Test
+	void testRateLimit() throws IOException {
+		final File file = dir.resolve("dump.gz").toFile();
+		final long size = 3L*1024*1024;
+		final Compressor compressor = new Compressor(file, new ProcessContext(new FakeProcess(new DumpGenerator(size))));
+		// The limiter allows a burst of 2MB, the last MB is read in 0.5s
+		compressor.setRateLimiter(new RateLimiter(2L*1024*1024));
+		final long start = System.nanoTime();
+		compressor.run();
+		final long time = (System.nanoTime()-start)/1000000;
+		assertNull(compressor.getError());
+		assertTrue(time>=450, "Time is "+time);
+		assertContent(size, file);
+	}
+
+	@Test
+	void testSmallBuffers() throws IOException {
+		final File file = dir.resolve("dump.gz").toFile();
+		for (long size : new long[] {0, 1, 999, 1000, 1001, 123457}) {
+			final ProcessContext context = new ProcessContext(new FakeProcess(new DumpGenerator(size)));
+			final Compressor compressor = new Compressor(file, context);
+			compressor.setBuffers(1000, 1, false);
+			compressor.run();
+			assertNull(compressor.getError());
+			assertContent(size, file);
+		}
+	}
+
+	@Test
+	void testReadError() {
+		final FakeProcess process = new FakeProcess(new FailingInputStream(new DumpGenerator(SIZE), 1000000));
+		final Compressor compressor = new Compressor(dir.resolve("dump.gz").toFile(), new ProcessContext(process));
+		compressor.run();
+		assertNotNull(compressor.getError());
+		assertTrue(process.isDestroyed());
+	}
+
+	@Test
+	void testWriteError() {
+		final FakeProcess process = new FakeProcess(new DumpGenerator(SIZE));
+		final Compressor compressor = new Compressor(dir.resolve("missing/dump.gz").toFile(), new ProcessContext(process));
+		compressor.run();
+		assertNotNull(compressor.getError());
+		assertTrue(process.isDestroyed());
+	}
+
+	@Test
+	void testKilled() {
+		final FakeProcess process = new FakeProcess(new FailingInputStream(new DumpGenerator(SIZE), 1000));
+		final ProcessContext context = new ProcessContext(process);
+		context.kill();
+		final Compressor compressor = new Compressor(dir.resolve("dump.gz").toFile(), context);
+		compressor.run();
+		// Errors that occur after the process was killed are not reported
+		assertNull(compressor.getError());
+	}
+
+	@Test
+	void testDigests() throws IOException {
+		final File file = dir.resolve("dump.gz").toFile();
+		for (int workers : new int[] {1, 3}) {
+			final long size = 1234567;
+			final Compressor compressor = new Compressor(file, new ProcessContext(new FakeProcess(new DumpGenerator(size))));
+			compressor.setParallel(workers, 100000);
+			final Digester raw = Digester.get("SHA-256");
+			final Digester compressed = Digester.get(Digester.CRC32C);
+			compressor.setDigesters(raw, compressed);
+			compressor.run();
+			assertNull(compressor.getError());
+			assertEquals(size, compressor.getRawSize());
+			assertEquals(file.length(), compressor.getCompressedSize());
+			assertEquals(digest("SHA-256", new DumpGenerator(size)), raw.getValue());
+			assertEquals(digest(Digester.CRC32C, new FileInputStream(file)), compressed.getValue());
+		}
+	}
+
+	static String digest(String algorithm, InputStream in) throws IOException {
+		final Digester digester = Digester.get(algorithm);
+		try (InputStream stream = in) {
+			final byte[] buffer = new byte[8192];
+			for (int count = stream.read(buffer); count>=0; count = stream.read(buffer)) {
+				digester.update(buffer, 0, count);
+			}
+		}
+		return digester.getValue();
+	}
+
+	@Test
+	void testDeflaterReuse() {
+		final Deflater deflater = Deflaters.get(Deflater.BEST_SPEED);
+		Deflaters.release(Deflater.BEST_SPEED, deflater);
+		assertSame(deflater, Deflaters.get(Deflater.BEST_SPEED));
+		assertNotSame(deflater, Deflaters.get(Deflater.BEST_SPEED));
+		assertThrows(IllegalArgumentException.class, () -> Deflaters.get(10));
+	}
+
+	static void assertContent(long size, File file) throws IOException {
+		try (InputStream expected = new DumpGenerator(size); InputStream actual = new GZIPInputStream(new FileInputStream(file))) {
+			assertSameContent(expected, actual);
+		}
+	}
+
+	static void assertSameContent(InputStream expected, InputStream actual) throws IOException {
+		final byte[] expectedBuffer = new byte[8192];
+		final byte[] actualBuffer = new byte[8192];
+		long position = 0;
+		while (true) {
+			final int count = expected.readNBytes(expectedBuffer, 0, expectedBuffer.length);
+			final int actualCount = actual.readNBytes(actualBuffer, 0, count==0 ? 1 : count);
+			if (count==0) {
+				assertEquals(0, actualCount, "Actual content is longer than expected");
+				return;
+			}
+			assertEquals(count, actualCount, "Actual content is shorter than expected");
+			for (int i = 0; i < count; i++) {
+				if (expectedBuffer[i]!=actualBuffer[i]) {
+					fail("Contents differ at position "+(position+i));
+				}
+			}
+			position += count;
+		}
+	}
+
+	static class FailingInputStream extends InputStream {
+		private final InputStream in;
+		private long remaining;
+
+		FailingInputStream(InputStream in, long failAfter) {
+			this.in = in;
+			this.remaining = failAfter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining==0) {
+				throw new IOException("Read failure");
+			}
+			remaining--;
+			return in.read();
+		}
+	}
+}
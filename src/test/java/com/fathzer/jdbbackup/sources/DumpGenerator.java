@@ -0,0 +1,70 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** An input stream that generates a fake sql dump of a given size.
+ * <br>The content is deterministic: Two generators with the same size produce the same bytes.
+ * <br>Like {@link FakeJavaSource}, it can also be launched as a process whose output is the dump (the size is the first argument).
+ */
+public class DumpGenerator extends InputStream {
+	private final long size;
+	private long position;
+	private long lineNumber;
+	private byte[] line;
+	private int linePosition;
+
+	public DumpGenerator(long size) {
+		this.size = size;
+		nextLine();
+	}
+
+	private void nextLine() {
+		line = ("INSERT INTO `table` VALUES ("+lineNumber+",'name"+(lineNumber%97)+"','"+Long.toHexString(lineNumber*2654435761L)+"',"+(lineNumber%13)+");\n").getBytes(StandardCharsets.US_ASCII);
+		lineNumber++;
+		linePosition = 0;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position==size) {
+			return -1;
+		}
+		if (linePosition==line.length) {
+			nextLine();
+		}
+		position++;
+		return line[linePosition++];
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len==0) {
+			return 0;
+		}
+		if (position==size) {
+			return -1;
+		}
+		int count = 0;
+		while (count<len && position<size) {
+			if (linePosition==line.length) {
+				nextLine();
+			}
+			final int chunk = (int) Math.min(Math.min(len-count, line.length-linePosition), size-position);
+			System.arraycopy(line, linePosition, b, off+count, chunk);
+			linePosition += chunk;
+			position += chunk;
+			count += chunk;
+		}
+		return count;
+	}
+
+	public static void main(String[] args) throws IOException {
+		try (InputStream in = new DumpGenerator(Long.parseLong(args[0])); OutputStream out = new BufferedOutputStream(System.out)) {
+			in.transferTo(out);
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.nio.file.Paths;
+
+/** A fake dump command.
+ * <br>It outputs its second argument, the value of the FAKE_SECRET environment variable and its working directory, then exits with the code passed as first argument.
+ * <br>If the first argument is <i>sleep</i>, it never ends.
+ */
+public class FakeCommand {
+	public static void main(String[] args) throws InterruptedException {
+		if ("sleep".equals(args[0])) {
+			Thread.sleep(Long.MAX_VALUE);
+		}
+		System.out.println(args[1]);
+		System.out.println(System.getenv("FAKE_SECRET"));
+		System.out.println(Paths.get("").toAbsolutePath());
+		System.exit(Integer.parseInt(args[0]));
+	}
+}
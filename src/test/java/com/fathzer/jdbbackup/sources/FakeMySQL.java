@@ -0,0 +1,37 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** A fake mysql/mysqldump command.
+ * <br>With <i>tables</i> as first argument, it lists the tables of a fake database like {@link MySQLDumper#getTablesCommand(String)} does.
+ * If the second argument is <i>chatty</i>, a lot of warnings are written on the error stream before the tables.
+ * Otherwise, it dumps the tables passed as arguments. The <i>fail</i> table makes the dump fail, the <i>slow</i> table is never ending.
+ */
+public class FakeMySQL {
+	public static final List<String> TABLES = Arrays.asList("big\tBASE TABLE\t1000", "medium\tBASE TABLE\t600", "small\tBASE TABLE\t500",
+			"tiny\tBASE TABLE\t50", "v\tVIEW\t0", "slow\tBASE TABLE\t10", "fail\tBASE TABLE\t10");
+
+	public static void main(String[] args) throws InterruptedException {
+		if ("tables".equals(args[0])) {
+			if (args.length>1 && "chatty".equals(args[1])) {
+				// More than a pipe buffer of warnings before the tables
+				for (int i = 0; i < 10000; i++) {
+					System.err.println("Warning: Using a password on the command line interface can be insecure.");
+				}
+			}
+			TABLES.forEach(System.out::println);
+			return;
+		}
+		for (String table : args) {
+			if ("fail".equals(table)) {
+				System.exit(2);
+			}
+			while ("slow".equals(table)) {
+				System.out.println("INSERT INTO slow VALUES (1);");
+				Thread.sleep(10);
+			}
+			System.out.println("INSERT INTO "+table+" VALUES (1);");
+		}
+	}
+}
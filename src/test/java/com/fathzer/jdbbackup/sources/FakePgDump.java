@@ -0,0 +1,35 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/** A fake pg_dump command.
+ * <br>It creates a dump directory, like pg_dump directory format does, in the working directory. The directory contains a toc.dat file with the
+ * received credentials and the working directory, and a 1MB data file whose content is generated from the seed passed as first argument.
+ * <br>If the first argument is <i>fail</i>, it exits with code 3.
+ */
+public class FakePgDump {
+	public static final int DATA_SIZE = 1024*1024;
+
+	public static byte[] getData(long seed) {
+		final byte[] data = new byte[DATA_SIZE];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if ("fail".equals(args[0])) {
+			System.err.println("pg_dump: error: connection failed");
+			System.exit(3);
+		}
+		final Path dir = Files.createDirectory(Paths.get(PostgreSQLDumper.DUMP_DIRECTORY));
+		final String toc = System.getenv("PGUSER")+"\n"+new String(Files.readAllBytes(Paths.get(System.getenv("PGPASSFILE"))), StandardCharsets.UTF_8)+
+				Paths.get("").toAbsolutePath()+"\n";
+		Files.write(dir.resolve("toc.dat"), toc.getBytes(StandardCharsets.UTF_8));
+		Files.write(dir.resolve("3000.dat"), getData(Long.parseLong(args[0])));
+	}
+}
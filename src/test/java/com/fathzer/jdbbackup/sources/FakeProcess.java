@@ -0,0 +1,50 @@
+package com.fathzer.jdbbackup.sources;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** A process whose output is a given input stream.
+ */
+class FakeProcess extends Process {
+	private final InputStream in;
+	private boolean destroyed;
+
+	FakeProcess(InputStream in) {
+		this.in = in;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return OutputStream.nullOutputStream();
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	@Override
+	public int waitFor() {
+		return exitValue();
+	}
+
+	@Override
+	public int exitValue() {
+		return destroyed ? 1 : 0;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		destroyed = true;
+	}
+
+	synchronized boolean isDestroyed() {
+		return destroyed;
+	}
+}
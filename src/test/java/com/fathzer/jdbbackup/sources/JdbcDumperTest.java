@@ -0,0 +1,251 @@
+package com.fathzer.jdbbackup.sources;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class JdbcDumperTest {
+	private static final String DB = "jdbc://h2:mem:jdbcdumper";
+	private static final int ITEMS = 5000;
+	private static Connection connection;
+
+	@BeforeAll
+	static void init() throws SQLException {
+		// The connection keeps the in memory database alive
+		connection = DriverManager.getConnection("jdbc:h2:mem:jdbcdumper");
+		createTables(connection);
+		try (Statement st = connection.createStatement()) {
+			st.execute("INSERT INTO PERSON VALUES (1, 'O''Brien', X'0102', TRUE)");
+			st.execute("INSERT INTO PERSON VALUES (2, 'Smith, John', NULL, FALSE)");
+			st.execute("INSERT INTO PERSON VALUES (3, NULL, X'', NULL)");
+		}
+		try (PreparedStatement st = connection.prepareStatement("INSERT INTO ITEM VALUES (?, ?, ?)")) {
+			for (int i = 0; i < ITEMS; i++) {
+				st.setInt(1, i);
+				st.setString(2, "Item number "+i);
+				st.setDouble(3, i/4.0);
+				st.addBatch();
+			}
+			st.executeBatch();
+		}
+	}
+
+	private static void createTables(Connection connection) throws SQLException {
+		try (Statement st = connection.createStatement()) {
+			st.execute("CREATE TABLE PERSON (ID INT PRIMARY KEY, NAME VARCHAR(50), DATA VARBINARY(10), OK BOOLEAN)");
+			st.execute("CREATE TABLE ITEM (ID INT PRIMARY KEY, LABEL VARCHAR(50), PRICE DOUBLE PRECISION)");
+		}
+	}
+
+	@AfterAll
+	static void close() throws SQLException {
+		connection.close();
+	}
+
+	/** A dumper that reads tables concurrently with H2.
+	 * <br>H2 connections can't share a snapshot, but the test database is never updated while it is dumped.
+	 */
+	private static class ParallelDumper extends JdbcDumper {
+		@Override
+		protected List<Connection> getWorkerConnections(Connection first, int count, String url, Properties properties) throws SQLException {
+			final List<Connection> connections = new ArrayList<>();
+			for (int i = 0; i < count; i++) {
+				connections.add(getConnection(url, properties));
+			}
+			return connections;
+		}
+	}
+
+	private static String dump(String source) throws IOException {
+		return dump(new ParallelDumper(), source);
+	}
+
+	private static String dump(JdbcDumper dumper, String source) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		dumper.save(source, out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void testSql() throws Exception {
+		final String dump = dump(DB+"?compression=none");
+		final List<String> lines = Arrays.asList(dump.split("\n"));
+		assertEquals(ITEMS+3, lines.size());
+		assertTrue(lines.contains("INSERT INTO \"PERSON\" (\"ID\",\"NAME\",\"DATA\",\"OK\") VALUES (1,'O''Brien',X'0102',TRUE);"));
+		assertTrue(lines.contains("INSERT INTO \"PERSON\" (\"ID\",\"NAME\",\"DATA\",\"OK\") VALUES (3,NULL,X'',NULL);"));
+
+		// Tables read concurrently produce the same statements
+		final String parallel = dump(DB+"?compression=none&threads=2&fetchSize=100");
+		assertEquals(lines.stream().sorted().collect(Collectors.toList()), Arrays.stream(parallel.split("\n")).sorted().collect(Collectors.toList()));
+
+		// The dump can be restored
+		try (Connection restored = DriverManager.getConnection("jdbc:h2:mem:restored")) {
+			createTables(restored);
+			try (Statement st = restored.createStatement()) {
+				for (String line : lines) {
+					st.execute(line);
+				}
+				assertEquals(ITEMS, count(st, "SELECT COUNT(*) FROM ITEM"));
+				assertEquals(ITEMS, count(st, "SELECT COUNT(*) FROM ITEM WHERE PRICE*4=ID"));
+				try (ResultSet rs = st.executeQuery("SELECT NAME, DATA, OK FROM PERSON WHERE ID=1")) {
+					assertTrue(rs.next());
+					assertEquals("O'Brien", rs.getString(1));
+					assertArrayEquals(new byte[] {1,2}, rs.getBytes(2));
+					assertTrue(rs.getBoolean(3));
+				}
+			}
+		}
+	}
+
+	private static int count(Statement st, String query) throws SQLException {
+		try (ResultSet rs = st.executeQuery(query)) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	@Test
+	void testCsv() throws IOException {
+		final String expected = "PERSON\r\nID,NAME,DATA,OK\r\n1,O'Brien,0102,true\r\n2,\"Smith, John\",,false\r\n3,,\"\",\r\n\r\n";
+		assertEquals(expected, dump(DB+"?compression=none&format=csv&tables=person&threads=4"));
+	}
+
+	@Test
+	void testErrors() {
+		final JdbcDumper dumper = new JdbcDumper();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThrows(IllegalArgumentException.class, () -> dumper.save(DB+"?tables=unknown", out));
+		assertThrows(IllegalArgumentException.class, () -> dumper.save(DB+"?threads=0", out));
+		// H2 connections can't share a snapshot
+		assertThrows(IllegalArgumentException.class, () -> dumper.save(DB+"?threads=2", out));
+		assertThrows(IllegalArgumentException.class, () -> dumper.save(DB+"?format=xml", out));
+		assertThrows(IllegalArgumentException.class, () -> dumper.save("mysql://u:p@host/db", out));
+		assertThrows(IOException.class, () -> dumper.save("jdbc://unknown:db", out));
+	}
+
+	@Test
+	void testRuntimeError() {
+		// A driver that fails with a runtime exception while reading a row
+		final JdbcDumper dumper = new ParallelDumper() {
+			@Override
+			protected Connection getConnection(String url, Properties properties) throws SQLException {
+				return failing(super.getConnection(url, properties), Connection.class);
+			}
+		};
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final IOException e = assertThrows(IOException.class, () -> dumper.save(DB+"?compression=none&threads=2", out));
+		assertTrue(e.getCause() instanceof IllegalStateException, e.toString());
+	}
+
+	@Test
+	void testSnapshotSharing() throws IOException {
+		final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+		final String sequential = dump(DB+"?compression=none");
+		// The first connection exports its snapshot, the other one imports it
+		assertEquals(sequential.split("\n").length, dump(new SharingDumper("PostgreSQL", statements), DB+"?compression=none&threads=2").split("\n").length);
+		assertEquals(Arrays.asList("SELECT pg_export_snapshot()", "SET TRANSACTION SNAPSHOT 'snapshot-1'"), statements);
+		statements.clear();
+		// All the transactions start while tables are locked
+		dump(new SharingDumper("MySQL", statements), DB+"?compression=none&threads=3");
+		assertEquals(Arrays.asList("FLUSH TABLES WITH READ LOCK", "START TRANSACTION WITH CONSISTENT SNAPSHOT", "START TRANSACTION WITH CONSISTENT SNAPSHOT", "UNLOCK TABLES"), statements);
+		statements.clear();
+		// No snapshot is shared with a single connection
+		dump(new SharingDumper("MySQL", statements), DB+"?compression=none&threads=2&tables=item");
+		assertTrue(statements.isEmpty());
+	}
+
+	/** A dumper whose H2 connections pretend to be connections to another database.
+	 * <br>The statements that share the snapshot are recorded instead of being executed, the snapshot export returns <i>snapshot-1</i>.
+	 */
+	private static class SharingDumper extends JdbcDumper {
+		private final String product;
+		private final List<String> statements;
+
+		private SharingDumper(String product, List<String> statements) {
+			this.product = product;
+			this.statements = statements;
+		}
+
+		@Override
+		protected Connection getConnection(String url, Properties properties) throws SQLException {
+			return sharing(super.getConnection(url, properties), Connection.class);
+		}
+
+		private <T> T sharing(T target, Class<T> type) {
+			return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+				if (target instanceof DatabaseMetaData && method.getName().equals("getDatabaseProductName")) {
+					return product;
+				} else if (target instanceof Statement && method.getName().equals("execute")) {
+					statements.add((String)args[0]);
+					return false;
+				} else if (target instanceof Statement && method.getName().equals("executeQuery") && "SELECT pg_export_snapshot()".equals(args[0])) {
+					statements.add((String)args[0]);
+					return ((Statement)target).executeQuery("SELECT 'snapshot-1'");
+				}
+				try {
+					final Object result = method.invoke(target, args);
+					if (result instanceof Statement) {
+						return sharing((Statement)result, Statement.class);
+					} else if (result instanceof DatabaseMetaData) {
+						return sharing((DatabaseMetaData)result, DatabaseMetaData.class);
+					}
+					return result;
+				} catch (InvocationTargetException ex) {
+					throw ex.getCause();
+				}
+			}));
+		}
+	}
+
+	/** Wraps a JDBC object, the result sets it returns throw an exception when the value of a column is read as a String. */
+	private static <T> T failing(T target, Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+			if (target instanceof ResultSet && method.getName().equals("getString")) {
+				throw new IllegalStateException("Driver bug");
+			}
+			final Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException ex) {
+				throw ex.getCause();
+			}
+			if (result instanceof Statement) {
+				return failing((Statement)result, Statement.class);
+			} else if (result instanceof ResultSet) {
+				return failing((ResultSet)result, ResultSet.class);
+			}
+			return result;
+		}));
+	}
+
+	@Test
+	void testExtension() {
+		final JdbcDumper dumper = new JdbcDumper();
+		assertEquals("jdbc", dumper.getScheme());
+		assertEquals("x.sql.gz", dumper.getExtensionBuilder().apply("x"));
+		assertEquals("x.sql.gz", dumper.getExtensionBuilder(DB).apply("x"));
+		assertEquals("x.csv.gz", dumper.getExtensionBuilder(DB+"?format=csv").apply("x"));
+		assertEquals("x.csv", dumper.getExtensionBuilder(DB+"?format=csv&compression=none").apply("x"));
+	}
+}
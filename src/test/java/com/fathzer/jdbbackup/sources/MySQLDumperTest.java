@@ -2,9 +2,32 @@ package com.fathzer.jdbbackup.sources;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fathzer.jdbbackup.BackupManifest;
+import com.fathzer.jdbbackup.StagingStore;
 
 class MySQLDumperTest {
 	private static class MySQLObservableDumper extends MySQLDumper {
@@ -13,6 +36,33 @@ class MySQLDumperTest {
 			return super.getCommand(params);
 		}
 	}
+
+	/** A dumper that runs {@link FakeMySQL} instead of mysql and mysqldump. */
+	private static class FakeMySQLDumper extends MySQLDumper {
+		private boolean chatty;
+
+		@Override
+		protected List<String> getCommand(String source) {
+			final List<String> command = super.getCommand(source);
+			// Keep only the tables, they follow the database name
+			return fake(command.subList(command.indexOf("db")+1, command.size()));
+		}
+
+		@Override
+		protected List<String> getTablesCommand(String source) {
+			super.getTablesCommand(source);
+			return fake(chatty ? Arrays.asList("tables", "chatty") : Collections.singletonList("tables"));
+		}
+
+		private List<String> fake(List<String> args) {
+			final List<String> command = new ArrayList<>(Arrays.asList("java","-cp","./target/classes"+File.pathSeparator+"./target/test-classes",FakeMySQL.class.getName()));
+			command.addAll(args);
+			return command;
+		}
+	}
+
+	@TempDir
+	Path dir;
 	
 	@Test
 	void test() {
@@ -37,6 +87,119 @@ class MySQLDumperTest {
 		assertThrows(IllegalArgumentException.class, () -> d.getCommand(wrongProtocol));
 		
 		assertEquals("x.sql.gz", new MySQLDumper().getExtensionBuilder().apply("x"));
+
+		command = d.getCommand("mysql://u:p@host/db?tables=a, b");
+		assertEquals(Arrays.asList("db","a","b"), command.subList(command.size()-3, command.size()));
+	}
+
+	@Test
+	void testOptions() throws IOException {
+		final MySQLObservableDumper d = new MySQLObservableDumper();
+		List<String> command = d.getCommand("mysql://u:p@host/db?singleTransaction&quick=false&extendedInsert=TRUE&networkCompression=true&netBufferLength=1048576&excludeTables=logs,sessions");
+		assertEquals(Arrays.asList("--add-drop-database","--single-transaction","--skip-quick","--extended-insert","--compress","--net-buffer-length=1048576",
+				"--ignore-table=db.logs","--ignore-table=db.sessions","db"), command.subList(5, command.size()));
+		command = d.getCommand("mysql://u:p@host/db?lockTables=false&singleTransaction=true&threads=2");
+		assertEquals(Arrays.asList("--add-drop-database","--single-transaction","--skip-lock-tables","db"), command.subList(5, command.size()));
+
+		// Unknown parameters and invalid values
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("mysql://u:p@host/db?unknown=1"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("mysql://u:p@host/db?quick=yes"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("mysql://u:p@host/db?netBufferLength=1024"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("mysql://u:p@host/db?netBufferLength=1M"));
+		// Invalid combinations
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("mysql://u:p@host/db?singleTransaction&lockTables"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("mysql://u:p@host/db?extendedInsert=false&netBufferLength=65536"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("mysql://u:p@host/db?tables=a&excludeTables=b"));
+
+		// Excluded tables are removed from the parts, other options are passed to every part
+		final FakeMySQLDumper fake = new FakeMySQLDumper();
+		assertEquals(Arrays.asList("mysql://u:p@host/db?quick=true&tables=big", "mysql://u:p@host/db?quick=true&tables=medium,tiny"),
+				fake.getParts("mysql://u:p@host/db?threads=2&quick=true&excludeTables=small,v,slow,fail"));
+		assertThrows(IllegalArgumentException.class, () -> fake.getParts("mysql://u:p@host/db?threads=2&singleTransaction&lockTables"));
+	}
+
+	@Test
+	void testParallel() throws IOException {
+		final FakeMySQLDumper d = new FakeMySQLDumper();
+		final String source = "mysql://u:p@host/db?threads=2&tables=big,medium,small,tiny,v";
+		// Tables are balanced by size, views are dumped at the end
+		assertEquals(Arrays.asList("mysql://u:p@host/db?tables=big,tiny", "mysql://u:p@host/db?tables=medium,small", "mysql://u:p@host/db?tables=v"), d.getParts(source));
+		assertEquals(Collections.singletonList("mysql://u:p@host/db?tables=big"), d.getParts("mysql://u:p@host/db?threads=1&tables=big"));
+		assertThrows(IllegalArgumentException.class, () -> d.getParts("mysql://u:p@host/db?threads=0"));
+		assertThrows(IllegalArgumentException.class, () -> d.getParts("mysql://u:p@host/db?threads=2&tables=big,unknown"));
+
+		final File file = dir.resolve("dump.sql.gz").toFile();
+		final BackupManifest manifest = new BackupManifest("SHA-256");
+		d.save(source, file, manifest);
+		final List<String> expected = Arrays.asList("-- Dump split in 3 parts, restore them in this order:", "-- 1: big,tiny", "-- 2: medium,small", "-- 3: v",
+				"INSERT INTO big VALUES (1);", "INSERT INTO tiny VALUES (1);", "INSERT INTO medium VALUES (1);", "INSERT INTO small VALUES (1);", "INSERT INTO v VALUES (1);");
+		// A multi members gzip file is decompressed as a single stream
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+			assertEquals(expected, reader.lines().collect(Collectors.toList()));
+		}
+		assertEquals(file.length(), manifest.getSize());
+		// The index lines end with \n, the dump lines with the platform line separator
+		final int eol = System.lineSeparator().length();
+		assertEquals(expected.subList(0, 4).stream().mapToInt(line -> line.length()+1).sum()+expected.subList(4, 9).stream().mapToInt(line -> line.length()+eol).sum(), manifest.getRawSize());
+		assertNull(manifest.getRawDigest());
+		assertNotNull(manifest.getDigest());
+		// Temporary files are deleted
+		try (Stream<Path> files = Files.list(dir)) {
+			assertEquals(Collections.singletonList(file.toPath()), files.collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	@Timeout(30)
+	void testChattyTables() throws IOException {
+		// The warnings of mysql do not block the process
+		final FakeMySQLDumper d = new FakeMySQLDumper();
+		d.chatty = true;
+		assertEquals(Arrays.asList("mysql://u:p@host/db?tables=big", "mysql://u:p@host/db?tables=medium,tiny"),
+				d.getParts("mysql://u:p@host/db?threads=2&excludeTables=small,v,slow,fail"));
+	}
+
+	@Test
+	void testParallelStream() throws IOException {
+		final FakeMySQLDumper d = new FakeMySQLDumper();
+		final StagingStore store = new StagingStore();
+		store.setDirectory(dir);
+		d.setStagingStore(store);
+		final List<String> partFiles = new ArrayList<>();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final OutputStream out = new FilterOutputStream(bytes) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (partFiles.isEmpty()) {
+					// Parts are compressed in the staging store directory before being written
+					try (Stream<Path> files = Files.list(dir)) {
+						files.map(f -> f.getFileName().toString()).filter(f -> f.endsWith(".part")).forEach(partFiles::add);
+					}
+				}
+				out.write(b, off, len);
+			}
+		};
+		d.save("mysql://u:p@host/db?threads=2&tables=big,medium", out);
+		assertEquals(2, partFiles.size());
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())), StandardCharsets.UTF_8))) {
+			assertEquals(Arrays.asList("INSERT INTO big VALUES (1);", "INSERT INTO medium VALUES (1);"), reader.lines().skip(3).collect(Collectors.toList()));
+		}
+		// Temporary files are deleted
+		try (Stream<Path> files = Files.list(dir)) {
+			assertEquals(0, files.count());
+		}
+	}
+
+	@Test
+	@Timeout(30)
+	void testParallelFailure() throws IOException {
+		// The failure of a part kills the never ending one
+		final FakeMySQLDumper d = new FakeMySQLDumper();
+		final File file = dir.resolve("dump.sql.gz").toFile();
+		assertThrows(IOException.class, () -> d.save("mysql://u:p@host/db?threads=2&tables=slow,fail", file));
+		try (Stream<Path> files = Files.list(dir)) {
+			assertEquals(0, files.filter(f -> f.getFileName().toString().endsWith(".part")).count());
+		}
 	}
 	
 	private void expect(List<String> command, String user, String pwd, String host, int port, String db) {
@@ -0,0 +1,82 @@
+package com.fathzer.jdbbackup.sources;
+
+import static com.fathzer.jdbbackup.sources.CompressorTest.assertContent;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ParallelCompressionTest {
+	private static final long SIZE = 16L*1024*1024;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void testContent() throws IOException {
+		final File file = dir.resolve("dump.gz").toFile();
+		for (long size : new long[] {0, 1, 1000, 32767, 32768, 32769, 100000, 3000000}) {
+			for (boolean direct : new boolean[] {false, true}) {
+				final ProcessContext context = new ProcessContext(new FakeProcess(new DumpGenerator(size)));
+				final Compressor compressor = new Compressor(file, context);
+				compressor.setBuffers(1024, 2, direct);
+				compressor.setParallel(3, 32768);
+				compressor.run();
+				assertNull(compressor.getError());
+				assertContent(size, file);
+				assertGunzip(file);
+			}
+		}
+	}
+
+	@Test
+	void testReadError() {
+		final FakeProcess process = new FakeProcess(new CompressorTest.FailingInputStream(new DumpGenerator(SIZE), 1000000));
+		final Compressor compressor = new Compressor(dir.resolve("dump.gz").toFile(), new ProcessContext(process));
+		compressor.setParallel(2, 10000);
+		compressor.run();
+		assertNotNull(compressor.getError());
+		assertTrue(process.isDestroyed());
+	}
+
+	@Test
+	void testWriteError() {
+		final FakeProcess process = new FakeProcess(new DumpGenerator(SIZE));
+		final Compressor compressor = new Compressor(dir.resolve("missing/dump.gz").toFile(), new ProcessContext(process));
+		compressor.setParallel(2, 10000);
+		compressor.run();
+		assertNotNull(compressor.getError());
+		assertTrue(process.isDestroyed());
+	}
+
+	@Test
+	void testSettings() {
+		final FakeJavaSource source = new FakeJavaSource();
+		assertThrows(IllegalArgumentException.class, () -> source.setParallelCompression(0, 1000));
+		assertThrows(IllegalArgumentException.class, () -> source.setParallelCompression(2, 0));
+		assertThrows(IllegalArgumentException.class, () -> source.setBuffers(0, 1, false));
+		assertThrows(IllegalArgumentException.class, () -> source.setBuffers(1000, 0, false));
+	}
+
+	/** Checks the file is readable by the gzip command, if it is installed. */
+	private static void assertGunzip(File file) throws IOException {
+		final Process process;
+		try {
+			process = new ProcessBuilder("gzip", "-t", file.getAbsolutePath()).redirectOutput(Redirect.DISCARD).redirectError(Redirect.DISCARD).start();
+		} catch (IOException e) {
+			// gzip is not available
+			return;
+		}
+		try {
+			assertEquals(0, process.waitFor(), "gzip failed to test "+file);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+}
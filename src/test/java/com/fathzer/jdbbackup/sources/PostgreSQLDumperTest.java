@@ -0,0 +1,165 @@
+package com.fathzer.jdbbackup.sources;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fathzer.jdbbackup.StagingStore;
+
+class PostgreSQLDumperTest {
+	private static final String SOURCE = "postgresql://u:s3cr:et@host/db";
+
+	@TempDir
+	Path dir;
+
+	/** A dumper that runs {@link FakePgDump} instead of pg_dump. */
+	private static class FakePgDumper extends PostgreSQLDumper {
+		private final String arg;
+
+		private FakePgDumper(String arg) {
+			this.arg = arg;
+		}
+
+		@Override
+		protected List<String> getCommand(String source) {
+			// The command is executed in a temporary directory, the class path should be absolute
+			super.getCommand(source);
+			final String classPath = new File("target/classes").getAbsolutePath()+File.pathSeparator+new File("target/test-classes").getAbsolutePath();
+			return Arrays.asList("java","-cp",classPath,FakePgDump.class.getName(),arg);
+		}
+	}
+
+	@Test
+	void testCommand() {
+		final PostgreSQLDumper d = new PostgreSQLDumper();
+		assertEquals("postgresql", d.getScheme());
+		List<String> command = d.getCommand(SOURCE+"?threads=4");
+		assertEquals("pg_dump", command.get(0));
+		assertTrue(command.containsAll(Arrays.asList("--host=host","--port=5432","--dbname=db","--format=directory","--file=dump","--jobs=4")), command.toString());
+		// Credentials are not on the command line
+		assertFalse(command.stream().anyMatch(s -> s.contains("s3cr") || s.contains("=u")), command.toString());
+		assertEquals(Collections.singletonMap("PGUSER", "u"), d.getEnvironment(SOURCE));
+		assertEquals("*:*:*:u:s3cr\\:et\n", d.getPasswordFile(SOURCE));
+		command = d.getCommand("postgresql://u:p@host:5433/db");
+		assertTrue(command.contains("--port=5433"));
+		assertFalse(command.stream().anyMatch(s -> s.startsWith("--jobs")));
+
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("postgresql://u@host/db"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("postgresql://u:p@host"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand("mysql://u:p@host/db"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand(SOURCE+"?threads=0"));
+		assertThrows(IllegalArgumentException.class, () -> d.getCommand(SOURCE+"?unknown=1"));
+
+		assertEquals("x.tar.gz", d.getExtensionBuilder().apply("x"));
+		assertEquals("x.tar", d.getExtensionBuilder(SOURCE+"?compression=none").apply("x"));
+	}
+
+	@Test
+	void testSave() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new FakePgDumper("42").save(SOURCE+"?threads=2", out);
+		final byte[] archive;
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			archive = in.readAllBytes();
+		}
+		assertEquals(0, archive.length%(20*512));
+		final Map<String, byte[]> entries = untar(archive);
+		assertEquals(Arrays.asList("dump/", "dump/3000.dat", "dump/toc.dat"), Arrays.asList(entries.keySet().toArray()));
+		assertArrayEquals(FakePgDump.getData(42), entries.get("dump/3000.dat"));
+		final String[] toc = new String(entries.get("dump/toc.dat"), StandardCharsets.UTF_8).split("\n");
+		assertEquals("u", toc[0]);
+		assertEquals("*:*:*:u:s3cr\\:et", toc[1]);
+		// The working directory is deleted
+		assertFalse(Files.exists(Paths.get(toc[2])));
+	}
+
+	@Test
+	void testStagingDirectory() throws IOException {
+		final FakePgDumper d = new FakePgDumper("42");
+		final StagingStore store = new StagingStore();
+		store.setDirectory(dir);
+		d.setStagingStore(store);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		d.save(SOURCE+"?compression=none", out);
+		final Map<String, byte[]> entries = untar(out.toByteArray());
+		final String[] toc = new String(entries.get("dump/toc.dat"), StandardCharsets.UTF_8).split("\n");
+		// The working directory is created in the staging directory
+		assertEquals(dir.toRealPath(), Paths.get(toc[2]).getParent().toRealPath());
+		assertFalse(Files.exists(Paths.get(toc[2])));
+	}
+
+	@Test
+	void testFailure() {
+		final FakePgDumper d = new FakePgDumper("fail");
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final IOException e = assertThrows(IOException.class, () -> d.save(SOURCE, out));
+		assertTrue(e.getMessage().contains("3"), e.getMessage());
+	}
+
+	@Test
+	void testLargeSizeHeader() throws IOException {
+		final long size = 10L*1024*1024*1024;
+		final byte[] header = TarStream.header("dump/big.dat", size, false, 0);
+		// Sizes that do not fit in 11 octal digits are encoded in base 256
+		assertEquals((byte)0x80, header[124]);
+		long decoded = 0;
+		for (int i = 128; i < 136; i++) {
+			decoded = (decoded<<8) | (header[i] & 0xFF);
+		}
+		assertEquals(size, decoded);
+		final String longName = "dump/"+String.join("", Collections.nCopies(12, "directory/"))+"file.dat";
+		final byte[] longHeader = TarStream.header(longName, 0, false, 0);
+		assertEquals("file.dat", string(longHeader, 0, 100));
+		assertEquals(longName.substring(0, longName.length()-"/file.dat".length()), string(longHeader, 345, 155));
+		assertThrows(IOException.class, () -> TarStream.header(String.join("", Collections.nCopies(30, "directory/")), 0, true, 0));
+	}
+
+	private static String string(byte[] header, int offset, int length) {
+		int end = offset;
+		while (end<offset+length && header[end]!=0) {
+			end++;
+		}
+		return new String(header, offset, end-offset, StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, byte[]> untar(byte[] archive) throws IOException {
+		final Map<String, byte[]> entries = new LinkedHashMap<>();
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(archive));
+		final byte[] header = new byte[512];
+		while (true) {
+			in.readFully(header);
+			if (header[0]==0) {
+				return entries;
+			}
+			assertEquals("ustar", string(header, 257, 6));
+			long checksum = 0;
+			for (int i = 0; i < header.length; i++) {
+				checksum += i>=148 && i<156 ? ' ' : header[i] & 0xFF;
+			}
+			assertEquals(checksum, Long.parseLong(string(header, 148, 6), 8));
+			final int size = Integer.parseInt(string(header, 124, 11), 8);
+			final byte[] content = new byte[size];
+			in.readFully(content);
+			in.skipBytes((512-size%512)%512);
+			entries.put(string(header, 0, 100), content);
+		}
+	}
+}
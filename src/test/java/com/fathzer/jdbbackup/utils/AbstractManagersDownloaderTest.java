@@ -9,11 +9,18 @@ import java.net.http.HttpRequest;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -38,6 +45,8 @@ class AbstractManagersDownloaderTest {
 	private static final String CUSTOM_HEADER = "myHeader";
 	private static final String REPOSITORY_HEADER_VALUE = "repository";
 	private static final String JAR_HEADER_VALUE = "jar";
+	private static final String REPOSITORY_ETAG = "\"r1\"";
+	private static final String JAR_ETAG = "\"j1\"";
 
 	private final class TestPluginDownloader extends AbstractManagersDownloader {
 		private final Map<String,URI> map;
@@ -94,11 +103,11 @@ class AbstractManagersDownloaderTest {
 		    public MockResponse dispatch (RecordedRequest request) throws InterruptedException {
 		        switch (request.getPath()) {
 		            case REPOSITORY_PATH:
-		                return new MockResponse().setResponseCode(200).setBody(REPOSITORY_OK_CONTENT);
+		                return conditional(request, REPOSITORY_ETAG, REPOSITORY_OK_CONTENT);
 		            case "/repositoryKo":
 		                return new MockResponse().setResponseCode(200).setBody("repositoryKo");
 		            case PLUGINS_JAR_URI_PATH:
-		                return new MockResponse().setResponseCode(200).setBody(FAKE_JAR_FILE_CONTENT);
+		                return conditional(request, JAR_ETAG, FAKE_JAR_FILE_CONTENT);
 		        }
 		        return new MockResponse().setResponseCode(404);
 		    }
@@ -110,6 +119,13 @@ class AbstractManagersDownloaderTest {
 		previousLogLevel = LogUtils.setLevel((SimpleLogger) LoggerFactory.getLogger(AbstractManagersDownloader.class), "off");
 	}
 	
+	private static MockResponse conditional(RecordedRequest request, String etag, String body) {
+		if (etag.equals(request.getHeader("If-None-Match"))) {
+			return new MockResponse().setResponseCode(304).setHeader("ETag", etag);
+		}
+		return new MockResponse().setResponseCode(200).setHeader("ETag", etag).setBody(body);
+	}
+	
 	@AfterAll
 	static void cleanUp() throws IOException {
 		LogUtils.setLevel((SimpleLogger) LoggerFactory.getLogger(AbstractManagersDownloader.class), previousLogLevel);
@@ -181,6 +197,90 @@ class AbstractManagersDownloaderTest {
 		assertThrows(IOException.class, ()->downloader.downloadFile(missingURI, path2));
 	}
 
+	@Test
+	void testCache(@TempDir Path dir) throws Exception {
+		clearRequests();
+		final Path jar = new TestPluginDownloader(server.url(REPOSITORY_PATH).uri(), dir).download(VALID_PLUGIN_KEY).get(VALID_PLUGIN_KEY);
+		assertEquals(FAKE_JAR_FILE_CONTENT, Files.readAllLines(jar).get(0));
+		List<RecordedRequest> requests = takeRequests();
+		assertEquals(2, requests.size());
+		assertNull(requests.get(0).getHeader("If-None-Match"));
+
+		// Restart => Registry and jar are revalidated
+		final TestPluginDownloader downloader = new TestPluginDownloader(server.url(REPOSITORY_PATH).uri(), dir);
+		assertEquals(Collections.singletonMap(VALID_PLUGIN_KEY, jar), downloader.download(VALID_PLUGIN_KEY));
+		requests = takeRequests();
+		assertEquals(Arrays.asList(REPOSITORY_PATH, PLUGINS_JAR_URI_PATH), requests.stream().map(RecordedRequest::getPath).collect(Collectors.toList()));
+		assertEquals(REPOSITORY_ETAG, requests.get(0).getHeader("If-None-Match"));
+		assertEquals(JAR_ETAG, requests.get(1).getHeader("If-None-Match"));
+		assertEquals(FAKE_JAR_FILE_CONTENT, Files.readAllLines(jar).get(0));
+
+		// Warm start => no request at all
+		final TestPluginDownloader warm = new TestPluginDownloader(server.url(REPOSITORY_PATH).uri(), dir);
+		assertThrows(IllegalArgumentException.class, () -> warm.setCacheMaxAge(Duration.ofHours(-1)));
+		warm.setCacheMaxAge(Duration.ofHours(1));
+		assertEquals(new HashSet<>(Arrays.asList(VALID_PLUGIN_KEY,MISSING_JAR_PLUGIN_KEY)), warm.getURIMap().keySet());
+		assertEquals(jar, warm.download(VALID_PLUGIN_KEY).get(VALID_PLUGIN_KEY));
+		assertTrue(takeRequests().isEmpty());
+		
+		// Corrupted jar is downloaded again
+		Files.write(jar, "corrupted".getBytes(StandardCharsets.UTF_8));
+		assertEquals(jar, warm.download(VALID_PLUGIN_KEY).get(VALID_PLUGIN_KEY));
+		requests = takeRequests();
+		assertEquals(1, requests.size());
+		assertNull(requests.get(0).getHeader("If-None-Match"));
+		assertEquals(FAKE_JAR_FILE_CONTENT, Files.readAllLines(jar).get(0));
+		
+		// Clean deletes the cache
+		assertTrue(warm.clean());
+		warm.download(VALID_PLUGIN_KEY);
+		assertNull(takeRequests().get(0).getHeader("If-None-Match"));
+	}
+
+	@Test
+	void testParallel(@TempDir Path dir) throws Exception {
+		final TestPluginDownloader downloader = new TestPluginDownloader(server.url(REPOSITORY_PATH).uri(), dir);
+		assertThrows(IllegalArgumentException.class, () -> downloader.setDownloadThreads(0));
+		downloader.setDownloadThreads(2);
+		// A missing jar does not prevent the others to be downloaded
+		assertThrows(IOException.class, () -> downloader.download(VALID_PLUGIN_KEY, MISSING_JAR_PLUGIN_KEY));
+		final Path jar = downloader.getDownloadTarget(server.url(PLUGINS_JAR_URI_PATH).uri());
+		assertEquals(FAKE_JAR_FILE_CONTENT, Files.readAllLines(jar).get(0));
+		assertFalse(Files.exists(downloader.getDownloadTarget(server.url("/plugins/missing.jar").uri())));
+	}
+
+	@Test
+	void testChecksum(@TempDir Path dir) throws Exception {
+		final TestPluginDownloader downloader = new TestPluginDownloader(server.url(REPOSITORY_PATH).uri(), dir);
+		final URI uri = server.url(PLUGINS_JAR_URI_PATH).uri();
+		final Path path = downloader.getDownloadTarget(uri);
+		final URI wrong = URI.create(uri+"#sha256=0123456789abcdef");
+		assertThrows(IOException.class, () -> downloader.downloadFile(wrong, path));
+		// The jar was not written in the local directory
+		try (Stream<Path> files = Files.list(dir)) {
+			assertFalse(files.anyMatch(p -> !p.getFileName().toString().startsWith(".")));
+		}
+
+		final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		final StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest(FAKE_JAR_FILE_CONTENT.getBytes(StandardCharsets.UTF_8))) {
+			hex.append(String.format("%02X", b));
+		}
+		clearRequests();
+		downloader.downloadFile(URI.create(uri+"#sha256="+hex), path);
+		assertEquals(FAKE_JAR_FILE_CONTENT, Files.readAllLines(path).get(0));
+		// The fragment is not sent to the server
+		assertEquals(PLUGINS_JAR_URI_PATH, server.takeRequest().getPath());
+	}
+
+	private List<RecordedRequest> takeRequests() throws InterruptedException {
+		final List<RecordedRequest> result = new ArrayList<>();
+		for (RecordedRequest request = server.takeRequest(100, TimeUnit.MILLISECONDS); request!=null; request = server.takeRequest(100, TimeUnit.MILLISECONDS)) {
+			result.add(request);
+		}
+		return result;
+	}
+
 	private void clearRequests() throws InterruptedException {
 		do {} while(server.takeRequest(100, TimeUnit.MILLISECONDS)!=null);
 	}
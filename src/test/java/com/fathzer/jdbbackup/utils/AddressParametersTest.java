@@ -0,0 +1,34 @@
+package com.fathzer.jdbbackup.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class AddressParametersTest {
+
+	@Test
+	void test() {
+		AddressParameters p = new AddressParameters("mysql://u:p@host/db");
+		assertEquals("mysql://u:p@host/db", p.getAddress());
+		assertTrue(p.getParameters().isEmpty());
+		assertEquals("mysql://u:p@host/db", p.toString());
+
+		p = new AddressParameters("mysql://{f=a?b}@host/db?compression=gzip:9&quick&&x=");
+		assertEquals("mysql://{f=a?b}@host/db", p.getAddress());
+		final Map<String, String> params = p.getParameters();
+		assertEquals(Arrays.asList("compression", "quick", "x"), Arrays.asList(params.keySet().toArray()));
+		assertEquals("gzip:9", params.get("compression"));
+		assertEquals("", params.get("quick"));
+		assertEquals("mysql://{f=a?b}@host/db?compression=gzip:9&quick&x", p.toString());
+		params.remove("compression");
+		assertEquals("mysql://{f=a?b}@host/db?quick&x", p.toString());
+		params.clear();
+		assertEquals("mysql://{f=a?b}@host/db", p.toString());
+
+		assertThrows(IllegalArgumentException.class, () -> new AddressParameters("x://a?b=1&b=2"));
+		assertThrows(IllegalArgumentException.class, () -> new AddressParameters("x://a?=2"));
+	}
+}
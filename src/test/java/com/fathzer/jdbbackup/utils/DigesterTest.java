@@ -0,0 +1,46 @@
+package com.fathzer.jdbbackup.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class DigesterTest {
+	private static final byte[] DATA = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+	@Test
+	void testChecksums() {
+		assertEquals("e3069283", digest(Digester.get(Digester.CRC32C)));
+		assertEquals("cbf43926", digest(Digester.get("crc32")));
+		assertEquals("091e01de", digest(Digester.get("Adler32")));
+		assertEquals("CRC32", Digester.get("crc32").getAlgorithm());
+	}
+
+	@Test
+	void testMessageDigest() {
+		final Digester digester = Digester.get("SHA-256");
+		assertEquals("SHA-256", digester.getAlgorithm());
+		final ByteBuffer buffer = ByteBuffer.wrap(DATA);
+		digester.update(buffer);
+		// The buffer position is not changed
+		assertEquals(0, buffer.position());
+		assertEquals("15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225", digester.getValue());
+	}
+
+	@Test
+	void testUnknown() {
+		assertThrows(IllegalArgumentException.class, () -> Digester.get("unknown"));
+		assertThrows(IllegalArgumentException.class, () -> Digester.get(null));
+	}
+
+	private static String digest(Digester digester) {
+		digester.update(DATA, 0, 4);
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(DATA.length-4);
+		buffer.put(DATA, 4, DATA.length-4).flip();
+		digester.update(buffer);
+		assertEquals(0, buffer.position());
+		return digester.getValue();
+	}
+}
@@ -0,0 +1,56 @@
+package com.fathzer.jdbbackup.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileChannelInputStreamTest {
+	@TempDir
+	Path dir;
+
+	@Test
+	void test() throws IOException {
+		final byte[] data = new byte[10000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)i;
+		}
+		final Path file = dir.resolve("data");
+		Files.write(file, data);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final InputStream in1 = new FileChannelInputStream(channel, 0, data.length);
+			final FileChannelInputStream in2 = new FileChannelInputStream(channel, 100, 50);
+			// Streams on the same channel are independent
+			assertEquals(0, in1.read());
+			assertEquals(100, in2.read());
+			assertEquals(1, in1.read());
+			assertEquals(10, in2.skip(10));
+			assertEquals(39, in2.available());
+			assertEquals(111, in2.getPosition());
+			assertEquals(39, in2.readAllBytes().length);
+			assertEquals(-1, in2.read());
+			assertEquals(0, in2.getRemaining());
+			assertEquals(0, in2.skip(10));
+			final byte[] rest = in1.readAllBytes();
+			assertEquals(data.length-2, rest.length);
+			assertEquals(data[data.length-1], rest[rest.length-1]);
+			// Closing the stream does not close the channel
+			in1.close();
+			assertTrue(channel.isOpen());
+			
+			// Size bigger than the file
+			final FileChannelInputStream in3 = new FileChannelInputStream(channel, 9990, 100);
+			assertEquals(10, in3.readAllBytes().length);
+			assertEquals(-1, in3.read());
+		}
+		assertThrows(IllegalArgumentException.class, () -> new FileChannelInputStream(null, -1, 10));
+		assertThrows(IllegalArgumentException.class, () -> new FileChannelInputStream(null, 0, -1));
+	}
+}
@@ -0,0 +1,215 @@
+package com.fathzer.jdbbackup.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PluginRegistryTest {
+	public interface Named {
+		String getName();
+	}
+
+	public static class Lazy implements Named {
+		private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+		public Lazy() {
+			INSTANCES.incrementAndGet();
+		}
+
+		@Override
+		public String getName() {
+			return "lazy";
+		}
+	}
+
+	public static class Other implements Named {
+		@Override
+		public String getName() {
+			return "other";
+		}
+	}
+
+	public static class OtherReplacement implements Named {
+		@Override
+		public String getName() {
+			return "other";
+		}
+	}
+
+	public static class Eager implements Named {
+		@Override
+		public String getName() {
+			return "eager";
+		}
+	}
+
+	public static class Failing implements Named {
+		public Failing() {
+			throw new IllegalStateException("Can't be instantiated");
+		}
+
+		@Override
+		public String getName() {
+			return "failing";
+		}
+	}
+
+	public static class Slow implements Named {
+		public Slow() throws InterruptedException {
+			Thread.sleep(200);
+		}
+
+		@Override
+		public String getName() {
+			return "slow";
+		}
+	}
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void test() throws IOException {
+		final Path indexed = dir.resolve("indexed");
+		writeServices(indexed, "# A comment", Lazy.class.getName(), Other.class.getName()+" # Another one", "");
+		final Map<String, String> index = PluginIndex.build(indexed, getClass().getClassLoader(), Named.class, Named::getName);
+		assertEquals(Map.of(Named.class.getName()+".lazy", Lazy.class.getName(), Named.class.getName()+".other", Other.class.getName()), index);
+		final StringBuilder content = new StringBuilder();
+		index.forEach((k,v) -> content.append(k).append('=').append(v).append('\n'));
+		// An index entry whose plugin does not have the right scheme
+		content.append(Named.class.getName()).append(".stale=").append(Eager.class.getName()).append('\n');
+		Files.createDirectories(indexed.resolve(PluginIndex.RESOURCE).getParent());
+		Files.writeString(indexed.resolve(PluginIndex.RESOURCE), content);
+
+		final Path scanned = dir.resolve("scanned");
+		writeServices(scanned, Eager.class.getName(), Failing.class.getName());
+
+		Lazy.INSTANCES.set(0);
+		try (URLClassLoader loader = new URLClassLoader(new URL[] {indexed.toUri().toURL(), scanned.toUri().toURL()}, getClass().getClassLoader())) {
+			final PluginRegistry<Named> registry = PluginRegistry.load(loader, Named.class, Named::getName);
+			// Plugins with no index are instantiated, failing ones are ignored
+			assertTrue(registry.isInstantiated("eager"));
+			assertFalse(registry.containsKey("failing"));
+			// Indexed plugins are not
+			assertEquals(0, Lazy.INSTANCES.get());
+			assertFalse(registry.isInstantiated("lazy"));
+			assertTrue(registry.containsKey("lazy"));
+			assertEquals(4, registry.size());
+
+			final Named lazy = registry.get("lazy");
+			assertEquals("lazy", lazy.getName());
+			assertSame(lazy, registry.get("lazy"));
+			assertEquals(1, Lazy.INSTANCES.get());
+			assertNull(registry.get("unknown"));
+			assertNull(registry.get(null));
+			assertNull(registry.get("stale"));
+
+			final Named replacement = () -> "other";
+			assertNull(registry.put("other", replacement));
+			assertSame(replacement, registry.get("other"));
+			assertEquals(3, registry.size());
+			assertEquals(3, registry.entrySet().size());
+			assertSame(lazy, registry.remove("lazy"));
+			assertFalse(registry.containsKey("lazy"));
+		}
+	}
+
+	@Test
+	void testSameScheme() throws IOException {
+		final Path indexed = dir.resolve("indexed");
+		writeServices(indexed, Lazy.class.getName(), Other.class.getName());
+		writeIndex(indexed);
+		final Path scanned = dir.resolve("scanned");
+		writeServices(scanned, OtherReplacement.class.getName());
+
+		// The scanned jar is after the indexed one, it wins
+		try (URLClassLoader loader = new URLClassLoader(new URL[] {indexed.toUri().toURL(), scanned.toUri().toURL()}, getClass().getClassLoader())) {
+			final PluginRegistry<Named> registry = PluginRegistry.load(loader, Named.class, Named::getName);
+			assertEquals(2, registry.size());
+			assertTrue(registry.get("other") instanceof OtherReplacement);
+			assertFalse(registry.isInstantiated("lazy"));
+		}
+		// The indexed jar is after the scanned one, it wins
+		try (URLClassLoader loader = new URLClassLoader(new URL[] {scanned.toUri().toURL(), indexed.toUri().toURL()}, getClass().getClassLoader())) {
+			final PluginRegistry<Named> registry = PluginRegistry.load(loader, Named.class, Named::getName);
+			assertEquals(2, registry.size());
+			assertFalse(registry.isInstantiated("other"));
+			assertTrue(registry.get("other") instanceof Other);
+		}
+	}
+
+	@Test
+	void testConcurrentFirstLookup() throws Exception {
+		writeServices(dir, Slow.class.getName());
+		writeIndex(dir);
+
+		try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toUri().toURL()}, getClass().getClassLoader())) {
+			final PluginRegistry<Named> registry = PluginRegistry.load(loader, Named.class, Named::getName);
+			assertFalse(registry.isInstantiated("slow"));
+			final int threads = 8;
+			final ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				final CountDownLatch start = new CountDownLatch(1);
+				final List<Future<Named>> results = new ArrayList<>();
+				for (int i = 0; i < threads; i++) {
+					final int rank = i;
+					results.add(executor.submit(() -> {
+						start.await();
+						if (rank>0) {
+							// Threads that lookup the plugin while the first one instantiates it should find it
+							Thread.sleep(50);
+						}
+						return rank%2==0 || registry.containsKey("slow") ? registry.get("slow") : null;
+					}));
+				}
+				start.countDown();
+				final Named first = results.get(0).get();
+				assertNotNull(first);
+				for (Future<Named> result : results) {
+					assertSame(first, result.get());
+				}
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+	@Test
+	void testReadServices() throws IOException {
+		try (InputStream in = new ByteArrayInputStream("a.B\n#comment\n c.D # test\n\na.B\n".getBytes())) {
+			assertEquals(Arrays.asList("a.B", "c.D"), PluginIndex.readServices(in));
+		}
+	}
+
+	private void writeIndex(Path root) throws IOException {
+		final Map<String, String> index = PluginIndex.build(root, getClass().getClassLoader(), Named.class, Named::getName);
+		final StringBuilder content = new StringBuilder();
+		index.forEach((k,v) -> content.append(k).append('=').append(v).append('\n'));
+		Files.createDirectories(root.resolve(PluginIndex.RESOURCE).getParent());
+		Files.writeString(root.resolve(PluginIndex.RESOURCE), content);
+	}
+
+	private static void writeServices(Path root, String... lines) throws IOException {
+		final Path file = root.resolve(PluginIndex.SERVICES+Named.class.getName());
+		Files.createDirectories(file.getParent());
+		Files.write(file, Arrays.asList(lines));
+	}
+}
@@ -0,0 +1,84 @@
+package com.fathzer.jdbbackup.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+	private static final int RATE = 1000000;
+
+	@Test
+	void testParse() {
+		assertEquals(512, RateLimiter.parseRate("512"));
+		assertEquals(1024, RateLimiter.parseRate("1k"));
+		assertEquals(10L*1024*1024, RateLimiter.parseRate("10M"));
+		assertEquals(2L*1024*1024*1024, RateLimiter.parseRate(" 2g "));
+		for (String invalid : new String[] {"", "k", "x", "1t", "0", "-1k", "99999999999g"}) {
+			assertThrows(IllegalArgumentException.class, () -> RateLimiter.parseRate(invalid), invalid);
+		}
+		assertThrows(IllegalArgumentException.class, () -> new RateLimiter(0));
+		assertThrows(IllegalArgumentException.class, () -> new RateLimiter(RATE).setRate(-1));
+	}
+
+	@Test
+	void testLimit() throws IOException {
+		final RateLimiter limiter = new RateLimiter(RateLimiter.UNLIMITED);
+		assertTrue(read(limiter, 100*RATE)<1000);
+		// The bucket holds one second of traffic => 1.5s of traffic lasts at least 0.5s
+		limiter.setRate(RATE);
+		assertEquals(RATE, limiter.getRate());
+		final long time = read(limiter, 3*RATE/2);
+		assertTrue(time>=450 && time<5000, "Time is "+time);
+	}
+
+	@Test
+	void testParent() throws Exception {
+		final RateLimiter global = new RateLimiter(RATE);
+		final RateLimiter child = new RateLimiter(RateLimiter.UNLIMITED, global);
+		assertSame(global, child.getParent());
+		final long start = System.nanoTime();
+		// The children share the global budget
+		final CompletableFuture<Long> other = CompletableFuture.supplyAsync(() -> {
+			try {
+				return read(new RateLimiter(10*RATE, global), 3*RATE/4);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		read(child, 3*RATE/4);
+		other.get(10, TimeUnit.SECONDS);
+		final long time = (System.nanoTime()-start)/1000000;
+		assertTrue(time>=450 && time<5000, "Time is "+time);
+	}
+
+	@Test
+	void testInterrupted() {
+		final RateLimiter limiter = new RateLimiter(1000);
+		Thread.currentThread().interrupt();
+		try {
+			assertThrows(InterruptedIOException.class, () -> limiter.acquire(100000));
+		} finally {
+			assertTrue(Thread.interrupted());
+		}
+	}
+
+	private static long read(RateLimiter limiter, int size) throws IOException {
+		final long start = System.nanoTime();
+		try (InputStream in = limiter.limit(new ByteArrayInputStream(new byte[size]))) {
+			final byte[] buffer = new byte[65536];
+			long count = 0;
+			for (int read = in.read(buffer); read>=0; read = in.read(buffer)) {
+				count += read;
+			}
+			assertEquals(size, count);
+		}
+		return (System.nanoTime()-start)/1000000;
+	}
+}
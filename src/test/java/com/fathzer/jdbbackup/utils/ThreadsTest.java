@@ -0,0 +1,22 @@
+package com.fathzer.jdbbackup.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.jupiter.api.Test;
+
+class ThreadsTest {
+	@Test
+	void test() throws InterruptedException {
+		final ThreadFactory factory = Threads.newFactory("test-");
+		final Thread t1 = factory.newThread(() -> {});
+		final Thread t2 = factory.newThread(() -> {});
+		assertEquals("test-1", t1.getName());
+		assertEquals("test-2", t2.getName());
+		// Threads never prevent the JVM from exiting
+		assertTrue(t1.isDaemon());
+		t1.start();
+		t1.join();
+	}
+}